@@ -0,0 +1,138 @@
+/*
+ * regain/Thumbnailer - A file search engine providing plenty of formats (Plugin)
+ * Copyright (C) 2011  Come_IN Computerclubs (University of Siegen)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * Contact: Come_IN-Team <come_in-team@listserv.uni-siegen.de>
+ */
+
+package de.uni_siegen.wineme.come_in.thumbnailer;
+
+/**
+ * Which pages of a document get a thumbnail when thumbnails of several pages are generated
+ * (see ThumbnailOptions.setPageSelection()).
+ *
+ * Pages are numbered from 0, like the thumbnail files (see ThumbnailNamer).
+ * Examples: PageSelection.first(6) for a preview strip, PageSelection.range(10, 19), PageSelection.every(5).
+ *
+ * @author Benjamin
+ */
+public final class PageSelection {
+
+	/** All pages (default) */
+	public static final PageSelection ALL = new PageSelection(0, Integer.MAX_VALUE, 1, Integer.MAX_VALUE);
+
+	private final int firstPage;
+	private final int lastPage;
+	private final int step;
+	private final int maxPages;
+
+	/**
+	 * @param firstPage	First page to render
+	 * @param lastPage	Last page to render (inclusive; may be beyond the end of the document)
+	 * @param step		Render every step-th page, starting with firstPage
+	 * @param maxPages	Maximum number of pages to render
+	 */
+	public PageSelection(final int firstPage, final int lastPage, final int step, final int maxPages) {
+		if (firstPage < 0 || lastPage < firstPage) {
+			throw new IllegalArgumentException("Invalid page range " + firstPage + "-" + lastPage);
+		}
+		if (step < 1 || maxPages < 1) {
+			throw new IllegalArgumentException("Step and maximum number of pages must be positive");
+		}
+		this.firstPage = firstPage;
+		this.lastPage = lastPage;
+		this.step = step;
+		this.maxPages = maxPages;
+	}
+
+	/**
+	 * @param count	Number of pages
+	 * @return The first count pages
+	 */
+	public static PageSelection first(final int count) {
+		return new PageSelection(0, Integer.MAX_VALUE, 1, count);
+	}
+
+	/**
+	 * @param firstPage	First page
+	 * @param lastPage	Last page (inclusive)
+	 * @return All pages from firstPage to lastPage
+	 */
+	public static PageSelection range(final int firstPage, final int lastPage) {
+		return new PageSelection(firstPage, lastPage, 1, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @param step	Distance between pages
+	 * @return Pages 0, step, 2*step, ...
+	 */
+	public static PageSelection every(final int step) {
+		return new PageSelection(0, Integer.MAX_VALUE, step, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Get the pages of a document that are selected.
+	 *
+	 * @param pageCount	Number of pages of the document
+	 * @return Page numbers in ascending order (possibly none)
+	 */
+	public int[] getPages(final int pageCount) {
+		final int last = Math.min(this.lastPage, pageCount - 1);
+		if (last < this.firstPage) {
+			return new int[0];
+		}
+		final int count = (int) Math.min(this.maxPages, ((long) last - this.firstPage) / this.step + 1);
+		final int[] pages = new int[count];
+		for (int i = 0; i < count; i++) {
+			pages[i] = this.firstPage + i * this.step;
+		}
+		return pages;
+	}
+
+	/**
+	 * @param page	Page number
+	 * @return True if this page is selected (in a document that is long enough)
+	 */
+	public boolean contains(final int page) {
+		if (page < this.firstPage || page > this.lastPage || (page - this.firstPage) % this.step != 0) {
+			return false;
+		}
+		return (page - this.firstPage) / this.step < this.maxPages;
+	}
+
+	public int getFirstPage() {
+		return this.firstPage;
+	}
+
+	public int getLastPage() {
+		return this.lastPage;
+	}
+
+	public int getStep() {
+		return this.step;
+	}
+
+	public int getMaxPages() {
+		return this.maxPages;
+	}
+
+	@Override
+	public String toString() {
+		return "PageSelection[" + this.firstPage + "-" + (this.lastPage == Integer.MAX_VALUE ? "" : String.valueOf(this.lastPage))
+				+ ", step " + this.step + (this.maxPages == Integer.MAX_VALUE ? "" : ", max " + this.maxPages) + "]";
+	}
+}
@@ -0,0 +1,51 @@
+/*
+ * regain/Thumbnailer - A file search engine providing plenty of formats (Plugin)
+ * Copyright (C) 2011  Come_IN Computerclubs (University of Siegen)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * Contact: Come_IN-Team <come_in-team@listserv.uni-siegen.de>
+ */
+
+package de.uni_siegen.wineme.come_in.thumbnailer;
+
+import java.io.File;
+
+/**
+ * Gets notified about every thumbnail as soon as it has been written, while the thumbnails of
+ * further pages are still being generated (see ThumbnailOptions.setThumbnailListener()).
+ *
+ * Thumbnailers that render pages concurrently call the listener from several threads, so pages
+ * may be reported in any order, apart from the first selected page, which is rendered before all others.
+ * Implementations must be thread-safe and should return quickly.
+ *
+ * All thumbnails of one request are reported by a single thumbnailer. If it fails before reporting
+ * anything, ThumbnailerManager tries the next suitable one; if it fails after some pages have been
+ * reported, no other thumbnailer is tried (so no page is reported twice) and generateThumbnails()
+ * throws an IOException instead.
+ *
+ * @author Benjamin
+ */
+public interface ThumbnailListener {
+
+	/**
+	 * The thumbnail of a page has been written completely.
+	 *
+	 * @param input			File the thumbnail was generated from
+	 * @param pageNumber	Page number, starting with 0 (always 0 for formats without pages)
+	 * @param thumbnail		The thumbnail file
+	 */
+	public void thumbnailWritten(File input, int pageNumber, File thumbnail);
+}
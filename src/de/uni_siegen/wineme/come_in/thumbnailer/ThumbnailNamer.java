@@ -16,11 +16,19 @@ import java.io.File;
 public class ThumbnailNamer {
 
   public static String getName(final File outputFolder, final int pageNumber) {
-    return outputFolder.getName() + "-" + pageNumber + ".png";
+    return getName(outputFolder, pageNumber, "png");
+  }
+
+  public static String getName(final File outputFolder, final int pageNumber, final String extension) {
+    return outputFolder.getName() + "-" + pageNumber + "." + extension;
   }
 
   public static File getFile(final File outputFolder, final int pageNumber) {
     return new File(outputFolder, getName(outputFolder, pageNumber));
   }
 
+  public static File getFile(final File outputFolder, final int pageNumber, final String extension) {
+    return new File(outputFolder, getName(outputFolder, pageNumber, extension));
+  }
+
 }
@@ -0,0 +1,342 @@
+/*
+ * regain/Thumbnailer - A file search engine providing plenty of formats (Plugin)
+ * Copyright (C) 2011  Come_IN Computerclubs (University of Siegen)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * Contact: Come_IN-Team <come_in-team@listserv.uni-siegen.de>
+ */
+
+
+package de.uni_siegen.wineme.come_in.thumbnailer;
+
+import java.awt.image.BufferedImage;
+
+import de.uni_siegen.wineme.come_in.thumbnailer.util.MemoryBudget;
+import de.uni_siegen.wineme.come_in.thumbnailer.util.Resampler;
+import de.uni_siegen.wineme.come_in.thumbnailer.util.codec.ContentAwareEncoder;
+import de.uni_siegen.wineme.come_in.thumbnailer.util.codec.PngEncoder;
+import de.uni_siegen.wineme.come_in.thumbnailer.util.codec.ThumbnailEncoder;
+import de.uni_siegen.wineme.come_in.thumbnailer.util.pdf.DocumentCache;
+import de.uni_siegen.wineme.come_in.thumbnailer.util.pdf.FontCache;
+
+/**
+ * Settings of how thumbnails are generated (apart from their size).
+ *
+ * The ThumbnailerManager passes its options to all registered Thumbnailers.
+ * They can be replaced for a single request by passing another ThumbnailOptions object
+ * to ThumbnailerManager.generateThumbnail() / generateThumbnails().
+ *
+ * @author Benjamin
+ */
+public class ThumbnailOptions {
+
+	/** Default number of threads that render the pages of one document */
+	public static final int DEFAULT_PAGE_RENDER_THREADS = Math.min(4, Runtime.getRuntime().availableProcessors());
+
+	/** Default size from which on documents are loaded with a scratch file (in Bytes) */
+	public static final long DEFAULT_SCRATCH_FILE_THRESHOLD = 64L * 1024 * 1024;
+
+	private ThumbnailEncoder encoder;
+
+	private ContentAwareEncoder contentAwareEncoder;
+
+	private MemoryBudget memoryBudget;
+
+	private long offHeapPixelThreshold = Long.MAX_VALUE;
+
+	private boolean ignoreColorProfile = false;
+
+	private Resampler.Filter resampleFilter;
+
+	private long parallelPixelThreshold = Resampler.DEFAULT_PARALLEL_THRESHOLD;
+
+	private int pageRenderThreads = ThumbnailOptions.DEFAULT_PAGE_RENDER_THREADS;
+
+	private long scratchFileThreshold = ThumbnailOptions.DEFAULT_SCRATCH_FILE_THRESHOLD;
+
+	private PageSelection pageSelection = PageSelection.ALL;
+
+	private ThumbnailListener thumbnailListener;
+
+	private DocumentCache documentCache;
+
+	private FontCache fontCache = FontCache.getShared();
+
+	private boolean draftRendering = false;
+
+	/**
+	 * Default options: PNG output.
+	 */
+	public ThumbnailOptions()
+	{
+		this.encoder = new PngEncoder();
+	}
+
+	/**
+	 * Copy constructor, e.g. in order to change a single setting for one request.
+	 *
+	 * @param other	Options to copy
+	 */
+	public ThumbnailOptions(final ThumbnailOptions other)
+	{
+		this.encoder = other.encoder;
+		this.contentAwareEncoder = other.contentAwareEncoder;
+		this.memoryBudget = other.memoryBudget;
+		this.offHeapPixelThreshold = other.offHeapPixelThreshold;
+		this.ignoreColorProfile = other.ignoreColorProfile;
+		this.resampleFilter = other.resampleFilter;
+		this.parallelPixelThreshold = other.parallelPixelThreshold;
+		this.pageRenderThreads = other.pageRenderThreads;
+		this.scratchFileThreshold = other.scratchFileThreshold;
+		this.pageSelection = other.pageSelection;
+		this.thumbnailListener = other.thumbnailListener;
+		this.documentCache = other.documentCache;
+		this.fontCache = other.fontCache;
+		this.draftRendering = other.draftRendering;
+	}
+
+	public ThumbnailEncoder getEncoder() {
+		return this.encoder;
+	}
+
+	/**
+	 * Set how thumbnails are written.
+	 *
+	 * @param encoder	Encoder to use (may not be null, and has to know its file extension)
+	 */
+	public void setEncoder(final ThumbnailEncoder encoder) {
+		if (encoder == null) {
+			throw new NullPointerException("Encoder may not be null");
+		}
+		if (encoder.getFileExtension() == null) {
+			throw new IllegalArgumentException("Encoder " + encoder.getClass().getName() + " has no file extension");
+		}
+		this.encoder = encoder;
+	}
+
+	public ContentAwareEncoder getContentAwareEncoder() {
+		return this.contentAwareEncoder;
+	}
+
+	/**
+	 * Choose the format by the content of each thumbnail (e.g. PNG for text pages, JPEG for photos).
+	 * This applies where the thumbnailer names the files itself, i.e. to thumbnails written into a folder
+	 * by generateThumbnails(): they are named after the chosen format. Thumbnails written into a given
+	 * output file are still written by getEncoder(), so that their format matches the name.
+	 *
+	 * @param contentAwareEncoder	Encoder to choose the format, or null to always use getEncoder() (default)
+	 */
+	public void setContentAwareEncoder(final ContentAwareEncoder contentAwareEncoder) {
+		this.contentAwareEncoder = contentAwareEncoder;
+	}
+
+	/**
+	 * Get the encoder for a thumbnail that is named after its format (see setContentAwareEncoder()).
+	 *
+	 * @param thumbnail	Finished thumbnail
+	 * @return Encoder to write it with (its extension is the one of the file name)
+	 */
+	public ThumbnailEncoder getEncoder(final BufferedImage thumbnail) {
+		return this.contentAwareEncoder == null ? this.encoder : this.contentAwareEncoder.getEncoder(thumbnail);
+	}
+
+	public MemoryBudget getMemoryBudget() {
+		return this.memoryBudget;
+	}
+
+	/**
+	 * Limit the memory used for decoding input files.
+	 * The same budget object should be shared by all requests that run at the same time.
+	 *
+	 * @param memoryBudget	Budget to admit decoding against, or null for no limit (default)
+	 */
+	public void setMemoryBudget(final MemoryBudget memoryBudget) {
+		this.memoryBudget = memoryBudget;
+	}
+
+	public long getOffHeapPixelThreshold() {
+		return this.offHeapPixelThreshold;
+	}
+
+	/**
+	 * Store intermediate images (decoded input files, rendered pages) with at least this many pixels
+	 * off the Java heap, and free them as soon as the thumbnail is written.
+	 *
+	 * @param offHeapPixelThreshold	Minimum number of pixels, or Long.MAX_VALUE to keep everything on the heap (default)
+	 */
+	public void setOffHeapPixelThreshold(final long offHeapPixelThreshold) {
+		this.offHeapPixelThreshold = offHeapPixelThreshold;
+	}
+
+	public boolean isIgnoreColorProfile() {
+		return this.ignoreColorProfile;
+	}
+
+	/**
+	 * Skip color management for thumbnails: embedded ICC profiles are ignored and CMYK is converted
+	 * with the naive formula. This is faster, but colors may be slightly off.
+	 *
+	 * @param ignoreColorProfile	True to skip color conversions (default: false)
+	 */
+	public void setIgnoreColorProfile(final boolean ignoreColorProfile) {
+		this.ignoreColorProfile = ignoreColorProfile;
+	}
+
+	public Resampler.Filter getResampleFilter() {
+		return this.resampleFilter;
+	}
+
+	/**
+	 * Scale images down with a separable filter instead of Java2D's bilinear interpolation.
+	 * This avoids aliasing (e.g. moiré on text and fine patterns), but takes much longer:
+	 * tens of milliseconds instead of well below one for a photo, depending on the filter.
+	 *
+	 * @param resampleFilter	Filter to use, or null for Java2D (default)
+	 */
+	public void setResampleFilter(final Resampler.Filter resampleFilter) {
+		this.resampleFilter = resampleFilter;
+	}
+
+	public long getParallelPixelThreshold() {
+		return this.parallelPixelThreshold;
+	}
+
+	/**
+	 * Resample images with at least this many pixels on all processors (only with a resample filter).
+	 * Set it to Long.MAX_VALUE if many thumbnails are created at the same time anyway.
+	 *
+	 * @param parallelPixelThreshold	Minimum number of source pixels (default: Resampler.DEFAULT_PARALLEL_THRESHOLD)
+	 */
+	public void setParallelPixelThreshold(final long parallelPixelThreshold) {
+		this.parallelPixelThreshold = parallelPixelThreshold;
+	}
+
+	public int getPageRenderThreads() {
+		return this.pageRenderThreads;
+	}
+
+	/**
+	 * Render the pages of multi-page thumbnails on several threads at once.
+	 * Every additional thread loads its own copy of the document.
+	 *
+	 * @param pageRenderThreads	Maximum number of threads per document, 1 to render on the calling thread only
+	 * 							(default: number of processors, at most 4)
+	 */
+	public void setPageRenderThreads(final int pageRenderThreads) {
+		if (pageRenderThreads < 1) {
+			throw new IllegalArgumentException("At least one thread is needed to render pages");
+		}
+		this.pageRenderThreads = pageRenderThreads;
+	}
+
+	public long getScratchFileThreshold() {
+		return this.scratchFileThreshold;
+	}
+
+	/**
+	 * Load documents (currently PDF files) of at least this size lazily, with their stream data in
+	 * a memory-mapped scratch file instead of on the heap. This keeps the memory usage bounded for huge documents.
+	 *
+	 * @param scratchFileThreshold	File size in Bytes (default: 64 MB), or Long.MAX_VALUE to always load documents into the heap
+	 */
+	public void setScratchFileThreshold(final long scratchFileThreshold) {
+		this.scratchFileThreshold = scratchFileThreshold;
+	}
+
+	public PageSelection getPageSelection() {
+		return this.pageSelection;
+	}
+
+	/**
+	 * Choose which pages get a thumbnail when thumbnails of all pages are requested
+	 * (e.g. ThumbnailerManager.generateThumbnails() with firstPageOnly == false).
+	 * Only thumbnailers for multi-page documents (currently PDF and office documents) take this into account.
+	 *
+	 * @param pageSelection	Pages to render (default: PageSelection.ALL)
+	 */
+	public void setPageSelection(final PageSelection pageSelection) {
+		if (pageSelection == null) {
+			throw new NullPointerException("Page selection may not be null");
+		}
+		this.pageSelection = pageSelection;
+	}
+
+	public ThumbnailListener getThumbnailListener() {
+		return this.thumbnailListener;
+	}
+
+	/**
+	 * Get notified about each thumbnail of generateThumbnails() as soon as it has been written,
+	 * instead of only when all pages are done.
+	 *
+	 * @param thumbnailListener	Listener, or null for none (default)
+	 */
+	public void setThumbnailListener(final ThumbnailListener thumbnailListener) {
+		this.thumbnailListener = thumbnailListener;
+	}
+
+	public DocumentCache getDocumentCache() {
+		return this.documentCache;
+	}
+
+	/**
+	 * Keep parsed documents (currently PDF files) open between requests, so that further thumbnails
+	 * of the same file do not have to parse it again. The same cache should be shared by all requests.
+	 *
+	 * @param documentCache	Cache to use, or null to close documents after each request (default)
+	 */
+	public void setDocumentCache(final DocumentCache documentCache) {
+		this.documentCache = documentCache;
+	}
+
+	public FontCache getFontCache() {
+		return this.fontCache;
+	}
+
+	/**
+	 * Share the fonts of rendered documents (currently PDF files) with all other documents,
+	 * so that a font that is embedded in many documents is only loaded once.
+	 *
+	 * @param fontCache	Cache to use (default: FontCache.getShared()), or null to load the fonts of each document again
+	 */
+	public void setFontCache(final FontCache fontCache) {
+		this.fontCache = fontCache;
+	}
+
+	public boolean isDraftRendering() {
+		return this.draftRendering;
+	}
+
+	/**
+	 * Render documents (currently PDF files) in draft quality: small text becomes gray bars, JPEG images
+	 * are decoded at reduced scale, annotations are skipped and antialiasing is off (see DraftPageDrawer).
+	 * This is a lot faster, and hardly visible on tiny thumbnails.
+	 *
+	 * @param draftRendering	True for draft quality (default: false)
+	 */
+	public void setDraftRendering(final boolean draftRendering) {
+		this.draftRendering = draftRendering;
+	}
+
+	/**
+	 * Get the extension that generated thumbnail files should have.
+	 *
+	 * @return Extension without dot.
+	 */
+	public String getFileExtension() {
+		return this.encoder.getFileExtension();
+	}
+}
@@ -26,14 +26,21 @@ import java.io.File;
 import java.io.IOException;
 import java.util.LinkedList;
 import java.util.Queue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.log4j.Logger;
 
 import de.uni_siegen.wineme.come_in.thumbnailer.thumbnailers.Thumbnailer;
 import de.uni_siegen.wineme.come_in.thumbnailer.util.ChainedHashMap;
 import de.uni_siegen.wineme.come_in.thumbnailer.util.IOUtil;
+import de.uni_siegen.wineme.come_in.thumbnailer.util.MemoryBudget;
+import de.uni_siegen.wineme.come_in.thumbnailer.util.Resampler;
 import de.uni_siegen.wineme.come_in.thumbnailer.util.StringUtil;
+import de.uni_siegen.wineme.come_in.thumbnailer.util.codec.ContentAwareEncoder;
+import de.uni_siegen.wineme.come_in.thumbnailer.util.codec.ThumbnailEncoder;
 import de.uni_siegen.wineme.come_in.thumbnailer.util.mime.MimeTypeDetector;
+import de.uni_siegen.wineme.come_in.thumbnailer.util.pdf.DocumentCache;
+import de.uni_siegen.wineme.come_in.thumbnailer.util.pdf.FontCache;
 
 /**
  * This class manages all available Thumbnailers.
@@ -77,6 +84,11 @@ public class ThumbnailerManager implements ThumbnailerConstants, Closeable {
 	 */
 	private int thumbOptions = 0;
 
+	/**
+	 * @var Options of thumbnails to create (e.g. output encoder), shared with all thumbnailers
+	 */
+	private ThumbnailOptions options = new ThumbnailOptions();
+
 	/** Folder under which new thumbnails should be filed */
 	private File thumbnailFolder;
 
@@ -155,7 +167,7 @@ public class ThumbnailerManager implements ThumbnailerConstants, Closeable {
 				suffix = "-" + StringUtil.randomString(suffix_length);
 			}
 
-			final String name = prefix + hash + suffix + ".png";
+			final String name = prefix + hash + suffix + "." + this.options.getFileExtension();
 			output = new File(this.thumbnailFolder, name);
 
 			tries++;
@@ -274,6 +286,7 @@ public class ThumbnailerManager implements ThumbnailerConstants, Closeable {
 		this.allThumbnailers.add(thumbnailer);
 
 		thumbnailer.setImageSize(this.thumbWidth, this.thumbHeight, this.thumbOptions);
+		thumbnailer.setOptions(this.options);
 	}
 
 	/**
@@ -318,7 +331,23 @@ public class ThumbnailerManager implements ThumbnailerConstants, Closeable {
 	 * 								(i.e., no thumbnailer could generate an Thumbnail.
 	 * 								 The last ThumbnailerException is re-thrown.)
 	 */
-	public void generateThumbnail(final File input, final File output, String mimeType) throws IOException, ThumbnailerException {
+	public void generateThumbnail(final File input, final File output, final String mimeType) throws IOException, ThumbnailerException {
+		this.generateThumbnail(input, output, mimeType, this.options);
+	}
+
+	/**
+	 * Generate a Thumbnail of the input file, using other options than the default ones of this manager.
+	 *
+	 * @param 	input		Input file that should be processed
+	 * @param 	output		File in which should be written
+	 * @param	mimeType	MIME-Type of input file (null if unknown)
+	 * @param	options		Options for this thumbnail only
+	 * @throws 	IOException			If file cannot be read/written.
+	 * @throws ThumbnailerException If the thumbnailing process failed
+	 * 								(i.e., no thumbnailer could generate an Thumbnail.
+	 * 								 The last ThumbnailerException is re-thrown.)
+	 */
+	public void generateThumbnail(final File input, final File output, String mimeType, final ThumbnailOptions options) throws IOException, ThumbnailerException {
 		FileDoesNotExistException.check(input, "The input file");
 		FileDoesNotExistException.checkWrite(output, "The output file", true, false);
 
@@ -332,12 +361,12 @@ public class ThumbnailerManager implements ThumbnailerConstants, Closeable {
 		}
 
 		if (mimeType != null) {
-         generated = this.executeThumbnailers(mimeType, input, output, mimeType, true);
+         generated = this.executeThumbnailers(mimeType, input, output, mimeType, true, options);
       }
 
 		// Try again using wildcard thumbnailers
 		if (!generated) {
-         generated = this.executeThumbnailers(ThumbnailerManager.ALL_MIME_WILDCARD, input, output, mimeType, true);
+         generated = this.executeThumbnailers(ThumbnailerManager.ALL_MIME_WILDCARD, input, output, mimeType, true, options);
       }
 
 		if (!generated) {
@@ -369,7 +398,38 @@ public class ThumbnailerManager implements ThumbnailerConstants, Closeable {
 	   return this.generateThumbnails(input, outputFolder, null, firstPageOnly);
 	}
 
-	public ThumbnailGenerationResult generateThumbnails(final File input, final File outputFolder, String mimeType, final boolean firstPageOnly) throws IOException {
+	public ThumbnailGenerationResult generateThumbnails(final File input, final File outputFolder, final String mimeType, final boolean firstPageOnly) throws IOException {
+	   return this.generateThumbnails(input, outputFolder, mimeType, firstPageOnly, this.options);
+	}
+
+	/**
+	 * Generates thumbnails of all selected pages of the input file, and reports each of them as soon as it has been written
+	 * (so the first page can be shown while the others are still being rendered).
+	 *
+	 * @param input file that should be processed
+	 * @param outputFolder folder where thumbnails should be written to
+	 * @param listener gets notified about each thumbnail (see ThumbnailListener)
+	 * @return result of the generation process
+	 * @throws IOException if a thumbnailer failed after some thumbnails had already been reported
+	 */
+	public ThumbnailGenerationResult generateThumbnails(final File input, final File outputFolder, final ThumbnailListener listener) throws IOException {
+	   final ThumbnailOptions requestOptions = new ThumbnailOptions(this.options);
+	   requestOptions.setThumbnailListener(listener);
+	   return this.generateThumbnails(input, outputFolder, null, false, requestOptions);
+	}
+
+	/**
+	 * Generates thumbnails for the input file, using other options than the default ones of this manager.
+	 *
+	 * @param input file that should be processed
+	 * @param outputFolder folder where thumbnails should be written to
+	 * @param mimeType MIME-Type of input file (null if unknown)
+	 * @param firstPageOnly whether only one thumbnail for the first page should be generated or one for each page
+	 * @param options options for these thumbnails only
+	 * @return result of the generation process
+	 * @throws IOException
+	 */
+	public ThumbnailGenerationResult generateThumbnails(final File input, final File outputFolder, String mimeType, final boolean firstPageOnly, final ThumbnailOptions options) throws IOException {
       FileDoesNotExistException.check(input);
 
       boolean generated = false;
@@ -383,7 +443,7 @@ public class ThumbnailerManager implements ThumbnailerConstants, Closeable {
       File output = null;
       if (firstPageOnly) {
         // we only generate one thumbnail so we have to set the output to its file name
-        output = ThumbnailNamer.getFile(outputFolder, 1);
+        output = ThumbnailNamer.getFile(outputFolder, 1, options.getFileExtension());
       } else {
         // output is a folder for multiple thumbnails
         output = outputFolder;
@@ -394,12 +454,12 @@ public class ThumbnailerManager implements ThumbnailerConstants, Closeable {
         outputFolder.mkdirs();
 
         // execute thumbnailers for this mime type
-         generated = this.executeThumbnailers(mimeType, input, output, mimeType, firstPageOnly);
+         generated = this.executeThumbnailers(mimeType, input, output, mimeType, firstPageOnly, options);
       }
 
       if (!generated) {
         // Try again using wildcard thumbnailers
-         generated = this.executeThumbnailers(ThumbnailerManager.ALL_MIME_WILDCARD, input, output, mimeType, firstPageOnly);
+         generated = this.executeThumbnailers(ThumbnailerManager.ALL_MIME_WILDCARD, input, output, mimeType, firstPageOnly, options);
       }
 
       if (generated) {
@@ -419,6 +479,50 @@ public class ThumbnailerManager implements ThumbnailerConstants, Closeable {
 
 
 
+	/**
+	 * Get the number of pages of the input file, without rendering any thumbnail
+	 * (e.g. in order to choose a PageSelection for generateThumbnails()).
+	 *
+	 * @param input		Input file
+	 * @param mimeType	MIME-Type of input file (null if unknown)
+	 * @return Number of pages, or -1 if no thumbnailer could handle the file
+	 * @throws IOException	If the input file cannot be read
+	 */
+	public int getPageCount(final File input, String mimeType) throws IOException {
+		FileDoesNotExistException.check(input);
+
+		if (mimeType == null) {
+			mimeType = this.mimeTypeDetector.getMimeType(input);
+		}
+		if (mimeType != null) {
+			final int pageCount = this.countPages(mimeType, input, mimeType);
+			if (pageCount >= 0) {
+				return pageCount;
+			}
+		}
+		return this.countPages(ThumbnailerManager.ALL_MIME_WILDCARD, input, mimeType);
+	}
+
+	public int getPageCount(final File input) throws IOException {
+		return this.getPageCount(input, null);
+	}
+
+	/**
+	 * Ask the thumbnailers of a given MimeType for the page count, until one of them succeeds.
+	 *
+	 * @return Number of pages, or -1 if none of the thumbnailers could handle the file
+	 */
+	private int countPages(final String useMimeType, final File input, final String detectedMimeType) throws IOException {
+		for (final Thumbnailer thumbnailer: this.thumbnailers.getIterable(useMimeType)) {
+			try {
+				return thumbnailer.getPageCount(input, detectedMimeType);
+			} catch (final ThumbnailerException e) {
+				ThumbnailerManager.mLog.warn("Warning: " + thumbnailer.getClass().getName() + " could not count the pages of " + input.getName() + " (trying next)", e);
+			}
+		}
+		return -1;
+	}
+
 	/**
 	 * Helper function for Thumbnail generation:
 	 * execute all thumbnailers of a given MimeType.
@@ -429,19 +533,41 @@ public class ThumbnailerManager implements ThumbnailerConstants, Closeable {
 	 * @param output			Output file where the image shall be written.
 	 * @param detectedMimeType	MIME Type that was returned by automatic MIME Detection
 	 * @param firstPageOnly if true, creates a thumbnail for the first page of the input. Otherwise, creates a thumbnail for each page of the input.
+	 * @param options			Options for this request (the registered thumbnailers are left unchanged)
 	 * @return	True on success (1 thumbnailer could generate the output file).
 	 * @throws IOException	Input file cannot be read, or output file cannot be written, or necessary temporary files could not be created.
 	 */
-	private boolean executeThumbnailers(final String useMimeType, final File input, final File output, final String detectedMimeType, final boolean firstPageOnly) throws IOException {
+	private boolean executeThumbnailers(final String useMimeType, final File input, final File output, final String detectedMimeType, final boolean firstPageOnly, final ThumbnailOptions options) throws IOException {
 		for (final Thumbnailer thumbnailer: this.thumbnailers.getIterable(useMimeType)) {
+			final AtomicBoolean reported = new AtomicBoolean(false);
+			final Thumbnailer worker;
+			final ThumbnailListener listener = options.getThumbnailListener();
+			if (listener != null) {
+				// Remember whether this thumbnailer reported anything, so a later failure does not report pages twice
+				final ThumbnailOptions attemptOptions = new ThumbnailOptions(options);
+				attemptOptions.setThumbnailListener(new ThumbnailListener() {
+					public void thumbnailWritten(final File thumbnailInput, final int pageNumber, final File thumbnail) {
+						reported.set(true);
+						listener.thumbnailWritten(thumbnailInput, pageNumber, thumbnail);
+					}
+				});
+				worker = thumbnailer.withOptions(attemptOptions);
+			} else {
+				// Registered thumbnailers are shared by all requests, so per-request options go to a copy
+				worker = options == this.options ? thumbnailer : thumbnailer.withOptions(options);
+			}
 			try {
 			   if (firstPageOnly) {
-			      thumbnailer.generateThumbnail(input, output, detectedMimeType);
+			      worker.generateThumbnail(input, output, detectedMimeType);
 			   } else {
-			      thumbnailer.generateThumbnails(input, output, detectedMimeType);
+			      worker.generateThumbnails(input, output, detectedMimeType);
 			   }
 				return true;
 			} catch (final ThumbnailerException e) {
+				if (reported.get()) {
+					// The listener already got some pages; the next thumbnailer would report (and overwrite) them again
+					throw new IOException(thumbnailer.getClass().getName() + " failed after writing some thumbnails of " + input.getName(), e);
+				}
 				// This Thumbnailer apparently wasn't suitable, so try next
 				ThumbnailerManager.mLog.warn("Warning: " + thumbnailer.getClass().getName() + " could not handle the file " + input.getName() + " (trying next)", e);
 			}
@@ -471,6 +597,143 @@ public class ThumbnailerManager implements ThumbnailerConstants, Closeable {
       }
 	}
 
+	/**
+	 * Set the options of all following thumbnails (e.g. the output encoder).
+	 *
+	 * ThumbnailManager delegates this to all his containing Thumbailers.
+	 *
+	 * @param options	Options to use (may not be null)
+	 */
+	public void setOptions(final ThumbnailOptions options) {
+		if (options == null) {
+			throw new NullPointerException("Options may not be null");
+		}
+		this.options = options;
+
+		for (final Thumbnailer thumbnailer: this.allThumbnailers) {
+			thumbnailer.setOptions(this.options);
+		}
+	}
+
+	/**
+	 * Get the options of this manager.
+	 * Changes to the returned object apply to all following thumbnails.
+	 * @return	options of created thumbnails.
+	 */
+	public ThumbnailOptions getOptions()
+	{
+		return this.options;
+	}
+
+	/**
+	 * Set how all following thumbnails are written (PNG by default).
+	 *
+	 * @param encoder	Encoder to use (may not be null)
+	 */
+	public void setEncoder(final ThumbnailEncoder encoder) {
+		this.options.setEncoder(encoder);
+	}
+
+	/**
+	 * Choose the format of thumbnails in folders by their content (see ThumbnailOptions.setContentAwareEncoder()).
+	 *
+	 * @param contentAwareEncoder	Encoder to choose the format, or null to always use the encoder (default)
+	 */
+	public void setContentAwareEncoder(final ContentAwareEncoder contentAwareEncoder) {
+		this.options.setContentAwareEncoder(contentAwareEncoder);
+	}
+
+	/**
+	 * Limit the memory that all following thumbnails may use for decoding their input files.
+	 * Jobs that do not fit are queued, decoded at a lower resolution or rejected, according to the budget's policy.
+	 *
+	 * @param memoryBudget	Budget shared by all jobs, or null for no limit (default)
+	 */
+	public void setMemoryBudget(final MemoryBudget memoryBudget) {
+		this.options.setMemoryBudget(memoryBudget);
+	}
+
+	/**
+	 * Skip color management when decoding images (see ThumbnailOptions.setIgnoreColorProfile()).
+	 *
+	 * @param ignoreColorProfile	True to skip color conversions
+	 */
+	public void setIgnoreColorProfile(final boolean ignoreColorProfile) {
+		this.options.setIgnoreColorProfile(ignoreColorProfile);
+	}
+
+	/**
+	 * Scale all following thumbnails with a separable filter (see ThumbnailOptions.setResampleFilter()).
+	 *
+	 * @param resampleFilter	Filter to use, or null for Java2D's bilinear interpolation (default)
+	 */
+	public void setResampleFilter(final Resampler.Filter resampleFilter) {
+		this.options.setResampleFilter(resampleFilter);
+	}
+
+	/**
+	 * Resample big images on all processors (see ThumbnailOptions.setParallelPixelThreshold()).
+	 *
+	 * @param parallelPixelThreshold	Minimum number of source pixels, or Long.MAX_VALUE to use one thread per image
+	 */
+	public void setParallelPixelThreshold(final long parallelPixelThreshold) {
+		this.options.setParallelPixelThreshold(parallelPixelThreshold);
+	}
+
+	/**
+	 * Set how many threads may render the pages of one document (see ThumbnailOptions.setPageRenderThreads()).
+	 *
+	 * @param pageRenderThreads	Maximum number of threads per document
+	 */
+	public void setPageRenderThreads(final int pageRenderThreads) {
+		this.options.setPageRenderThreads(pageRenderThreads);
+	}
+
+	/**
+	 * Choose which pages get a thumbnail in generateThumbnails() (see ThumbnailOptions.setPageSelection()).
+	 *
+	 * @param pageSelection	Pages to render
+	 */
+	public void setPageSelection(final PageSelection pageSelection) {
+		this.options.setPageSelection(pageSelection);
+	}
+
+	/**
+	 * Keep parsed documents open between requests (see ThumbnailOptions.setDocumentCache()).
+	 *
+	 * @param documentCache	Cache to use, or null for none
+	 */
+	public void setDocumentCache(final DocumentCache documentCache) {
+		this.options.setDocumentCache(documentCache);
+	}
+
+	/**
+	 * Share fonts between documents (see ThumbnailOptions.setFontCache()).
+	 *
+	 * @param fontCache	Cache to use, or null for none
+	 */
+	public void setFontCache(final FontCache fontCache) {
+		this.options.setFontCache(fontCache);
+	}
+
+	/**
+	 * Render documents in draft quality (see ThumbnailOptions.setDraftRendering()).
+	 *
+	 * @param draftRendering	True for draft quality
+	 */
+	public void setDraftRendering(final boolean draftRendering) {
+		this.options.setDraftRendering(draftRendering);
+	}
+
+	/**
+	 * Set from which file size documents are loaded with a scratch file (see ThumbnailOptions.setScratchFileThreshold()).
+	 *
+	 * @param scratchFileThreshold	File size in Bytes
+	 */
+	public void setScratchFileThreshold(final long scratchFileThreshold) {
+		this.options.setScratchFileThreshold(scratchFileThreshold);
+	}
+
 	/**
 	 * Get the currently set Image Width of this Thumbnailer.
 	 * @return	image width of created thumbnails.
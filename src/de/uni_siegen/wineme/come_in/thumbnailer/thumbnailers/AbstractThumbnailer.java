@@ -24,8 +24,13 @@ package de.uni_siegen.wineme.come_in.thumbnailer.thumbnailers;
 import java.io.File;
 import java.io.IOException;
 
+import org.apache.log4j.Logger;
+
+import de.uni_siegen.wineme.come_in.thumbnailer.ThumbnailListener;
+import de.uni_siegen.wineme.come_in.thumbnailer.ThumbnailOptions;
 import de.uni_siegen.wineme.come_in.thumbnailer.ThumbnailerConstants;
 import de.uni_siegen.wineme.come_in.thumbnailer.ThumbnailerException;
+import de.uni_siegen.wineme.come_in.thumbnailer.util.ResizeImage;
 
 /**
  * This AbstractThumbnailer may be used in order to implement only essential methods.
@@ -36,7 +41,10 @@ import de.uni_siegen.wineme.come_in.thumbnailer.ThumbnailerException;
  *
  * @author Benjamin
  */
-public abstract class AbstractThumbnailer implements Thumbnailer, ThumbnailerConstants {
+public abstract class AbstractThumbnailer implements Thumbnailer, ThumbnailerConstants, Cloneable {
+
+	/** The logger for this class */
+	private static final Logger mLog = Logger.getLogger(AbstractThumbnailer.class);
 
 	/**
 	 * @var Height of thumbnail picture to create (in Pixel)
@@ -53,6 +61,11 @@ public abstract class AbstractThumbnailer implements Thumbnailer, ThumbnailerCon
 	 */
 	protected int imageResizeOptions = 0;
 
+	/**
+	 * @var Options of thumbnails to create (e.g. output encoder)
+	 */
+	protected ThumbnailOptions options = new ThumbnailOptions();
+
 	/**
 	 * @var Keep memory if this thumbnailer was closed before.
 	 */
@@ -81,6 +94,51 @@ public abstract class AbstractThumbnailer implements Thumbnailer, ThumbnailerCon
 		this.imageResizeOptions = imageResizeOptions;
 	}
 
+	/**
+	 * Set the options for all following thumbnails (e.g. the output encoder).
+	 *
+	 * @param options	Options to use (may not be null)
+	 */
+	@Override
+	public void setOptions(final ThumbnailOptions options) {
+		if (options == null) {
+			throw new NullPointerException("Options may not be null");
+		}
+		this.options = options;
+	}
+
+	/**
+	 * Get a shallow copy of this Thumbnailer that uses other options.
+	 * The copy counts as closed, so that finalizing it does not release the resources it shares with this one.
+	 *
+	 * @param options	Options to use (may not be null)
+	 * @return	Thumbnailer using these options
+	 */
+	@Override
+	public Thumbnailer withOptions(final ThumbnailOptions options) {
+		if (options == null) {
+			throw new NullPointerException("Options may not be null");
+		}
+		final AbstractThumbnailer copy;
+		try {
+			copy = (AbstractThumbnailer) this.clone();
+		} catch (final CloneNotSupportedException e) {
+			throw new IllegalStateException(e);
+		}
+		copy.options = options;
+		copy.closed = true;
+		return copy;
+	}
+
+	/**
+	 * Get the currently set options of this Thumbnailer.
+	 * @return	options of created thumbnails.
+	 */
+	@Override
+	public ThumbnailOptions getOptions() {
+		return this.options;
+	}
+
 	/**
 	 * Get the currently set Image Width of this Thumbnailer.
 	 * @return	image width of created thumbnails.
@@ -99,6 +157,73 @@ public abstract class AbstractThumbnailer implements Thumbnailer, ThumbnailerCon
 		return this.thumbHeight;
 	}
 
+	/**
+	 * Get the number of pages of the input file.
+	 * Thumbnailers for formats with several pages need to override this.
+	 *
+	 * @param input		Input file that should be processed
+	 * @param mimeType	MIME-Type of input file (null if unknown)
+	 * @return 1
+	 */
+	@Override
+	public int getPageCount(final File input, final String mimeType) throws IOException, ThumbnailerException {
+		return 1;
+	}
+
+	/**
+	 * Create a ResizeImage for the current thumbnail size and the scaling options.
+	 *
+	 * @return ResizeImage (the caller has to dispose() it)
+	 */
+	protected ResizeImage createResizer() {
+		final ResizeImage resizer = new ResizeImage(this.thumbWidth, this.thumbHeight);
+		resizer.resampleFilter = this.options.getResampleFilter();
+		resizer.parallelPixelThreshold = this.options.getParallelPixelThreshold();
+		return resizer;
+	}
+
+	/**
+	 * Get the options for a thumbnailer that this one delegates to with an intermediate file (e.g. a converted PDF).
+	 * Their listener is told about the original input file instead of the intermediate one.
+	 *
+	 * @param input	Input file that was given to this thumbnailer
+	 * @return Options to set on the delegate
+	 */
+	protected ThumbnailOptions getDelegateOptions(final File input) {
+		final ThumbnailListener listener = this.options.getThumbnailListener();
+		if (listener == null) {
+			return this.options;
+		}
+		final ThumbnailOptions delegateOptions = new ThumbnailOptions(this.options);
+		delegateOptions.setThumbnailListener(new ThumbnailListener() {
+			@Override
+			public void thumbnailWritten(final File intermediate, final int pageNumber, final File thumbnail) {
+				listener.thumbnailWritten(input, pageNumber, thumbnail);
+			}
+		});
+		return delegateOptions;
+	}
+
+	/**
+	 * Tell the listener of the current options (if any) that a thumbnail has been written.
+	 * Failures of the listener are logged, but do not affect the generation of the other thumbnails.
+	 *
+	 * @param input			Input file
+	 * @param pageNumber	Page number, starting with 0
+	 * @param thumbnail		Thumbnail file that has been written
+	 */
+	protected void fireThumbnailWritten(final File input, final int pageNumber, final File thumbnail) {
+		final ThumbnailListener listener = this.options.getThumbnailListener();
+		if (listener == null) {
+			return;
+		}
+		try {
+			listener.thumbnailWritten(input, pageNumber, thumbnail);
+		} catch (final RuntimeException e) {
+			AbstractThumbnailer.mLog.warn("Thumbnail listener failed for page " + pageNumber + " of " + input.getName(), e);
+		}
+	}
+
 	/**
 	 * This function will be called after all Thumbnails are generated.
 	 * Note: This acts as a Deconstructor. Do not expect this object to work
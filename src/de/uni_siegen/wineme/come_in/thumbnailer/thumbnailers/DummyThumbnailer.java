@@ -26,7 +26,6 @@ import de.uni_siegen.wineme.come_in.thumbnailer.ThumbnailerException;
 
 // For example code
 import java.awt.image.BufferedImage;
-import javax.imageio.ImageIO;
 
 /**
  * Example class for new Thumbnailers.
@@ -49,7 +48,7 @@ public class DummyThumbnailer extends AbstractThumbnailer {
 		
 		// For testing purpose, just create an empty image.
 		BufferedImage image = new BufferedImage(thumbWidth, thumbHeight, BufferedImage.TYPE_INT_RGB);
-		ImageIO.write(image, "PNG", output);
+		options.getEncoder().write(image, output);
 	}
 	
 	
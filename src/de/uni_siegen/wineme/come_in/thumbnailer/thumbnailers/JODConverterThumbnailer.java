@@ -32,6 +32,7 @@ import org.artofsolving.jodconverter.office.DefaultOfficeManagerConfiguration;
 import org.artofsolving.jodconverter.office.OfficeException;
 import org.artofsolving.jodconverter.office.OfficeManager;
 
+import de.uni_siegen.wineme.come_in.thumbnailer.ThumbnailOptions;
 import de.uni_siegen.wineme.come_in.thumbnailer.ThumbnailerException;
 import de.uni_siegen.wineme.come_in.thumbnailer.util.IOUtil;
 import de.uni_siegen.wineme.come_in.thumbnailer.util.Platform;
@@ -306,12 +307,22 @@ public abstract class JODConverterThumbnailer extends AbstractThumbnailer {
    @Override
    public void generateThumbnails(final File input, final File outputFolder, final String mimeType) throws IOException, ThumbnailerException {
      final File checkedInput = this.checkExtensionForMimeType(input, mimeType);
-     this.generateThumbnails(checkedInput, outputFolder);
+     this.convertAndGenerateThumbnails(checkedInput, outputFolder, input);
    }
 
 
    @Override
    public void generateThumbnails(final File input, final File outputFolder) throws IOException, ThumbnailerException {
+     this.convertAndGenerateThumbnails(input, outputFolder, input);
+   }
+
+
+   /**
+    * Convert the input into a temporary PDF file and let PDFBoxThumbnailer render its pages.
+    *
+    * @param originalInput	File that the listener is told about (input may be a copy of it with another extension)
+    */
+   private void convertAndGenerateThumbnails(final File input, final File outputFolder, final File originalInput) throws IOException, ThumbnailerException {
      this.checkConnecton();
      File tempPdfFile = null;
      PDFBoxThumbnailer pdfNailer = null;
@@ -320,6 +331,7 @@ public abstract class JODConverterThumbnailer extends AbstractThumbnailer {
         // invoke the converter for PDF files
         pdfNailer = new PDFBoxThumbnailer();
         pdfNailer.setImageSize(this.thumbWidth, this.thumbHeight, this.imageResizeOptions);
+        pdfNailer.setOptions(this.getDelegateOptions(originalInput));
         pdfNailer.generateThumbnails(tempPdfFile, outputFolder);
      } finally {
        if (pdfNailer != null) {
@@ -330,6 +342,23 @@ public abstract class JODConverterThumbnailer extends AbstractThumbnailer {
    }
 
 
+   /**
+    * Get the number of pages. The document is converted into PDF as for generateThumbnails(), but no page is rendered.
+    */
+   @Override
+   public int getPageCount(final File input, final String mimeType) throws IOException, ThumbnailerException {
+     final File checkedInput = this.checkExtensionForMimeType(input, mimeType);
+     this.checkConnecton();
+     File tempPdfFile = null;
+     try {
+        tempPdfFile = this.convertToPdf(checkedInput);
+        return new PDFBoxThumbnailer().getPageCount(tempPdfFile, "application/pdf");
+     } finally {
+        IOUtil.deleteQuietlyForce(tempPdfFile);
+     }
+   }
+
+
   private File checkExtensionForMimeType(File input, final String mimeType) throws IOException {
     final String ext = FilenameUtils.getExtension(input.getName());
     if (!this.mimeTypeDetector.doesExtensionMatchMimeType(ext, mimeType)) {
@@ -359,4 +388,17 @@ public abstract class JODConverterThumbnailer extends AbstractThumbnailer {
       super.setImageSize(thumbWidth, thumbHeight, imageResizeOptions);
       this.ooo_thumbnailer.setImageSize(thumbWidth, thumbHeight, imageResizeOptions);
    }
+
+   @Override
+   public void setOptions(final ThumbnailOptions options) {
+      super.setOptions(options);
+      this.ooo_thumbnailer.setOptions(options);
+   }
+
+   @Override
+   public Thumbnailer withOptions(final ThumbnailOptions options) {
+      final JODConverterThumbnailer copy = (JODConverterThumbnailer) super.withOptions(options);
+      copy.ooo_thumbnailer = (OpenOfficeThumbnailer) this.ooo_thumbnailer.withOptions(options);
+      return copy;
+   }
 }
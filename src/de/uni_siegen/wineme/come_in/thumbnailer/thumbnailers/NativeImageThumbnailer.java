@@ -21,6 +21,7 @@
 
 package de.uni_siegen.wineme.come_in.thumbnailer.thumbnailers;
 
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 
@@ -29,10 +30,12 @@ import javax.imageio.ImageIO;
 import de.uni_siegen.wineme.come_in.thumbnailer.ThumbnailerException;
 import de.uni_siegen.wineme.come_in.thumbnailer.UnsupportedInputFileFormatException;
 import de.uni_siegen.wineme.come_in.thumbnailer.util.ResizeImage;
+import de.uni_siegen.wineme.come_in.thumbnailer.util.codec.ThumbnailEncoder;
 
 /**
  * This class uses Java Image I/O (Java's internal Image Processing library) in order to resize images.
  * JAI can be extended with extra Readers, this Thumbnailer will use all available image readers.
+ * JPEG files are decoded by the built-in JpegDecoder at reduced scale where possible (which is a lot faster).
  *
  * Depends:
  * <li>JAI Image I/O Tools (optional, for TIFF support) (@see http://java.net/projects/imageio-ext/ - licence not gpl compatible I suspect ...)
@@ -40,20 +43,56 @@ import de.uni_siegen.wineme.come_in.thumbnailer.util.ResizeImage;
 public class NativeImageThumbnailer extends AbstractThumbnailer {
 
 	public void generateThumbnail(final File input, final File output) throws IOException, ThumbnailerException {
-		final ResizeImage resizer = new ResizeImage(this.thumbWidth, this.thumbHeight);
+		this.generateThumbnail(input, output, null);
+	}
 
-		try {
-			resizer.setInputImage(input);
-		} catch (final UnsupportedInputFileFormatException e) {
-			throw new ThumbnailerException("File format could not be interpreted as image", e);
-		}
-		resizer.writeOutput(output);
+	/**
+	 * Generate a Thumbnail of the input file. If the MIME type is known, the image reader for it is
+	 * reused from earlier images (see ImageReaderPool).
+	 */
+	@Override
+	public void generateThumbnail(final File input, final File output, final String mimeType) throws IOException, ThumbnailerException {
+		this.writeThumbnail(input, mimeType, output, null);
 	}
 
 	@Override
 	public void generateThumbnails(final File input, final File outputFolder) throws IOException, ThumbnailerException {
-	   final File output = new File(outputFolder, outputFolder.getName() + ".png");
-    this.generateThumbnail(input, output);
+		this.generateThumbnails(input, outputFolder, null);
+	}
+
+	@Override
+	public void generateThumbnails(final File input, final File outputFolder, final String mimeType) throws IOException, ThumbnailerException {
+		final File output = this.writeThumbnail(input, mimeType, null, outputFolder);
+		this.fireThumbnailWritten(input, 0, output);
+	}
+
+	/**
+	 * Resize the image and write it into output, or into outputFolder (named after the folder and the format).
+	 *
+	 * @return The written file
+	 */
+	private File writeThumbnail(final File input, final String mimeType, final File output, final File outputFolder) throws IOException, ThumbnailerException {
+		final ResizeImage resizer = this.createResizer();
+		resizer.mimeType = mimeType;
+		resizer.memoryBudget = this.options.getMemoryBudget();
+		resizer.offHeapPixelThreshold = this.options.getOffHeapPixelThreshold();
+		resizer.ignoreColorProfile = this.options.isIgnoreColorProfile();
+		resizer.preferJpegDecoder = true;
+
+		try {
+			try {
+				resizer.setInputImage(input);
+			} catch (final UnsupportedInputFileFormatException e) {
+				throw new ThumbnailerException("File format could not be interpreted as image", e);
+			}
+			final BufferedImage thumbnail = resizer.getOutputImage();
+			final ThumbnailEncoder encoder = output == null ? this.options.getEncoder(thumbnail) : this.options.getEncoder();
+			final File file = output == null ? new File(outputFolder, outputFolder.getName() + "." + encoder.getFileExtension()) : output;
+			encoder.write(thumbnail, file);
+			return file;
+		} finally {
+			resizer.dispose();
+		}
 	}
 
     /**
@@ -65,9 +65,9 @@ public class OpenOfficeThumbnailer extends AbstractThumbnailer {
 
 			in = new BufferedInputStream(zipFile.getInputStream(entry));
 
-			final ResizeImage resizer = new ResizeImage(this.thumbWidth, this.thumbHeight);
+			final ResizeImage resizer = this.createResizer();
 			resizer.setInputImage(in);
-			resizer.writeOutput(output);
+			resizer.writeOutput(output, this.options.getEncoder());
 
 			in.close();
 		}
@@ -112,6 +112,7 @@ public class OpenOfficeThumbnailer extends AbstractThumbnailer {
        // invoke the converter for PDF files
        pdfNailer = new PDFBoxThumbnailer();
        pdfNailer.setImageSize(this.thumbWidth, this.thumbHeight, this.imageResizeOptions);
+       pdfNailer.setOptions(this.getDelegateOptions(input));
        pdfNailer.generateThumbnails(tempPdfFile, outputFolder);
     } finally {
       if (pdfNailer != null) {
@@ -121,6 +122,21 @@ public class OpenOfficeThumbnailer extends AbstractThumbnailer {
     }
 	}
 
+	/**
+	 * Get the number of pages. The document is converted into PDF as for generateThumbnails(), but no page is rendered.
+	 */
+	@Override
+	public int getPageCount(final File input, final String mimeType) throws IOException, ThumbnailerException {
+	  JODConverterThumbnailer.connect();
+	  File tempPdfFile = null;
+	  try {
+	    tempPdfFile = this.convertToPdf(input);
+	    return new PDFBoxThumbnailer().getPageCount(tempPdfFile, "application/pdf");
+	  } finally {
+	    IOUtil.deleteQuietlyForce(tempPdfFile);
+	  }
+	}
+
 	/**
     * Get a List of accepted File Types.
     * All OpenOffice Formats are accepted.
@@ -28,11 +28,19 @@ import java.awt.image.BufferedImage;
 import java.awt.image.ImagingOpException;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
-
-import javax.imageio.ImageIO;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.log4j.Logger;
 import org.apache.pdfbox.pdfviewer.PageDrawer;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
@@ -40,10 +48,25 @@ import org.apache.pdfbox.pdmodel.common.PDRectangle;
 
 import de.uni_siegen.wineme.come_in.thumbnailer.ThumbnailNamer;
 import de.uni_siegen.wineme.come_in.thumbnailer.ThumbnailerException;
+import de.uni_siegen.wineme.come_in.thumbnailer.util.MemoryBudget;
+import de.uni_siegen.wineme.come_in.thumbnailer.util.OffHeapImage;
+import de.uni_siegen.wineme.come_in.thumbnailer.util.RasterPool;
 import de.uni_siegen.wineme.come_in.thumbnailer.util.ResizeImage;
+import de.uni_siegen.wineme.come_in.thumbnailer.util.codec.ThumbnailEncoder;
+import de.uni_siegen.wineme.come_in.thumbnailer.util.pdf.DocumentCache;
+import de.uni_siegen.wineme.come_in.thumbnailer.util.pdf.DraftPageDrawer;
+import de.uni_siegen.wineme.come_in.thumbnailer.util.pdf.FontCache;
+import de.uni_siegen.wineme.come_in.thumbnailer.util.pdf.LazyPageParser;
+import de.uni_siegen.wineme.come_in.thumbnailer.util.pdf.MappedRandomAccess;
+import de.uni_siegen.wineme.come_in.thumbnailer.util.pdf.SharedFontPageDrawer;
 
 /**
- * Renders the first page of a PDF file into a thumbnail.
+ * Renders the first page of a PDF file into a thumbnail. Only the objects that this page needs are parsed (see LazyPageParser).
+ * generateThumbnails() renders all selected pages (see ThumbnailOptions.setPageSelection()),
+ * on several threads at once (see ThumbnailOptions.setPageRenderThreads()).
+ * Parsed documents can be kept for further requests (see ThumbnailOptions.setDocumentCache()),
+ * fonts are shared between all documents (see ThumbnailOptions.setFontCache()).
+ * For tiny thumbnails, pages can be rendered in draft quality (see ThumbnailOptions.setDraftRendering()).
  *
  * Performance note: This takes about 2-3 seconds per file.
  * (TODO : Try to override PDPage.convertToImage - this is where the heavy lifting takes place)
@@ -53,46 +76,167 @@ import de.uni_siegen.wineme.come_in.thumbnailer.util.ResizeImage;
  */
 public class PDFBoxThumbnailer extends AbstractThumbnailer {
 
-	private static final String OUTPUT_FORMAT = "PNG";
    private static final Color TRANSPARENT_WHITE = new Color(255, 255, 255, 0);
 
+   /** PDFBox keeps the whole object tree in memory, which takes a few times the file size */
+   private static final int DOCUMENT_MEMORY_FACTOR = 3;
+
+   /** With a scratch file, only the object tree of the pages that are rendered is on the heap */
+   private static final long SCRATCH_DOCUMENT_MEMORY = 32L * 1024 * 1024;
+
+   /** The logger for this class */
+   private static final Logger mLog = Logger.getLogger(PDFBoxThumbnailer.class);
+
+   /** Threads that render pages of multi-page thumbnails, shared by all instances */
+   private static ExecutorService pool;
+
 	@Override
 	public void generateThumbnail(final File input, final File output) throws IOException, ThumbnailerException {
 
 		FileUtils.deleteQuietly(output);
 
-		PDDocument document = null;
+		final DocumentCache.Key key = this.getCacheKey(input);
+		final MemoryBudget.Grant grant = this.admitDocument(input);
+		PDDocument document = this.takeCachedDocument(key);
+		// A document that only contains the first page must not be cached
+		boolean complete = document != null;
+		boolean success = false;
 		try {
-			try {
-				document = PDDocument.load(input);
-			} catch (final IOException e) {
-				throw new ThumbnailerException("Could not load PDF File", e);
-			}
-
-			final List<?> pages = document.getDocumentCatalog().getAllPages();
-	      final PDPage page = (PDPage)pages.get(0);
-			final BufferedImage tmpImage = this.writeImageForPage(document, page, BufferedImage.TYPE_INT_RGB);
-
-			if (tmpImage.getWidth() == this.thumbWidth) {
-				ImageIO.write(tmpImage, PDFBoxThumbnailer.OUTPUT_FORMAT, output);
+			PDPage page;
+			if (document != null) {
+				page = (PDPage) document.getDocumentCatalog().getAllPages().get(0);
 			} else {
-				final ResizeImage resizer = new ResizeImage(this.thumbWidth, this.thumbHeight);
-				resizer.resizeMethod = ResizeImage.NO_RESIZE_ONLY_CROP;
-				resizer.setInputImage(tmpImage);
-				resizer.writeOutput(output);
+				try {
+					// Only parse what is needed for the first page
+					final LazyPageParser parser = this.createPageParser(input);
+					page = parser.parsePage(0);
+					document = parser.getPDDocument();
+				} catch (final IOException e) {
+					PDFBoxThumbnailer.mLog.info("Could not parse the first page of " + input.getName() + " lazily, loading the whole document", e);
+					try {
+						document = this.loadDocument(input);
+					} catch (final IOException e2) {
+						throw new ThumbnailerException("Could not load PDF File", e2);
+					}
+					complete = true;
+					page = (PDPage) document.getDocumentCatalog().getAllPages().get(0);
+				}
 			}
+			this.writePage(document, page, output, ResizeImage.NO_RESIZE_ONLY_CROP);
+			success = true;
 		}
 
 		finally {
-			if( document != null )
-			{
-				try {
-					document.close();
-				} catch (final IOException e)  {}
+			this.returnDocument(key, input, document, complete && success);
+			if (grant != null) {
+				grant.release();
 			}
 		}
 	}
 
+	/**
+	 * Reserve memory for loading the document and rendering its pages, if there is a memory budget.
+	 * The rendering raster has thumbnail size, so the estimate is dominated by the parsed document.
+	 *
+	 * @return The reservation, or null if memory is not limited.
+	 */
+	private MemoryBudget.Grant admitDocument(final File input) throws IOException {
+		final MemoryBudget budget = this.options.getMemoryBudget();
+		if (budget == null) {
+			return null;
+		}
+		return budget.acquire(this.estimateDocument(input), false);
+	}
+
+	private long estimateDocument(final File input) {
+		return this.estimateParsedDocument(input) + MemoryBudget.estimateRaster(this.thumbWidth, this.thumbHeight);
+	}
+
+	private long estimateParsedDocument(final File input) {
+		return this.useScratchFile(input) ? PDFBoxThumbnailer.SCRATCH_DOCUMENT_MEMORY
+				: input.length() * PDFBoxThumbnailer.DOCUMENT_MEMORY_FACTOR;
+	}
+
+	/**
+	 * @return The key of the input file in the document cache, or null if there is no cache
+	 */
+	private DocumentCache.Key getCacheKey(final File input) throws IOException {
+		return this.options.getDocumentCache() == null ? null : DocumentCache.Key.of(input);
+	}
+
+	/**
+	 * @return A completely parsed document from the document cache, or null if there is none
+	 */
+	private PDDocument takeCachedDocument(final DocumentCache.Key key) {
+		final DocumentCache cache = this.options.getDocumentCache();
+		return key == null || cache == null ? null : cache.acquire(key);
+	}
+
+	/**
+	 * Hand a document back to the document cache, or close it if there is no cache or the document may not be
+	 * in a consistent state (it is not complete, or rendering failed).
+	 */
+	private void returnDocument(final DocumentCache.Key key, final File input, final PDDocument document, final boolean reusable) {
+		if (document == null) {
+			return;
+		}
+		final DocumentCache cache = this.options.getDocumentCache();
+		if (key != null && cache != null && reusable) {
+			cache.release(key, document, this.estimateParsedDocument(input));
+			return;
+		}
+		try {
+			document.close();
+		} catch (final IOException e) {
+			// swallow exception on closing.
+		}
+	}
+
+	private boolean useScratchFile(final File input) {
+		return input.length() >= this.options.getScratchFileThreshold();
+	}
+
+	/**
+	 * Create a parser for a single page, with a scratch file for big documents (see ThumbnailOptions.setScratchFileThreshold()).
+	 * The caller has to close the document of the parser.
+	 */
+	private LazyPageParser createPageParser(final File input) throws IOException {
+		final MappedRandomAccess scratch = this.useScratchFile(input) ? new MappedRandomAccess() : null;
+		try {
+			return new LazyPageParser(input, scratch);
+		} catch (final IOException e) {
+			if (scratch != null) {
+				scratch.close();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Load a document. Big documents are parsed lazily (only the objects that are needed), and
+	 * keep their stream data in a memory-mapped scratch file instead of on the heap.
+	 */
+	private PDDocument loadDocument(final File input) throws IOException {
+		if (!this.useScratchFile(input)) {
+			return PDDocument.load(input);
+		}
+
+		MappedRandomAccess scratch = new MappedRandomAccess();
+		try {
+			return PDDocument.loadNonSeq(input, scratch);
+		} catch (final IOException e) {
+			scratch.close();
+			PDFBoxThumbnailer.mLog.info("Could not parse " + input.getName() + " lazily, parsing it as a whole", e);
+		}
+		scratch = new MappedRandomAccess();
+		try {
+			return PDDocument.load(input, scratch);
+		} catch (final IOException e) {
+			scratch.close();
+			throw e;
+		}
+	}
+
 	/**
 	 * Loosely based on the commandline-Tool PDFImageWriter
 	 * @param document
@@ -118,36 +262,68 @@ public class PDFBoxThumbnailer extends AbstractThumbnailer {
     }
 
 
-    @SuppressWarnings("unchecked")
     @Override
     public void generateThumbnails(final File input, final File outputFolder) throws IOException, ThumbnailerException {
-       PDDocument document = null;
+       final DocumentCache.Key key = this.getCacheKey(input);
+       final MemoryBudget.Grant grant = this.admitDocument(input);
+       PDDocument document = this.takeCachedDocument(key);
+       boolean success = false;
        try {
-          try {
-             document = PDDocument.load(input);
-          } catch (final IOException e) {
-             throw new ThumbnailerException("Could not load PDF File", e);
+          // The first page does not have to wait until the whole document has been parsed (unless it is cached)
+          final boolean firstPageWritten = document == null && this.writeFirstPage(input, outputFolder);
+
+          if (document == null) {
+             try {
+                document = this.loadDocument(input);
+             } catch (final IOException e) {
+                throw new ThumbnailerException("Could not load PDF File", e);
+             }
           }
 
-          final List<PDPage> allPages = document.getDocumentCatalog().getAllPages();
-          int pageNumber = 0;
-          for (final PDPage page : allPages) {
-             final BufferedImage image = this.writeImageForPage(document, page, BufferedImage.TYPE_INT_RGB);
+          // Pages are handed out one by one to this thread and to helpers with their own PDDocument (which is not thread-safe).
+          final int[] pages = this.options.getPageSelection().getPages(document.getDocumentCatalog().getAllPages().size());
+          final AtomicInteger nextPage = new AtomicInteger(firstPageWritten && pages.length > 0 ? 1 : 0);
+          final List<PageHelper> helpers = this.startHelpers(input, key, outputFolder, pages, nextPage);
+          final IOException helperFailure;
+          try {
+             this.renderPages(input, document, outputFolder, pages, nextPage);
+          } finally {
+             nextPage.set(pages.length);
+             helperFailure = PDFBoxThumbnailer.awaitHelpers(helpers);
+          }
+          if (helperFailure != null) {
+             throw helperFailure;
+          }
+          success = true;
 
-             final File outputFile = ThumbnailNamer.getFile(outputFolder, pageNumber);
+       } finally {
+          this.returnDocument(key, input, document, success);
+          if (grant != null) {
+             grant.release();
+          }
+       }
 
-             if (image.getWidth() == this.thumbWidth) {
-                ImageIO.write(image, PDFBoxThumbnailer.OUTPUT_FORMAT, outputFile);
-             } else {
-                final ResizeImage resizer = new ResizeImage(this.thumbWidth, this.thumbHeight);
-                resizer.resizeMethod = ResizeImage.RESIZE_FIT_BOTH_DIMENSIONS;
-                resizer.setInputImage(image);
-                resizer.writeOutput(outputFile);
-             }
+    }
 
-             pageNumber++;
-          }
+    /**
+     * Render the first selected page with a document that contains nothing but this page (see LazyPageParser).
+     *
+     * @return True if the thumbnail has been written, false if the page has to be rendered with the whole document
+     */
+    private boolean writeFirstPage(final File input, final File outputFolder) {
+       final int pageNumber = this.options.getPageSelection().getFirstPage();
+       PDDocument document = null;
+       try {
+          final LazyPageParser parser = this.createPageParser(input);
+          final PDPage page = parser.parsePage(pageNumber);
+          document = parser.getPDDocument();
 
+          final File outputFile = this.writePageToFolder(document, page, outputFolder, pageNumber);
+          this.fireThumbnailWritten(input, pageNumber, outputFile);
+          return true;
+       } catch (final IOException e) {
+          PDFBoxThumbnailer.mLog.debug("Could not parse page " + pageNumber + " of " + input.getName() + " on its own", e);
+          return false;
        } finally {
           if (document != null) {
              try {
@@ -157,10 +333,211 @@ public class PDFBoxThumbnailer extends AbstractThumbnailer {
              }
           }
        }
+    }
+
+    /**
+     * Render pages and write their thumbnails, until nextPage has passed the last selected page.
+     * The thumbnail of each page is named after its page number, regardless of the thread that renders it.
+     *
+     * @param pages		Page numbers to render
+     * @param nextPage	Index of the next entry of pages to render
+     */
+    @SuppressWarnings("unchecked")
+    private void renderPages(final File input, final PDDocument document, final File outputFolder, final int[] pages, final AtomicInteger nextPage) throws IOException {
+       final List<PDPage> allPages = document.getDocumentCatalog().getAllPages();
+       for (int index = nextPage.getAndIncrement(); index < pages.length; index = nextPage.getAndIncrement()) {
+          final int pageNumber = pages[index];
+          final File outputFile = this.writePageToFolder(document, allPages.get(pageNumber), outputFolder, pageNumber);
+          this.fireThumbnailWritten(input, pageNumber, outputFile);
+       }
+    }
+
+    /**
+     * Render a page and write its thumbnail into outputFile.
+     */
+    private void writePage(final PDDocument document, final PDPage page, final File outputFile, final int resizeMethod) throws IOException {
+       this.writePage(document, page, outputFile, null, 0, resizeMethod);
+    }
+
+    /**
+     * Render a page and write its thumbnail into the output folder, named after the page number and the format.
+     *
+     * @return The written file
+     */
+    private File writePageToFolder(final PDDocument document, final PDPage page, final File outputFolder, final int pageNumber) throws IOException {
+       return this.writePage(document, page, null, outputFolder, pageNumber, ResizeImage.RESIZE_FIT_BOTH_DIMENSIONS);
+    }
+
+    /**
+     * Render a page and write its thumbnail, either into outputFile or (if that is null) into outputFolder.
+     */
+    private File writePage(final PDDocument document, final PDPage page, final File outputFile, final File outputFolder,
+          final int pageNumber, final int resizeMethod) throws IOException {
+       final BufferedImage image = this.writeImageForPage(document, page, BufferedImage.TYPE_INT_RGB);
+       ResizeImage resizer = null;
+       try {
+          BufferedImage thumbnail = image;
+          if (image.getWidth() != this.thumbWidth) {
+             resizer = this.createResizer();
+             resizer.resizeMethod = resizeMethod;
+             resizer.setInputImage(image);
+             thumbnail = resizer.getOutputImage();
+          }
+          final ThumbnailEncoder encoder = outputFile == null ? this.options.getEncoder(thumbnail) : this.options.getEncoder();
+          final File file = outputFile == null ? ThumbnailNamer.getFile(outputFolder, pageNumber, encoder.getFileExtension()) : outputFile;
+          encoder.write(thumbnail, file);
+          return file;
+       } finally {
+          if (resizer != null) {
+             resizer.dispose();
+          }
+          // The next page has the same size, so it will reuse this raster.
+          PDFBoxThumbnailer.releaseRaster(image);
+       }
+    }
+
+    /**
+     * Get the number of pages from the page tree, without parsing the pages themselves.
+     */
+    @Override
+    public int getPageCount(final File input, final String mimeType) throws IOException, ThumbnailerException {
+       try {
+          return new LazyPageParser(input, null).parsePageCount();
+       } catch (final IOException e) {
+          throw new ThumbnailerException("Could not load PDF File", e);
+       }
+    }
+
+    /**
+     * Start helpers that render pages concurrently (see ThumbnailOptions.setPageRenderThreads()).
+     * Each helper loads its own copy of the document. Helpers never wait for the memory budget:
+     * a helper that finds no room for its copy does nothing, and the others render its pages.
+     *
+     * @return The started helpers (possibly none)
+     */
+    private List<PageHelper> startHelpers(final File input, final DocumentCache.Key key, final File outputFolder, final int[] pages, final AtomicInteger nextPage) {
+       final List<PageHelper> helpers = new ArrayList<PageHelper>();
+       final int count = Math.min(this.options.getPageRenderThreads(), pages.length) - 1;
+       for (int i = 0; i < count; i++) {
+          final PageHelper helper = new PageHelper(input, key, outputFolder, pages, nextPage);
+          helper.future = PDFBoxThumbnailer.getPool().submit(helper);
+          helpers.add(helper);
+       }
+       return helpers;
+    }
+
+    /**
+     * Wait for all helpers that have started, and keep the others from starting (there is nothing left to do for them).
+     *
+     * @return The first failure of a helper, or null if all pages they took have been rendered
+     */
+    private static IOException awaitHelpers(final List<PageHelper> helpers) {
+       IOException failure = null;
+       boolean interrupted = false;
+       for (final PageHelper helper : helpers) {
+          if (helper.started.compareAndSet(false, true)) {
+             helper.future.cancel(false);
+             continue;
+          }
+          while (true) {
+             try {
+                helper.future.get();
+                break;
+             } catch (final InterruptedException e) {
+                interrupted = true;
+             } catch (final ExecutionException e) {
+                if (failure == null) {
+                   failure = e.getCause() instanceof IOException ? (IOException) e.getCause()
+                         : new IOException("Rendering a page failed", e.getCause());
+                }
+                break;
+             }
+          }
+       }
+       if (interrupted) {
+          Thread.currentThread().interrupt();
+       }
+       return failure;
+    }
 
+    /**
+     * Renders pages with its own copy of the document (from the document cache, if possible).
+     */
+    private final class PageHelper implements Callable<Void> {
+
+       private final File input;
+       private final DocumentCache.Key key;
+       private final File outputFolder;
+       private final int[] pages;
+       private final AtomicInteger nextPage;
+       /** Set by the helper when it starts, or by awaitHelpers() to keep it from starting */
+       final AtomicBoolean started = new AtomicBoolean(false);
+       Future<Void> future;
+
+       PageHelper(final File input, final DocumentCache.Key key, final File outputFolder, final int[] pages, final AtomicInteger nextPage) {
+          this.input = input;
+          this.key = key;
+          this.outputFolder = outputFolder;
+          this.pages = pages;
+          this.nextPage = nextPage;
+       }
+
+       public Void call() throws IOException {
+          if (!this.started.compareAndSet(false, true) || this.nextPage.get() >= this.pages.length) {
+             return null;
+          }
+          final MemoryBudget budget = PDFBoxThumbnailer.this.options.getMemoryBudget();
+          MemoryBudget.Grant grant = null;
+          PDDocument document = null;
+          boolean success = false;
+          try {
+             if (budget != null) {
+                grant = budget.tryAcquire(PDFBoxThumbnailer.this.estimateDocument(this.input));
+                if (grant == null) {
+                   PDFBoxThumbnailer.mLog.debug("Memory budget leaves no room for a page render helper");
+                   return null;
+                }
+             }
+             // The other threads may have rendered all pages in the meantime
+             if (this.nextPage.get() >= this.pages.length) {
+                return null;
+             }
+             try {
+                document = PDFBoxThumbnailer.this.takeCachedDocument(this.key);
+                if (document == null) {
+                   document = PDFBoxThumbnailer.this.loadDocument(this.input);
+                }
+             } catch (final IOException e) {
+                // No page has been taken yet, the others will render them
+                PDFBoxThumbnailer.mLog.info("Page render helper could not load " + this.input.getName(), e);
+                return null;
+             }
+             PDFBoxThumbnailer.this.renderPages(this.input, document, this.outputFolder, this.pages, this.nextPage);
+             success = true;
+             return null;
+          } finally {
+             PDFBoxThumbnailer.this.returnDocument(this.key, this.input, document, success);
+             if (grant != null) {
+                grant.release();
+             }
+          }
+       }
     }
 
+    private static synchronized ExecutorService getPool() {
+       if (PDFBoxThumbnailer.pool == null) {
+          PDFBoxThumbnailer.pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+             private final AtomicInteger count = new AtomicInteger(0);
 
+             public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, "PDF page renderer " + this.count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+             }
+          });
+       }
+       return PDFBoxThumbnailer.pool;
+    }
 
 
     /*     */   private BufferedImage convertToImage(final PDPage page, final int imageType, final int thumbWidth, final int thumbHeight)
@@ -175,17 +552,24 @@ public class PDFBoxThumbnailer extends AbstractThumbnailer {
     /*     */
     /* 714 */     final Dimension pageDimension = new Dimension((int) widthPt, (int) heightPt);
     /*     */
-    /* 716 */     final BufferedImage retval = new BufferedImage(widthPx, heightPx, imageType);
+    /* 716 */     final BufferedImage retval = this.acquireRaster(widthPx, heightPx, imageType);
     /* 717 */     final Graphics2D graphics = (Graphics2D)retval.getGraphics();
     /* 718 */     graphics.setBackground(PDFBoxThumbnailer.TRANSPARENT_WHITE);
     /* 719 */     graphics.clearRect(0, 0, retval.getWidth(), retval.getHeight());
     /* 720 */     graphics.scale(scaling, scaling);
-    /* 721 */     final PageDrawer drawer = new PageDrawer();
+    /* 721 */     final FontCache fontCache = this.options.getFontCache();
+    /*     */     final PageDrawer drawer;
+    /*     */     if (this.options.isDraftRendering()) {
+    /*     */       drawer = new DraftPageDrawer(fontCache);
+    /*     */     } else {
+    /*     */       drawer = fontCache == null ? new PageDrawer() : new SharedFontPageDrawer(fontCache);
+    /*     */     }
     /* 722 */     drawer.drawPage(graphics, page, pageDimension);
+    /*     */     graphics.dispose();
     /*     */     try
     /*     */     {
     /* 728 */       final int rotation = page.findRotation();
-    /* 729 */       if (rotation == 90 || rotation == 270)
+    /* 729 */       if ((rotation == 90 || rotation == 270) && retval.getType() != BufferedImage.TYPE_CUSTOM)
     /*     */       {
     /* 731 */         final int w = retval.getWidth();
     /* 732 */         final int h = retval.getHeight();
@@ -203,6 +587,28 @@ public class PDFBoxThumbnailer extends AbstractThumbnailer {
     /* 744 */     return retval;
     /*     */   }
 
+    /**
+     * Get a raster to render a page into: off-heap if it is big (see ThumbnailOptions.setOffHeapPixelThreshold()),
+     * otherwise from the RasterPool.
+     */
+    private BufferedImage acquireRaster(final int width, final int height, final int imageType) {
+       if ((long) width * height >= this.options.getOffHeapPixelThreshold()) {
+          final BufferedImage image = OffHeapImage.create(width, height, imageType == BufferedImage.TYPE_INT_ARGB);
+          if (image != null) {
+             return image;
+          }
+       }
+       return RasterPool.acquire(width, height, imageType);
+    }
+
+    private static void releaseRaster(final BufferedImage image) {
+       if (OffHeapImage.isOffHeap(image)) {
+          OffHeapImage.release(image);
+       } else {
+          RasterPool.release(image);
+       }
+    }
+
     /**
      * Get a List of accepted File Types.
      * Only PDF Files are accepted.
@@ -84,9 +84,9 @@ public class ScratchThumbnailer extends AbstractThumbnailer {
 			debugOutputObjects(reader.readObjects(null));
 			*/
 
-			final ResizeImage imageResizer = new ResizeImage(this.thumbWidth, this.thumbHeight);
+			final ResizeImage imageResizer = this.createResizer();
 			imageResizer.setInputImage(image);
-			imageResizer.writeOutput(output);
+			imageResizer.writeOutput(output, this.options.getEncoder());
 		} finally {
 			IOUtil.quietlyClose(in);
 		}
@@ -25,6 +25,7 @@ import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 
+import de.uni_siegen.wineme.come_in.thumbnailer.ThumbnailOptions;
 import de.uni_siegen.wineme.come_in.thumbnailer.ThumbnailerException;
 
 /**
@@ -55,7 +56,7 @@ public interface Thumbnailer extends Closeable {
 	public void generateThumbnail(File input, File output) throws IOException, ThumbnailerException;
 
 	/**
-	 *  Generates thumbnails of all pages of the input file.
+	 *  Generates thumbnails of all pages of the input file (or of the pages selected by ThumbnailOptions.setPageSelection()).
     *
     * @param input the file to be processed
     * @param outputFolder folder where thumbnails should be written to
@@ -66,7 +67,7 @@ public interface Thumbnailer extends Closeable {
 	public void generateThumbnails(File input, File outputFolder, String mimeType) throws IOException, ThumbnailerException;
 
 	/**
-	 * Generates thumbnails of all pages of the input file.
+	 * Generates thumbnails of all pages of the input file (or of the pages selected by ThumbnailOptions.setPageSelection()).
 	 *
 	 * @param input the file to be processed
 	 * @param outputFolder folder where thumbnails should be written to
@@ -75,6 +76,18 @@ public interface Thumbnailer extends Closeable {
 	 */
 	public void generateThumbnails(File input, File outputFolder) throws IOException, ThumbnailerException;
 
+	/**
+	 * Get the number of pages of the input file, without rendering any of them.
+	 * generateThumbnails() creates thumbnails for the pages of the current PageSelection among them.
+	 *
+	 * @param input		Input file that should be processed
+	 * @param mimeType	MIME-Type of input file (null if unknown)
+	 * @return Number of pages (1 for formats without pages)
+	 * @throws IOException			If file cannot be read
+	 * @throws ThumbnailerException If this thumbnailer cannot handle the file.
+	 */
+	public int getPageCount(File input, String mimeType) throws IOException, ThumbnailerException;
+
 	/**
 	 * This function will be called after all Thumbnails are generated.
 	 * Note: This acts as a Deconstructor. Do not expect this object to work
@@ -94,6 +107,29 @@ public interface Thumbnailer extends Closeable {
 	 */
 	public void setImageSize(int width, int height, int imageResizeOptions);
 
+	/**
+	 * Set the options for all following thumbnails (e.g. the output encoder).
+	 *
+	 * @param options	Options to use (may not be null)
+	 */
+	public void setOptions(ThumbnailOptions options);
+
+	/**
+	 * Get a Thumbnailer that works like this one, but uses other options.
+	 * This Thumbnailer is left unchanged, so that concurrent requests may use different options.
+	 * The copy shares the resources of this Thumbnailer and must not be closed.
+	 *
+	 * @param options	Options to use (may not be null)
+	 * @return	Thumbnailer using these options
+	 */
+	public Thumbnailer withOptions(ThumbnailOptions options);
+
+	/**
+	 * Get the currently set options of this Thumbnailer.
+	 * @return	options of created thumbnails.
+	 */
+	public ThumbnailOptions getOptions();
+
 	/**
 	 * Get the currently set Image Width of this Thumbnailer.
 	 * @return	image width of created thumbnails.
@@ -0,0 +1,177 @@
+/*
+ * regain/Thumbnailer - A file search engine providing plenty of formats (Plugin)
+ * Copyright (C) 2011  Come_IN Computerclubs (University of Siegen)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * Contact: Come_IN-Team <come_in-team@listserv.uni-siegen.de>
+ */
+
+package de.uni_siegen.wineme.come_in.thumbnailer.util;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+/**
+ * Box-filter downscaling that is fed row by row.
+ *
+ * Every source pixel is added to the output cell it falls into, so the source never
+ * has to be in memory as a whole: memory usage only depends on the output size.
+ * Rows may arrive in any order, each row must be added exactly once.
+ *
+ * @author Benjamin
+ */
+public class AreaAccumulator {
+
+  private final int srcWidth;
+  private final int srcHeight;
+  private final int dstWidth;
+  private final int dstHeight;
+
+  /** Output column of each source column */
+  private final int[] columnMap;
+  /** Number of source columns per output column */
+  private final int[] columnCount;
+  /** Number of source rows per output row */
+  private final int[] rowCount;
+
+  // Premultiplied sums per output pixel
+  private final double[] sumA;
+  private final double[] sumR;
+  private final double[] sumG;
+  private final double[] sumB;
+
+  private int[] rowBuffer;
+
+
+  public AreaAccumulator(final int srcWidth, final int srcHeight, final int dstWidth, final int dstHeight) {
+    if (dstWidth > srcWidth || dstHeight > srcHeight) {
+      throw new IllegalArgumentException("AreaAccumulator can only scale down (" + srcWidth + "x" + srcHeight
+          + " -> " + dstWidth + "x" + dstHeight + ")");
+    }
+    this.srcWidth = srcWidth;
+    this.srcHeight = srcHeight;
+    this.dstWidth = dstWidth;
+    this.dstHeight = dstHeight;
+
+    this.columnMap = new int[srcWidth];
+    this.columnCount = new int[dstWidth];
+    for (int x = 0; x < srcWidth; x++) {
+      final int dx = (int) ((long) x * dstWidth / srcWidth);
+      this.columnMap[x] = dx;
+      this.columnCount[dx]++;
+    }
+    this.rowCount = new int[dstHeight];
+    for (int y = 0; y < srcHeight; y++) {
+      this.rowCount[this.mapRow(y)]++;
+    }
+
+    final int size = dstWidth * dstHeight;
+    this.sumA = new double[size];
+    this.sumR = new double[size];
+    this.sumG = new double[size];
+    this.sumB = new double[size];
+    this.rowBuffer = new int[srcWidth];
+  }
+
+
+  public int getSourceWidth() {
+    return this.srcWidth;
+  }
+
+
+  public int getSourceHeight() {
+    return this.srcHeight;
+  }
+
+
+  private int mapRow(final int y) {
+    return (int) ((long) y * this.dstHeight / this.srcHeight);
+  }
+
+
+  /**
+   * Add one source row.
+   *
+   * @param pixels    ARGB pixels (non-premultiplied)
+   * @param offset    Index of the first pixel of the row in pixels
+   * @param hasAlpha  If false, the alpha byte is ignored and treated as opaque
+   * @param y         Row number in source coordinates
+   */
+  public void addRow(final int[] pixels, final int offset, final boolean hasAlpha, final int y) {
+    final int base = this.mapRow(y) * this.dstWidth;
+    for (int x = 0; x < this.srcWidth; x++) {
+      final int argb = pixels[offset + x];
+      final int alpha = hasAlpha ? argb >>> 24 : 255;
+      final int cell = base + this.columnMap[x];
+      this.sumA[cell] += alpha;
+      this.sumR[cell] += ((argb >> 16) & 0xff) * alpha;
+      this.sumG[cell] += ((argb >> 8) & 0xff) * alpha;
+      this.sumB[cell] += (argb & 0xff) * alpha;
+    }
+  }
+
+
+  /**
+   * Add all rows of a band. The band must be exactly as wide as the source.
+   *
+   * @param band      Decoded band
+   * @param firstRow  Source row of the first row of the band
+   */
+  public void addRows(final BufferedImage band, final int firstRow) {
+    if (band.getWidth() != this.srcWidth) {
+      throw new IllegalArgumentException("Band width " + band.getWidth() + " does not match source width " + this.srcWidth);
+    }
+    final boolean hasAlpha = band.getColorModel().hasAlpha();
+    final int rows = Math.min(band.getHeight(), this.srcHeight - firstRow);
+    for (int i = 0; i < rows; i++) {
+      band.getRGB(0, i, this.srcWidth, 1, this.rowBuffer, 0, this.srcWidth);
+      this.addRow(this.rowBuffer, 0, hasAlpha, firstRow + i);
+    }
+  }
+
+
+  /**
+   * Get the downscaled image. Cells that did not receive any pixel yet are transparent.
+   *
+   * @return New image of type TYPE_INT_ARGB.
+   */
+  public BufferedImage getImage() {
+    final BufferedImage image = new BufferedImage(this.dstWidth, this.dstHeight, BufferedImage.TYPE_INT_ARGB);
+    final int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    for (int dy = 0; dy < this.dstHeight; dy++) {
+      for (int dx = 0; dx < this.dstWidth; dx++) {
+        final int cell = dy * this.dstWidth + dx;
+        final double a = this.sumA[cell];
+        if (a <= 0) {
+          continue;
+        }
+        final double count = (double) this.columnCount[dx] * this.rowCount[dy];
+        final int alpha = AreaAccumulator.clamp(a / count);
+        pixels[cell] = alpha << 24
+            | AreaAccumulator.clamp(this.sumR[cell] / a) << 16
+            | AreaAccumulator.clamp(this.sumG[cell] / a) << 8
+            | AreaAccumulator.clamp(this.sumB[cell] / a);
+      }
+    }
+    return image;
+  }
+
+
+  private static int clamp(final double v) {
+    final int i = (int) (v + 0.5);
+    return i < 0 ? 0 : i > 255 ? 255 : i;
+  }
+}
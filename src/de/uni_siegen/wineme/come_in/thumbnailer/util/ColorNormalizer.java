@@ -0,0 +1,230 @@
+/*
+ * regain/Thumbnailer - A file search engine providing plenty of formats (Plugin)
+ * Copyright (C) 2011  Come_IN Computerclubs (University of Siegen)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * Contact: Come_IN-Team <come_in-team@listserv.uni-siegen.de>
+ */
+
+package de.uni_siegen.wineme.come_in.thumbnailer.util;
+
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorConvertOp;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Converts images without a standard layout (TYPE_CUSTOM: 16 bit samples, gray with alpha, CMYK,
+ * embedded ICC profiles ...) once into TYPE_INT_RGB / TYPE_INT_ARGB.
+ *
+ * Java2D and getRGB() handle such images pixel by pixel through their ColorModel, which is
+ * an order of magnitude slower than scaling a standard image. Converting them with a dedicated loop
+ * (or a single ColorConvertOp for the whole image) first is a lot cheaper.
+ *
+ * If color profiles are ignored, RGB and gray samples are taken as sRGB as they are, and CMYK is
+ * converted with the naive formula. This is less accurate, but good enough for thumbnails.
+ *
+ * @author Benjamin
+ */
+public final class ColorNormalizer {
+
+  /** The logger for this class */
+  private static final Logger mLog = Logger.getLogger(ColorNormalizer.class);
+
+
+  private ColorNormalizer() {
+  }
+
+
+  /**
+   * @return True if the image has no standard layout, i.e. normalize() would convert it.
+   */
+  public static boolean needsNormalization(final BufferedImage image) {
+    return image != null && image.getType() == BufferedImage.TYPE_CUSTOM && !OffHeapImage.isOffHeap(image);
+  }
+
+
+  /**
+   * Convert an image into a standard layout, if it does not have one yet.
+   *
+   * @param image               Image to convert
+   * @param ignoreColorProfile  If true, take the samples as sRGB instead of converting them from the image's color space
+   * @return image itself if it already has a standard layout, otherwise a new TYPE_INT_RGB or TYPE_INT_ARGB(_PRE) image
+   */
+  public static BufferedImage normalize(final BufferedImage image, final boolean ignoreColorProfile) {
+    if (!ColorNormalizer.needsNormalization(image)) {
+      return image;
+    }
+
+    if (image.getColorModel() instanceof ComponentColorModel) {
+      final ColorSpace colorSpace = image.getColorModel().getColorSpace();
+      final int transferType = image.getColorModel().getTransferType();
+      final boolean integral = transferType == DataBuffer.TYPE_BYTE || transferType == DataBuffer.TYPE_USHORT;
+      if (integral && colorSpace.getType() == ColorSpace.TYPE_GRAY
+          || integral && colorSpace.getType() == ColorSpace.TYPE_RGB && (colorSpace.isCS_sRGB() || ignoreColorProfile)) {
+        return ColorNormalizer.convertComponents(image);
+      }
+      if (integral && colorSpace.getType() == ColorSpace.TYPE_CMYK && ignoreColorProfile) {
+        return ColorNormalizer.convertCmyk(image.getRaster(), false, false);
+      }
+    }
+
+    final boolean hasAlpha = image.getColorModel().hasAlpha();
+    final BufferedImage converted = new BufferedImage(image.getWidth(), image.getHeight(),
+        hasAlpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+    try {
+      new ColorConvertOp(null).filter(image, converted);
+    } catch (final RuntimeException e) {
+      ColorNormalizer.mLog.debug("Cannot convert color space of " + image + ", drawing it instead", e);
+      converted.createGraphics().drawImage(image, 0, 0, null);
+    }
+    return converted;
+  }
+
+
+  /**
+   * Convert the raw raster of an Adobe CMYK or YCCK JPEG (as returned by ImageReader.readRaster()).
+   * Adobe applications store CMYK inverted (0 = full ink), this is taken into account.
+   *
+   * @param raster  Raster with 4 bands of 8 bit samples
+   * @param ycck    True if the first three bands are YCbCr encoded (Adobe transform 2)
+   * @return New image of type TYPE_INT_RGB
+   */
+  public static BufferedImage convertAdobeCmyk(final Raster raster, final boolean ycck) {
+    return ColorNormalizer.convertCmyk(raster, true, ycck);
+  }
+
+
+  /**
+   * Choose how an image reader should decode an image in order to get a standard layout without color conversion.
+   *
+   * @return The first type offered by the reader that is not TYPE_CUSTOM, or null if there is none.
+   */
+  public static ImageTypeSpecifier getStandardType(final ImageReader reader, final int imageIndex) throws IOException {
+    final Iterator<ImageTypeSpecifier> types = reader.getImageTypes(imageIndex);
+    while (types.hasNext()) {
+      final ImageTypeSpecifier type = types.next();
+      if (type.getBufferedImageType() != BufferedImage.TYPE_CUSTOM) {
+        return type;
+      }
+    }
+    return null;
+  }
+
+
+  /**
+   * Gray or RGB samples with or without alpha, 8 or 16 bits each (ComponentColorModel).
+   */
+  private static BufferedImage convertComponents(final BufferedImage image) {
+    final ComponentColorModel colorModel = (ComponentColorModel) image.getColorModel();
+    final Raster raster = image.getRaster();
+    final int width = image.getWidth();
+    final int height = image.getHeight();
+    final int bands = raster.getNumBands();
+    final boolean hasAlpha = colorModel.hasAlpha();
+    final boolean gray = colorModel.getColorSpace().getType() == ColorSpace.TYPE_GRAY;
+
+    final int[] shifts = new int[bands];
+    for (int b = 0; b < bands; b++) {
+      shifts[b] = Math.max(0, colorModel.getComponentSize(b) - 8);
+    }
+
+    final int type = !hasAlpha ? BufferedImage.TYPE_INT_RGB
+        : colorModel.isAlphaPremultiplied() ? BufferedImage.TYPE_INT_ARGB_PRE : BufferedImage.TYPE_INT_ARGB;
+    final BufferedImage converted = new BufferedImage(width, height, type);
+    final int[] pixels = ((DataBufferInt) converted.getRaster().getDataBuffer()).getData();
+    final int[] samples = new int[width * bands];
+
+    for (int y = 0; y < height; y++) {
+      raster.getPixels(raster.getMinX(), raster.getMinY() + y, width, 1, samples);
+      final int row = y * width;
+      for (int x = 0, i = 0; x < width; x++, i += bands) {
+        final int r;
+        final int g;
+        final int b;
+        if (gray) {
+          r = g = b = samples[i] >> shifts[0];
+        } else {
+          r = samples[i] >> shifts[0];
+          g = samples[i + 1] >> shifts[1];
+          b = samples[i + 2] >> shifts[2];
+        }
+        final int alpha = hasAlpha ? samples[i + bands - 1] >> shifts[bands - 1] : 255;
+        pixels[row + x] = alpha << 24 | r << 16 | g << 8 | b;
+      }
+    }
+    return converted;
+  }
+
+
+  /**
+   * @param inverted  True if 0 means full ink (as in Adobe files)
+   * @param ycck      True if the first three bands are YCbCr encoded
+   */
+  private static BufferedImage convertCmyk(final Raster raster, final boolean inverted, final boolean ycck) {
+    final int width = raster.getWidth();
+    final int height = raster.getHeight();
+    final BufferedImage converted = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    final int[] pixels = ((DataBufferInt) converted.getRaster().getDataBuffer()).getData();
+    final int[] samples = new int[width * 4];
+
+    for (int y = 0; y < height; y++) {
+      raster.getPixels(raster.getMinX(), raster.getMinY() + y, width, 1, samples);
+      final int row = y * width;
+      for (int x = 0, i = 0; x < width; x++, i += 4) {
+        // Amount of white left per channel (255 - ink)
+        int c;
+        int m;
+        int ye;
+        if (ycck) {
+          // As libjpeg does: inverted CMYK = 255 - YCC to RGB
+          final int luma = samples[i];
+          final int cb = samples[i + 1] - 128;
+          final int cr = samples[i + 2] - 128;
+          c = 255 - ColorNormalizer.clamp(luma + ((91881 * cr + 32768) >> 16));
+          m = 255 - ColorNormalizer.clamp(luma + ((-22554 * cb - 46802 * cr + 32768) >> 16));
+          ye = 255 - ColorNormalizer.clamp(luma + ((116130 * cb + 32768) >> 16));
+        } else if (inverted) {
+          c = samples[i];
+          m = samples[i + 1];
+          ye = samples[i + 2];
+        } else {
+          c = 255 - samples[i];
+          m = 255 - samples[i + 1];
+          ye = 255 - samples[i + 2];
+        }
+        final int k = inverted || ycck ? samples[i + 3] : 255 - samples[i + 3];
+        pixels[row + x] = (c * k + 127) / 255 << 16 | (m * k + 127) / 255 << 8 | (ye * k + 127) / 255;
+      }
+    }
+    return converted;
+  }
+
+
+  private static int clamp(final int v) {
+    return v < 0 ? 0 : v > 255 ? 255 : v;
+  }
+}
@@ -0,0 +1,187 @@
+/*
+ * regain/Thumbnailer - A file search engine providing plenty of formats (Plugin)
+ * Copyright (C) 2011  Come_IN Computerclubs (University of Siegen)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * Contact: Come_IN-Team <come_in-team@listserv.uni-siegen.de>
+ */
+
+package de.uni_siegen.wineme.come_in.thumbnailer.util;
+
+import java.awt.image.DataBuffer;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+import org.apache.log4j.Logger;
+
+/**
+ * DataBuffer of ints that lives outside of the Java heap, in a direct ByteBuffer.
+ *
+ * Huge rasters as int[] are a burden for the garbage collector (G1 allocates them as humongous objects,
+ * and frees them late). Here, the memory is given back by free() as soon as the image is not needed anymore.
+ * After free(), any access throws an IllegalStateException.
+ *
+ * @author Benjamin
+ */
+public class DirectDataBuffer extends DataBuffer {
+
+  /** The logger for this class */
+  private static final Logger mLog = Logger.getLogger(DirectDataBuffer.class);
+
+  /** Frees a direct buffer right away (null if this JVM does not allow it: then the GC frees it) */
+  private static final Deallocator deallocator = DirectDataBuffer.findDeallocator();
+
+  private ByteBuffer memory;
+  private IntBuffer data;
+
+
+  /**
+   * @param size Number of ints
+   * @throws OutOfMemoryError If there is not enough direct memory (see -XX:MaxDirectMemorySize)
+   */
+  public DirectDataBuffer(final int size) {
+    super(DataBuffer.TYPE_INT, size);
+    if (size > Integer.MAX_VALUE / 4) {
+      throw new IllegalArgumentException("Too many elements for a direct buffer: " + size);
+    }
+    this.memory = ByteBuffer.allocateDirect(size * 4).order(ByteOrder.nativeOrder());
+    this.data = this.memory.asIntBuffer();
+  }
+
+
+  @Override
+  public int getElem(final int bank, final int i) {
+    return this.getData().get(i);
+  }
+
+
+  @Override
+  public void setElem(final int bank, final int i, final int val) {
+    this.getData().put(i, val);
+  }
+
+
+  /**
+   * Copy consecutive elements (e.g. a row of a packed raster) into an array.
+   * Several threads may call this at the same time.
+   */
+  public void getElems(final int offset, final int[] dst, final int dstOffset, final int length) {
+    final IntBuffer view = this.getData().duplicate();
+    view.position(offset);
+    view.get(dst, dstOffset, length);
+  }
+
+
+  private IntBuffer getData() {
+    final IntBuffer buffer = this.data;
+    if (buffer == null) {
+      throw new IllegalStateException("DirectDataBuffer has already been freed");
+    }
+    return buffer;
+  }
+
+
+  /**
+   * @return True if free() has been called.
+   */
+  public boolean isFreed() {
+    return this.data == null;
+  }
+
+
+  /**
+   * Give the memory back. Calling this more than once has no effect.
+   * The caller must make sure that no other thread still reads this buffer.
+   */
+  public synchronized void free() {
+    if (this.memory == null) {
+      return;
+    }
+    final ByteBuffer buffer = this.memory;
+    this.data = null;
+    this.memory = null;
+    DirectDataBuffer.freeBuffer(buffer);
+  }
+
+
+  /**
+   * Free a direct (or memory-mapped) ByteBuffer right away, if this JVM allows it. Otherwise, it is left to the GC.
+   * The buffer must not be a slice or duplicate, and must not be used afterwards.
+   */
+  public static void freeBuffer(final ByteBuffer buffer) {
+    if (DirectDataBuffer.deallocator != null && buffer != null && buffer.isDirect()) {
+      DirectDataBuffer.deallocator.free(buffer);
+    }
+  }
+
+
+  /**
+   * How to free a direct buffer: there is no public API for this, so it depends on the Java version.
+   */
+  private interface Deallocator {
+    void free(ByteBuffer buffer);
+  }
+
+
+  private static Deallocator findDeallocator() {
+    // Java 9 and later: Unsafe.invokeCleaner()
+    try {
+      final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+      final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      final Object unsafe = theUnsafe.get(null);
+      return new Deallocator() {
+        public void free(final ByteBuffer buffer) {
+          try {
+            invokeCleaner.invoke(unsafe, buffer);
+          } catch (final Exception e) {
+            DirectDataBuffer.mLog.debug("Could not free direct buffer", e);
+          }
+        }
+      };
+    } catch (final Exception e) {
+      // fall through
+    }
+
+    // Java 7 and 8: DirectByteBuffer.cleaner().clean()
+    try {
+      final ByteBuffer probe = ByteBuffer.allocateDirect(1);
+      final Method cleaner = probe.getClass().getMethod("cleaner");
+      cleaner.setAccessible(true);
+      final Method clean = cleaner.getReturnType().getMethod("clean");
+      clean.setAccessible(true);
+      return new Deallocator() {
+        public void free(final ByteBuffer buffer) {
+          try {
+            final Object c = cleaner.invoke(buffer);
+            if (c != null) {
+              clean.invoke(c);
+            }
+          } catch (final Exception e) {
+            DirectDataBuffer.mLog.debug("Could not free direct buffer", e);
+          }
+        }
+      };
+    } catch (final Exception e) {
+      DirectDataBuffer.mLog.info("Direct buffers cannot be freed explicitly on this JVM, leaving them to the garbage collector");
+      return null;
+    }
+  }
+}
@@ -0,0 +1,235 @@
+/*
+ * regain/Thumbnailer - A file search engine providing plenty of formats (Plugin)
+ * Copyright (C) 2011  Come_IN Computerclubs (University of Siegen)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * Contact: Come_IN-Team <come_in-team@listserv.uni-siegen.de>
+ */
+
+package de.uni_siegen.wineme.come_in.thumbnailer.util;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Reads the EXIF orientation tag, and nothing else.
+ *
+ * Only the headers of a JPEG file (up to its Exif APP1 segment) or of a TIFF file are looked at,
+ * and of the Exif data only IFD0 up to the orientation entry - usually a few hundred Bytes.
+ * Use metadata-extractor (ImageMetadataReader) if all metadata is needed.
+ *
+ * @author Benjamin
+ */
+public final class ExifOrientation {
+
+  /** The logger for this class */
+  private static final Logger mLog = Logger.getLogger(ExifOrientation.class);
+
+  /** Orientation of images without this tag (or with an invalid one) */
+  public static final int NORMAL = 1;
+
+  /** Give up after reading this many Bytes (segments that are skipped do not count) */
+  private static final int MAX_PROBE_BYTES = 16 * 1024;
+
+  /**
+   * Give up when the orientation would be further into the file than this (in Bytes).
+   * Callers that want to re-read a stream after probing can mark() it with this limit.
+   */
+  public static final int MAX_PROBE_POSITION = 256 * 1024;
+
+  private static final int TAG_ORIENTATION = 0x0112;
+  private static final int TYPE_SHORT = 3;
+
+
+  private ExifOrientation() {
+  }
+
+
+  /**
+   * @return EXIF orientation (1-8) of a JPEG or TIFF file, or NORMAL if it has none or cannot be read.
+   */
+  public static int read(final File file) {
+    try {
+      final InputStream input = new FileInputStream(file);
+      try {
+        return ExifOrientation.read(input);
+      } finally {
+        input.close();
+      }
+    } catch (final IOException e) {
+      ExifOrientation.mLog.debug("Cannot read orientation of " + file.getName(), e);
+      return ExifOrientation.NORMAL;
+    }
+  }
+
+
+  /**
+   * Read the EXIF orientation from the start of a JPEG or TIFF stream. The stream is not closed.
+   *
+   * @return EXIF orientation (1-8), or NORMAL if the stream has none.
+   * @throws IOException If the stream could not be read
+   */
+  public static int read(final InputStream input) throws IOException {
+    final Probe probe = new Probe(input instanceof BufferedInputStream ? input : new BufferedInputStream(input, 512));
+    try {
+      final int magic = probe.readUnsignedShort();
+      if (magic == 0xffd8) {
+        return ExifOrientation.readJpeg(probe);
+      }
+      if (magic == 0x4949 || magic == 0x4d4d) {
+        return ExifOrientation.readTiff(probe, magic == 0x4949);
+      }
+    } catch (final EOFException e) {
+      // Truncated, or more than MAX_PROBE_BYTES to look at
+    }
+    return ExifOrientation.NORMAL;
+  }
+
+
+  private static int readJpeg(final Probe probe) throws IOException {
+    while (true) {
+      if (probe.readUnsignedByte() != 0xff) {
+        return ExifOrientation.NORMAL;
+      }
+      int marker = probe.readUnsignedByte();
+      while (marker == 0xff) {
+        marker = probe.readUnsignedByte(); // Fill bytes
+      }
+      // Exif comes before the frame: only application segments and comments may precede it
+      if (!(marker >= 0xe0 && marker <= 0xef) && marker != 0xfe) {
+        return ExifOrientation.NORMAL;
+      }
+      final int length = probe.readUnsignedShort() - 2;
+      final long end = probe.position() + length;
+      if (marker == 0xe1 && length >= 14 && probe.readInt() == 0x45786966 && probe.readUnsignedShort() == 0) { // "Exif\0\0"
+        probe.startTiff();
+        final int byteOrder = probe.readUnsignedShort();
+        if (byteOrder != 0x4949 && byteOrder != 0x4d4d) {
+          return ExifOrientation.NORMAL;
+        }
+        return ExifOrientation.readTiff(probe, byteOrder == 0x4949);
+      }
+      probe.skipTo(end);
+    }
+  }
+
+
+  /**
+   * Read IFD0 of TIFF data, the byte order mark has been read already.
+   */
+  private static int readTiff(final Probe probe, final boolean littleEndian) throws IOException {
+    probe.littleEndian = littleEndian;
+    if (probe.readUnsignedShort() != 42) {
+      return ExifOrientation.NORMAL;
+    }
+    final long ifd0 = probe.readInt() & 0xffffffffL;
+    probe.skipTo(probe.tiffStart + ifd0);
+
+    final int entries = probe.readUnsignedShort();
+    for (int i = 0; i < entries; i++) {
+      final int tag = probe.readUnsignedShort();
+      final int type = probe.readUnsignedShort();
+      probe.readInt(); // Count
+      final int value = probe.readUnsignedShort();
+      probe.readUnsignedShort();
+      if (tag == ExifOrientation.TAG_ORIENTATION) {
+        return type == ExifOrientation.TYPE_SHORT && value >= 1 && value <= 8 ? value : ExifOrientation.NORMAL;
+      }
+      if (tag > ExifOrientation.TAG_ORIENTATION) {
+        break; // Entries are sorted by tag
+      }
+    }
+    return ExifOrientation.NORMAL;
+  }
+
+
+  /**
+   * Forward-only reader that keeps track of its position and stops after reading MAX_PROBE_BYTES.
+   */
+  private static final class Probe {
+
+    private final DataInputStream in;
+    private long position = 0;
+    private int read = 0;
+    long tiffStart = 0;
+    boolean littleEndian = false;
+
+    Probe(final InputStream input) {
+      this.in = new DataInputStream(input);
+    }
+
+    long position() {
+      return this.position;
+    }
+
+    void startTiff() {
+      this.tiffStart = this.position;
+    }
+
+    int readUnsignedByte() throws IOException {
+      this.count(1);
+      return this.in.readUnsignedByte();
+    }
+
+    int readUnsignedShort() throws IOException {
+      this.count(2);
+      final int v = this.in.readUnsignedShort();
+      return this.littleEndian ? (v >> 8) | (v & 0xff) << 8 : v;
+    }
+
+    int readInt() throws IOException {
+      this.count(4);
+      final int v = this.in.readInt();
+      return this.littleEndian ? Integer.reverseBytes(v) : v;
+    }
+
+    /**
+     * Skip forward to an absolute position (skipping backwards is not possible).
+     */
+    void skipTo(final long target) throws IOException {
+      if (target < this.position) {
+        throw new EOFException("Cannot seek backwards");
+      }
+      if (target > ExifOrientation.MAX_PROBE_POSITION) {
+        throw new EOFException("No orientation within the first " + ExifOrientation.MAX_PROBE_POSITION + " Bytes");
+      }
+      long n = target - this.position;
+      this.position = target;
+      while (n > 0) {
+        final long skipped = this.in.skip(n);
+        if (skipped <= 0) {
+          throw new EOFException();
+        }
+        n -= skipped;
+      }
+    }
+
+    private void count(final int n) throws EOFException {
+      this.position += n;
+      this.read += n;
+      if (this.read > ExifOrientation.MAX_PROBE_BYTES) {
+        throw new EOFException("No orientation within the first " + ExifOrientation.MAX_PROBE_BYTES + " Bytes");
+      }
+    }
+  }
+}
@@ -0,0 +1,208 @@
+/*
+ * regain/Thumbnailer - A file search engine providing plenty of formats (Plugin)
+ * Copyright (C) 2011  Come_IN Computerclubs (University of Siegen)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * Contact: Come_IN-Team <come_in-team@listserv.uni-siegen.de>
+ */
+
+package de.uni_siegen.wineme.come_in.thumbnailer.util;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.spi.ImageReaderSpi;
+
+/**
+ * Thread-confined pool of ImageReaders, one list per reader provider (i.e. per format).
+ *
+ * ImageIO.read() looks through all registered providers for every image, asks each of them whether
+ * it can decode the input, and creates a new reader. If the MIME type of the input is already known,
+ * acquire() looks up the provider once per MIME type and hands out a reader that was used before
+ * on the same thread; release() resets it for the next image.
+ *
+ * @author Benjamin
+ */
+public final class ImageReaderPool {
+
+  /** Maximum number of idle readers per provider and thread */
+  private static final int MAX_READERS_PER_PROVIDER = 2;
+
+  /** Marks MIME types without a reader in providers */
+  private static final ImageReaderSpi NO_PROVIDER = new ImageReaderSpi() {
+    @Override
+    public boolean canDecodeInput(final Object source) {
+      return false;
+    }
+
+    @Override
+    public ImageReader createReaderInstance(final Object extension) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public String getDescription(final Locale locale) {
+      return "No reader";
+    }
+  };
+
+  /** Provider per MIME type (shared by all threads) */
+  private static final Map<String, ImageReaderSpi> providers = new ConcurrentHashMap<String, ImageReaderSpi>();
+
+  private static final AtomicLong hits = new AtomicLong();
+  private static final AtomicLong misses = new AtomicLong();
+
+  private static final ThreadLocal<ImageReaderPool> pools = new ThreadLocal<ImageReaderPool>() {
+    @Override
+    protected ImageReaderPool initialValue() {
+      return new ImageReaderPool();
+    }
+  };
+
+  private final Map<ImageReaderSpi, LinkedList<ImageReader>> idle = new HashMap<ImageReaderSpi, LinkedList<ImageReader>>();
+
+
+  private ImageReaderPool() {
+  }
+
+
+  /**
+   * Get the provider of readers for a MIME type. The registry is only searched the first time a MIME type is asked for.
+   *
+   * @param mimeType  MIME type, e.g. "image/png"
+   * @return The provider ImageIO would use first for this MIME type, or null if there is none.
+   */
+  public static ImageReaderSpi getProvider(final String mimeType) {
+    ImageReaderSpi provider = ImageReaderPool.providers.get(mimeType);
+    if (provider == null) {
+      provider = ImageReaderPool.NO_PROVIDER;
+      final Iterator<ImageReader> readers = ImageIO.getImageReadersByMIMEType(mimeType);
+      if (readers.hasNext()) {
+        final ImageReader reader = readers.next();
+        provider = reader.getOriginatingProvider();
+        reader.dispose();
+      }
+      ImageReaderPool.providers.put(mimeType, provider == null ? ImageReaderPool.NO_PROVIDER : provider);
+    }
+    return provider == ImageReaderPool.NO_PROVIDER ? null : provider;
+  }
+
+
+  /**
+   * Get a reader of the current thread's pool, or create a new one.
+   *
+   * @param mimeType  MIME type of the input
+   * @return Reader without input, or null if there is no reader for this MIME type.
+   * @throws IOException If the reader could not be created
+   */
+  public static ImageReader acquire(final String mimeType) throws IOException {
+    final ImageReaderSpi provider = ImageReaderPool.getProvider(mimeType);
+    return provider == null ? null : ImageReaderPool.acquire(provider);
+  }
+
+
+  /**
+   * Get a reader of the current thread's pool, or create a new one.
+   *
+   * @param provider  Provider of the reader
+   * @return Reader without input
+   * @throws IOException If the reader could not be created
+   */
+  public static ImageReader acquire(final ImageReaderSpi provider) throws IOException {
+    final LinkedList<ImageReader> readers = ImageReaderPool.pools.get().idle.get(provider);
+    if (readers != null && !readers.isEmpty()) {
+      ImageReaderPool.hits.incrementAndGet();
+      return readers.removeFirst();
+    }
+
+    ImageReaderPool.misses.incrementAndGet();
+    return provider.createReaderInstance();
+  }
+
+
+  /**
+   * Reset a reader and hand it back to the pool of the current thread (or dispose it if the pool is full).
+   * The caller has to close the reader's input stream itself, and must not use the reader afterwards.
+   *
+   * @param reader  Reader to release. May be null (in this case, nothing is done).
+   */
+  public static void release(final ImageReader reader) {
+    if (reader == null) {
+      return;
+    }
+    final ImageReaderSpi provider = reader.getOriginatingProvider();
+    if (provider == null) {
+      reader.dispose();
+      return;
+    }
+    try {
+      reader.reset();
+    } catch (final RuntimeException e) {
+      reader.dispose();
+      return;
+    }
+
+    final ImageReaderPool pool = ImageReaderPool.pools.get();
+    LinkedList<ImageReader> readers = pool.idle.get(provider);
+    if (readers == null) {
+      readers = new LinkedList<ImageReader>();
+      pool.idle.put(provider, readers);
+    }
+    if (readers.size() < ImageReaderPool.MAX_READERS_PER_PROVIDER && !readers.contains(reader)) {
+      readers.addFirst(reader);
+    } else {
+      reader.dispose();
+    }
+  }
+
+
+  /**
+   * Dispose all idle readers of the current thread.
+   */
+  public static void clear() {
+    final ImageReaderPool pool = ImageReaderPool.pools.get();
+    for (final LinkedList<ImageReader> readers : pool.idle.values()) {
+      for (final ImageReader reader : readers) {
+        reader.dispose();
+      }
+    }
+    pool.idle.clear();
+  }
+
+
+  /**
+   * @return Number of acquire() calls (on all threads) that could reuse a reader.
+   */
+  public static long getHits() {
+    return ImageReaderPool.hits.get();
+  }
+
+
+  /**
+   * @return Number of acquire() calls (on all threads) that had to create a new reader.
+   */
+  public static long getMisses() {
+    return ImageReaderPool.misses.get();
+  }
+}
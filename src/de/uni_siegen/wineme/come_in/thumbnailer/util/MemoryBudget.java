@@ -0,0 +1,242 @@
+/*
+ * regain/Thumbnailer - A file search engine providing plenty of formats (Plugin)
+ * Copyright (C) 2011  Come_IN Computerclubs (University of Siegen)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * Contact: Come_IN-Team <come_in-team@listserv.uni-siegen.de>
+ */
+
+package de.uni_siegen.wineme.come_in.thumbnailer.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+import org.apache.log4j.Logger;
+
+import de.uni_siegen.wineme.come_in.thumbnailer.MemoryBudgetExceededException;
+
+/**
+ * Admission control for decode memory, shared by all thumbnail jobs.
+ *
+ * Before decoding, a thumbnailer estimates the memory it needs (from the image header or the file size)
+ * and acquires it here. If the budget is exhausted, the job is queued, decoded at a lower resolution,
+ * or rejected - depending on the policy. So a few huge images at once cannot run the heap out of memory
+ * and kill all other jobs.
+ *
+ * Estimates are rough, so the capacity should leave some headroom (e.g. half of the heap).
+ *
+ * @author Benjamin
+ */
+public class MemoryBudget {
+
+  /** What to do if a job does not fit into the budget */
+  public enum Policy {
+    /** Wait until enough memory is released (a job that is bigger than the whole budget runs alone) */
+    QUEUE,
+    /** Decode at a lower resolution, so that the image fits into what is left (if the input allows it, otherwise QUEUE) */
+    SUBSAMPLE,
+    /** Fail with a MemoryBudgetExceededException */
+    REJECT
+  }
+
+  /** Default maximum time to wait for memory (in ms) */
+  public static final long DEFAULT_QUEUE_TIMEOUT = 60000;
+
+  /** With SUBSAMPLE, a job gets at least this fraction of the capacity (unless it asked for less) */
+  private static final int MIN_GRANT_FRACTION = 16;
+
+  /** The logger for this class */
+  private static final Logger mLog = Logger.getLogger(MemoryBudget.class);
+
+  private final long capacity;
+  private final Policy policy;
+  private long queueTimeout = MemoryBudget.DEFAULT_QUEUE_TIMEOUT;
+  private long used = 0;
+
+
+  /**
+   * @param capacity  Memory that all jobs together may use for decoding (in Bytes)
+   * @param policy    What to do with jobs that do not fit
+   */
+  public MemoryBudget(final long capacity, final Policy policy) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Capacity must be positive, was " + capacity);
+    }
+    if (policy == null) {
+      throw new NullPointerException("Policy may not be null");
+    }
+    this.capacity = capacity;
+    this.policy = policy;
+  }
+
+
+  /**
+   * Memory reserved for one job. Release it (in a finally block) when the decoded data is not needed anymore.
+   */
+  public final class Grant {
+    private final long requested;
+    private final long bytes;
+    private boolean released = false;
+
+    private Grant(final long requested, final long bytes) {
+      this.requested = requested;
+      this.bytes = bytes;
+    }
+
+    /**
+     * @return Amount that is charged against the budget (in Bytes)
+     */
+    public long getBytes() {
+      return this.bytes;
+    }
+
+    /**
+     * @return Factor by which the image should be subsampled in each dimension (1 if it fits as it is)
+     */
+    public int getSubsampling() {
+      if (this.bytes >= this.requested) {
+        return 1;
+      }
+      return (int) Math.ceil(Math.sqrt((double) this.requested / this.bytes));
+    }
+
+    /**
+     * Give the memory back. Calling this more than once has no effect.
+     */
+    public void release() {
+      synchronized (MemoryBudget.this) {
+        if (!this.released) {
+          this.released = true;
+          MemoryBudget.this.used -= this.bytes;
+          MemoryBudget.this.notifyAll();
+        }
+      }
+    }
+  }
+
+
+  /**
+   * Reserve memory for a job, waiting or reducing it as the policy says.
+   *
+   * @param bytes         Estimated memory needed (in Bytes)
+   * @param canSubsample  Whether the caller is able to decode at a lower resolution (otherwise, SUBSAMPLE behaves like QUEUE)
+   * @return The reservation (possibly smaller than requested, see Grant.getSubsampling())
+   * @throws MemoryBudgetExceededException  If the job was rejected, or waiting timed out
+   * @throws InterruptedIOException         If the thread was interrupted while waiting
+   */
+  public synchronized Grant acquire(final long bytes, final boolean canSubsample) throws IOException {
+    if (this.policy == Policy.REJECT) {
+      if (this.used + bytes > this.capacity) {
+        throw new MemoryBudgetExceededException("Job needs about " + bytes + " Bytes, but only "
+            + (this.capacity - this.used) + " of " + this.capacity + " Bytes are available");
+      }
+      return this.grant(bytes, bytes);
+    }
+
+    if (this.policy == Policy.SUBSAMPLE && canSubsample) {
+      final long minimum = Math.min(bytes, this.capacity / MemoryBudget.MIN_GRANT_FRACTION);
+      this.waitFor(minimum);
+      return this.grant(bytes, Math.min(bytes, this.capacity - this.used));
+    }
+
+    // QUEUE: A job that is bigger than everything runs alone.
+    final long charge = Math.min(bytes, this.capacity);
+    this.waitFor(charge);
+    return this.grant(bytes, charge);
+  }
+
+
+  /**
+   * Reserve memory for an optional job, but only if it fits right now (regardless of the policy).
+   *
+   * @param bytes Estimated memory needed (in Bytes)
+   * @return The reservation, or null if there is not enough memory left
+   */
+  public synchronized Grant tryAcquire(final long bytes) {
+    if (this.used + bytes > this.capacity) {
+      return null;
+    }
+    return this.grant(bytes, bytes);
+  }
+
+
+  private Grant grant(final long requested, final long bytes) {
+    this.used += bytes;
+    if (bytes < requested) {
+      MemoryBudget.mLog.debug("Granted " + bytes + " of " + requested + " Bytes");
+    }
+    return new Grant(requested, bytes);
+  }
+
+
+  /**
+   * Wait until the given amount is available.
+   */
+  private void waitFor(final long bytes) throws IOException {
+    final long deadline = System.currentTimeMillis() + this.queueTimeout;
+    while (this.used + bytes > this.capacity) {
+      final long remaining = deadline - System.currentTimeMillis();
+      if (remaining <= 0) {
+        throw new MemoryBudgetExceededException("Timeout while waiting for " + bytes + " Bytes of memory");
+      }
+      try {
+        this.wait(remaining);
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for memory");
+      }
+    }
+  }
+
+
+  public long getCapacity() {
+    return this.capacity;
+  }
+
+
+  public Policy getPolicy() {
+    return this.policy;
+  }
+
+
+  /**
+   * @return Memory currently reserved by running jobs (in Bytes)
+   */
+  public synchronized long getUsed() {
+    return this.used;
+  }
+
+
+  public synchronized long getQueueTimeout() {
+    return this.queueTimeout;
+  }
+
+
+  /**
+   * @param queueTimeout Maximum time a job waits for memory (in ms)
+   */
+  public synchronized void setQueueTimeout(final long queueTimeout) {
+    this.queueTimeout = queueTimeout;
+  }
+
+
+  /**
+   * @return Estimated memory of a decoded image (in Bytes): 4 Bytes per pixel
+   */
+  public static long estimateRaster(final int width, final int height) {
+    return (long) width * height * 4;
+  }
+}
@@ -0,0 +1,131 @@
+/*
+ * regain/Thumbnailer - A file search engine providing plenty of formats (Plugin)
+ * Copyright (C) 2011  Come_IN Computerclubs (University of Siegen)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * Contact: Come_IN-Team <come_in-team@listserv.uni-siegen.de>
+ */
+
+package de.uni_siegen.wineme.come_in.thumbnailer.util;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Packed (A)RGB images whose pixels are stored off the Java heap (see DirectDataBuffer).
+ *
+ * These images can be used like any other BufferedImage (drawn on, decoded into by ImageIO, read with getRGB()),
+ * but Java2D uses its generic - slower - loops for them. So they only pay off for big intermediate images,
+ * which should be given back with release() as soon as they are not needed anymore.
+ *
+ * @author Benjamin
+ */
+public final class OffHeapImage {
+
+  /** The logger for this class */
+  private static final Logger mLog = Logger.getLogger(OffHeapImage.class);
+
+  private static final int[] RGB_MASKS = { 0x00ff0000, 0x0000ff00, 0x000000ff };
+  private static final int[] ARGB_MASKS = { 0x00ff0000, 0x0000ff00, 0x000000ff, 0xff000000 };
+
+
+  private OffHeapImage() {
+  }
+
+
+  /**
+   * Create an image that is laid out like TYPE_INT_RGB / TYPE_INT_ARGB, but stored off-heap.
+   *
+   * @param width     Width in Pixel
+   * @param height    Height in Pixel
+   * @param hasAlpha  Whether the image has an alpha channel (non-premultiplied)
+   * @return Image (with all pixels 0), or null if there is not enough direct memory for it
+   */
+  public static BufferedImage create(final int width, final int height, final boolean hasAlpha) {
+    if ((long) width * height > Integer.MAX_VALUE / 4) {
+      return null;
+    }
+
+    final DirectDataBuffer buffer;
+    try {
+      buffer = new DirectDataBuffer(width * height);
+    } catch (final OutOfMemoryError e) {
+      OffHeapImage.mLog.info("Not enough direct memory for " + width + "x" + height + " pixels, using the heap");
+      return null;
+    }
+
+    final DirectColorModel colorModel = hasAlpha
+        ? new DirectColorModel(32, 0x00ff0000, 0x0000ff00, 0x000000ff, 0xff000000)
+        : new DirectColorModel(24, 0x00ff0000, 0x0000ff00, 0x000000ff);
+    final SinglePixelPackedSampleModel sampleModel = new SinglePixelPackedSampleModel(DataBuffer.TYPE_INT, width, height,
+        hasAlpha ? OffHeapImage.ARGB_MASKS : OffHeapImage.RGB_MASKS);
+    final WritableRaster raster = Raster.createWritableRaster(sampleModel, buffer, null);
+    return new BufferedImage(colorModel, raster, false, null);
+  }
+
+
+  /**
+   * @return True if the pixels of this image are stored off-heap.
+   */
+  public static boolean isOffHeap(final BufferedImage image) {
+    return image != null && OffHeapImage.getBuffer(image) != null;
+  }
+
+
+  /**
+   * Read one row of packed (A)RGB pixels, without any color conversion.
+   *
+   * @param image  Image created by create()
+   * @param y      Row to read
+   * @param dst    Array that receives image.getWidth() pixels
+   * @param offset Index in dst of the first pixel
+   */
+  public static void getRow(final BufferedImage image, final int y, final int[] dst, final int offset) {
+    final int width = image.getWidth();
+    OffHeapImage.getBuffer(image).getElems(y * width, dst, offset, width);
+  }
+
+
+  /**
+   * Give the memory of an off-heap image back. The image must not be used anymore afterwards.
+   *
+   * @param image Image to release. If it is null or not off-heap, nothing is done.
+   */
+  public static void release(final BufferedImage image) {
+    if (image == null) {
+      return;
+    }
+    final DirectDataBuffer buffer = OffHeapImage.getBuffer(image);
+    if (buffer != null) {
+      buffer.free();
+    }
+  }
+
+
+  private static DirectDataBuffer getBuffer(final BufferedImage image) {
+    final WritableRaster raster = image.getRaster();
+    if (raster.getParent() != null || !(raster.getDataBuffer() instanceof DirectDataBuffer)) {
+      return null; // Sub-images have other row offsets
+    }
+    return (DirectDataBuffer) raster.getDataBuffer();
+  }
+}
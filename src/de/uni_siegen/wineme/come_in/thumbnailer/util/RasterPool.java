@@ -0,0 +1,163 @@
+/*
+ * regain/Thumbnailer - A file search engine providing plenty of formats (Plugin)
+ * Copyright (C) 2011  Come_IN Computerclubs (University of Siegen)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * Contact: Come_IN-Team <come_in-team@listserv.uni-siegen.de>
+ */
+
+package de.uni_siegen.wineme.come_in.thumbnailer.util;
+
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-confined pool of BufferedImages, keyed by size and type.
+ *
+ * Thumbnails are rendered again and again in the same few sizes, so instead of allocating
+ * a new raster for every page, images are handed back with release() and reused by the next acquire()
+ * on the same thread. No locking is needed, as every thread has its own pool.
+ *
+ * Note: The content of an acquired image is undefined, callers have to clear it themselves.
+ *
+ * @author Benjamin
+ */
+public final class RasterPool {
+
+  /** Maximum number of idle images per size and type */
+  private static final int MAX_IMAGES_PER_KEY = 2;
+
+  /** Maximum memory kept idle per thread (in Bytes) */
+  private static final long MAX_BYTES_PER_THREAD = 64L * 1024 * 1024;
+
+  private static final AtomicLong hits = new AtomicLong();
+  private static final AtomicLong misses = new AtomicLong();
+
+  private static final ThreadLocal<RasterPool> pools = new ThreadLocal<RasterPool>() {
+    @Override
+    protected RasterPool initialValue() {
+      return new RasterPool();
+    }
+  };
+
+  private final Map<Long, LinkedList<BufferedImage>> idle = new HashMap<Long, LinkedList<BufferedImage>>();
+  private long idleBytes = 0;
+
+
+  private RasterPool() {
+  }
+
+
+  /**
+   * Get an image from the pool of the current thread, or create a new one.
+   *
+   * @param width   Width in Pixel
+   * @param height  Height in Pixel
+   * @param type    One of the BufferedImage.TYPE_* constants (except TYPE_CUSTOM)
+   * @return Image with undefined content
+   */
+  public static BufferedImage acquire(final int width, final int height, final int type) {
+    final LinkedList<BufferedImage> images = RasterPool.pools.get().idle.get(RasterPool.key(width, height, type));
+    if (images != null && !images.isEmpty()) {
+      final BufferedImage image = images.removeFirst();
+      RasterPool.pools.get().idleBytes -= RasterPool.sizeOf(image);
+      RasterPool.hits.incrementAndGet();
+      return image;
+    }
+
+    RasterPool.misses.incrementAndGet();
+    return new BufferedImage(width, height, type);
+  }
+
+
+  /**
+   * Hand an image back to the pool of the current thread.
+   * The caller must not use the image (or any Graphics of it) afterwards.
+   *
+   * @param image Image to release. May be null (in this case, nothing is done).
+   */
+  public static void release(final BufferedImage image) {
+    if (image == null || image.getType() == BufferedImage.TYPE_CUSTOM) {
+      return;
+    }
+
+    final RasterPool pool = RasterPool.pools.get();
+    final long size = RasterPool.sizeOf(image);
+    if (pool.idleBytes + size > RasterPool.MAX_BYTES_PER_THREAD) {
+      return; // Let the GC have it.
+    }
+
+    final Long key = RasterPool.key(image.getWidth(), image.getHeight(), image.getType());
+    LinkedList<BufferedImage> images = pool.idle.get(key);
+    if (images == null) {
+      images = new LinkedList<BufferedImage>();
+      pool.idle.put(key, images);
+    }
+    if (images.size() < RasterPool.MAX_IMAGES_PER_KEY && !images.contains(image)) {
+      images.addFirst(image);
+      pool.idleBytes += size;
+    }
+  }
+
+
+  /**
+   * Drop all idle images of the current thread.
+   */
+  public static void clear() {
+    final RasterPool pool = RasterPool.pools.get();
+    pool.idle.clear();
+    pool.idleBytes = 0;
+  }
+
+
+  /**
+   * @return Number of acquire() calls (on all threads) that could reuse an image.
+   */
+  public static long getHits() {
+    return RasterPool.hits.get();
+  }
+
+
+  /**
+   * @return Number of acquire() calls (on all threads) that had to allocate a new image.
+   */
+  public static long getMisses() {
+    return RasterPool.misses.get();
+  }
+
+
+  /**
+   * @return Fraction of acquire() calls that were served from the pool (0 if there were none yet).
+   */
+  public static double getHitRate() {
+    final long h = RasterPool.hits.get();
+    final long total = h + RasterPool.misses.get();
+    return total == 0 ? 0.0 : (double) h / total;
+  }
+
+
+  private static Long key(final int width, final int height, final int type) {
+    return Long.valueOf(((long) width << 36) | ((long) height << 8) | type);
+  }
+
+
+  private static long sizeOf(final BufferedImage image) {
+    return (long) image.getWidth() * image.getHeight() * image.getColorModel().getPixelSize() / 8;
+  }
+}
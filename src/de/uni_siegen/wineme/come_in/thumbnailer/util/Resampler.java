@@ -0,0 +1,553 @@
+/*
+ * regain/Thumbnailer - A file search engine providing plenty of formats (Plugin)
+ * Copyright (C) 2011  Come_IN Computerclubs (University of Siegen)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * Contact: Come_IN-Team <come_in-team@listserv.uni-siegen.de>
+ */
+
+package de.uni_siegen.wineme.come_in.thumbnailer.util;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Separable two-pass image resampler working on primitive arrays.
+ *
+ * The source is first filtered horizontally (row by row) into an intermediate buffer of
+ * size dstWidth x srcHeight, which is then filtered vertically. The vertical pass runs over
+ * contiguous float arrays, so the JIT is able to auto-vectorize its inner loop.
+ * Colors are premultiplied with alpha during filtering, so transparent pixels do not bleed.
+ *
+ * Scratch buffers are kept between calls, so an instance should be reused for several images,
+ * but it must not be shared between threads. Very large sources are split into stripes of output rows
+ * that are resampled in parallel (see setParallelThreshold()).
+ *
+ * @author Benjamin
+ */
+public class Resampler {
+
+  /**
+   * Reconstruction filters. The support is given in source pixels for a scale of 1.0;
+   * when downscaling, it is widened by the reduction ratio so that every source pixel contributes.
+   */
+  public enum Filter {
+    /** Area averaging (nearest neighbour when upscaling). Fastest. */
+    BOX(0.5) {
+      @Override
+      double weight(final double x) {
+        return x >= -0.5 && x < 0.5 ? 1.0 : 0.0;
+      }
+    },
+
+    /** Linear interpolation, i.e. bilinear in two dimensions. */
+    TRIANGLE(1.0) {
+      @Override
+      double weight(double x) {
+        x = Math.abs(x);
+        return x < 1.0 ? 1.0 - x : 0.0;
+      }
+    },
+
+    /** Windowed sinc with 3 lobes. Sharpest, but about twice as slow as TRIANGLE. */
+    LANCZOS3(3.0) {
+      @Override
+      double weight(double x) {
+        x = Math.abs(x);
+        if (x < 1.0e-8) {
+          return 1.0;
+        }
+        if (x >= 3.0) {
+          return 0.0;
+        }
+        final double pix = Math.PI * x;
+        return 3.0 * Math.sin(pix) * Math.sin(pix / 3.0) / (pix * pix);
+      }
+    };
+
+    final double support;
+
+    private Filter(final double support) {
+      this.support = support;
+    }
+
+    abstract double weight(double x);
+  }
+
+  /**
+   * Precomputed filter taps for one dimension: output pixel i is the weighted sum of
+   * count[i] input pixels starting at start[i], with weights at weights[i * stride].
+   */
+  static final class Contributions {
+    final int[] start;
+    final int[] count;
+    final float[] weights;
+    final int stride;
+
+    Contributions(final Filter filter, final int srcSize, final int dstSize) {
+      final double scale = (double) dstSize / srcSize;
+      final double filterScale = Math.max(1.0, 1.0 / scale);
+      final double support = filter.support * filterScale;
+
+      this.stride = (int) Math.ceil(support) * 2 + 1;
+      this.start = new int[dstSize];
+      this.count = new int[dstSize];
+      this.weights = new float[dstSize * this.stride];
+
+      for (int i = 0; i < dstSize; i++) {
+        final double center = (i + 0.5) / scale;
+        int left = (int) Math.floor(center - support);
+        int right = (int) Math.ceil(center + support);
+        if (left < 0) {
+          left = 0;
+        }
+        if (right > srcSize) {
+          right = srcSize;
+        }
+        if (right - left > this.stride) {
+          right = left + this.stride;
+        }
+
+        double total = 0.0;
+        int n = 0;
+        for (int j = left; j < right; j++) {
+          final float w = (float) filter.weight((j + 0.5 - center) / filterScale);
+          this.weights[i * this.stride + n] = w;
+          total += w;
+          n++;
+        }
+
+        if (total == 0.0) {
+          // Can only happen for BOX when upscaling exactly between two pixels: take the nearest one.
+          final int nearest = Math.min(srcSize - 1, Math.max(0, (int) center));
+          this.start[i] = nearest;
+          this.count[i] = 1;
+          this.weights[i * this.stride] = 1.0f;
+          continue;
+        }
+
+        for (int k = 0; k < n; k++) {
+          this.weights[i * this.stride + k] /= total;
+        }
+        this.start[i] = left;
+        this.count[i] = n;
+      }
+    }
+  }
+
+  /** Default for setParallelThreshold(): sources with at least this many pixels are resampled in parallel */
+  public static final long DEFAULT_PARALLEL_THRESHOLD = 4L * 1024 * 1024;
+
+  /** Number of stripes per worker thread, so that uneven stripes still keep all workers busy */
+  private static final int STRIPES_PER_THREAD = 2;
+
+  private static ForkJoinPool pool;
+
+  /**
+   * Scratch buffers, grown on demand: one source row, the intermediate buffer
+   * (dstWidth x some source rows) and one output row, each as premultiplied float planes.
+   */
+  private static final class Buffers {
+    int[] srcRow = new int[0];
+    float[] rowA = new float[0];
+    float[] rowR = new float[0];
+    float[] rowG = new float[0];
+    float[] rowB = new float[0];
+    float[] tmpA = new float[0];
+    float[] tmpR = new float[0];
+    float[] tmpG = new float[0];
+    float[] tmpB = new float[0];
+    float[] accA = new float[0];
+    float[] accR = new float[0];
+    float[] accG = new float[0];
+    float[] accB = new float[0];
+
+    void ensure(final int srcWidth, final int tmpRows, final int dstWidth) {
+      if (this.srcRow.length < srcWidth) {
+        this.srcRow = new int[srcWidth];
+        this.rowA = new float[srcWidth];
+        this.rowR = new float[srcWidth];
+        this.rowG = new float[srcWidth];
+        this.rowB = new float[srcWidth];
+      }
+      final int tmpSize = dstWidth * tmpRows;
+      if (this.tmpA.length < tmpSize) {
+        this.tmpA = new float[tmpSize];
+        this.tmpR = new float[tmpSize];
+        this.tmpG = new float[tmpSize];
+        this.tmpB = new float[tmpSize];
+      }
+      if (this.accA.length < dstWidth) {
+        this.accA = new float[dstWidth];
+        this.accR = new float[dstWidth];
+        this.accG = new float[dstWidth];
+        this.accB = new float[dstWidth];
+      }
+    }
+  }
+
+  private final Filter filter;
+
+  /**
+   * Buffers of each thread (including the workers of the pool), reused by all Resamplers: thumbnailers
+   * create a Resampler per image, but usually scale images of similar sizes one after another.
+   */
+  private static final ThreadLocal<Buffers> buffers = new ThreadLocal<Buffers>() {
+    @Override
+    protected Buffers initialValue() {
+      return new Buffers();
+    }
+  };
+
+  private long parallelThreshold = Resampler.DEFAULT_PARALLEL_THRESHOLD;
+
+
+  public Resampler(final Filter filter) {
+    if (filter == null) {
+      throw new NullPointerException("Filter may not be null");
+    }
+    this.filter = filter;
+  }
+
+
+  public Filter getFilter() {
+    return this.filter;
+  }
+
+
+  public long getParallelThreshold() {
+    return this.parallelThreshold;
+  }
+
+
+  /**
+   * Sources with at least this many pixels are split into horizontal stripes that are resampled
+   * on a shared ForkJoinPool. Each stripe filters the source rows it needs on its own,
+   * so rows within the filter support of two stripes are filtered twice.
+   *
+   * @param parallelThreshold Number of source pixels, or Long.MAX_VALUE to always use the calling thread only
+   */
+  public void setParallelThreshold(final long parallelThreshold) {
+    this.parallelThreshold = parallelThreshold;
+  }
+
+
+  /**
+   * Resample a BufferedImage of any type.
+   *
+   * @param src        Source image
+   * @param dstWidth   Width of the result (in Pixel, at least 1)
+   * @param dstHeight  Height of the result (in Pixel, at least 1)
+   * @return A new image of type TYPE_INT_ARGB
+   */
+  public BufferedImage resample(final BufferedImage src, final int dstWidth, final int dstHeight) {
+    final BufferedImage dst = new BufferedImage(dstWidth, dstHeight, BufferedImage.TYPE_INT_ARGB);
+    final int[] dstPixels = ((DataBufferInt) dst.getRaster().getDataBuffer()).getData();
+    this.resample(src, dstWidth, dstHeight, dstPixels);
+    return dst;
+  }
+
+
+  /**
+   * Resample a BufferedImage of any type into a packed ARGB array.
+   *
+   * @param src        Source image
+   * @param dstWidth   Width of the result (in Pixel, at least 1)
+   * @param dstHeight  Height of the result (in Pixel, at least 1)
+   * @param dst        Array of at least dstWidth * dstHeight entries that receives the non-premultiplied ARGB pixels
+   */
+  public void resample(final BufferedImage src, final int dstWidth, final int dstHeight, final int[] dst) {
+    final int[] direct = Resampler.getDirectPixels(src);
+    this.resample(direct, direct == null ? src : null, src.getWidth(), src.getHeight(), src.getColorModel().hasAlpha(),
+        dstWidth, dstHeight, dst);
+  }
+
+
+  /**
+   * Resample packed ARGB pixels.
+   *
+   * @param src        Source pixels (non-premultiplied ARGB, row after row)
+   * @param srcWidth   Width of the source
+   * @param srcHeight  Height of the source
+   * @param dstWidth   Width of the result (in Pixel, at least 1)
+   * @param dstHeight  Height of the result (in Pixel, at least 1)
+   * @param dst        Array of at least dstWidth * dstHeight entries, or null to allocate one
+   * @return dst (or the newly allocated array)
+   */
+  public int[] resample(final int[] src, final int srcWidth, final int srcHeight, final int dstWidth, final int dstHeight, int[] dst) {
+    if (dst == null) {
+      dst = new int[dstWidth * dstHeight];
+    }
+    this.resample(src, null, srcWidth, srcHeight, true, dstWidth, dstHeight, dst);
+    return dst;
+  }
+
+
+  /**
+   * @param pixels  Packed source pixels, or null to read them from image
+   * @param image   Source image (only used if pixels is null)
+   */
+  private void resample(final int[] pixels, final BufferedImage image, final int srcWidth, final int srcHeight,
+      final boolean hasAlpha, final int dstWidth, final int dstHeight, final int[] dst) {
+    final Contributions horizontal = new Contributions(this.filter, srcWidth, dstWidth);
+    final Contributions vertical = new Contributions(this.filter, srcHeight, dstHeight);
+
+    // Reading pixels concurrently with getRGB() is only safe without ICC conversions (which cache state lazily)
+    final boolean concurrentReads = pixels != null || image.getColorModel().getColorSpace().isCS_sRGB();
+    final int parallelism = Runtime.getRuntime().availableProcessors();
+    if ((long) srcWidth * srcHeight >= this.parallelThreshold && parallelism > 1 && dstHeight > 1 && concurrentReads) {
+      // Each stripe filters about 2 * support extra rows (in output rows), keep that overhead at 25% at most
+      final int minStripeHeight = (int) Math.ceil(8 * this.filter.support);
+      final int stripeHeight = Math.max(minStripeHeight, (dstHeight + parallelism * Resampler.STRIPES_PER_THREAD - 1)
+          / (parallelism * Resampler.STRIPES_PER_THREAD));
+      Resampler.getPool().invoke(new Stripes(pixels, image, srcWidth, hasAlpha, horizontal, vertical,
+          dstWidth, dst, 0, dstHeight, stripeHeight));
+    } else {
+      Resampler.resampleStripe(pixels, image, srcWidth, hasAlpha, horizontal, vertical, dstWidth, dst,
+          0, dstHeight, Resampler.buffers.get());
+    }
+  }
+
+
+  /**
+   * Splits the output rows until the stripes are small enough, then resamples each stripe with the buffers
+   * of the worker thread that runs it.
+   */
+  private static final class Stripes extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final int[] pixels;
+    private final BufferedImage image;
+    private final int srcWidth;
+    private final boolean hasAlpha;
+    private final Contributions horizontal;
+    private final Contributions vertical;
+    private final int dstWidth;
+    private final int[] dst;
+    private final int fromRow;
+    private final int toRow;
+    private final int stripeHeight;
+
+    Stripes(final int[] pixels, final BufferedImage image, final int srcWidth, final boolean hasAlpha,
+        final Contributions horizontal, final Contributions vertical, final int dstWidth, final int[] dst,
+        final int fromRow, final int toRow, final int stripeHeight) {
+      this.pixels = pixels;
+      this.image = image;
+      this.srcWidth = srcWidth;
+      this.hasAlpha = hasAlpha;
+      this.horizontal = horizontal;
+      this.vertical = vertical;
+      this.dstWidth = dstWidth;
+      this.dst = dst;
+      this.fromRow = fromRow;
+      this.toRow = toRow;
+      this.stripeHeight = stripeHeight;
+    }
+
+    @Override
+    protected void compute() {
+      if (this.toRow - this.fromRow < 2 * this.stripeHeight) {
+        Resampler.resampleStripe(this.pixels, this.image, this.srcWidth, this.hasAlpha, this.horizontal, this.vertical,
+            this.dstWidth, this.dst, this.fromRow, this.toRow, Resampler.buffers.get());
+        return;
+      }
+      final int middle = (this.fromRow + this.toRow) >>> 1;
+      ForkJoinTask.invokeAll(
+          new Stripes(this.pixels, this.image, this.srcWidth, this.hasAlpha, this.horizontal, this.vertical,
+              this.dstWidth, this.dst, this.fromRow, middle, this.stripeHeight),
+          new Stripes(this.pixels, this.image, this.srcWidth, this.hasAlpha, this.horizontal, this.vertical,
+              this.dstWidth, this.dst, middle, this.toRow, this.stripeHeight));
+    }
+  }
+
+
+  private static synchronized ForkJoinPool getPool() {
+    if (Resampler.pool == null) {
+      Resampler.pool = new ForkJoinPool();
+    }
+    return Resampler.pool;
+  }
+
+
+  /**
+   * Compute the output rows [fromRow, toRow): filter the source rows they need horizontally, then vertically.
+   */
+  private static void resampleStripe(final int[] pixels, final BufferedImage image, final int srcWidth, final boolean hasAlpha,
+      final Contributions horizontal, final Contributions vertical, final int dstWidth, final int[] dst,
+      final int fromRow, final int toRow, final Buffers buffers) {
+    int firstSrcRow = Integer.MAX_VALUE;
+    int endSrcRow = 0;
+    for (int y = fromRow; y < toRow; y++) {
+      firstSrcRow = Math.min(firstSrcRow, vertical.start[y]);
+      endSrcRow = Math.max(endSrcRow, vertical.start[y] + vertical.count[y]);
+    }
+    buffers.ensure(srcWidth, endSrcRow - firstSrcRow, dstWidth);
+
+    final boolean offHeap = pixels == null && OffHeapImage.isOffHeap(image);
+    for (int y = firstSrcRow; y < endSrcRow; y++) {
+      if (pixels != null) {
+        Resampler.filterRow(pixels, y * srcWidth, srcWidth, hasAlpha, horizontal, dstWidth, y - firstSrcRow, buffers);
+      } else {
+        if (offHeap) {
+          OffHeapImage.getRow(image, y, buffers.srcRow, 0);
+        } else {
+          image.getRGB(0, y, srcWidth, 1, buffers.srcRow, 0, srcWidth);
+        }
+        Resampler.filterRow(buffers.srcRow, 0, srcWidth, hasAlpha, horizontal, dstWidth, y - firstSrcRow, buffers);
+      }
+    }
+
+    Resampler.filterColumns(vertical, fromRow, toRow, firstSrcRow, dstWidth, dst, buffers);
+  }
+
+
+  /**
+   * Horizontal pass for one source row: unpack into premultiplied planes,
+   * then write dstWidth filtered values into row tmpRow of the intermediate buffer.
+   */
+  private static void filterRow(final int[] pixels, final int offset, final int srcWidth, final boolean hasAlpha,
+      final Contributions c, final int dstWidth, final int tmpRow, final Buffers buffers) {
+    final float[] a = buffers.rowA;
+    final float[] r = buffers.rowR;
+    final float[] g = buffers.rowG;
+    final float[] b = buffers.rowB;
+
+    for (int x = 0; x < srcWidth; x++) {
+      final int argb = pixels[offset + x];
+      final int alpha = hasAlpha ? argb >>> 24 : 255;
+      final float f = alpha / 255.0f;
+      a[x] = alpha;
+      r[x] = ((argb >> 16) & 0xff) * f;
+      g[x] = ((argb >> 8) & 0xff) * f;
+      b[x] = (argb & 0xff) * f;
+    }
+
+    final int base = tmpRow * dstWidth;
+    for (int i = 0; i < dstWidth; i++) {
+      final int start = c.start[i];
+      final int n = c.count[i];
+      final int w0 = i * c.stride;
+      float sa = 0, sr = 0, sg = 0, sb = 0;
+      for (int k = 0; k < n; k++) {
+        final float w = c.weights[w0 + k];
+        sa += a[start + k] * w;
+        sr += r[start + k] * w;
+        sg += g[start + k] * w;
+        sb += b[start + k] * w;
+      }
+      buffers.tmpA[base + i] = sa;
+      buffers.tmpR[base + i] = sr;
+      buffers.tmpG[base + i] = sg;
+      buffers.tmpB[base + i] = sb;
+    }
+  }
+
+
+  /**
+   * Vertical pass for the output rows [fromRow, toRow), packing the result into dst.
+   *
+   * @param firstSrcRow Source row that is stored in the first row of the intermediate buffer
+   */
+  private static void filterColumns(final Contributions c, final int fromRow, final int toRow, final int firstSrcRow,
+      final int dstWidth, final int[] dst, final Buffers buffers) {
+    final float[] a = buffers.accA;
+    final float[] r = buffers.accR;
+    final float[] g = buffers.accG;
+    final float[] b = buffers.accB;
+    final float[] tmpA = buffers.tmpA;
+    final float[] tmpR = buffers.tmpR;
+    final float[] tmpG = buffers.tmpG;
+    final float[] tmpB = buffers.tmpB;
+
+    for (int y = fromRow; y < toRow; y++) {
+      for (int x = 0; x < dstWidth; x++) {
+        a[x] = 0;
+        r[x] = 0;
+        g[x] = 0;
+        b[x] = 0;
+      }
+
+      final int n = c.count[y];
+      for (int k = 0; k < n; k++) {
+        final float w = c.weights[y * c.stride + k];
+        final int base = (c.start[y] + k - firstSrcRow) * dstWidth;
+        // Contiguous loops: these are the ones the JIT vectorizes.
+        for (int x = 0; x < dstWidth; x++) {
+          a[x] += tmpA[base + x] * w;
+        }
+        for (int x = 0; x < dstWidth; x++) {
+          r[x] += tmpR[base + x] * w;
+        }
+        for (int x = 0; x < dstWidth; x++) {
+          g[x] += tmpG[base + x] * w;
+        }
+        for (int x = 0; x < dstWidth; x++) {
+          b[x] += tmpB[base + x] * w;
+        }
+      }
+
+      final int out = y * dstWidth;
+      for (int x = 0; x < dstWidth; x++) {
+        dst[out + x] = Resampler.pack(a[x], r[x], g[x], b[x]);
+      }
+    }
+  }
+
+
+  /**
+   * Convert premultiplied float channels back to a non-premultiplied ARGB int.
+   */
+  private static int pack(final float a, float r, float g, float b) {
+    final int alpha = Resampler.clamp(a);
+    if (alpha == 0) {
+      return 0;
+    }
+    if (alpha < 255) {
+      final float f = 255.0f / a;
+      r *= f;
+      g *= f;
+      b *= f;
+    }
+    return alpha << 24 | Resampler.clamp(r) << 16 | Resampler.clamp(g) << 8 | Resampler.clamp(b);
+  }
+
+
+  private static int clamp(final float v) {
+    final int i = (int) (v + 0.5f);
+    return i < 0 ? 0 : i > 255 ? 255 : i;
+  }
+
+
+  /**
+   * Get the backing array of images whose raster already is packed (A)RGB without padding,
+   * so rows can be read without any color conversion.
+   *
+   * @return Pixel array, or null if pixels need to be fetched via getRGB()
+   */
+  private static int[] getDirectPixels(final BufferedImage image) {
+    final int type = image.getType();
+    if (type != BufferedImage.TYPE_INT_ARGB && type != BufferedImage.TYPE_INT_RGB) {
+      return null;
+    }
+    if (image.getRaster().getParent() != null) {
+      return null; // Sub-image: rows are not contiguous
+    }
+    return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+  }
+}
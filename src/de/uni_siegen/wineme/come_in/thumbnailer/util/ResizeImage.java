@@ -23,27 +23,46 @@ package de.uni_siegen.wineme.come_in.thumbnailer.util;
 
 import java.awt.Color;
 import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.Rectangle;
 import java.awt.RenderingHints;
+import java.awt.color.ColorSpace;
 import java.awt.geom.AffineTransform;
 import java.awt.image.AffineTransformOp;
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
 
+import javax.imageio.IIOException;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.spi.ImageReaderSpi;
+import javax.imageio.stream.ImageInputStream;
 
 import com.drew.imaging.ImageMetadataReader;
 import com.drew.imaging.ImageProcessingException;
 import com.drew.metadata.Metadata;
-import com.drew.metadata.MetadataException;
-import com.drew.metadata.exif.ExifDirectoryBase;
-import com.drew.metadata.exif.ExifIFD0Directory;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.log4j.Logger;
+import org.w3c.dom.Node;
 
 import de.uni_siegen.wineme.come_in.thumbnailer.UnsupportedInputFileFormatException;
+import de.uni_siegen.wineme.come_in.thumbnailer.util.codec.JpegDecoder;
+import de.uni_siegen.wineme.come_in.thumbnailer.util.codec.PngEncoder;
+import de.uni_siegen.wineme.come_in.thumbnailer.util.codec.PngRowReader;
+import de.uni_siegen.wineme.come_in.thumbnailer.util.codec.ThumbnailEncoder;
+import de.uni_siegen.wineme.come_in.thumbnailer.util.codec.WebpEncoder;
 
 /**
  * Resize an image.
@@ -57,8 +76,12 @@ public class ResizeImage {
   private static final Logger mLog = Logger.getLogger(ResizeImage.class);
 
   BufferedImage inputImage;
+  /** Set instead of inputImage if the image is too big to be decoded at once */
+  private File streamedInput;
   private boolean isProcessed = false;
   BufferedImage outputImage;
+  /** Whether outputImage was taken from the RasterPool (and not, e.g., the input image) */
+  private boolean outputPooled = false;
 
   private int imageWidth;
   private int imageHeight;
@@ -97,12 +120,92 @@ public class ResizeImage {
   public int resizeMethod = ResizeImage.RESIZE_FIT_BOTH_DIMENSIONS;
   public int extraOptions = 0; //ResizeImage.DO_NOT_SCALE_UP;
 
+  /**
+   * Filter used when scaling down (see ThumbnailOptions.setResampleFilter()). If null (the default), Java2D's bilinear
+   * interpolation is used instead, which is much faster, but aliased for large reduction ratios.
+   */
+  public Resampler.Filter resampleFilter = null;
+
+  /**
+   * Images with at least this many pixels are resampled on all processors (see Resampler.setParallelThreshold()).
+   * Long.MAX_VALUE disables this, e.g. if thumbnails are already created by several threads at once.
+   */
+  public long parallelPixelThreshold = Resampler.DEFAULT_PARALLEL_THRESHOLD;
+
+  /**
+   * Images with more pixels than this are never decoded as a whole: instead, they are decoded band by band
+   * and downscaled on the fly, so memory usage depends on the thumbnail size only.
+   * Default: images that would take more than a quarter of the heap.
+   */
+  public long streamingPixelThreshold = Runtime.getRuntime().maxMemory() / 16;
+
+  /**
+   * If set, decoding a file waits for (or is refused) memory according to this budget.
+   * With policy SUBSAMPLE, images that do not fit are decoded at a lower resolution.
+   * The memory is given back by dispose().
+   */
+  public MemoryBudget memoryBudget = null;
+
+  /**
+   * Decoded images with at least this many pixels are stored off the Java heap (see OffHeapImage),
+   * if the image reader can decode into such an image. Their memory is given back by dispose().
+   * Default: never.
+   */
+  public long offHeapPixelThreshold = Long.MAX_VALUE;
+
+  /**
+   * Decode JPEG files with JpegDecoder, directly at the smallest DCT scale (1/2, 1/4 or 1/8) that is
+   * still at least as large as the thumbnail. Files it cannot handle are decoded by ImageIO.
+   */
+  public boolean preferJpegDecoder = false;
+
+  /**
+   * JpegDecoder reads the whole file into memory: bigger JPEG files (in Bytes) are decoded by ImageIO instead.
+   * Default: a sixteenth of the heap.
+   */
+  public long jpegDecoderMaxFileSize = Runtime.getRuntime().maxMemory() / 16;
+
+  /**
+   * Non-interlaced PNG files with more pixels than this are inflated row by row (see PngRowReader) and
+   * downscaled on the fly, if the thumbnail is less than half their size. This keeps the memory usage
+   * at about one row plus the thumbnail, instead of the whole decoded image.
+   */
+  public long pngStreamingPixelThreshold = 4L * 1024 * 1024;
+
+  /**
+   * Skip color management: take RGB and gray samples as sRGB regardless of embedded ICC profiles,
+   * and convert CMYK with the naive formula. Faster, and usually good enough for thumbnails.
+   * (Images without a standard layout are converted once before scaling in any case, see ColorNormalizer.)
+   */
+  public boolean ignoreColorProfile = false;
+
+  /**
+   * MIME type of the input file, if it is known already. The reader for it is then taken from
+   * ImageReaderPool instead of asking all registered readers whether they can decode the file.
+   */
+  public String mimeType = null;
+
+  /** How long to wait for an asynchronous image producer (in ms) */
+  private static final long IMAGE_PRODUCER_TIMEOUT = 10000;
+
+  /** Approximate size of a decoded band in streaming mode (in Bytes) */
+  private static final int STREAMING_BAND_SIZE = 4 * 1024 * 1024;
+
   private int scaledWidth;
   private int scaledHeight;
   private int offsetX;
   private int offsetY;
 
   private int exifOrientation;
+  /** File whose metadata getMetadata() reads, if the input was a file */
+  private File metadataSource;
+  private Metadata metadata;
+
+  private MemoryBudget.Grant memoryGrant;
+  /** Whether inputImage was decoded off-heap by this object (and has to be released by it) */
+  private boolean inputOffHeap;
+  /** Whether inputImage is only the visible region of the source file (see getVisibleRegion()) */
+  private boolean inputCropped;
 
 
   public ResizeImage(final int thumbWidth, final int thumbHeight) {
@@ -112,26 +215,169 @@ public class ResizeImage {
 
 
   public void setInputImage(final File input) throws IOException {
-    final BufferedImage image = ImageIO.read(input);
+    this.releaseInput();
+    if (this.preferJpegDecoder && JpegDecoder.isJpeg(input) && this.decodeJpeg(input)) {
+      return;
+    }
+
+    final ImageReader reader = this.openReader(input);
+    if (reader == null) {
+      this.setInputImage((BufferedImage) null);
+      return;
+    }
+
+    BufferedImage image = null;
+    boolean cropped = false;
+    boolean decoded = false;
     try {
-      final Metadata metadata = ImageMetadataReader.readMetadata(input);
-      this.handleMetadata(metadata);
-    } catch (final ImageProcessingException e) {
-      ResizeImage.mLog.info("Could not read image metadata, therefore there will be no auto-rotation according to EXIF information.");
+      final int width = reader.getWidth(0);
+      final int height = reader.getHeight(0);
+      final long pixels = (long) width * height;
+      if (pixels > this.streamingPixelThreshold
+          || pixels > this.pngStreamingPixelThreshold && "png".equalsIgnoreCase(reader.getFormatName())
+              && this.getResizeRatio(this.resizeMethod, width, height) < 0.5) {
+        // Decode later, once the target size is known.
+        this.admitMemory(2L * ResizeImage.STREAMING_BAND_SIZE, false);
+        this.inputImage = null;
+        this.streamedInput = input;
+        this.isProcessed = false;
+        this.imageWidth = width;
+        this.imageHeight = height;
+      } else {
+        final ImageReadParam param = reader.getDefaultReadParam();
+        final Rectangle region = this.getVisibleRegion(width, height);
+        int subsampling = 1;
+        if (region != null) {
+          // Only decode what ends up in the thumbnail
+          param.setSourceRegion(region);
+          subsampling = this.getRegionSubsampling(width, height);
+          cropped = true;
+        }
+        final int regionWidth = region == null ? width : region.width;
+        final int regionHeight = region == null ? height : region.height;
+
+        final int budgetSubsampling = this.admitMemory(MemoryBudget.estimateRaster(
+            (regionWidth + subsampling - 1) / subsampling, (regionHeight + subsampling - 1) / subsampling), true);
+        if (budgetSubsampling > 1) {
+          ResizeImage.mLog.info("Not enough memory budget left for " + width + "x" + height + " pixels, decoding with subsampling " + budgetSubsampling);
+          subsampling *= budgetSubsampling;
+        }
+        if (subsampling > 1) {
+          param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        }
+        final int sampledWidth = (regionWidth + subsampling - 1) / subsampling;
+        final int sampledHeight = (regionHeight + subsampling - 1) / subsampling;
+        if ((long) sampledWidth * sampledHeight >= this.offHeapPixelThreshold) {
+          image = ResizeImage.readOffHeap(reader, param, sampledWidth, sampledHeight);
+        }
+        if (image == null) {
+          if (this.ignoreColorProfile) {
+            final ImageTypeSpecifier standardType = ColorNormalizer.getStandardType(reader, 0);
+            if (standardType != null) {
+              param.setDestinationType(standardType);
+            }
+          }
+          image = ResizeImage.readImage(reader, param);
+        }
+      }
+      decoded = true;
+    } finally {
+      ResizeImage.closeReader(reader);
+      if (!decoded) {
+        this.releaseMemory();
+      }
+    }
+
+    this.readOrientation(input);
+
+    if (this.streamedInput == null) {
+      this.setInputImage(image);
+      this.inputOffHeap = OffHeapImage.isOffHeap(image);
+      this.inputCropped = cropped;
     }
-    this.setInputImage(image);
   }
 
 
-  public void setInputImage(final InputStream input) throws IOException {
-    final BufferedImage image = ImageIO.read(input);
+  /**
+   * Decode a JPEG file with JpegDecoder at a reduced scale.
+   *
+   * @return False if the file should be decoded with ImageIO instead: because the thumbnail needs the full resolution
+   *         of a baseline file, the file is too big, it has a color profile that should be applied,
+   *         or it cannot be decoded.
+   */
+  private boolean decodeJpeg(final File input) throws IOException {
+    final long fileSize = input.length();
+    if (fileSize > this.jpegDecoderMaxFileSize) {
+      return false;
+    }
+    final JpegDecoder decoder = new JpegDecoder(FileUtils.readFileToByteArray(input));
+    try {
+      decoder.readHeader();
+    } catch (final IOException e) {
+      ResizeImage.mLog.debug("JpegDecoder cannot read " + input.getName() + ", using ImageIO", e);
+      return false;
+    }
+    if (decoder.hasColorProfile() && !this.ignoreColorProfile) {
+      return false;
+    }
+
+    final int width = decoder.getWidth();
+    final int height = decoder.getHeight();
+    final double ratio = this.getResizeRatio(this.resizeMethod, width, height);
+    int scale = 1;
+    while (scale < 8 && ratio * scale * 2 <= 1.0) {
+      scale *= 2;
+    }
+    // At full scale, ImageIO's native decoder is faster - except for progressive files.
+    // Progressive files keep the coefficients of the full resolution, so they are only decoded here
+    // if ImageIO would not stream them.
+    if (scale == 1 && !decoder.isProgressive()
+        || decoder.isProgressive() && (long) width * height > this.streamingPixelThreshold
+        || (long) JpegDecoder.scaledSize(width, scale) * JpegDecoder.scaledSize(height, scale) > this.streamingPixelThreshold) {
+      return false;
+    }
+
+    // Progressive files keep all coefficients in memory (2 Bytes each, 1.5 per pixel with 4:2:0 chroma)
+    final long coefficients = decoder.isProgressive() ? 3L * width * height : 0;
+    final int subsampling = this.admitMemory(fileSize + coefficients
+        + MemoryBudget.estimateRaster(JpegDecoder.scaledSize(width, scale), JpegDecoder.scaledSize(height, scale)), true);
+    for (int factor = 1; factor < subsampling && scale < 8; factor *= 2) {
+      scale *= 2;
+    }
+
+    final BufferedImage image;
     try {
-      final Metadata metadata = ImageMetadataReader.readMetadata(input);
-      this.handleMetadata(metadata);
-    } catch (final ImageProcessingException e) {
-      ResizeImage.mLog.info("Could not read image metadata, therefore there will be no auto-rotation according to EXIF information.");
+      image = decoder.decode(scale);
+    } catch (final IOException | RuntimeException e) {
+      ResizeImage.mLog.info("JpegDecoder could not decode " + input.getName() + ", using ImageIO", e);
+      this.releaseMemory();
+      return false;
     }
+
+    this.readOrientation(input);
+    this.setInputImage(image);
+    return true;
+  }
+
+
+  private void readOrientation(final File input) {
+    this.exifOrientation = ExifOrientation.read(input);
+    this.metadataSource = input;
+    this.metadata = null;
+  }
+
+
+  public void setInputImage(final InputStream input) throws IOException {
+    final BufferedInputStream buffered = new BufferedInputStream(input);
+    buffered.mark(ExifOrientation.MAX_PROBE_POSITION);
+    final int orientation = ExifOrientation.read(buffered);
+    buffered.reset();
+
+    final BufferedImage image = ImageIO.read(buffered);
     this.setInputImage(image);
+    this.exifOrientation = orientation;
+    this.metadataSource = null;
+    this.metadata = null;
   }
 
 
@@ -140,7 +386,10 @@ public class ResizeImage {
       throw new UnsupportedInputFileFormatException("The image reader could not open the file.");
     }
 
-    this.inputImage = input;
+    this.releaseInput();
+    this.inputImage = ColorNormalizer.normalize(input, this.ignoreColorProfile);
+    this.inputCropped = false;
+    this.streamedInput = null;
     this.isProcessed = false;
     this.imageWidth = this.inputImage.getWidth(null);
     this.imageHeight = this.inputImage.getHeight(null);
@@ -148,7 +397,23 @@ public class ResizeImage {
 
 
   public void writeOutput(final File output) throws IOException {
-    this.writeOutput(output, "PNG");
+    this.writeOutput(output, new PngEncoder());
+  }
+
+
+  public void writeOutput(final File output, final ThumbnailEncoder encoder) throws IOException {
+    encoder.write(this.getOutputImage(), output);
+  }
+
+
+  /**
+   * Get the thumbnail, e.g. in order to choose an encoder for it. It is valid until dispose().
+   */
+  public BufferedImage getOutputImage() throws IOException {
+    if (!this.isProcessed) {
+      this.process();
+    }
+    return this.outputImage;
   }
 
 
@@ -157,28 +422,92 @@ public class ResizeImage {
       this.process();
     }
 
+    if ("webp".equalsIgnoreCase(format)) {
+      // ImageIO has no WebP writer
+      new WebpEncoder().write(this.outputImage, output);
+      return;
+    }
     ImageIO.write(this.outputImage, format, output);
   }
 
 
-  private void handleMetadata(final Metadata metadata) {
-    final ExifIFD0Directory directory = metadata.getFirstDirectoryOfType(ExifIFD0Directory.class);
+  /**
+   * Hand the internal image buffers back to the RasterPool of the current thread,
+   * and free an off-heap input image and reserved memory budget.
+   * Call this after the last writeOutput(), when the thumbnail is not needed anymore.
+   */
+  public void dispose() {
+    if (this.outputPooled) {
+      RasterPool.release(this.outputImage);
+    }
+    this.outputImage = null;
+    this.outputPooled = false;
+    this.isProcessed = false;
+    this.releaseInput();
+    this.releaseMemory();
+  }
+
+
+  /**
+   * Free the input image if it was decoded off-heap by setInputImage(File).
+   */
+  private void releaseInput() {
+    if (this.inputOffHeap) {
+      OffHeapImage.release(this.inputImage);
+      this.inputImage = null;
+      this.inputOffHeap = false;
+    }
+  }
+
+
+  /**
+   * Reserve memory for decoding from memoryBudget (if any), replacing an earlier reservation.
+   *
+   * @param bytes         Estimated memory needed for decoding
+   * @param canSubsample  Whether the image may be decoded at a lower resolution
+   * @return Subsampling factor to decode with (1 = full resolution)
+   */
+  private int admitMemory(final long bytes, final boolean canSubsample) throws IOException {
+    this.releaseMemory();
+    if (this.memoryBudget == null) {
+      return 1;
+    }
+    this.memoryGrant = this.memoryBudget.acquire(bytes, canSubsample);
+    return this.memoryGrant.getSubsampling();
+  }
+
+
+  private void releaseMemory() {
+    if (this.memoryGrant != null) {
+      this.memoryGrant.release();
+      this.memoryGrant = null;
+    }
+  }
 
-    int orientation = 1;
-    if (directory != null) {
+
+  /**
+   * Get all metadata of the input file (EXIF, XMP, IPTC ...). They are only parsed when asked for:
+   * creating the thumbnail only needs the orientation, which is probed separately (see ExifOrientation).
+   *
+   * @return The metadata, or null if the input was not set from a file.
+   * @throws IOException If the file could not be read
+   */
+  public Metadata getMetadata() throws IOException {
+    if (this.metadata == null && this.metadataSource != null) {
       try {
-        orientation = directory.getInt(ExifDirectoryBase.TAG_ORIENTATION);
-      } catch (final MetadataException e) {
-        ResizeImage.mLog.info("Could not read image orientation tag");
+        this.metadata = ImageMetadataReader.readMetadata(this.metadataSource);
+      } catch (final ImageProcessingException e) {
+        throw new IOException("Could not read metadata of " + this.metadataSource.getName(), e);
       }
     }
-    this.exifOrientation = orientation;
+    return this.metadata;
   }
 
 
-  private void process() {
-    if (this.imageWidth == this.thumbWidth && this.imageHeight == this.thumbHeight) {
+  private void process() throws IOException {
+    if (this.inputImage != null && !this.inputCropped && this.imageWidth == this.thumbWidth && this.imageHeight == this.thumbHeight) {
       this.outputImage = this.inputImage;
+      this.outputPooled = false;
     } else {
       this.calcDimensions(this.resizeMethod);
       this.paint();
@@ -189,24 +518,7 @@ public class ResizeImage {
 
 
   private void calcDimensions(final int resizeMethod) {
-    switch (resizeMethod) {
-      case RESIZE_FIT_BOTH_DIMENSIONS:
-        this.resizeRatio = Math.min((double) this.thumbWidth / this.imageWidth, (double) this.thumbHeight / this.imageHeight);
-        break;
-
-      case RESIZE_FIT_ONE_DIMENSION:
-        this.resizeRatio = Math.max((double) this.thumbWidth / this.imageWidth, (double) this.thumbHeight / this.imageHeight);
-        break;
-
-      case NO_RESIZE_ONLY_CROP:
-        this.resizeRatio = 1.0;
-        break;
-    }
-    if ((this.extraOptions & ResizeImage.DO_NOT_SCALE_UP) > 0) {
-      if (this.resizeRatio > 1.0) {
-        this.resizeRatio = 1.0;
-      }
-    }
+    this.resizeRatio = this.getResizeRatio(resizeMethod, this.imageWidth, this.imageHeight);
 
     this.scaledWidth = (int) Math.round(this.imageWidth * this.resizeRatio);
     this.scaledHeight = (int) Math.round(this.imageHeight * this.resizeRatio);
@@ -233,9 +545,72 @@ public class ResizeImage {
   }
 
 
-  private void paint() {
+  private double getResizeRatio(final int resizeMethod, final int width, final int height) {
+    double ratio = this.resizeRatio;
+    switch (resizeMethod) {
+      case RESIZE_FIT_BOTH_DIMENSIONS:
+        ratio = Math.min((double) this.thumbWidth / width, (double) this.thumbHeight / height);
+        break;
+
+      case RESIZE_FIT_ONE_DIMENSION:
+        ratio = Math.max((double) this.thumbWidth / width, (double) this.thumbHeight / height);
+        break;
+
+      case NO_RESIZE_ONLY_CROP:
+        ratio = 1.0;
+        break;
+    }
+    if ((this.extraOptions & ResizeImage.DO_NOT_SCALE_UP) > 0) {
+      if (ratio > 1.0) {
+        ratio = 1.0;
+      }
+    }
+    return ratio;
+  }
 
-    this.outputImage = new BufferedImage(this.thumbWidth, this.thumbHeight, BufferedImage.TYPE_INT_ARGB);
+
+  /**
+   * With the crop-style resize methods, the scaled image is drawn at the top left corner and
+   * clipped at the thumbnail border. Compute which part of the source is still visible then,
+   * plus a margin so that the resampling filter sees the same neighbours at the border.
+   *
+   * @param width   Width of the source image
+   * @param height  Height of the source image
+   * @return Visible region in source coordinates, or null if the whole image is visible.
+   */
+  private Rectangle getVisibleRegion(final int width, final int height) {
+    if (this.resizeMethod != ResizeImage.RESIZE_FIT_ONE_DIMENSION && this.resizeMethod != ResizeImage.NO_RESIZE_ONLY_CROP) {
+      return null;
+    }
+
+    final double ratio = this.getResizeRatio(this.resizeMethod, width, height);
+    int margin = 0;
+    if (ratio < 1.0) {
+      final double support = this.resampleFilter == null ? 1.0 : this.resampleFilter.support;
+      margin = (int) Math.ceil((support + 1) / ratio);
+    }
+    final int visibleWidth = (int) Math.min(width, Math.ceil(this.thumbWidth / ratio) + margin);
+    final int visibleHeight = (int) Math.min(height, Math.ceil(this.thumbHeight / ratio) + margin);
+    if (visibleWidth == width && visibleHeight == height) {
+      return null;
+    }
+    return new Rectangle(0, 0, visibleWidth, visibleHeight);
+  }
+
+
+  /**
+   * Subsampling for decoding a region: as with streamed decoding, keep at least two source pixels per output pixel.
+   */
+  private int getRegionSubsampling(final int width, final int height) {
+    final double ratio = this.getResizeRatio(this.resizeMethod, width, height);
+    return Math.max(1, (int) (1.0 / ratio) / 2);
+  }
+
+
+  private void paint() throws IOException {
+
+    this.outputImage = RasterPool.acquire(this.thumbWidth, this.thumbHeight, BufferedImage.TYPE_INT_ARGB);
+    this.outputPooled = true;
     final Graphics2D graphics2D = this.outputImage.createGraphics();
 
     // Fill background with white color
@@ -243,27 +618,22 @@ public class ResizeImage {
     graphics2D.setPaint(Color.WHITE);
     graphics2D.fillRect(0, 0, this.thumbWidth, this.thumbHeight);
 
-    // Enable smooth, high-quality resampling
-    graphics2D.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-
-    final ThumbnailReadyObserver observer = new ThumbnailReadyObserver(Thread.currentThread());
-    final boolean scalingComplete = graphics2D.drawImage(this.inputImage, this.offsetX, this.offsetY, this.scaledWidth, this.scaledHeight, observer);
-
-    if (!scalingComplete && observer != null) {
-      // ImageObserver must wait for ready
-      if (ResizeImage.mLog.isDebugEnabled()) {
-        throw new RuntimeException("Scaling is not yet complete!");
-      } else {
-        ResizeImage.mLog.warn("ResizeImage: Scaling is not yet complete!");
+    if (this.streamedInput != null) {
+      final BufferedImage scaled = this.decodeStreamed(Math.max(1, this.scaledWidth), Math.max(1, this.scaledHeight));
+      this.drawScaled(graphics2D, scaled);
+    } else if (this.resampleFilter != null && this.resizeRatio < 1.0 && this.scaledWidth > 0 && this.scaledHeight > 0) {
+      final BufferedImage scaled = RasterPool.acquire(this.scaledWidth, this.scaledHeight, BufferedImage.TYPE_INT_ARGB);
+      final int[] pixels = ((DataBufferInt) scaled.getRaster().getDataBuffer()).getData();
+      final Resampler resampler = new Resampler(this.resampleFilter);
+      resampler.setParallelThreshold(this.parallelPixelThreshold);
+      resampler.resample(this.inputImage, this.scaledWidth, this.scaledHeight, pixels);
+      graphics2D.drawImage(scaled, this.offsetX, this.offsetY, null);
+      RasterPool.release(scaled);
+    } else {
+      // Enable smooth, high-quality resampling
+      graphics2D.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
 
-        while (!observer.ready) {
-          System.err.println("Waiting .4 sec...");
-          try {
-            Thread.sleep(400);
-          } catch (final InterruptedException e) {
-          }
-        }
-      }
+      this.drawScaled(graphics2D, this.inputImage);
     }
 
     graphics2D.dispose();
@@ -271,6 +641,10 @@ public class ResizeImage {
 
     // rotate the thumbnail according to the exif information
     final AffineTransform transformation = this.getExifTransformation();
+    if (transformation.isIdentity()) {
+      return;
+    }
+    final BufferedImage unrotated = this.outputImage;
     final AffineTransformOp affineTransformOp = new AffineTransformOp(transformation, AffineTransformOp.TYPE_BICUBIC);
     final ColorModel destCM = this.outputImage.getType() == BufferedImage.TYPE_BYTE_GRAY ? this.outputImage.getColorModel() : null;
     final BufferedImage destinationImage = affineTransformOp.createCompatibleDestImage(this.outputImage, destCM);
@@ -279,11 +653,250 @@ public class ResizeImage {
     graphics.clearRect(0, 0, destinationImage.getWidth(), destinationImage.getHeight());
     this.outputImage = affineTransformOp.filter(this.outputImage, destinationImage);
     graphics.dispose();
+    RasterPool.release(unrotated);
+    this.outputPooled = false;
 
   }
 
 
 
+  /**
+   * Draw the image at its scaled size and position.
+   * If the image is produced asynchronously (i.e. drawImage() returns false), wait for the producer
+   * to complete and draw again.
+   */
+  private void drawScaled(final Graphics2D graphics2D, final Image image) {
+    final ThumbnailReadyObserver observer = new ThumbnailReadyObserver();
+    if (graphics2D.drawImage(image, this.offsetX, this.offsetY, this.scaledWidth, this.scaledHeight, observer)) {
+      return;
+    }
+
+    try {
+      if (observer.await(ResizeImage.IMAGE_PRODUCER_TIMEOUT, TimeUnit.MILLISECONDS)) {
+        graphics2D.drawImage(image, this.offsetX, this.offsetY, this.scaledWidth, this.scaledHeight, null);
+      } else if (observer.getFailure() != null) {
+        ResizeImage.mLog.warn("Image producer reported an " + observer.getFailure() + ", thumbnail may be incomplete.");
+      } else {
+        ResizeImage.mLog.warn("Image was not complete after " + ResizeImage.IMAGE_PRODUCER_TIMEOUT + " ms, thumbnail may be incomplete.");
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      ResizeImage.mLog.warn("Interrupted while waiting for the image, thumbnail may be incomplete.");
+    }
+  }
+
+
+  /**
+   * Decode the streamed input band by band, feeding every band into an AreaAccumulator.
+   * Bands are read subsampled where this does not hurt quality (i.e. as long as there are still
+   * at least two source pixels per output pixel), which also saves most of the decoding work.
+   *
+   * @param width  Width of the scaled image
+   * @param height Height of the scaled image
+   * @return The scaled image (at most the size of the input image)
+   * @throws IOException If the image could not be decoded
+   */
+  private BufferedImage decodeStreamed(int width, int height) throws IOException {
+    final BufferedImage png = this.decodePngRows(width, height);
+    if (png != null) {
+      return png;
+    }
+
+    final ImageReader reader = this.openReader(this.streamedInput);
+    if (reader == null) {
+      throw new UnsupportedInputFileFormatException("The image reader could not open the file.");
+    }
+
+    try {
+      final int subsampling = Math.max(1, Math.min(this.imageWidth / width, this.imageHeight / height) / 2);
+      final int sampledWidth = (this.imageWidth + subsampling - 1) / subsampling;
+      final int sampledHeight = (this.imageHeight + subsampling - 1) / subsampling;
+      width = Math.min(width, sampledWidth);
+      height = Math.min(height, sampledHeight);
+
+      // Band height must be a multiple of the subsampling, so that the sampling grid is the same in all bands.
+      final int rowsPerBand = Math.max(1, ResizeImage.STREAMING_BAND_SIZE / (4 * sampledWidth));
+      final int bandHeight = rowsPerBand * subsampling;
+
+      final AreaAccumulator accumulator = new AreaAccumulator(sampledWidth, sampledHeight, width, height);
+      final ImageReadParam param = reader.getDefaultReadParam();
+      param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+
+      for (int y = 0; y < this.imageHeight; y += bandHeight) {
+        param.setSourceRegion(new Rectangle(0, y, this.imageWidth, Math.min(bandHeight, this.imageHeight - y)));
+        final BufferedImage band = reader.read(0, param);
+        accumulator.addRows(ColorNormalizer.normalize(band, this.ignoreColorProfile), y / subsampling);
+      }
+
+      return accumulator.getImage();
+    } finally {
+      ResizeImage.closeReader(reader);
+    }
+  }
+
+
+  /**
+   * Inflate the streamed input row by row with PngRowReader, feeding every row into an AreaAccumulator.
+   *
+   * @param width  Width of the scaled image
+   * @param height Height of the scaled image
+   * @return The scaled image, or null if the input is no PNG file that PngRowReader can read (e.g. an interlaced one).
+   * @throws IOException If the image could not be decoded
+   */
+  private BufferedImage decodePngRows(int width, int height) throws IOException {
+    final PngRowReader png;
+    try {
+      png = new PngRowReader(this.streamedInput);
+    } catch (final UnsupportedInputFileFormatException e) {
+      ResizeImage.mLog.debug("Streaming " + this.streamedInput.getName() + " band by band instead: " + e.getMessage());
+      return null;
+    }
+
+    try {
+      width = Math.min(width, png.getWidth());
+      height = Math.min(height, png.getHeight());
+      final AreaAccumulator accumulator = new AreaAccumulator(png.getWidth(), png.getHeight(), width, height);
+      final int[] row = new int[png.getWidth()];
+      for (int y = 0; png.readRow(row, 0); y++) {
+        accumulator.addRow(row, 0, png.hasAlpha(), y);
+      }
+      return accumulator.getImage();
+    } finally {
+      png.close();
+    }
+  }
+
+
+  /**
+   * Decode into an off-heap image, if the reader delivers RGB(A) that fits into one.
+   *
+   * @return The decoded image, or null if it has to be decoded onto the heap instead.
+   */
+  private static BufferedImage readOffHeap(final ImageReader reader, final ImageReadParam param, final int width, final int height)
+      throws IOException {
+    final ImageTypeSpecifier rawType = reader.getRawImageType(0);
+    if (rawType == null || rawType.getColorModel().getColorSpace().getType() != ColorSpace.TYPE_RGB) {
+      return null;
+    }
+    final int bands = rawType.getSampleModel().getNumBands();
+    if (bands != 3 && bands != 4) {
+      return null;
+    }
+
+    final BufferedImage destination = OffHeapImage.create(width, height, bands == 4);
+    if (destination == null) {
+      return null;
+    }
+    param.setDestination(destination);
+    boolean success = false;
+    try {
+      reader.read(0, param);
+      success = true;
+      return destination;
+    } catch (final IllegalArgumentException e) {
+      ResizeImage.mLog.debug("Image reader cannot decode into an off-heap image", e);
+      return null;
+    } finally {
+      param.setDestination(null);
+      if (!success) {
+        OffHeapImage.release(destination);
+      }
+    }
+  }
+
+
+  /**
+   * Decode an image. Older JREs refuse to decode CMYK and YCCK JPEG files, these are decoded
+   * as a raster and converted here.
+   */
+  private static BufferedImage readImage(final ImageReader reader, final ImageReadParam param) throws IOException {
+    try {
+      return reader.read(0, param);
+    } catch (final IIOException e) {
+      final int transform = ResizeImage.getAdobeTransform(reader);
+      if (transform < 0) {
+        throw e;
+      }
+      param.setDestinationType(null);
+      final Raster raster = reader.readRaster(0, param);
+      if (raster.getNumBands() != 4) {
+        throw e;
+      }
+      ResizeImage.mLog.debug("Converting CMYK JPEG file without color management (" + e.getMessage() + ")");
+      return ColorNormalizer.convertAdobeCmyk(raster, transform == 2);
+    }
+  }
+
+
+  /**
+   * @return Transform flag of the Adobe marker of a JPEG file (0: CMYK, 1: YCbCr, 2: YCCK), or -1 if there is none.
+   */
+  private static int getAdobeTransform(final ImageReader reader) throws IOException {
+    final IIOMetadata metadata = reader.getImageMetadata(0);
+    if (metadata == null || !"javax_imageio_jpeg_image_1.0".equals(metadata.getNativeMetadataFormatName())) {
+      return -1;
+    }
+    final Node root = metadata.getAsTree("javax_imageio_jpeg_image_1.0");
+    for (Node node = root.getFirstChild(); node != null; node = node.getNextSibling()) {
+      if ("markerSequence".equals(node.getNodeName())) {
+        for (Node marker = node.getFirstChild(); marker != null; marker = marker.getNextSibling()) {
+          if ("app14Adobe".equals(marker.getNodeName())) {
+            final Node transform = marker.getAttributes().getNamedItem("transform");
+            return transform == null ? 0 : Integer.parseInt(transform.getNodeValue());
+          }
+        }
+      }
+    }
+    return -1;
+  }
+
+
+  /**
+   * Find an image reader for this file (from ImageReaderPool, if the MIME type is known).
+   *
+   * @return Reader with its input already set, or null if no reader can decode this file.
+   */
+  private ImageReader openReader(final File input) throws IOException {
+    final ImageInputStream stream = ImageIO.createImageInputStream(input);
+    if (stream == null) {
+      throw new IOException("Cannot create an ImageInputStream for " + input.getAbsolutePath());
+    }
+
+    ImageReader reader = null;
+    if (this.mimeType != null) {
+      // Only ask the reader for this MIME type (which might have been detected wrongly)
+      final ImageReaderSpi provider = ImageReaderPool.getProvider(this.mimeType);
+      if (provider != null && provider.canDecodeInput(stream)) {
+        reader = ImageReaderPool.acquire(provider);
+      }
+    }
+    if (reader == null) {
+      final Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+      if (!readers.hasNext()) {
+        stream.close();
+        return null;
+      }
+      reader = readers.next();
+    }
+
+    reader.setInput(stream, true, true);
+    return reader;
+  }
+
+
+  private static void closeReader(final ImageReader reader) {
+    final Object stream = reader.getInput();
+    ImageReaderPool.release(reader);
+    if (stream instanceof ImageInputStream) {
+      try {
+        ((ImageInputStream) stream).close();
+      } catch (final IOException e) {
+        // Ignore
+      }
+    }
+  }
+
+
   private AffineTransform getExifTransformation() {
 
     final AffineTransform t = new AffineTransform();
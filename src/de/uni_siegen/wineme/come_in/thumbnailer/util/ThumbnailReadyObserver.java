@@ -1,41 +1,82 @@
+
 package de.uni_siegen.wineme.come_in.thumbnailer.util;
 
 import java.awt.Image;
 import java.awt.image.ImageObserver;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
 
 /**
- * Not quite sure if this is necessary:
- * This is intended to give awt a chance to draw image asynchronously.
- * 
+ * This is intended to give awt a chance to draw image asynchronously:
+ * If drawImage() returns false, the image producer is not done yet,
+ * and the caller can wait for it with await().
+ * (BufferedImages are always drawn synchronously, so this only matters for Toolkit images.)
+ *
  * @author Benjamin
  */
 public class ThumbnailReadyObserver implements ImageObserver {
 
-	private Thread toNotify;
-	
 	/** The logger for this class */
 	private final static Logger mLog = Logger.getLogger(ThumbnailReadyObserver.class);
-	
+
+	/** Counted down as soon as the image is complete (or has failed) */
+	private final CountDownLatch done = new CountDownLatch(1);
+
 	public volatile boolean ready = false;
-	
-	public ThumbnailReadyObserver(Thread toNotify)
+
+	/** ImageObserver.ERROR and/or ABORT, if the producer reported them */
+	private volatile int failureFlags = 0;
+
+	public ThumbnailReadyObserver()
 	{
-		this.toNotify = toNotify;
-		ready = false;
 	}
-	
+
 	public boolean imageUpdate(Image img, int infoflags, int x, int y, int width, int height) {
-		
-		mLog.info("Observer debug info: imageUpdate: " + infoflags);
-		if ((infoflags & ImageObserver.ALLBITS) > 0)
+
+		if ((infoflags & (ImageObserver.ALLBITS | ImageObserver.FRAMEBITS)) != 0)
 		{
 			ready = true;
-			mLog.info("Observer says: Now ready!");
-			toNotify.notify();
-			return true;
+			mLog.debug("Observer says: Now ready!");
+			done.countDown();
+			return false; // No further updates needed
 		}
-		return false; 
+		if ((infoflags & (ImageObserver.ERROR | ImageObserver.ABORT)) != 0)
+		{
+			failureFlags = infoflags & (ImageObserver.ERROR | ImageObserver.ABORT);
+			mLog.debug("Observer says: " + getFailure());
+			done.countDown();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Wait until the image is complete.
+	 *
+	 * @param timeout	Maximum time to wait
+	 * @param unit		Unit of timeout
+	 * @return True if the image is complete, false if it failed or the timeout elapsed.
+	 * @throws InterruptedException	If the current thread was interrupted while waiting
+	 */
+	public boolean await(long timeout, TimeUnit unit) throws InterruptedException
+	{
+		done.await(timeout, unit);
+		return ready;
+	}
+
+	/**
+	 * Describe why the image is not complete.
+	 *
+	 * @return "error" or "abort" as reported by the image producer, or null if it did not report a failure (yet).
+	 */
+	public String getFailure()
+	{
+		if ((failureFlags & ImageObserver.ERROR) != 0)
+			return "error";
+		if ((failureFlags & ImageObserver.ABORT) != 0)
+			return "abort";
+		return null;
 	}
 }
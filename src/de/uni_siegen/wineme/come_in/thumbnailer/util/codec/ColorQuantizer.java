@@ -0,0 +1,315 @@
+/*
+ * regain/Thumbnailer - A file search engine providing plenty of formats (Plugin)
+ * Copyright (C) 2011  Come_IN Computerclubs (University of Siegen)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * Contact: Come_IN-Team <come_in-team@listserv.uni-siegen.de>
+ */
+
+package de.uni_siegen.wineme.come_in.thumbnailer.util.codec;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reduces an image to a palette of at most 256 colors.
+ *
+ * If the image has few enough distinct colors (as most rendered document pages do), the palette is exact.
+ * Otherwise, the colors are reduced to 5 bits per channel (4 bits alpha) and split with median cut.
+ * There is no dithering: It would hardly be visible at thumbnail size, but it would hurt the compression.
+ *
+ * @author Benjamin
+ */
+public final class ColorQuantizer {
+
+  /** Maximum palette size of an 8 bit indexed image */
+  public static final int MAX_COLORS = 256;
+
+
+  private ColorQuantizer() {
+  }
+
+
+  /**
+   * Quantize an image.
+   *
+   * @param image     Image to quantize
+   * @param maxColors Maximum palette size (2 to 256)
+   * @return Palette and indices. Translucent palette entries come first.
+   */
+  public static IndexedPixels quantize(final BufferedImage image, final int maxColors) {
+    if (maxColors < 2 || maxColors > ColorQuantizer.MAX_COLORS) {
+      throw new IllegalArgumentException("Palette size must be between 2 and " + ColorQuantizer.MAX_COLORS + ", was " + maxColors);
+    }
+    final int width = image.getWidth();
+    final int height = image.getHeight();
+    final int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+    final boolean hasAlpha = image.getColorModel().hasAlpha();
+    for (int i = 0; i < pixels.length; i++) {
+      if (!hasAlpha) {
+        pixels[i] |= 0xff000000;
+      } else if (pixels[i] >>> 24 == 0) {
+        pixels[i] = 0; // All fully transparent pixels look the same
+      }
+    }
+
+    IndexedPixels result = ColorQuantizer.exactPalette(width, height, pixels, maxColors);
+    if (result == null) {
+      result = ColorQuantizer.medianCut(width, height, pixels, maxColors);
+    }
+    return result;
+  }
+
+
+  /**
+   * @return The image with an exact palette, or null if it has more than maxColors colors.
+   */
+  private static IndexedPixels exactPalette(final int width, final int height, final int[] pixels, final int maxColors) {
+    // Open addressing hash table from color to palette index
+    final int capacity = 1024;
+    final int[] keys = new int[capacity];
+    final int[] values = new int[capacity];
+    Arrays.fill(values, -1);
+    final int[] colors = new int[maxColors];
+    int count = 0;
+
+    final byte[] indices = new byte[pixels.length];
+    int lastColor = 0;
+    int lastIndex = -1;
+    for (int i = 0; i < pixels.length; i++) {
+      final int argb = pixels[i];
+      if (argb != lastColor || lastIndex < 0) {
+        int slot = ColorQuantizer.hash(argb) & (capacity - 1);
+        while (values[slot] >= 0 && keys[slot] != argb) {
+          slot = (slot + 1) & (capacity - 1);
+        }
+        if (values[slot] < 0) {
+          if (count == maxColors) {
+            return null;
+          }
+          keys[slot] = argb;
+          values[slot] = count;
+          colors[count++] = argb;
+        }
+        lastColor = argb;
+        lastIndex = values[slot];
+      }
+      indices[i] = (byte) lastIndex;
+    }
+
+    return ColorQuantizer.sortTranslucentFirst(new IndexedPixels(width, height, Arrays.copyOf(colors, count), indices, true));
+  }
+
+
+  private static int hash(final int argb) {
+    final int h = argb * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+
+  /**
+   * A box of reduced colors: entries [from, to) of the (reordered) entry array.
+   */
+  private static final class Box {
+    final int from;
+    final int to;
+    long population;
+    int longestAxis;
+    int longestRange;
+
+    Box(final int from, final int to) {
+      this.from = from;
+      this.to = to;
+    }
+  }
+
+
+  /**
+   * Median cut on the histogram of reduced colors.
+   */
+  private static IndexedPixels medianCut(final int width, final int height, final int[] pixels, final int maxColors) {
+    // Histogram of reduced colors (sorted keys and their pixel counts / color sums)
+    final int[] reduced = new int[pixels.length];
+    for (int i = 0; i < pixels.length; i++) {
+      reduced[i] = ColorQuantizer.reduce(pixels[i]);
+    }
+    final int[] sorted = reduced.clone();
+    Arrays.sort(sorted);
+    int distinct = 0;
+    for (int i = 0; i < sorted.length; i++) {
+      if (i == 0 || sorted[i] != sorted[i - 1]) {
+        sorted[distinct++] = sorted[i];
+      }
+    }
+    final int[] keys = Arrays.copyOf(sorted, distinct);
+    final int[] counts = new int[distinct];
+    final long[][] sums = new long[4][distinct];
+    final int[] entryOfPixel = new int[pixels.length];
+    for (int i = 0; i < pixels.length; i++) {
+      final int entry = Arrays.binarySearch(keys, reduced[i]);
+      entryOfPixel[i] = entry;
+      counts[entry]++;
+      final int argb = pixels[i];
+      sums[0][entry] += argb >>> 24;
+      sums[1][entry] += (argb >> 16) & 0xff;
+      sums[2][entry] += (argb >> 8) & 0xff;
+      sums[3][entry] += argb & 0xff;
+    }
+
+    // Split the box with the largest (range * population) at the weighted median of its longest axis
+    final int[] order = new int[distinct];
+    for (int i = 0; i < distinct; i++) {
+      order[i] = i;
+    }
+    final List<Box> boxes = new ArrayList<Box>();
+    boxes.add(ColorQuantizer.shrink(new Box(0, distinct), order, keys, counts));
+    while (boxes.size() < maxColors) {
+      Box best = null;
+      for (final Box box : boxes) {
+        if (box.to - box.from > 1 && (best == null
+            || (long) box.longestRange * box.population > (long) best.longestRange * best.population)) {
+          best = box;
+        }
+      }
+      if (best == null) {
+        break; // Every box contains only one color
+      }
+
+      // Sort the entries of the box by the longest axis (entries have at most 19 bits, so the component fits above)
+      for (int i = best.from; i < best.to; i++) {
+        order[i] |= ColorQuantizer.component(keys[order[i]], best.longestAxis) << 20;
+      }
+      Arrays.sort(order, best.from, best.to);
+      for (int i = best.from; i < best.to; i++) {
+        order[i] &= 0xfffff;
+      }
+      long half = 0;
+      int split = best.from + 1;
+      for (int i = best.from; i < best.to - 1; i++) {
+        half += counts[order[i]];
+        split = i + 1;
+        if (half * 2 >= best.population) {
+          break;
+        }
+      }
+
+      boxes.remove(best);
+      boxes.add(ColorQuantizer.shrink(new Box(best.from, split), order, keys, counts));
+      boxes.add(ColorQuantizer.shrink(new Box(split, best.to), order, keys, counts));
+    }
+
+    // Palette: average color of each box
+    final int[] palette = new int[boxes.size()];
+    final int[] boxOfEntry = new int[distinct];
+    for (int b = 0; b < boxes.size(); b++) {
+      final Box box = boxes.get(b);
+      final long[] total = new long[4];
+      for (int i = box.from; i < box.to; i++) {
+        final int entry = order[i];
+        boxOfEntry[entry] = b;
+        for (int c = 0; c < 4; c++) {
+          total[c] += sums[c][entry];
+        }
+      }
+      final long n = box.population;
+      palette[b] = (int) ((total[0] + n / 2) / n) << 24 | (int) ((total[1] + n / 2) / n) << 16
+          | (int) ((total[2] + n / 2) / n) << 8 | (int) ((total[3] + n / 2) / n);
+    }
+
+    final byte[] indices = new byte[pixels.length];
+    for (int i = 0; i < pixels.length; i++) {
+      indices[i] = (byte) boxOfEntry[entryOfPixel[i]];
+    }
+    return ColorQuantizer.sortTranslucentFirst(new IndexedPixels(width, height, palette, indices, false));
+  }
+
+
+  /**
+   * Compute population and longest axis of a box.
+   */
+  private static Box shrink(final Box box, final int[] order, final int[] keys, final int[] counts) {
+    final int[] min = new int[] { Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE };
+    final int[] max = new int[4];
+    for (int i = box.from; i < box.to; i++) {
+      final int entry = order[i];
+      box.population += counts[entry];
+      for (int axis = 0; axis < 4; axis++) {
+        final int c = ColorQuantizer.component(keys[entry], axis);
+        min[axis] = Math.min(min[axis], c);
+        max[axis] = Math.max(max[axis], c);
+      }
+    }
+    for (int axis = 0; axis < 4; axis++) {
+      if (max[axis] - min[axis] > box.longestRange) {
+        box.longestRange = max[axis] - min[axis];
+        box.longestAxis = axis;
+      }
+    }
+    return box;
+  }
+
+
+  /**
+   * @return 4 bits alpha, 5 bits per color
+   */
+  private static int reduce(final int argb) {
+    return (argb >>> 28) << 15 | ((argb >> 19) & 0x1f) << 10 | ((argb >> 11) & 0x1f) << 5 | ((argb >> 3) & 0x1f);
+  }
+
+
+  /**
+   * @return Component of a reduced color, scaled to 0..255 (axis 0 = alpha, 1 = red, 2 = green, 3 = blue)
+   */
+  private static int component(final int reduced, final int axis) {
+    switch (axis) {
+      case 0:
+        return (reduced >> 15) * 17;
+      case 1:
+        return ((reduced >> 10) & 0x1f) << 3;
+      case 2:
+        return ((reduced >> 5) & 0x1f) << 3;
+      default:
+        return (reduced & 0x1f) << 3;
+    }
+  }
+
+
+  /**
+   * Move translucent palette entries to the front (so that the tRNS chunk of a PNG can be short).
+   */
+  private static IndexedPixels sortTranslucentFirst(final IndexedPixels image) {
+    final int[] palette = image.getPalette();
+    final int[] newIndex = new int[palette.length];
+    final int[] sorted = new int[palette.length];
+    int next = 0;
+    for (int pass = 0; pass < 2; pass++) {
+      for (int i = 0; i < palette.length; i++) {
+        if ((palette[i] >>> 24 != 0xff) == (pass == 0)) {
+          newIndex[i] = next;
+          sorted[next++] = palette[i];
+        }
+      }
+    }
+
+    final byte[] indices = image.getIndices();
+    for (int i = 0; i < indices.length; i++) {
+      indices[i] = (byte) newIndex[indices[i] & 0xff];
+    }
+    return new IndexedPixels(image.getWidth(), image.getHeight(), sorted, indices, image.isExact());
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * regain/Thumbnailer - A file search engine providing plenty of formats (Plugin)
+ * Copyright (C) 2011  Come_IN Computerclubs (University of Siegen)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * Contact: Come_IN-Team <come_in-team@listserv.uni-siegen.de>
+ */
+
+package de.uni_siegen.wineme.come_in.thumbnailer.util.codec;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Chooses the format by looking at the thumbnail:
+ * Line art (few distinct colors, e.g. text pages and diagrams) and images with transparency are written losslessly,
+ * photographs are written lossy.
+ *
+ * As the format is only known once the image is there, this is no ThumbnailEncoder (whose file names may be chosen
+ * before rendering). Thumbnailers use it for thumbnails they name themselves, see ThumbnailOptions.setContentAwareEncoder().
+ * Elsewhere, name the output file with getFileExtension(image) and then call write().
+ *
+ * @author Benjamin
+ */
+public class ContentAwareEncoder {
+
+  /** Images with more distinct colors than this (in the sampled pixels) are treated as photographs */
+  public static final int DEFAULT_MAX_LINE_ART_COLORS = 256;
+
+  /** Maximum number of sampled pixels per dimension */
+  private static final int SAMPLES = 64;
+
+  private final ThumbnailEncoder lineArtEncoder;
+  private final ThumbnailEncoder photoEncoder;
+  private int maxLineArtColors = ContentAwareEncoder.DEFAULT_MAX_LINE_ART_COLORS;
+
+
+  /**
+   * Use PNG for line art and JPEG (default quality) for photographs.
+   */
+  public ContentAwareEncoder() {
+    this(new PngEncoder(), new JpegEncoder());
+  }
+
+
+  public ContentAwareEncoder(final ThumbnailEncoder lineArtEncoder, final ThumbnailEncoder photoEncoder) {
+    if (lineArtEncoder == null || photoEncoder == null) {
+      throw new NullPointerException("Encoders may not be null");
+    }
+    this.lineArtEncoder = lineArtEncoder;
+    this.photoEncoder = photoEncoder;
+  }
+
+
+  public void setMaxLineArtColors(final int maxLineArtColors) {
+    this.maxLineArtColors = maxLineArtColors;
+  }
+
+
+  /**
+   * Encode the image with the encoder for its content.
+   *
+   * @param image   Thumbnail to write
+   * @param output  File in which should be written (existing files are overwritten)
+   * @throws IOException  If the file cannot be written
+   */
+  public void write(final BufferedImage image, final File output) throws IOException {
+    this.getEncoder(image).write(image, output);
+  }
+
+
+  /**
+   * @return The encoder that write() uses for this image.
+   */
+  public ThumbnailEncoder getEncoder(final BufferedImage image) {
+    return this.isPhoto(image) ? this.photoEncoder : this.lineArtEncoder;
+  }
+
+
+  /**
+   * Sample the image on a regular grid and count the distinct colors.
+   *
+   * @return True if the image looks like a photograph (and is fully opaque).
+   */
+  public boolean isPhoto(final BufferedImage image) {
+    final int width = image.getWidth();
+    final int height = image.getHeight();
+    final int stepX = Math.max(1, width / ContentAwareEncoder.SAMPLES);
+    final int stepY = Math.max(1, height / ContentAwareEncoder.SAMPLES);
+    final boolean hasAlpha = image.getColorModel().hasAlpha();
+
+    final Set<Integer> colors = new HashSet<Integer>();
+    for (int y = 0; y < height; y += stepY) {
+      for (int x = 0; x < width; x += stepX) {
+        final int argb = image.getRGB(x, y);
+        if (hasAlpha && argb >>> 24 != 0xff) {
+          return false; // Keep the transparency
+        }
+        colors.add(Integer.valueOf(argb));
+      }
+    }
+    return colors.size() > this.maxLineArtColors;
+  }
+
+
+  /**
+   * @return Extension (without dot) of the file that write() produces for this image.
+   */
+  public String getFileExtension(final BufferedImage image) {
+    return this.getEncoder(image).getFileExtension();
+  }
+}
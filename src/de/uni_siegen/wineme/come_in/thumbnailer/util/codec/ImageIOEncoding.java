@@ -0,0 +1,84 @@
+/*
+ * regain/Thumbnailer - A file search engine providing plenty of formats (Plugin)
+ * Copyright (C) 2011  Come_IN Computerclubs (University of Siegen)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * Contact: Come_IN-Team <come_in-team@listserv.uni-siegen.de>
+ */
+
+package de.uni_siegen.wineme.come_in.thumbnailer.util.codec;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Helper for encoders that delegate to an ImageIO writer.
+ *
+ * @author Benjamin
+ */
+final class ImageIOEncoding {
+
+  private ImageIOEncoding() {
+  }
+
+
+  /**
+   * Write an image with ImageIO, optionally setting the compression quality.
+   *
+   * @param image    Image to write
+   * @param format   Informal format name (e.g. "png")
+   * @param quality  Compression quality between 0.0 and 1.0, or a negative value for the writer's default.
+   *                 Ignored by writers that do not support it.
+   * @param output   File in which should be written
+   * @throws IOException If no writer is available or the file cannot be written
+   */
+  static void write(final BufferedImage image, final String format, final float quality, final File output) throws IOException {
+    final Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(format);
+    if (!writers.hasNext()) {
+      throw new IOException("No ImageIO writer available for " + format);
+    }
+    final ImageWriter writer = writers.next();
+
+    // Like ImageIO.write(): do not leave a partial file behind if the output cannot be created.
+    output.delete();
+    final ImageOutputStream stream = ImageIO.createImageOutputStream(output);
+    if (stream == null) {
+      writer.dispose();
+      throw new IOException("Cannot create an ImageOutputStream for " + output.getAbsolutePath());
+    }
+
+    try {
+      final ImageWriteParam param = writer.getDefaultWriteParam();
+      if (quality >= 0.0f && param.canWriteCompressed()) {
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(quality);
+      }
+      writer.setOutput(stream);
+      writer.write(null, new IIOImage(image, null, null), param);
+    } finally {
+      writer.dispose();
+      stream.close();
+    }
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * regain/Thumbnailer - A file search engine providing plenty of formats (Plugin)
+ * Copyright (C) 2011  Come_IN Computerclubs (University of Siegen)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * Contact: Come_IN-Team <come_in-team@listserv.uni-siegen.de>
+ */
+
+package de.uni_siegen.wineme.come_in.thumbnailer.util.codec;
+
+/**
+ * An image as palette and one palette index per pixel (row by row), as created by ColorQuantizer.
+ *
+ * @author Benjamin
+ */
+public class IndexedPixels {
+
+  private final int width;
+  private final int height;
+  private final int[] palette;
+  private final byte[] indices;
+  private final boolean exact;
+
+
+  public IndexedPixels(final int width, final int height, final int[] palette, final byte[] indices, final boolean exact) {
+    this.width = width;
+    this.height = height;
+    this.palette = palette;
+    this.indices = indices;
+    this.exact = exact;
+  }
+
+
+  public int getWidth() {
+    return this.width;
+  }
+
+
+  public int getHeight() {
+    return this.height;
+  }
+
+
+  /**
+   * @return Colors (non-premultiplied ARGB)
+   */
+  public int[] getPalette() {
+    return this.palette;
+  }
+
+
+  /**
+   * @return Palette index of every pixel (unsigned)
+   */
+  public byte[] getIndices() {
+    return this.indices;
+  }
+
+
+  /**
+   * @return True if every pixel has exactly its original color.
+   */
+  public boolean isExact() {
+    return this.exact;
+  }
+
+
+  /**
+   * @return Number of palette entries (at the start of the palette) that are not fully opaque.
+   */
+  public int getTranslucentCount() {
+    int count = 0;
+    while (count < this.palette.length && this.palette[count] >>> 24 != 0xff) {
+      count++;
+    }
+    return count;
+  }
+}
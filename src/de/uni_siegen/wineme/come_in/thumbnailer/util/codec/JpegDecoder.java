@@ -0,0 +1,1102 @@
+/*
+ * regain/Thumbnailer - A file search engine providing plenty of formats (Plugin)
+ * Copyright (C) 2011  Come_IN Computerclubs (University of Siegen)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * Contact: Come_IN-Team <come_in-team@listserv.uni-siegen.de>
+ */
+
+package de.uni_siegen.wineme.come_in.thumbnailer.util.codec;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import de.uni_siegen.wineme.come_in.thumbnailer.UnsupportedInputFileFormatException;
+
+/**
+ * Decoder for baseline and progressive JPEG files (8 bit, Huffman coded, grayscale or YCbCr / RGB),
+ * which can decode directly at 1/2, 1/4 or 1/8 of the original size.
+ *
+ * Scaling is done in the DCT domain: for 1/2 and 1/4, only the low-frequency coefficients of each block
+ * are transformed back with a smaller inverse DCT, and for 1/8 each block just becomes its DC value.
+ * So most of the decoding work is skipped, and the result is properly averaged (not point-sampled).
+ *
+ * Other JPEG flavours (arithmetic coding, lossless, 12 bit, CMYK) are rejected with an
+ * UnsupportedInputFileFormatException, so that the caller can fall back to ImageIO.
+ * Embedded ICC profiles are ignored (the colors are assumed to be sRGB).
+ *
+ * @author Benjamin
+ */
+public class JpegDecoder {
+
+  /** Natural (row-major) position of the k-th coefficient in zig-zag order */
+  private static final int[] ZIGZAG = {
+      0, 1, 8, 16, 9, 2, 3, 10, 17, 24, 32, 25, 18, 11, 4, 5,
+      12, 19, 26, 33, 40, 48, 41, 34, 27, 20, 13, 6, 7, 14, 21, 28,
+      35, 42, 49, 56, 57, 50, 43, 36, 29, 22, 15, 23, 30, 37, 44, 51,
+      58, 59, 52, 45, 38, 31, 39, 46, 53, 60, 61, 54, 47, 55, 62, 63 };
+
+  /** Bits looked up at once when decoding Huffman codes */
+  private static final int LOOKUP_BITS = 9;
+
+  // Markers
+  private static final int SOF0 = 0xc0;
+  private static final int SOF1 = 0xc1;
+  private static final int SOF2 = 0xc2;
+  private static final int DHT = 0xc4;
+  private static final int SOI = 0xd8;
+  private static final int EOI = 0xd9;
+  private static final int SOS = 0xda;
+  private static final int DQT = 0xdb;
+  private static final int DNL = 0xdc;
+  private static final int DRI = 0xdd;
+  private static final int APP0 = 0xe0;
+  private static final int APP2 = 0xe2;
+  private static final int APP14 = 0xee;
+
+  /** Identifier of APP2 segments that hold (a chunk of) an ICC profile */
+  private static final byte[] ICC_PROFILE = { 'I', 'C', 'C', '_', 'P', 'R', 'O', 'F', 'I', 'L', 'E', 0 };
+
+  /** Inverse DCT matrices for 1, 2, 4 and 8 output pixels per block side, see getIdctTable() */
+  private static final float[][] IDCT_TABLES = new float[9][];
+
+  private final byte[] data;
+
+  private int width;
+  private int height;
+  private boolean progressive;
+  private Component[] components;
+  private int maxH;
+  private int maxV;
+  private int mcusPerLine;
+  private int mcusPerColumn;
+
+  private final int[][] quantization = new int[4][];
+  private final Huffman[] dcTables = new Huffman[4];
+  private final Huffman[] acTables = new Huffman[4];
+  private int restartInterval;
+  private boolean jfif;
+  private int adobeTransform = -1;
+  private boolean colorProfile;
+
+  // Entropy decoder state
+  private int pos;
+  private int bitBuffer;
+  private int bitCount;
+  private int eobrun;
+
+  /** Output pixels per block side (8 / scale denominator) */
+  private int blockSize;
+  /** For each zig-zag index: whether the coefficient is needed at the current scale */
+  private boolean[] needed;
+  /** Intermediate result of the inverse DCT */
+  private final float[] idctRows = new float[64];
+
+
+  /**
+   * @param data  The complete JPEG file
+   */
+  public JpegDecoder(final byte[] data) {
+    this.data = data;
+  }
+
+
+  /**
+   * @return True if the file starts like a JPEG file.
+   */
+  public static boolean isJpeg(final File file) throws IOException {
+    final InputStream in = new FileInputStream(file);
+    try {
+      return in.read() == 0xff && in.read() == JpegDecoder.SOI && in.read() == 0xff;
+    } finally {
+      in.close();
+    }
+  }
+
+
+  /**
+   * Read everything up to the frame header, so that getWidth(), getHeight() and isProgressive() are known.
+   *
+   * @throws UnsupportedInputFileFormatException If this is no JPEG file, or a kind of JPEG that this decoder cannot handle.
+   * @throws IOException If the file is corrupt.
+   */
+  public void readHeader() throws IOException {
+    this.parse(false);
+  }
+
+
+  public int getWidth() {
+    return this.width;
+  }
+
+
+  public int getHeight() {
+    return this.height;
+  }
+
+
+  public boolean isProgressive() {
+    return this.progressive;
+  }
+
+
+  /**
+   * @return True if the file embeds an ICC profile (which this decoder ignores). Known once readHeader() returned,
+   *         as the profile comes before the frame header.
+   */
+  public boolean hasColorProfile() {
+    return this.colorProfile;
+  }
+
+
+  /**
+   * Decode the image.
+   *
+   * @param scaleDenominator  1, 2, 4 or 8: the image is decoded at 1/scaleDenominator of its size (rounded up)
+   * @return Image of type TYPE_INT_RGB
+   * @throws UnsupportedInputFileFormatException If this is no JPEG file, or a kind of JPEG that this decoder cannot handle.
+   * @throws IOException If the file is corrupt.
+   */
+  public BufferedImage decode(final int scaleDenominator) throws IOException {
+    if (scaleDenominator != 1 && scaleDenominator != 2 && scaleDenominator != 4 && scaleDenominator != 8) {
+      throw new IllegalArgumentException("Scale denominator must be 1, 2, 4 or 8, was " + scaleDenominator);
+    }
+    this.blockSize = 8 / scaleDenominator;
+    this.needed = new boolean[64];
+    for (int k = 0; k < 64; k++) {
+      final int natural = JpegDecoder.ZIGZAG[k];
+      this.needed[k] = (natural >> 3) < this.blockSize && (natural & 7) < this.blockSize;
+    }
+
+    this.parse(true);
+
+    if (this.progressive) {
+      for (final Component component : this.components) {
+        this.transformCoefficients(component);
+      }
+    }
+    return this.convertColors(JpegDecoder.scaledSize(this.width, scaleDenominator),
+        JpegDecoder.scaledSize(this.height, scaleDenominator));
+  }
+
+
+  /**
+   * @return Size of a dimension when decoded at 1/scaleDenominator.
+   */
+  public static int scaledSize(final int size, final int scaleDenominator) {
+    return (size + scaleDenominator - 1) / scaleDenominator;
+  }
+
+
+  /**
+   * Walk through the markers of the file.
+   *
+   * @param decode  If false, stop at the frame header.
+   */
+  private void parse(final boolean decode) throws IOException {
+    this.pos = 0;
+    this.components = null;
+    this.restartInterval = 0;
+    if (this.readMarker() != JpegDecoder.SOI) {
+      throw new UnsupportedInputFileFormatException("Not a JPEG file");
+    }
+
+    while (true) {
+      final int marker = this.readMarker();
+      switch (marker) {
+        case -1:
+        case EOI:
+          if (this.components == null) {
+            throw new IOException("JPEG file has no frame");
+          }
+          return;
+
+        case SOF0:
+        case SOF1:
+        case SOF2:
+          this.readFrame(marker == JpegDecoder.SOF2);
+          if (!decode) {
+            return;
+          }
+          this.allocate();
+          break;
+
+        case 0xc3:
+        case 0xc5:
+        case 0xc6:
+        case 0xc7:
+        case 0xc9:
+        case 0xca:
+        case 0xcb:
+        case 0xcd:
+        case 0xce:
+        case 0xcf:
+          throw new UnsupportedInputFileFormatException("Unsupported JPEG process (SOF" + (marker - JpegDecoder.SOF0) + ")");
+
+        case DHT:
+          this.readHuffmanTables();
+          break;
+
+        case DQT:
+          this.readQuantizationTables();
+          break;
+
+        case DRI:
+          this.readLength();
+          this.restartInterval = this.readUnsignedShort();
+          break;
+
+        case SOS:
+          if (this.components == null) {
+            throw new IOException("Scan before frame header");
+          }
+          this.readScan();
+          break;
+
+        case DNL:
+          throw new UnsupportedInputFileFormatException("JPEG files with DNL marker are not supported");
+
+        case APP0: {
+          final int end = this.readLength();
+          this.jfif = end - this.pos >= 5 && this.data[this.pos] == 'J' && this.data[this.pos + 1] == 'F'
+              && this.data[this.pos + 2] == 'I' && this.data[this.pos + 3] == 'F' && this.data[this.pos + 4] == 0;
+          this.pos = end;
+          break;
+        }
+
+        case APP2: {
+          final int end = this.readLength();
+          this.colorProfile |= JpegDecoder.startsWith(this.data, this.pos, end, JpegDecoder.ICC_PROFILE);
+          this.pos = end;
+          break;
+        }
+
+        case APP14: {
+          final int end = this.readLength();
+          if (end - this.pos >= 12 && this.data[this.pos] == 'A' && this.data[this.pos + 1] == 'd'
+              && this.data[this.pos + 2] == 'o' && this.data[this.pos + 3] == 'b' && this.data[this.pos + 4] == 'e') {
+            this.adobeTransform = this.data[this.pos + 11] & 0xff;
+          }
+          this.pos = end;
+          break;
+        }
+
+        default:
+          if (marker >= 0xd0 && marker <= 0xd7) {
+            break; // Stray restart marker
+          }
+          this.pos = this.readLength();
+          break;
+      }
+    }
+  }
+
+
+  /**
+   * @return True if data[start, end) starts with prefix.
+   */
+  private static boolean startsWith(final byte[] data, final int start, final int end, final byte[] prefix) {
+    if (end - start < prefix.length) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length; i++) {
+      if (data[start + i] != prefix[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+
+  /**
+   * Skip to the next marker and read it.
+   *
+   * @return Marker code, or -1 at the end of the data.
+   */
+  private int readMarker() {
+    while (this.pos + 1 < this.data.length) {
+      if ((this.data[this.pos] & 0xff) != 0xff) {
+        this.pos++;
+        continue;
+      }
+      final int code = this.data[this.pos + 1] & 0xff;
+      if (code == 0xff) {
+        this.pos++; // Fill byte
+      } else if (code == 0) {
+        this.pos += 2; // Stuffed byte in entropy-coded data
+      } else {
+        this.pos += 2;
+        return code;
+      }
+    }
+    return -1;
+  }
+
+
+  private int readUnsignedShort() throws IOException {
+    if (this.pos + 2 > this.data.length) {
+      throw new IOException("Unexpected end of JPEG file");
+    }
+    final int value = (this.data[this.pos] & 0xff) << 8 | this.data[this.pos + 1] & 0xff;
+    this.pos += 2;
+    return value;
+  }
+
+
+  private int readByte() throws IOException {
+    if (this.pos >= this.data.length) {
+      throw new IOException("Unexpected end of JPEG file");
+    }
+    return this.data[this.pos++] & 0xff;
+  }
+
+
+  /**
+   * Read the length of a marker segment.
+   *
+   * @return Position after the segment.
+   */
+  private int readLength() throws IOException {
+    final int end = this.pos + this.readUnsignedShort();
+    if (end > this.data.length) {
+      throw new IOException("Unexpected end of JPEG file");
+    }
+    return end;
+  }
+
+
+  private void readFrame(final boolean isProgressive) throws IOException {
+    final int end = this.readLength();
+    if (this.readByte() != 8) {
+      throw new UnsupportedInputFileFormatException("Only JPEG files with 8 bit precision are supported");
+    }
+    this.height = this.readUnsignedShort();
+    this.width = this.readUnsignedShort();
+    if (this.height == 0 || this.width == 0) {
+      throw new UnsupportedInputFileFormatException("JPEG files without height in the frame header are not supported");
+    }
+    final int count = this.readByte();
+    if (count != 1 && count != 3) {
+      throw new UnsupportedInputFileFormatException("JPEG files with " + count + " components are not supported");
+    }
+
+    this.progressive = isProgressive;
+    this.components = new Component[count];
+    this.maxH = 1;
+    this.maxV = 1;
+    for (int i = 0; i < count; i++) {
+      final Component component = new Component();
+      component.id = this.readByte();
+      final int sampling = this.readByte();
+      component.h = sampling >> 4;
+      component.v = sampling & 15;
+      component.tq = this.readByte() & 3;
+      if (component.h < 1 || component.h > 4 || component.v < 1 || component.v > 4) {
+        throw new IOException("Invalid sampling factors in JPEG file");
+      }
+      this.maxH = Math.max(this.maxH, component.h);
+      this.maxV = Math.max(this.maxV, component.v);
+      this.components[i] = component;
+    }
+    this.pos = end;
+
+    this.mcusPerLine = (this.width + 8 * this.maxH - 1) / (8 * this.maxH);
+    this.mcusPerColumn = (this.height + 8 * this.maxV - 1) / (8 * this.maxV);
+    for (final Component component : this.components) {
+      component.blocksPerLine = this.mcusPerLine * component.h;
+      component.blocksPerColumn = this.mcusPerColumn * component.v;
+      // Blocks that contain image data (non-interleaved scans only cover these)
+      component.usedBlocksPerLine = ((this.width * component.h + this.maxH - 1) / this.maxH + 7) / 8;
+      component.usedBlocksPerColumn = ((this.height * component.v + this.maxV - 1) / this.maxV + 7) / 8;
+    }
+  }
+
+
+  private void allocate() {
+    for (final Component component : this.components) {
+      component.planeWidth = component.blocksPerLine * this.blockSize;
+      component.plane = new byte[component.planeWidth * component.blocksPerColumn * this.blockSize];
+      if (this.progressive) {
+        component.coefficients = new short[component.blocksPerLine * component.blocksPerColumn * 64];
+      }
+    }
+  }
+
+
+  private void readQuantizationTables() throws IOException {
+    final int end = this.readLength();
+    while (this.pos < end) {
+      final int info = this.readByte();
+      final int[] table = new int[64];
+      for (int k = 0; k < 64; k++) {
+        table[k] = (info >> 4) == 0 ? this.readByte() : this.readUnsignedShort();
+      }
+      this.quantization[info & 3] = table;
+    }
+    this.pos = end;
+  }
+
+
+  private void readHuffmanTables() throws IOException {
+    final int end = this.readLength();
+    while (this.pos < end) {
+      final int info = this.readByte();
+      final int[] counts = new int[17];
+      int total = 0;
+      for (int length = 1; length <= 16; length++) {
+        counts[length] = this.readByte();
+        total += counts[length];
+      }
+      if (total > 256 || this.pos + total > end) {
+        throw new IOException("Invalid Huffman table in JPEG file");
+      }
+      final int[] symbols = new int[total];
+      for (int i = 0; i < total; i++) {
+        symbols[i] = this.readByte();
+      }
+      final Huffman table = new Huffman(counts, symbols);
+      if ((info >> 4) == 0) {
+        this.dcTables[info & 3] = table;
+      } else {
+        this.acTables[info & 3] = table;
+      }
+    }
+    this.pos = end;
+  }
+
+
+  private void readScan() throws IOException {
+    final int end = this.readLength();
+    final int count = this.readByte();
+    final Component[] scanComponents = new Component[count];
+    for (int i = 0; i < count; i++) {
+      final int id = this.readByte();
+      final int tables = this.readByte();
+      for (final Component component : this.components) {
+        if (component.id == id) {
+          scanComponents[i] = component;
+        }
+      }
+      if (scanComponents[i] == null) {
+        throw new IOException("Scan refers to unknown component " + id);
+      }
+      scanComponents[i].dcTable = this.dcTables[(tables >> 4) & 3];
+      scanComponents[i].acTable = this.acTables[tables & 3];
+    }
+    final int ss = this.readByte();
+    final int se = this.readByte();
+    final int approximation = this.readByte();
+    this.pos = end;
+
+    this.decodeScan(scanComponents, ss, se, approximation >> 4, approximation & 15);
+  }
+
+
+  private void decodeScan(final Component[] scanComponents, final int ss, final int se, final int ah, final int al)
+      throws IOException {
+    final int kind;
+    if (!this.progressive) {
+      kind = Scan.SEQUENTIAL;
+    } else if (ss == 0) {
+      kind = ah == 0 ? Scan.DC_FIRST : Scan.DC_REFINE;
+    } else {
+      kind = ah == 0 ? Scan.AC_FIRST : Scan.AC_REFINE;
+    }
+    for (final Component component : scanComponents) {
+      final boolean needsDc = kind == Scan.SEQUENTIAL || kind == Scan.DC_FIRST;
+      final boolean needsAc = kind == Scan.SEQUENTIAL || kind == Scan.AC_FIRST || kind == Scan.AC_REFINE;
+      if (needsDc && component.dcTable == null || needsAc && component.acTable == null) {
+        throw new IOException("Scan uses an undefined Huffman table");
+      }
+      if (this.quantization[component.tq] == null) {
+        throw new IOException("Component uses an undefined quantization table");
+      }
+      component.prediction = 0;
+    }
+
+    final Scan scan = new Scan(kind, ss, se, al);
+    this.bitBuffer = 0;
+    this.bitCount = 0;
+    this.eobrun = 0;
+
+    int restartsLeft = this.restartInterval;
+    if (scanComponents.length == 1) {
+      // Non-interleaved: one block per MCU, only the blocks that contain image data
+      final Component component = scanComponents[0];
+      for (int by = 0; by < component.usedBlocksPerColumn; by++) {
+        for (int bx = 0; bx < component.usedBlocksPerLine; bx++) {
+          if (this.restartInterval > 0) {
+            if (restartsLeft == 0) {
+              this.restart(scanComponents);
+              restartsLeft = this.restartInterval;
+            }
+            restartsLeft--;
+          }
+          this.decodeBlock(component, scan, bx, by);
+        }
+      }
+    } else {
+      for (int my = 0; my < this.mcusPerColumn; my++) {
+        for (int mx = 0; mx < this.mcusPerLine; mx++) {
+          if (this.restartInterval > 0) {
+            if (restartsLeft == 0) {
+              this.restart(scanComponents);
+              restartsLeft = this.restartInterval;
+            }
+            restartsLeft--;
+          }
+          for (final Component component : scanComponents) {
+            for (int v = 0; v < component.v; v++) {
+              for (int h = 0; h < component.h; h++) {
+                this.decodeBlock(component, scan, mx * component.h + h, my * component.v + v);
+              }
+            }
+          }
+        }
+      }
+    }
+  }
+
+
+  /**
+   * Handle a restart marker: reset the bit reader and the predictions.
+   */
+  private void restart(final Component[] scanComponents) {
+    this.bitBuffer = 0;
+    this.bitCount = 0;
+    this.eobrun = 0;
+    for (final Component component : scanComponents) {
+      component.prediction = 0;
+    }
+    // Skip to the restart marker (if the data is corrupt, just continue where we are)
+    int p = this.pos;
+    while (p + 1 < this.data.length) {
+      if ((this.data[p] & 0xff) == 0xff) {
+        final int code = this.data[p + 1] & 0xff;
+        if (code >= 0xd0 && code <= 0xd7) {
+          this.pos = p + 2;
+          return;
+        }
+        if (code != 0 && code != 0xff) {
+          return; // Some other marker: the scan is truncated
+        }
+      }
+      p++;
+    }
+  }
+
+
+  private void decodeBlock(final Component component, final Scan scan, final int bx, final int by) throws IOException {
+    switch (scan.kind) {
+      case Scan.SEQUENTIAL:
+        this.decodeSequential(component, bx, by);
+        break;
+      case Scan.DC_FIRST: {
+        final int t = this.decodeHuffman(component.dcTable);
+        component.prediction += t == 0 ? 0 : this.receiveExtend(t);
+        component.coefficients[(by * component.blocksPerLine + bx) * 64] = (short) (component.prediction << scan.al);
+        break;
+      }
+      case Scan.DC_REFINE:
+        if (this.readBit() != 0) {
+          component.coefficients[(by * component.blocksPerLine + bx) * 64] |= 1 << scan.al;
+        }
+        break;
+      case Scan.AC_FIRST:
+        this.decodeAcFirst(component.coefficients, (by * component.blocksPerLine + bx) * 64, component.acTable, scan);
+        break;
+      default:
+        this.decodeAcRefine(component.coefficients, (by * component.blocksPerLine + bx) * 64, component.acTable, scan);
+        break;
+    }
+  }
+
+
+  /**
+   * Baseline: decode all coefficients of the block, and transform the ones that are needed right away.
+   */
+  private void decodeSequential(final Component component, final int bx, final int by) throws IOException {
+    final int[] q = this.quantization[component.tq];
+    final float[] block = component.block;
+    final int t = this.decodeHuffman(component.dcTable);
+    component.prediction += t == 0 ? 0 : this.receiveExtend(t);
+    block[0] = component.prediction * q[0];
+    boolean acZero = true;
+
+    int k = 1;
+    while (k < 64) {
+      final int rs = this.decodeHuffman(component.acTable);
+      final int r = rs >> 4;
+      final int s = rs & 15;
+      if (s == 0) {
+        if (r != 15) {
+          break;
+        }
+        k += 16;
+        continue;
+      }
+      k += r;
+      if (k > 63) {
+        break;
+      }
+      final int value = this.receiveExtend(s);
+      if (this.needed[k]) {
+        block[JpegDecoder.ZIGZAG[k]] = value * q[k];
+        acZero = false;
+      }
+      k++;
+    }
+
+    this.inverseDct(block, acZero, component.plane, component.planeWidth, bx * this.blockSize, by * this.blockSize);
+  }
+
+
+  private void decodeAcFirst(final short[] coefficients, final int offset, final Huffman table, final Scan scan)
+      throws IOException {
+    if (this.eobrun > 0) {
+      this.eobrun--;
+      return;
+    }
+    int k = scan.ss;
+    while (k <= scan.se) {
+      final int rs = this.decodeHuffman(table);
+      final int r = rs >> 4;
+      final int s = rs & 15;
+      if (s == 0) {
+        if (r < 15) {
+          this.eobrun = (1 << r) - 1;
+          if (r > 0) {
+            this.eobrun += this.readBits(r);
+          }
+          break;
+        }
+        k += 16;
+        continue;
+      }
+      k += r;
+      if (k > 63) {
+        break;
+      }
+      coefficients[offset + JpegDecoder.ZIGZAG[k]] = (short) (this.receiveExtend(s) * (1 << scan.al));
+      k++;
+    }
+  }
+
+
+  private void decodeAcRefine(final short[] coefficients, final int offset, final Huffman table, final Scan scan)
+      throws IOException {
+    final int p1 = 1 << scan.al;
+    final int m1 = -1 << scan.al;
+    int k = scan.ss;
+
+    if (this.eobrun == 0) {
+      for (; k <= scan.se; k++) {
+        final int rs = this.decodeHuffman(table);
+        int r = rs >> 4;
+        int s = rs & 15;
+        if (s != 0) {
+          s = this.readBit() != 0 ? p1 : m1;
+        } else if (r != 15) {
+          this.eobrun = 1 << r;
+          if (r > 0) {
+            this.eobrun += this.readBits(r);
+          }
+          break;
+        }
+
+        // Refine nonzero coefficients, and skip r zero coefficients
+        while (k <= scan.se) {
+          final int index = offset + JpegDecoder.ZIGZAG[k];
+          final int coefficient = coefficients[index];
+          if (coefficient != 0) {
+            if (this.readBit() != 0 && (coefficient & p1) == 0) {
+              coefficients[index] = (short) (coefficient + (coefficient >= 0 ? p1 : m1));
+            }
+          } else {
+            if (--r < 0) {
+              break;
+            }
+          }
+          k++;
+        }
+        if (s != 0 && k <= scan.se) {
+          coefficients[offset + JpegDecoder.ZIGZAG[k]] = (short) s;
+        }
+      }
+    }
+
+    if (this.eobrun > 0) {
+      for (; k <= scan.se; k++) {
+        final int index = offset + JpegDecoder.ZIGZAG[k];
+        final int coefficient = coefficients[index];
+        if (coefficient != 0 && this.readBit() != 0 && (coefficient & p1) == 0) {
+          coefficients[index] = (short) (coefficient + (coefficient >= 0 ? p1 : m1));
+        }
+      }
+      this.eobrun--;
+    }
+  }
+
+
+  /**
+   * Progressive: dequantize and transform all blocks once all scans are read.
+   */
+  private void transformCoefficients(final Component component) {
+    final int[] q = this.quantization[component.tq];
+    final float[] block = component.block;
+    final short[] coefficients = component.coefficients;
+    for (int by = 0; by < component.blocksPerColumn; by++) {
+      for (int bx = 0; bx < component.blocksPerLine; bx++) {
+        final int offset = (by * component.blocksPerLine + bx) * 64;
+        boolean acZero = true;
+        block[0] = coefficients[offset] * q[0];
+        for (int k = 1; k < 64; k++) {
+          if (this.needed[k]) {
+            final int natural = JpegDecoder.ZIGZAG[k];
+            final int value = coefficients[offset + natural];
+            block[natural] = value * q[k];
+            acZero &= value == 0;
+          }
+        }
+        this.inverseDct(block, acZero, component.plane, component.planeWidth, bx * this.blockSize, by * this.blockSize);
+      }
+    }
+    component.coefficients = null;
+  }
+
+
+  /**
+   * Inverse DCT of the top left blockSize x blockSize coefficients into blockSize x blockSize pixels.
+   * The block is cleared afterwards.
+   */
+  private void inverseDct(final float[] block, final boolean acZero, final byte[] plane, final int planeWidth,
+      final int x0, final int y0) {
+    final int n = this.blockSize;
+    if (acZero) {
+      // Flat block: DC / 8 (the DCT's scale factor) plus the level shift
+      final byte value = (byte) JpegDecoder.clamp(Math.round(block[0] / 8 + 128));
+      for (int y = 0; y < n; y++) {
+        final int row = (y0 + y) * planeWidth + x0;
+        for (int x = 0; x < n; x++) {
+          plane[row + x] = value;
+        }
+      }
+      JpegDecoder.clearBlock(block, n);
+      return;
+    }
+
+    final float[] table = JpegDecoder.getIdctTable(n);
+    final float[] rows = this.idctRows;
+    // Rows: rows[v][x] = sum over u of table[x][u] * F[v][u]
+    for (int v = 0; v < n; v++) {
+      for (int x = 0; x < n; x++) {
+        float sum = 0;
+        for (int u = 0; u < n; u++) {
+          sum += table[x * n + u] * block[v * 8 + u];
+        }
+        rows[v * n + x] = sum;
+      }
+    }
+    // Columns
+    for (int y = 0; y < n; y++) {
+      final int row = (y0 + y) * planeWidth + x0;
+      for (int x = 0; x < n; x++) {
+        float sum = 0;
+        for (int v = 0; v < n; v++) {
+          sum += table[y * n + v] * rows[v * n + x];
+        }
+        plane[row + x] = (byte) JpegDecoder.clamp(Math.round(sum + 128));
+      }
+    }
+    JpegDecoder.clearBlock(block, n);
+  }
+
+
+  private static void clearBlock(final float[] block, final int n) {
+    for (int v = 0; v < n; v++) {
+      for (int u = 0; u < n; u++) {
+        block[v * 8 + u] = 0;
+      }
+    }
+  }
+
+
+  /**
+   * n-point inverse DCT of the n lowest frequencies of an 8-point DCT:
+   * table[x][u] = C(u) / 2 * cos((2x + 1) u pi / 2n), with C(0) = 1 / sqrt(2) and C(u) = 1 otherwise.
+   * For n = 8, this is the normal JPEG inverse DCT; for smaller n, each output pixel
+   * is (approximately) the average of the 8/n x 8/n pixels it covers.
+   */
+  private static synchronized float[] getIdctTable(final int n) {
+    float[] table = JpegDecoder.IDCT_TABLES[n];
+    if (table == null) {
+      table = new float[n * n];
+      for (int x = 0; x < n; x++) {
+        for (int u = 0; u < n; u++) {
+          final double c = u == 0 ? Math.sqrt(0.5) : 1.0;
+          table[x * n + u] = (float) (c / 2 * Math.cos((2 * x + 1) * u * Math.PI / (2 * n)));
+        }
+      }
+      JpegDecoder.IDCT_TABLES[n] = table;
+    }
+    return table;
+  }
+
+
+  /**
+   * Upsample the components to full (scaled) size and convert them to RGB.
+   */
+  private BufferedImage convertColors(final int outWidth, final int outHeight) {
+    final BufferedImage image = new BufferedImage(outWidth, outHeight, BufferedImage.TYPE_INT_RGB);
+    final int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+
+    if (this.components.length == 1) {
+      final Component gray = this.components[0];
+      for (int y = 0; y < outHeight; y++) {
+        final int row = y * gray.planeWidth;
+        for (int x = 0; x < outWidth; x++) {
+          final int value = gray.plane[row + x] & 0xff;
+          pixels[y * outWidth + x] = value << 16 | value << 8 | value;
+        }
+      }
+      return image;
+    }
+
+    final boolean ycc = this.isYCbCr();
+    final Component c0 = this.components[0];
+    final Component c1 = this.components[1];
+    final Component c2 = this.components[2];
+    final int[] columns0 = this.getColumnMap(c0, outWidth);
+    final int[] columns1 = this.getColumnMap(c1, outWidth);
+    final int[] columns2 = this.getColumnMap(c2, outWidth);
+    for (int y = 0; y < outHeight; y++) {
+      final int row0 = y * c0.v / this.maxV * c0.planeWidth;
+      final int row1 = y * c1.v / this.maxV * c1.planeWidth;
+      final int row2 = y * c2.v / this.maxV * c2.planeWidth;
+      for (int x = 0; x < outWidth; x++) {
+        final int a = c0.plane[row0 + columns0[x]] & 0xff;
+        final int b = c1.plane[row1 + columns1[x]] & 0xff;
+        final int c = c2.plane[row2 + columns2[x]] & 0xff;
+        if (ycc) {
+          final int cb = b - 128;
+          final int cr = c - 128;
+          // JFIF conversion in 16 bit fixed point
+          final int r = a + ((91881 * cr + 32768) >> 16);
+          final int g = a - ((22554 * cb + 46802 * cr - 32768) >> 16);
+          final int bl = a + ((116130 * cb + 32768) >> 16);
+          pixels[y * outWidth + x] = JpegDecoder.clamp(r) << 16 | JpegDecoder.clamp(g) << 8 | JpegDecoder.clamp(bl);
+        } else {
+          pixels[y * outWidth + x] = a << 16 | b << 8 | c;
+        }
+      }
+    }
+    return image;
+  }
+
+
+  /**
+   * @return Plane column of each output column (replicating subsampled chroma).
+   */
+  private int[] getColumnMap(final Component component, final int outWidth) {
+    final int[] map = new int[outWidth];
+    for (int x = 0; x < outWidth; x++) {
+      map[x] = x * component.h / this.maxH;
+    }
+    return map;
+  }
+
+
+  /**
+   * Three components are YCbCr, unless the Adobe marker says otherwise or the component ids spell "RGB".
+   */
+  private boolean isYCbCr() {
+    if (this.jfif) {
+      return true;
+    }
+    if (this.adobeTransform >= 0) {
+      return this.adobeTransform != 0;
+    }
+    return !(this.components[0].id == 'R' && this.components[1].id == 'G' && this.components[2].id == 'B');
+  }
+
+
+  private static int clamp(final int v) {
+    return v < 0 ? 0 : v > 255 ? 255 : v;
+  }
+
+
+  // Entropy-coded data
+
+
+  /**
+   * Make sure that there are at least 25 bits in the buffer. At a marker (or the end of the data),
+   * zeros are fed in, so a truncated scan decodes as far as possible.
+   */
+  private void fill() {
+    while (this.bitCount <= 24) {
+      int b = 0;
+      if (this.pos < this.data.length) {
+        b = this.data[this.pos] & 0xff;
+        if (b == 0xff) {
+          final int next = this.pos + 1 < this.data.length ? this.data[this.pos + 1] & 0xff : -1;
+          if (next == 0) {
+            this.pos += 2;
+          } else {
+            b = 0; // Marker: do not consume it
+          }
+        } else {
+          this.pos++;
+        }
+      }
+      this.bitBuffer = this.bitBuffer << 8 | b;
+      this.bitCount += 8;
+    }
+  }
+
+
+  private int readBit() {
+    if (this.bitCount < 1) {
+      this.fill();
+    }
+    this.bitCount--;
+    return (this.bitBuffer >>> this.bitCount) & 1;
+  }
+
+
+  private int readBits(final int n) {
+    if (this.bitCount < n) {
+      this.fill();
+    }
+    this.bitCount -= n;
+    return (this.bitBuffer >>> this.bitCount) & ((1 << n) - 1);
+  }
+
+
+  /**
+   * Read s bits and interpret them as a signed value (JPEG's EXTEND procedure).
+   */
+  private int receiveExtend(final int s) {
+    final int value = this.readBits(s);
+    return value < 1 << (s - 1) ? value - (1 << s) + 1 : value;
+  }
+
+
+  private int decodeHuffman(final Huffman table) throws IOException {
+    if (this.bitCount < 16) {
+      this.fill();
+    }
+    final int look = (this.bitBuffer >>> (this.bitCount - JpegDecoder.LOOKUP_BITS)) & ((1 << JpegDecoder.LOOKUP_BITS) - 1);
+    final int entry = table.lookup[look];
+    if (entry != 0) {
+      this.bitCount -= entry >> 8;
+      return entry & 0xff;
+    }
+
+    for (int length = JpegDecoder.LOOKUP_BITS + 1; length <= 16; length++) {
+      final int code = (this.bitBuffer >>> (this.bitCount - length)) & ((1 << length) - 1);
+      if (code <= table.maxCode[length]) {
+        this.bitCount -= length;
+        return table.symbols[table.valuePointer[length] + code - table.minCode[length]];
+      }
+    }
+    throw new IOException("Invalid Huffman code in JPEG file");
+  }
+
+
+  /**
+   * Canonical Huffman table (JPEG Annex C), with a lookup table for short codes.
+   */
+  private static final class Huffman {
+    final int[] symbols;
+    final int[] maxCode = new int[17];
+    final int[] minCode = new int[17];
+    final int[] valuePointer = new int[17];
+    /** (length << 8 | symbol) for each LOOKUP_BITS prefix, or 0 if the code is longer */
+    final int[] lookup = new int[1 << JpegDecoder.LOOKUP_BITS];
+
+    Huffman(final int[] counts, final int[] symbols) throws IOException {
+      this.symbols = symbols;
+      int code = 0;
+      int k = 0;
+      for (int length = 1; length <= 16; length++) {
+        this.valuePointer[length] = k;
+        this.minCode[length] = code;
+        for (int i = 0; i < counts[length]; i++) {
+          if (code >= 1 << length) {
+            throw new IOException("Invalid Huffman table in JPEG file");
+          }
+          if (length <= JpegDecoder.LOOKUP_BITS) {
+            final int shift = JpegDecoder.LOOKUP_BITS - length;
+            for (int fill = 0; fill < 1 << shift; fill++) {
+              this.lookup[(code << shift) | fill] = length << 8 | symbols[k];
+            }
+          }
+          code++;
+          k++;
+        }
+        this.maxCode[length] = counts[length] == 0 ? -1 : code - 1;
+        code <<= 1;
+      }
+    }
+  }
+
+
+  private static final class Component {
+    int id;
+    int h;
+    int v;
+    int tq;
+    int blocksPerLine;
+    int blocksPerColumn;
+    int usedBlocksPerLine;
+    int usedBlocksPerColumn;
+    Huffman dcTable;
+    Huffman acTable;
+    int prediction;
+    /** Progressive only: quantized coefficients of all blocks (natural order) */
+    short[] coefficients;
+    /** Decoded samples at the output scale */
+    byte[] plane;
+    int planeWidth;
+    /** Dequantized coefficients of the current block (natural order) */
+    final float[] block = new float[64];
+  }
+
+
+  private static final class Scan {
+    static final int SEQUENTIAL = 0;
+    static final int DC_FIRST = 1;
+    static final int DC_REFINE = 2;
+    static final int AC_FIRST = 3;
+    static final int AC_REFINE = 4;
+
+    final int kind;
+    final int ss;
+    final int se;
+    final int al;
+
+    Scan(final int kind, final int ss, final int se, final int al) {
+      this.kind = kind;
+      this.ss = ss;
+      this.se = se;
+      this.al = al;
+    }
+  }
+}
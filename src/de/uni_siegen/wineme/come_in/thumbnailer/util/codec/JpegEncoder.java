@@ -0,0 +1,101 @@
+/*
+ * regain/Thumbnailer - A file search engine providing plenty of formats (Plugin)
+ * Copyright (C) 2011  Come_IN Computerclubs (University of Siegen)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * Contact: Come_IN-Team <come_in-team@listserv.uni-siegen.de>
+ */
+
+package de.uni_siegen.wineme.come_in.thumbnailer.util.codec;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import de.uni_siegen.wineme.come_in.thumbnailer.util.RasterPool;
+
+/**
+ * Lossy JPEG output. Much smaller than PNG for photographs.
+ * JPEG has no alpha channel, so transparent areas are rendered on white.
+ *
+ * @author Benjamin
+ */
+public class JpegEncoder implements ThumbnailEncoder {
+
+  /** Quality that is hardly distinguishable from the original at thumbnail size */
+  public static final float DEFAULT_QUALITY = 0.8f;
+
+  private float quality = JpegEncoder.DEFAULT_QUALITY;
+
+
+  public JpegEncoder() {
+  }
+
+
+  /**
+   * @param quality  Between 0.0 (smallest file) and 1.0 (best quality)
+   */
+  public JpegEncoder(final float quality) {
+    this.setQuality(quality);
+  }
+
+
+  public float getQuality() {
+    return this.quality;
+  }
+
+
+  /**
+   * @param quality  Between 0.0 (smallest file) and 1.0 (best quality)
+   */
+  public void setQuality(final float quality) {
+    if (quality < 0.0f || quality > 1.0f) {
+      throw new IllegalArgumentException("JPEG quality must be between 0.0 and 1.0, was " + quality);
+    }
+    this.quality = quality;
+  }
+
+
+  @Override
+  public void write(final BufferedImage image, final File output) throws IOException {
+    final int type = image.getType();
+    if (type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_3BYTE_BGR || type == BufferedImage.TYPE_BYTE_GRAY) {
+      ImageIOEncoding.write(image, "jpeg", this.quality, output);
+      return;
+    }
+
+    final BufferedImage opaque = RasterPool.acquire(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+    try {
+      final Graphics2D graphics = opaque.createGraphics();
+      graphics.setColor(Color.WHITE);
+      graphics.fillRect(0, 0, image.getWidth(), image.getHeight());
+      graphics.drawImage(image, 0, 0, null);
+      graphics.dispose();
+
+      ImageIOEncoding.write(opaque, "jpeg", this.quality, output);
+    } finally {
+      RasterPool.release(opaque);
+    }
+  }
+
+
+  @Override
+  public String getFileExtension() {
+    return "jpg";
+  }
+}
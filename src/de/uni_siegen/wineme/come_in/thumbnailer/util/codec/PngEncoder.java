@@ -0,0 +1,776 @@
+/*
+ * regain/Thumbnailer - A file search engine providing plenty of formats (Plugin)
+ * Copyright (C) 2011  Come_IN Computerclubs (University of Siegen)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * Contact: Come_IN-Team <come_in-team@listserv.uni-siegen.de>
+ */
+
+package de.uni_siegen.wineme.come_in.thumbnailer.util.codec;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Lossless PNG output. This is the default, and the best choice for documents and line art.
+ *
+ * This does not use ImageIO: The PNG chunks are written directly, with a Deflater that is reused
+ * by each thread, and (optionally) large images are compressed in parallel in blocks of rows.
+ * Each row uses the filter with the minimum sum of absolute differences (as libpng does),
+ * and the deflate strategy is tuned for filtered data.
+ *
+ * @author Benjamin
+ */
+public class PngEncoder implements ThumbnailEncoder {
+
+  /** Use the default compression level of zlib (6) */
+  public static final int DEFAULT_COMPRESSION = -1;
+
+  /** Images with less raw data than this (in Bytes) are never compressed in parallel */
+  private static final int PARALLEL_THRESHOLD = 1024 * 1024;
+
+  /** Raw data per block in parallel mode (in Bytes) */
+  private static final int PARALLEL_BLOCK_SIZE = 256 * 1024;
+
+  /** Maximum data size of an IDAT chunk */
+  private static final int IDAT_SIZE = 64 * 1024;
+
+  private static final byte[] SIGNATURE = new byte[] { (byte) 137, 80, 78, 71, 13, 10, 26, 10 };
+
+  static final int COLOR_TYPE_RGB = 2;
+  static final int COLOR_TYPE_INDEXED = 3;
+  static final int COLOR_TYPE_RGBA = 6;
+
+  private static final int FILTER_NONE = 0;
+  private static final int FILTER_SUB = 1;
+  private static final int FILTER_UP = 2;
+  private static final int FILTER_AVERAGE = 3;
+  private static final int FILTER_PAETH = 4;
+
+  /** One raw deflater (without zlib header) per thread, reset before each image */
+  private static final ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>() {
+    @Override
+    protected Deflater initialValue() {
+      return new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    }
+  };
+
+  private static ExecutorService parallelExecutor;
+
+  private int compressionLevel = PngEncoder.DEFAULT_COMPRESSION;
+  private boolean parallel = false;
+  private boolean indexed = false;
+
+
+  public PngEncoder() {
+  }
+
+
+  /**
+   * @param compressionLevel  Deflate level from 0 (fastest) to 9 (smallest), or DEFAULT_COMPRESSION
+   */
+  public PngEncoder(final int compressionLevel) {
+    this.setCompressionLevel(compressionLevel);
+  }
+
+
+  public int getCompressionLevel() {
+    return this.compressionLevel;
+  }
+
+
+  /**
+   * Set the trade-off between encoding speed and file size.
+   *
+   * @param compressionLevel  Deflate level from 0 (fastest) to 9 (smallest), or DEFAULT_COMPRESSION
+   */
+  public void setCompressionLevel(final int compressionLevel) {
+    if (compressionLevel < PngEncoder.DEFAULT_COMPRESSION || compressionLevel > 9) {
+      throw new IllegalArgumentException("PNG compression level must be between 0 and 9, was " + compressionLevel);
+    }
+    this.compressionLevel = compressionLevel;
+  }
+
+
+  public boolean isParallel() {
+    return this.parallel;
+  }
+
+
+  /**
+   * Compress large images (more than 1 MB of raw pixel data) in blocks on all available processors.
+   * The result is slightly bigger, as the compression dictionary is not shared between blocks.
+   * Small images are always compressed on the calling thread.
+   */
+  public void setParallel(final boolean parallel) {
+    this.parallel = parallel;
+  }
+
+
+  public boolean isIndexed() {
+    return this.indexed;
+  }
+
+
+  /**
+   * Write an indexed (palette) PNG instead of RGB/RGBA.
+   * Images with up to 256 colors (such as most document pages) are written exactly,
+   * others are quantized by median cut. Pages with few colors get 1, 2 or 4 bits per pixel.
+   *
+   * @see ColorQuantizer
+   */
+  public void setIndexed(final boolean indexed) {
+    this.indexed = indexed;
+  }
+
+
+  @Override
+  public void write(final BufferedImage image, final File output) throws IOException {
+    final OutputStream out = new BufferedOutputStream(new FileOutputStream(output));
+    try {
+      this.write(image, out);
+    } finally {
+      out.close();
+    }
+  }
+
+
+  /**
+   * Write the image as PNG into a stream (which is not closed).
+   */
+  public void write(final BufferedImage image, final OutputStream out) throws IOException {
+    if (this.indexed) {
+      this.write(ColorQuantizer.quantize(image, ColorQuantizer.MAX_COLORS), out);
+      return;
+    }
+    final RowSource rows = new TrueColorRows(image);
+    PngEncoder.writeHeader(out, image.getWidth(), image.getHeight(), rows.getColorType(), 8);
+    this.writeImageData(out, rows);
+    PngEncoder.writeChunk(out, "IEND", new byte[0], 0);
+  }
+
+
+  /**
+   * Write an already quantized image as indexed PNG into a stream (which is not closed).
+   */
+  public void write(final IndexedPixels image, final OutputStream out) throws IOException {
+    final IndexedRows rows = new IndexedRows(image);
+    PngEncoder.writeHeader(out, image.getWidth(), image.getHeight(), PngEncoder.COLOR_TYPE_INDEXED, rows.bitDepth);
+
+    final int[] palette = image.getPalette();
+    final byte[] plte = new byte[palette.length * 3];
+    for (int i = 0; i < palette.length; i++) {
+      plte[i * 3] = (byte) (palette[i] >> 16);
+      plte[i * 3 + 1] = (byte) (palette[i] >> 8);
+      plte[i * 3 + 2] = (byte) palette[i];
+    }
+    PngEncoder.writeChunk(out, "PLTE", plte, plte.length);
+
+    final int translucent = image.getTranslucentCount();
+    if (translucent > 0) {
+      final byte[] trns = new byte[translucent];
+      for (int i = 0; i < translucent; i++) {
+        trns[i] = (byte) (palette[i] >>> 24);
+      }
+      PngEncoder.writeChunk(out, "tRNS", trns, trns.length);
+    }
+
+    this.writeImageData(out, rows);
+    PngEncoder.writeChunk(out, "IEND", new byte[0], 0);
+  }
+
+
+  @Override
+  public String getFileExtension() {
+    return "png";
+  }
+
+
+  /**
+   * Unfiltered scanlines of an image.
+   */
+  interface RowSource {
+
+    int getColorType();
+
+    int getHeight();
+
+    /** Number of bytes per row (without the filter byte) */
+    int getRowLength();
+
+    /** Distance (in bytes) to the corresponding byte of the previous pixel, as used by the filters */
+    int getBytesPerPixel();
+
+    /** Whether rows should be filtered at all (not recommended for indexed images) */
+    boolean useFilters();
+
+    /** Write row y into row (of getRowLength() bytes). Must be safe to call from several threads. */
+    void getRow(int y, byte[] row, int[] scratch);
+  }
+
+
+  /**
+   * RGB (if the image is opaque) or RGBA scanlines.
+   */
+  static final class TrueColorRows implements RowSource {
+    private final BufferedImage image;
+    private final int width;
+    private final boolean alpha;
+    private final int[] direct;
+
+    TrueColorRows(final BufferedImage image) {
+      this.image = image;
+      this.width = image.getWidth();
+      this.direct = PngEncoder.getDirectPixels(image);
+      this.alpha = PngEncoder.hasTranslucentPixels(image, this.direct);
+    }
+
+    public int getColorType() {
+      return this.alpha ? PngEncoder.COLOR_TYPE_RGBA : PngEncoder.COLOR_TYPE_RGB;
+    }
+
+    public int getHeight() {
+      return this.image.getHeight();
+    }
+
+    public int getRowLength() {
+      return this.width * this.getBytesPerPixel();
+    }
+
+    public int getBytesPerPixel() {
+      return this.alpha ? 4 : 3;
+    }
+
+    public boolean useFilters() {
+      return true;
+    }
+
+    public void getRow(final int y, final byte[] row, final int[] scratch) {
+      final int[] pixels;
+      final int offset;
+      if (this.direct != null) {
+        pixels = this.direct;
+        offset = y * this.width;
+      } else {
+        this.image.getRGB(0, y, this.width, 1, scratch, 0, this.width);
+        pixels = scratch;
+        offset = 0;
+      }
+
+      int i = 0;
+      if (this.alpha) {
+        for (int x = 0; x < this.width; x++) {
+          final int argb = pixels[offset + x];
+          row[i++] = (byte) (argb >> 16);
+          row[i++] = (byte) (argb >> 8);
+          row[i++] = (byte) argb;
+          row[i++] = (byte) (argb >>> 24);
+        }
+      } else {
+        for (int x = 0; x < this.width; x++) {
+          final int argb = pixels[offset + x];
+          row[i++] = (byte) (argb >> 16);
+          row[i++] = (byte) (argb >> 8);
+          row[i++] = (byte) argb;
+        }
+      }
+    }
+  }
+
+
+  /**
+   * Palette indices, packed into 1, 2, 4 or 8 bits per pixel (depending on the palette size).
+   * Not filtered: the filters do not work well on indices.
+   */
+  static final class IndexedRows implements RowSource {
+    private final IndexedPixels image;
+    final int bitDepth;
+
+    IndexedRows(final IndexedPixels image) {
+      this.image = image;
+      final int colors = image.getPalette().length;
+      this.bitDepth = colors <= 2 ? 1 : colors <= 4 ? 2 : colors <= 16 ? 4 : 8;
+    }
+
+    public int getColorType() {
+      return PngEncoder.COLOR_TYPE_INDEXED;
+    }
+
+    public int getHeight() {
+      return this.image.getHeight();
+    }
+
+    public int getRowLength() {
+      return (this.image.getWidth() * this.bitDepth + 7) / 8;
+    }
+
+    public int getBytesPerPixel() {
+      return 1;
+    }
+
+    public boolean useFilters() {
+      return false;
+    }
+
+    public void getRow(final int y, final byte[] row, final int[] scratch) {
+      final byte[] indices = this.image.getIndices();
+      final int width = this.image.getWidth();
+      final int offset = y * width;
+      if (this.bitDepth == 8) {
+        System.arraycopy(indices, offset, row, 0, width);
+        return;
+      }
+
+      final int perByte = 8 / this.bitDepth;
+      Arrays.fill(row, 0, this.getRowLength(), (byte) 0);
+      for (int x = 0; x < width; x++) {
+        final int shift = 8 - this.bitDepth * (x % perByte + 1);
+        row[x / perByte] |= (indices[offset + x] & 0xff) << shift;
+      }
+    }
+  }
+
+
+  static void writeHeader(final OutputStream out, final int width, final int height, final int colorType, final int bitDepth) throws IOException {
+    out.write(PngEncoder.SIGNATURE);
+
+    final byte[] ihdr = new byte[13];
+    PngEncoder.putInt(ihdr, 0, width);
+    PngEncoder.putInt(ihdr, 4, height);
+    ihdr[8] = (byte) bitDepth;
+    ihdr[9] = (byte) colorType;
+    ihdr[10] = 0; // Compression: deflate
+    ihdr[11] = 0; // Filter method: adaptive
+    ihdr[12] = 0; // No interlacing
+    PngEncoder.writeChunk(out, "IHDR", ihdr, ihdr.length);
+  }
+
+
+  /**
+   * Write the zlib stream of the filtered rows as IDAT chunks.
+   */
+  void writeImageData(final OutputStream out, final RowSource rows) throws IOException {
+    final IdatOutputStream idat = new IdatOutputStream(out);
+    final int level = this.compressionLevel;
+
+    // zlib header: deflate with 32K window, FLEVEL according to the compression level
+    idat.write(0x78);
+    idat.write(level >= 0 && level < 2 ? 0x01 : level > 6 ? 0xDA : 0x9C);
+
+    final long rawSize = (long) (rows.getRowLength() + 1) * rows.getHeight();
+    final long adler;
+    if (this.parallel && rawSize > PngEncoder.PARALLEL_THRESHOLD) {
+      adler = PngEncoder.compressParallel(rows, level, idat);
+    } else {
+      final Block block = PngEncoder.compressRows(rows, 0, rows.getHeight(), level, true);
+      idat.write(block.compressed, 0, block.length);
+      adler = block.adler;
+    }
+
+    idat.write((int) (adler >>> 24));
+    idat.write((int) (adler >>> 16));
+    idat.write((int) (adler >>> 8));
+    idat.write((int) adler);
+    idat.flushChunk();
+  }
+
+
+  /**
+   * Compressed result of a range of rows.
+   */
+  private static final class Block {
+    byte[] compressed;
+    int length;
+    long adler;
+    long rawLength;
+  }
+
+
+  /**
+   * Filter and compress the rows [fromRow, toRow) with the Deflater of the current thread.
+   *
+   * @param last  If true, the deflate stream is finished, otherwise it is flushed to a byte boundary
+   *              (so that the next block can simply be appended).
+   */
+  private static Block compressRows(final RowSource rows, final int fromRow, final int toRow, final int level, final boolean last) {
+    final int rowLength = rows.getRowLength();
+    final int bpp = rows.getBytesPerPixel();
+    byte[] prev = new byte[rowLength];
+    byte[] cur = new byte[rowLength];
+    final byte[][] candidates = new byte[5][rowLength + 1];
+    final int[] scratch = new int[rowLength];
+    final Adler32 adler32 = new Adler32();
+
+    final Deflater deflater = PngEncoder.deflaters.get();
+    deflater.reset();
+    deflater.setLevel(level);
+    deflater.setStrategy(rows.useFilters() ? Deflater.FILTERED : Deflater.DEFAULT_STRATEGY);
+
+    final Block block = new Block();
+    block.compressed = new byte[Math.max(1024, (rowLength + 1) * (toRow - fromRow) / 4)];
+
+    if (fromRow > 0 && rows.useFilters()) {
+      rows.getRow(fromRow - 1, prev, scratch);
+    }
+
+    for (int y = fromRow; y < toRow; y++) {
+      rows.getRow(y, cur, scratch);
+      final byte[] filtered = rows.useFilters() ? PngEncoder.filterRow(cur, prev, bpp, candidates) : PngEncoder.unfiltered(cur, candidates[0]);
+
+      adler32.update(filtered, 0, rowLength + 1);
+      block.rawLength += rowLength + 1;
+      deflater.setInput(filtered, 0, rowLength + 1);
+      while (!deflater.needsInput()) {
+        PngEncoder.deflate(deflater, block, Deflater.NO_FLUSH);
+      }
+
+      final byte[] tmp = prev;
+      prev = cur;
+      cur = tmp;
+    }
+
+    if (last) {
+      deflater.finish();
+      while (!deflater.finished()) {
+        PngEncoder.deflate(deflater, block, Deflater.NO_FLUSH);
+      }
+    } else {
+      // Loop until the output buffer was not filled completely, see Deflater.deflate(byte[], int, int, int)
+      while (PngEncoder.deflate(deflater, block, Deflater.SYNC_FLUSH)) {
+        // continue
+      }
+    }
+
+    block.adler = adler32.getValue();
+    return block;
+  }
+
+
+  /**
+   * @return True if the output buffer was full (i.e. there may be more output).
+   */
+  private static boolean deflate(final Deflater deflater, final Block block, final int flush) {
+    if (block.length == block.compressed.length) {
+      final byte[] bigger = new byte[block.compressed.length * 2];
+      System.arraycopy(block.compressed, 0, bigger, 0, block.length);
+      block.compressed = bigger;
+    }
+    final int space = block.compressed.length - block.length;
+    final int n = deflater.deflate(block.compressed, block.length, space, flush);
+    block.length += n;
+    return n == space;
+  }
+
+
+  /**
+   * Compress blocks of rows on the shared executor and append them in order.
+   *
+   * @return Adler32 checksum of all filtered rows
+   */
+  private static long compressParallel(final RowSource rows, final int level, final OutputStream out) throws IOException {
+    final int height = rows.getHeight();
+    final int rowsPerBlock = Math.max(1, PngEncoder.PARALLEL_BLOCK_SIZE / (rows.getRowLength() + 1));
+
+    final List<Future<Block>> futures = new ArrayList<Future<Block>>();
+    for (int from = 0; from < height; from += rowsPerBlock) {
+      final int fromRow = from;
+      final int toRow = Math.min(height, from + rowsPerBlock);
+      futures.add(PngEncoder.getParallelExecutor().submit(new Callable<Block>() {
+        @Override
+        public Block call() {
+          return PngEncoder.compressRows(rows, fromRow, toRow, level, toRow == height);
+        }
+      }));
+    }
+
+    long adler = 1;
+    try {
+      for (final Future<Block> future : futures) {
+        final Block block = future.get();
+        out.write(block.compressed, 0, block.length);
+        adler = PngEncoder.combineAdler32(adler, block.adler, block.rawLength);
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while compressing PNG", e);
+    } catch (final ExecutionException e) {
+      throw new IOException("Could not compress PNG", e.getCause());
+    } finally {
+      for (final Future<Block> future : futures) {
+        future.cancel(true);
+      }
+    }
+    return adler;
+  }
+
+
+  private static synchronized ExecutorService getParallelExecutor() {
+    if (PngEncoder.parallelExecutor == null) {
+      PngEncoder.parallelExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+        private int count = 0;
+
+        @Override
+        public synchronized Thread newThread(final Runnable r) {
+          final Thread thread = new Thread(r, "PngEncoder-" + ++this.count);
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return PngEncoder.parallelExecutor;
+  }
+
+
+  /**
+   * Combine the checksums of two consecutive byte sequences (as adler32_combine() of zlib).
+   *
+   * @param adler1  Checksum of the first sequence
+   * @param adler2  Checksum of the second sequence
+   * @param len2    Length of the second sequence
+   * @return Checksum of both sequences
+   */
+  static long combineAdler32(final long adler1, final long adler2, final long len2) {
+    final long base = 65521;
+    final long rem = len2 % base;
+    long sum1 = adler1 & 0xffff;
+    long sum2 = rem * sum1 % base;
+    sum1 += (adler2 & 0xffff) + base - 1;
+    sum2 += (adler1 >> 16 & 0xffff) + (adler2 >> 16 & 0xffff) + base - rem;
+    if (sum1 >= base) {
+      sum1 -= base;
+    }
+    if (sum1 >= base) {
+      sum1 -= base;
+    }
+    if (sum2 >= base << 1) {
+      sum2 -= base << 1;
+    }
+    if (sum2 >= base) {
+      sum2 -= base;
+    }
+    return sum1 | sum2 << 16;
+  }
+
+
+  private static byte[] unfiltered(final byte[] cur, final byte[] out) {
+    out[0] = PngEncoder.FILTER_NONE;
+    System.arraycopy(cur, 0, out, 1, cur.length);
+    return out;
+  }
+
+
+  /**
+   * Apply all five filters and return the one with the minimum sum of absolute (signed) values.
+   *
+   * @param candidates  Five buffers of row length + 1 bytes
+   * @return One of the candidates, starting with the filter type byte
+   */
+  private static byte[] filterRow(final byte[] cur, final byte[] prev, final int bpp, final byte[][] candidates) {
+    final int n = cur.length;
+    final byte[] none = candidates[PngEncoder.FILTER_NONE];
+    final byte[] sub = candidates[PngEncoder.FILTER_SUB];
+    final byte[] up = candidates[PngEncoder.FILTER_UP];
+    final byte[] avg = candidates[PngEncoder.FILTER_AVERAGE];
+    final byte[] paeth = candidates[PngEncoder.FILTER_PAETH];
+    long sumNone = 0, sumSub = 0, sumUp = 0, sumAvg = 0, sumPaeth = 0;
+
+    for (int i = 0; i < n; i++) {
+      final int x = cur[i] & 0xff;
+      final int a = i >= bpp ? cur[i - bpp] & 0xff : 0;
+      final int b = prev[i] & 0xff;
+      final int c = i >= bpp ? prev[i - bpp] & 0xff : 0;
+
+      final byte vNone = (byte) x;
+      final byte vSub = (byte) (x - a);
+      final byte vUp = (byte) (x - b);
+      final byte vAvg = (byte) (x - (a + b >> 1));
+      final byte vPaeth = (byte) (x - PngEncoder.paethPredictor(a, b, c));
+
+      none[i + 1] = vNone;
+      sub[i + 1] = vSub;
+      up[i + 1] = vUp;
+      avg[i + 1] = vAvg;
+      paeth[i + 1] = vPaeth;
+
+      sumNone += Math.abs(vNone);
+      sumSub += Math.abs(vSub);
+      sumUp += Math.abs(vUp);
+      sumAvg += Math.abs(vAvg);
+      sumPaeth += Math.abs(vPaeth);
+    }
+
+    int best = PngEncoder.FILTER_NONE;
+    long bestSum = sumNone;
+    if (sumSub < bestSum) {
+      best = PngEncoder.FILTER_SUB;
+      bestSum = sumSub;
+    }
+    if (sumUp < bestSum) {
+      best = PngEncoder.FILTER_UP;
+      bestSum = sumUp;
+    }
+    if (sumAvg < bestSum) {
+      best = PngEncoder.FILTER_AVERAGE;
+      bestSum = sumAvg;
+    }
+    if (sumPaeth < bestSum) {
+      best = PngEncoder.FILTER_PAETH;
+    }
+
+    candidates[best][0] = (byte) best;
+    return candidates[best];
+  }
+
+
+  private static int paethPredictor(final int a, final int b, final int c) {
+    final int p = a + b - c;
+    final int pa = Math.abs(p - a);
+    final int pb = Math.abs(p - b);
+    final int pc = Math.abs(p - c);
+    if (pa <= pb && pa <= pc) {
+      return a;
+    }
+    return pb <= pc ? b : c;
+  }
+
+
+  static void writeChunk(final OutputStream out, final String type, final byte[] data, final int length) throws IOException {
+    final byte[] header = new byte[8];
+    PngEncoder.putInt(header, 0, length);
+    for (int i = 0; i < 4; i++) {
+      header[4 + i] = (byte) type.charAt(i);
+    }
+    final CRC32 crc = new CRC32();
+    crc.update(header, 4, 4);
+    crc.update(data, 0, length);
+
+    out.write(header);
+    out.write(data, 0, length);
+    final byte[] trailer = new byte[4];
+    PngEncoder.putInt(trailer, 0, (int) crc.getValue());
+    out.write(trailer);
+  }
+
+
+  private static void putInt(final byte[] buffer, final int offset, final int value) {
+    buffer[offset] = (byte) (value >>> 24);
+    buffer[offset + 1] = (byte) (value >>> 16);
+    buffer[offset + 2] = (byte) (value >>> 8);
+    buffer[offset + 3] = (byte) value;
+  }
+
+
+  /**
+   * Splits everything written to it into IDAT chunks.
+   */
+  private static final class IdatOutputStream extends OutputStream {
+    private final OutputStream out;
+    private final byte[] buffer = new byte[PngEncoder.IDAT_SIZE];
+    private int count = 0;
+
+    IdatOutputStream(final OutputStream out) {
+      this.out = out;
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+      if (this.count == this.buffer.length) {
+        this.flushChunk();
+      }
+      this.buffer[this.count++] = (byte) b;
+    }
+
+    @Override
+    public void write(final byte[] b, int off, int len) throws IOException {
+      while (len > 0) {
+        if (this.count == this.buffer.length) {
+          this.flushChunk();
+        }
+        final int n = Math.min(len, this.buffer.length - this.count);
+        System.arraycopy(b, off, this.buffer, this.count, n);
+        this.count += n;
+        off += n;
+        len -= n;
+      }
+    }
+
+    void flushChunk() throws IOException {
+      if (this.count > 0) {
+        PngEncoder.writeChunk(this.out, "IDAT", this.buffer, this.count);
+        this.count = 0;
+      }
+    }
+  }
+
+
+  /**
+   * @return Backing array of unpadded TYPE_INT_ARGB / TYPE_INT_RGB images, or null
+   */
+  static int[] getDirectPixels(final BufferedImage image) {
+    final int type = image.getType();
+    if (type != BufferedImage.TYPE_INT_ARGB && type != BufferedImage.TYPE_INT_RGB || image.getRaster().getParent() != null) {
+      return null;
+    }
+    return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+  }
+
+
+  /**
+   * @return True if any pixel is not fully opaque (so that the alpha channel has to be written).
+   */
+  static boolean hasTranslucentPixels(final BufferedImage image, final int[] direct) {
+    if (!image.getColorModel().hasAlpha()) {
+      return false;
+    }
+    if (direct != null) {
+      for (final int argb : direct) {
+        if (argb >>> 24 != 0xff) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    final int width = image.getWidth();
+    final int[] row = new int[width];
+    for (int y = 0; y < image.getHeight(); y++) {
+      image.getRGB(0, y, width, 1, row, 0, width);
+      for (final int argb : row) {
+        if (argb >>> 24 != 0xff) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+}
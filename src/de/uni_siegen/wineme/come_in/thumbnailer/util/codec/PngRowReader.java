@@ -0,0 +1,445 @@
+/*
+ * regain/Thumbnailer - A file search engine providing plenty of formats (Plugin)
+ * Copyright (C) 2011  Come_IN Computerclubs (University of Siegen)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * Contact: Come_IN-Team <come_in-team@listserv.uni-siegen.de>
+ */
+
+package de.uni_siegen.wineme.come_in.thumbnailer.util.codec;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import de.uni_siegen.wineme.come_in.thumbnailer.UnsupportedInputFileFormatException;
+
+/**
+ * Reads a PNG file row by row, without ever holding more than two rows in memory.
+ * Meant for feeding big images into a downscaler (see AreaAccumulator).
+ *
+ * All color types and bit depths are supported, including transparency (tRNS).
+ * 16 bit samples are reduced to 8 bit; gamma and color profiles are ignored.
+ * Interlaced files are rejected with an UnsupportedInputFileFormatException,
+ * as their rows only become complete in the last pass.
+ *
+ * @author Benjamin
+ */
+public class PngRowReader {
+
+  private static final long SIGNATURE = 0x89504e470d0a1a0aL;
+
+  private static final int IHDR = 0x49484452;
+  private static final int PLTE = 0x504c5445;
+  private static final int TRNS = 0x74524e53;
+  private static final int IDAT = 0x49444154;
+
+  private static final int COLOR_TYPE_GRAY = 0;
+  private static final int COLOR_TYPE_RGB = 2;
+  private static final int COLOR_TYPE_INDEXED = 3;
+  private static final int COLOR_TYPE_GRAY_ALPHA = 4;
+  private static final int COLOR_TYPE_RGBA = 6;
+
+  private final DataInputStream in;
+  private final Inflater inflater = new Inflater();
+  private final InputStream pixels;
+
+  private int width;
+  private int height;
+  private int bitDepth;
+  private int colorType;
+  /** Bytes per complete pixel (at least 1), as needed by the filters */
+  private int filterOffset;
+  private int[] palette;
+  /** Transparent gray or RGB value (tRNS) with all bits of the samples, or -1 */
+  private long transparentColor = -1;
+  private boolean hasAlpha;
+
+  private byte[] row;
+  private byte[] previous;
+  private int nextRow = 0;
+
+  /** Bytes left in the current IDAT chunk */
+  private int idatRemaining;
+  private boolean idatDone = false;
+
+
+  /**
+   * Open a PNG file and read its header.
+   *
+   * @throws UnsupportedInputFileFormatException If this is no PNG file, or an interlaced one.
+   */
+  public PngRowReader(final File file) throws IOException {
+    this(new FileInputStream(file));
+  }
+
+
+  /**
+   * Read the header of a PNG stream. The stream is closed by close().
+   *
+   * @throws UnsupportedInputFileFormatException If this is no PNG file, or an interlaced one.
+   */
+  public PngRowReader(final InputStream input) throws IOException {
+    this.in = new DataInputStream(new BufferedInputStream(input, 64 * 1024));
+    boolean success = false;
+    try {
+      this.readHeader();
+      success = true;
+    } finally {
+      if (!success) {
+        this.in.close();
+      }
+    }
+    this.pixels = new InflaterInputStream(new IdatInputStream(), this.inflater, 64 * 1024);
+
+    final int rowLength = (this.width * this.getBitsPerPixel() + 7) / 8;
+    this.row = new byte[rowLength + 1];
+    this.previous = new byte[rowLength + 1];
+  }
+
+
+  public int getWidth() {
+    return this.width;
+  }
+
+
+  public int getHeight() {
+    return this.height;
+  }
+
+
+  /**
+   * @return True if the image has an alpha channel, or transparent colors.
+   */
+  public boolean hasAlpha() {
+    return this.hasAlpha;
+  }
+
+
+  /**
+   * Read the next row.
+   *
+   * @param argb    Receives getWidth() non-premultiplied ARGB pixels
+   * @param offset  Index in argb of the first pixel
+   * @return False if all rows have been read already
+   * @throws IOException If the file is corrupt or truncated
+   */
+  public boolean readRow(final int[] argb, final int offset) throws IOException {
+    if (this.nextRow >= this.height) {
+      return false;
+    }
+    final byte[] swap = this.previous;
+    this.previous = this.row;
+    this.row = swap;
+
+    int read = 0;
+    while (read < this.row.length) {
+      final int n = this.pixels.read(this.row, read, this.row.length - read);
+      if (n < 0) {
+        throw new EOFException("PNG image data ends in row " + this.nextRow);
+      }
+      read += n;
+    }
+    this.unfilter();
+    this.convert(argb, offset);
+    this.nextRow++;
+    return true;
+  }
+
+
+  public void close() throws IOException {
+    this.inflater.end();
+    this.in.close();
+  }
+
+
+  private void readHeader() throws IOException {
+    if (this.in.readLong() != PngRowReader.SIGNATURE) {
+      throw new UnsupportedInputFileFormatException("Not a PNG file");
+    }
+
+    while (true) {
+      final int length = this.in.readInt();
+      final int type = this.in.readInt();
+      if (type == PngRowReader.IDAT) {
+        if (this.width == 0) {
+          throw new IOException("PNG file has no IHDR chunk");
+        }
+        this.idatRemaining = length;
+        return;
+      }
+
+      switch (type) {
+        case IHDR:
+          this.width = this.in.readInt();
+          this.height = this.in.readInt();
+          this.bitDepth = this.in.readUnsignedByte();
+          this.colorType = this.in.readUnsignedByte();
+          this.in.readUnsignedByte(); // compression
+          this.in.readUnsignedByte(); // filter method
+          if (this.in.readUnsignedByte() != 0) {
+            throw new UnsupportedInputFileFormatException("Interlaced PNG files cannot be read row by row");
+          }
+          if (this.width <= 0 || this.height <= 0) {
+            throw new IOException("Invalid PNG size " + this.width + "x" + this.height);
+          }
+          this.skip(length - 13);
+          this.filterOffset = Math.max(1, this.getBitsPerPixel() / 8);
+          this.hasAlpha = this.colorType == PngRowReader.COLOR_TYPE_GRAY_ALPHA || this.colorType == PngRowReader.COLOR_TYPE_RGBA;
+          break;
+
+        case PLTE:
+          this.palette = new int[256];
+          for (int i = 0; i < length / 3; i++) {
+            this.palette[i] = 0xff000000 | this.in.readUnsignedByte() << 16 | this.in.readUnsignedByte() << 8 | this.in.readUnsignedByte();
+          }
+          this.skip(length % 3);
+          break;
+
+        case TRNS:
+          this.readTransparency(length);
+          break;
+
+        default:
+          this.skip(length);
+          break;
+      }
+      this.in.readInt(); // CRC
+    }
+  }
+
+
+  private void readTransparency(final int length) throws IOException {
+    if (this.colorType == PngRowReader.COLOR_TYPE_INDEXED && this.palette != null) {
+      for (int i = 0; i < length; i++) {
+        final int alpha = this.in.readUnsignedByte();
+        if (i < 256) {
+          this.palette[i] = alpha << 24 | this.palette[i] & 0xffffff;
+        }
+      }
+      this.hasAlpha = true;
+    } else if (this.colorType == PngRowReader.COLOR_TYPE_GRAY && length >= 2) {
+      this.transparentColor = this.in.readUnsignedShort();
+      this.skip(length - 2);
+      this.hasAlpha = true;
+    } else if (this.colorType == PngRowReader.COLOR_TYPE_RGB && length >= 6) {
+      final int r = this.in.readUnsignedShort();
+      final int g = this.in.readUnsignedShort();
+      final int b = this.in.readUnsignedShort();
+      final int shift = this.bitDepth == 16 ? 16 : 8;
+      this.transparentColor = (long) r << 2 * shift | (long) g << shift | b;
+      this.skip(length - 6);
+      this.hasAlpha = true;
+    } else {
+      this.skip(length);
+    }
+  }
+
+
+  private void skip(int n) throws IOException {
+    while (n > 0) {
+      final int skipped = this.in.skipBytes(n);
+      if (skipped <= 0) {
+        throw new EOFException("Unexpected end of PNG file");
+      }
+      n -= skipped;
+    }
+  }
+
+
+  private int getBitsPerPixel() {
+    switch (this.colorType) {
+      case COLOR_TYPE_RGB:
+        return 3 * this.bitDepth;
+      case COLOR_TYPE_GRAY_ALPHA:
+        return 2 * this.bitDepth;
+      case COLOR_TYPE_RGBA:
+        return 4 * this.bitDepth;
+      default:
+        return this.bitDepth;
+    }
+  }
+
+
+  /**
+   * Undo the filter of the current row (row[0] is the filter type).
+   */
+  private void unfilter() throws IOException {
+    final byte[] cur = this.row;
+    final byte[] prev = this.previous;
+    final int bpp = this.filterOffset;
+    final int length = cur.length;
+    final boolean first = this.nextRow == 0;
+
+    switch (cur[0]) {
+      case 0:
+        break;
+      case 1:
+        for (int i = 1 + bpp; i < length; i++) {
+          cur[i] += cur[i - bpp];
+        }
+        break;
+      case 2:
+        if (!first) {
+          for (int i = 1; i < length; i++) {
+            cur[i] += prev[i];
+          }
+        }
+        break;
+      case 3:
+        for (int i = 1; i < length; i++) {
+          final int left = i > bpp ? cur[i - bpp] & 0xff : 0;
+          final int up = first ? 0 : prev[i] & 0xff;
+          cur[i] += (left + up) >> 1;
+        }
+        break;
+      case 4:
+        for (int i = 1; i < length; i++) {
+          final int a = i > bpp ? cur[i - bpp] & 0xff : 0;
+          final int b = first ? 0 : prev[i] & 0xff;
+          final int c = i > bpp && !first ? prev[i - bpp] & 0xff : 0;
+          final int p = a + b - c;
+          final int pa = Math.abs(p - a);
+          final int pb = Math.abs(p - b);
+          final int pc = Math.abs(p - c);
+          cur[i] += pa <= pb && pa <= pc ? a : pb <= pc ? b : c;
+        }
+        break;
+      default:
+        throw new IOException("Invalid PNG filter type " + cur[0] + " in row " + this.nextRow);
+    }
+  }
+
+
+  /**
+   * Convert the current (unfiltered) row to ARGB.
+   */
+  private void convert(final int[] argb, final int offset) {
+    final byte[] r = this.row;
+    final int w = this.width;
+    switch (this.colorType) {
+      case COLOR_TYPE_RGB:
+        if (this.bitDepth == 8) {
+          for (int x = 0, i = 1; x < w; x++, i += 3) {
+            final int rgb = (r[i] & 0xff) << 16 | (r[i + 1] & 0xff) << 8 | r[i + 2] & 0xff;
+            argb[offset + x] = rgb == this.transparentColor ? rgb : 0xff000000 | rgb;
+          }
+        } else {
+          for (int x = 0, i = 1; x < w; x++, i += 6) {
+            final int rgb = (r[i] & 0xff) << 16 | (r[i + 2] & 0xff) << 8 | r[i + 4] & 0xff;
+            final boolean transparent = this.transparentColor >= 0 && this.transparentColor == ((long) (r[i] & 0xff) << 40
+                | (long) (r[i + 1] & 0xff) << 32 | (long) (r[i + 2] & 0xff) << 24 | (r[i + 3] & 0xff) << 16
+                | (r[i + 4] & 0xff) << 8 | r[i + 5] & 0xff);
+            argb[offset + x] = transparent ? rgb : 0xff000000 | rgb;
+          }
+        }
+        break;
+
+      case COLOR_TYPE_RGBA:
+        final int step = this.bitDepth / 8;
+        for (int x = 0, i = 1; x < w; x++, i += 4 * step) {
+          argb[offset + x] = (r[i + 3 * step] & 0xff) << 24 | (r[i] & 0xff) << 16 | (r[i + step] & 0xff) << 8 | r[i + 2 * step] & 0xff;
+        }
+        break;
+
+      case COLOR_TYPE_GRAY_ALPHA:
+        final int sampleBytes = this.bitDepth / 8;
+        for (int x = 0, i = 1; x < w; x++, i += 2 * sampleBytes) {
+          final int gray = r[i] & 0xff;
+          argb[offset + x] = (r[i + sampleBytes] & 0xff) << 24 | gray << 16 | gray << 8 | gray;
+        }
+        break;
+
+      case COLOR_TYPE_INDEXED:
+        for (int x = 0; x < w; x++) {
+          argb[offset + x] = this.palette == null ? 0xff000000 : this.palette[this.getPackedSample(x)];
+        }
+        break;
+
+      default: // Gray
+        if (this.bitDepth == 16) {
+          for (int x = 0, i = 1; x < w; x++, i += 2) {
+            final int gray = r[i] & 0xff;
+            final int sample = gray << 8 | r[i + 1] & 0xff;
+            argb[offset + x] = (sample == this.transparentColor ? 0 : 0xff000000) | gray << 16 | gray << 8 | gray;
+          }
+        } else {
+          final int max = (1 << this.bitDepth) - 1;
+          for (int x = 0; x < w; x++) {
+            final int sample = this.getPackedSample(x);
+            final int gray = sample * 255 / max;
+            argb[offset + x] = (sample == this.transparentColor ? 0 : 0xff000000) | gray << 16 | gray << 8 | gray;
+          }
+        }
+        break;
+    }
+  }
+
+
+  /**
+   * @return Sample x of the current row (bit depth 1, 2, 4 or 8, one sample per pixel).
+   */
+  private int getPackedSample(final int x) {
+    if (this.bitDepth == 8) {
+      return this.row[1 + x] & 0xff;
+    }
+    final int bitOffset = x * this.bitDepth;
+    final int b = this.row[1 + (bitOffset >> 3)] & 0xff;
+    return (b >> (8 - this.bitDepth - (bitOffset & 7))) & ((1 << this.bitDepth) - 1);
+  }
+
+
+  /**
+   * The data of all consecutive IDAT chunks as one stream.
+   */
+  private final class IdatInputStream extends InputStream {
+
+    @Override
+    public int read() throws IOException {
+      final byte[] b = new byte[1];
+      return this.read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+      final PngRowReader reader = PngRowReader.this;
+      while (reader.idatRemaining == 0) {
+        if (reader.idatDone) {
+          return -1;
+        }
+        reader.in.readInt(); // CRC of the previous chunk
+        final int length = reader.in.readInt();
+        if (reader.in.readInt() != PngRowReader.IDAT) {
+          reader.idatDone = true;
+          return -1;
+        }
+        reader.idatRemaining = length;
+      }
+      final int n = reader.in.read(b, off, Math.min(len, reader.idatRemaining));
+      if (n < 0) {
+        throw new EOFException("Unexpected end of PNG file");
+      }
+      reader.idatRemaining -= n;
+      return n;
+    }
+  }
+}
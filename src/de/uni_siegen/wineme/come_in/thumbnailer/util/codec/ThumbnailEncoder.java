@@ -0,0 +1,52 @@
+/*
+ * regain/Thumbnailer - A file search engine providing plenty of formats (Plugin)
+ * Copyright (C) 2011  Come_IN Computerclubs (University of Siegen)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * Contact: Come_IN-Team <come_in-team@listserv.uni-siegen.de>
+ */
+
+package de.uni_siegen.wineme.come_in.thumbnailer.util.codec;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Writes a finished thumbnail into a file.
+ * Implementations may keep settings (quality, compression), but must not keep state between two calls,
+ * as the same encoder is used by all thumbnailers of a ThumbnailerManager.
+ *
+ * @author Benjamin
+ */
+public interface ThumbnailEncoder {
+
+	/**
+	 * Encode the image.
+	 *
+	 * @param image		Thumbnail to write
+	 * @param output	File in which should be written (existing files are overwritten)
+	 * @throws IOException	If the file cannot be written
+	 */
+	public void write(BufferedImage image, File output) throws IOException;
+
+	/**
+	 * Get the file extension that thumbnail files written by this encoder should have.
+	 *
+	 * @return Extension without dot (e.g. "png"), never null.
+	 */
+	public String getFileExtension();
+}
@@ -0,0 +1,910 @@
+/*
+ * regain/Thumbnailer - A file search engine providing plenty of formats (Plugin)
+ * Copyright (C) 2011  Come_IN Computerclubs (University of Siegen)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * Contact: Come_IN-Team <come_in-team@listserv.uni-siegen.de>
+ */
+
+package de.uni_siegen.wineme.come_in.thumbnailer.util.codec;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/**
+ * Lossless WebP (VP8L) output, written in pure Java.
+ *
+ * The encoder uses the subtract-green and predictor transforms (choosing one of the 14 predictors per 16x16 tile),
+ * LZ77 backward references with a hash chain, a color cache and one set of prefix (Huffman) codes for the whole image.
+ * That is a small subset of what libwebp does, but already gives noticeably smaller files than PNG.
+ *
+ * @see <a href="https://developers.google.com/speed/webp/docs/webp_lossless_bitstream_specification">WebP Lossless Bitstream Specification</a>
+ * @author Benjamin
+ */
+public class WebpEncoder implements ThumbnailEncoder {
+
+  /** Maximum width and height of a WebP image */
+  public static final int MAX_SIZE = 16384;
+
+  private static final int TRANSFORM_PREDICTOR = 0;
+  private static final int TRANSFORM_SUBTRACT_GREEN = 2;
+
+  /** Predictor tiles are 1 << PREDICTOR_BITS pixels wide and high */
+  private static final int PREDICTOR_BITS = 4;
+  private static final int NUM_PREDICTORS = 14;
+
+  /** Images with less pixels than this are written without color cache */
+  private static final int COLOR_CACHE_MIN_PIXELS = 64 * 64;
+  private static final int COLOR_CACHE_BITS = 10;
+
+  private static final int NUM_LITERAL_CODES = 256;
+  private static final int NUM_LENGTH_CODES = 24;
+  private static final int NUM_DISTANCE_CODES = 40;
+
+  private static final int MIN_MATCH = 3;
+  private static final int MAX_MATCH = 4096;
+  private static final int MAX_DISTANCE = (1 << 20) - 120;
+  private static final int HASH_BITS = 15;
+  private static final int MAX_CHAIN = 16;
+
+  private static final int MAX_CODE_LENGTH = 15;
+  private static final int MAX_CODE_LENGTH_CODE_LENGTH = 7;
+  private static final int[] CODE_LENGTH_ORDER = new int[] { 17, 18, 0, 1, 2, 3, 4, 5, 16, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15 };
+
+  /** The first six (x, y) offsets of the distance map (the remaining 114 are not used by this encoder) */
+  private static final int[][] PLANE_CODES = new int[][] { { 0, 1 }, { 1, 0 }, { 1, 1 }, { -1, 1 }, { 0, 2 }, { 2, 0 } };
+
+  /** Approximate cost in bits (times 16) of a residual byte: small differences are cheap, zero is cheapest */
+  private static final int[] RESIDUAL_COST = new int[256];
+  static {
+    for (int v = 0; v < 256; v++) {
+      WebpEncoder.RESIDUAL_COST[v] = (int) Math.round(16 * Math.log(1 + Math.min(v, 256 - v)) / Math.log(2));
+    }
+  }
+
+  private static final int TOKEN_LITERAL = 0;
+  private static final int TOKEN_CACHE = 1;
+  private static final int TOKEN_COPY = 2;
+
+
+  @Override
+  public void write(final BufferedImage image, final File output) throws IOException {
+    final OutputStream out = new BufferedOutputStream(new FileOutputStream(output));
+    try {
+      this.write(image, out);
+    } finally {
+      out.close();
+    }
+  }
+
+
+  /**
+   * Write the image as WebP into a stream (which is not closed).
+   */
+  public void write(final BufferedImage image, final OutputStream out) throws IOException {
+    final int width = image.getWidth();
+    final int height = image.getHeight();
+    if (width > WebpEncoder.MAX_SIZE || height > WebpEncoder.MAX_SIZE) {
+      throw new IOException("Image too big for WebP: " + width + "x" + height);
+    }
+
+    final int[] argb = image.getRGB(0, 0, width, height, null, 0, width);
+    boolean alphaUsed = false;
+    if (image.getColorModel().hasAlpha()) {
+      for (final int pixel : argb) {
+        if (pixel >>> 24 != 0xff) {
+          alphaUsed = true;
+          break;
+        }
+      }
+    }
+    if (!alphaUsed) {
+      for (int i = 0; i < argb.length; i++) {
+        argb[i] |= 0xff000000;
+      }
+    }
+
+    final BitWriter bits = new BitWriter(width * height / 2 + 64);
+    bits.writeBits(0x2f, 8); // Signature
+    bits.writeBits(width - 1, 14);
+    bits.writeBits(height - 1, 14);
+    bits.writeBits(alphaUsed ? 1 : 0, 1);
+    bits.writeBits(0, 3); // Version
+
+    // Transforms, in the order in which they are applied
+    if (WebpEncoder.isSubtractGreenUseful(argb)) {
+      WebpEncoder.subtractGreen(argb);
+      bits.writeBits(1, 1);
+      bits.writeBits(WebpEncoder.TRANSFORM_SUBTRACT_GREEN, 2);
+    }
+
+    final int tilesX = WebpEncoder.subSampleSize(width, WebpEncoder.PREDICTOR_BITS);
+    final int tilesY = WebpEncoder.subSampleSize(height, WebpEncoder.PREDICTOR_BITS);
+    final int[] modes = new int[tilesX * tilesY];
+    final int[] residuals = WebpEncoder.predict(argb, width, height, WebpEncoder.PREDICTOR_BITS, modes);
+    bits.writeBits(1, 1);
+    bits.writeBits(WebpEncoder.TRANSFORM_PREDICTOR, 2);
+    bits.writeBits(WebpEncoder.PREDICTOR_BITS - 2, 3);
+    WebpEncoder.writeImage(bits, modes, tilesX, false, 0);
+    bits.writeBits(0, 1); // No more transforms
+
+    final int cacheBits = width * height >= WebpEncoder.COLOR_CACHE_MIN_PIXELS ? WebpEncoder.COLOR_CACHE_BITS : 0;
+    WebpEncoder.writeImage(bits, residuals, width, true, cacheBits);
+    bits.flush();
+
+    // RIFF container
+    final int size = bits.length();
+    final int padded = size + (size & 1);
+    final byte[] header = new byte[20];
+    WebpEncoder.putTag(header, 0, "RIFF");
+    WebpEncoder.putIntLE(header, 4, 4 + 8 + padded);
+    WebpEncoder.putTag(header, 8, "WEBP");
+    WebpEncoder.putTag(header, 12, "VP8L");
+    WebpEncoder.putIntLE(header, 16, size);
+    out.write(header);
+    out.write(bits.buffer, 0, size);
+    if (padded != size) {
+      out.write(0);
+    }
+  }
+
+
+  @Override
+  public String getFileExtension() {
+    return "webp";
+  }
+
+
+  private static int subSampleSize(final int size, final int bits) {
+    return (size + (1 << bits) - 1) >> bits;
+  }
+
+
+  /**
+   * Subtracting green helps when the channels are correlated (as in most photos), but hurts when they are not.
+   *
+   * @return True if red and blue have less entropy after subtracting green.
+   */
+  private static boolean isSubtractGreenUseful(final int[] argb) {
+    final int[] plain = new int[512];
+    final int[] subtracted = new int[512];
+    for (final int pixel : argb) {
+      final int green = (pixel >> 8) & 0xff;
+      plain[(pixel >> 16) & 0xff]++;
+      plain[256 + (pixel & 0xff)]++;
+      subtracted[((pixel >> 16) - green) & 0xff]++;
+      subtracted[256 + ((pixel - green) & 0xff)]++;
+    }
+    return WebpEncoder.entropy(subtracted) < WebpEncoder.entropy(plain);
+  }
+
+
+  /**
+   * @return Shannon entropy of the histogram (in bits, times the number of samples)
+   */
+  private static double entropy(final int[] histogram) {
+    long total = 0;
+    double sum = 0;
+    for (final int count : histogram) {
+      if (count > 0) {
+        total += count;
+        sum -= count * Math.log(count);
+      }
+    }
+    return total == 0 ? 0 : (sum + total * Math.log(total)) / Math.log(2);
+  }
+
+
+  private static void subtractGreen(final int[] argb) {
+    for (int i = 0; i < argb.length; i++) {
+      final int pixel = argb[i];
+      final int green = (pixel >> 8) & 0xff;
+      final int red = ((pixel >> 16) - green) & 0xff;
+      final int blue = (pixel - green) & 0xff;
+      argb[i] = (pixel & 0xff00ff00) | red << 16 | blue;
+    }
+  }
+
+
+  /**
+   * Choose the predictor with the smallest residuals for each tile.
+   *
+   * @param modes Output: predictor image (mode in the green channel)
+   * @return Residuals of all pixels
+   */
+  private static int[] predict(final int[] argb, final int width, final int height, final int bits, final int[] modes) {
+    final int tilesX = WebpEncoder.subSampleSize(width, bits);
+    final int[] residuals = new int[argb.length];
+    final int tileSize = 1 << bits;
+
+    for (int ty = 0; ty < WebpEncoder.subSampleSize(height, bits); ty++) {
+      for (int tx = 0; tx < tilesX; tx++) {
+        final int x0 = tx << bits;
+        final int y0 = ty << bits;
+        final int x1 = Math.min(width, x0 + tileSize);
+        final int y1 = Math.min(height, y0 + tileSize);
+
+        int bestMode = 0;
+        long bestCost = Long.MAX_VALUE;
+        for (int mode = 0; mode < WebpEncoder.NUM_PREDICTORS; mode++) {
+          long cost = 0;
+          for (int y = y0; y < y1 && cost < bestCost; y++) {
+            for (int x = x0; x < x1; x++) {
+              final int i = y * width + x;
+              cost += WebpEncoder.cost(WebpEncoder.subPixels(argb[i], WebpEncoder.prediction(argb, width, i, x, y, mode)));
+            }
+          }
+          if (cost < bestCost) {
+            bestCost = cost;
+            bestMode = mode;
+          }
+        }
+
+        modes[ty * tilesX + tx] = 0xff000000 | bestMode << 8;
+        for (int y = y0; y < y1; y++) {
+          for (int x = x0; x < x1; x++) {
+            final int i = y * width + x;
+            residuals[i] = WebpEncoder.subPixels(argb[i], WebpEncoder.prediction(argb, width, i, x, y, bestMode));
+          }
+        }
+      }
+    }
+    return residuals;
+  }
+
+
+  /**
+   * @return Predicted value of pixel i (at x, y), as the decoder computes it.
+   */
+  private static int prediction(final int[] p, final int width, final int i, final int x, final int y, final int mode) {
+    if (y == 0) {
+      return x == 0 ? 0xff000000 : p[i - 1];
+    }
+    if (x == 0) {
+      return p[i - width];
+    }
+
+    final int left = p[i - 1];
+    final int top = p[i - width];
+    final int topLeft = p[i - width - 1];
+    // For the rightmost column, this is the leftmost pixel of the current row (as specified)
+    final int topRight = p[i - width + 1];
+
+    switch (mode) {
+      case 0:
+        return 0xff000000;
+      case 1:
+        return left;
+      case 2:
+        return top;
+      case 3:
+        return topRight;
+      case 4:
+        return topLeft;
+      case 5:
+        return WebpEncoder.average2(WebpEncoder.average2(left, topRight), top);
+      case 6:
+        return WebpEncoder.average2(left, topLeft);
+      case 7:
+        return WebpEncoder.average2(left, top);
+      case 8:
+        return WebpEncoder.average2(topLeft, top);
+      case 9:
+        return WebpEncoder.average2(top, topRight);
+      case 10:
+        return WebpEncoder.average2(WebpEncoder.average2(left, topLeft), WebpEncoder.average2(top, topRight));
+      case 11:
+        return WebpEncoder.select(left, top, topLeft);
+      case 12:
+        return WebpEncoder.clampAddSubtractFull(left, top, topLeft);
+      default:
+        return WebpEncoder.clampAddSubtractHalf(WebpEncoder.average2(left, top), topLeft);
+    }
+  }
+
+
+  private static int average2(final int a, final int b) {
+    return (((a ^ b) & 0xfefefefe) >>> 1) + (a & b);
+  }
+
+
+  private static int select(final int left, final int top, final int topLeft) {
+    int distanceToLeft = 0; // |prediction - left| = |top - topLeft|
+    int distanceToTop = 0; // |prediction - top| = |left - topLeft|
+    for (int shift = 0; shift < 32; shift += 8) {
+      final int t = (top >>> shift) & 0xff;
+      final int l = (left >>> shift) & 0xff;
+      final int tl = (topLeft >>> shift) & 0xff;
+      distanceToLeft += Math.abs(t - tl);
+      distanceToTop += Math.abs(l - tl);
+    }
+    return distanceToLeft < distanceToTop ? left : top;
+  }
+
+
+  private static int clampAddSubtractFull(final int a, final int b, final int c) {
+    int result = 0;
+    for (int shift = 0; shift < 32; shift += 8) {
+      result |= WebpEncoder.clamp(((a >>> shift) & 0xff) + ((b >>> shift) & 0xff) - ((c >>> shift) & 0xff)) << shift;
+    }
+    return result;
+  }
+
+
+  private static int clampAddSubtractHalf(final int a, final int b) {
+    int result = 0;
+    for (int shift = 0; shift < 32; shift += 8) {
+      final int ca = (a >>> shift) & 0xff;
+      final int cb = (b >>> shift) & 0xff;
+      result |= WebpEncoder.clamp(ca + (ca - cb) / 2) << shift;
+    }
+    return result;
+  }
+
+
+  private static int clamp(final int v) {
+    return v < 0 ? 0 : v > 255 ? 255 : v;
+  }
+
+
+  /**
+   * Per-channel a - b (modulo 256).
+   */
+  private static int subPixels(final int a, final int b) {
+    final int alphaGreen = 0x00ff00ff + (a & 0xff00ff00) - (b & 0xff00ff00);
+    final int redBlue = 0xff00ff00 + (a & 0x00ff00ff) - (b & 0x00ff00ff);
+    return (alphaGreen & 0xff00ff00) | (redBlue & 0x00ff00ff);
+  }
+
+
+  /**
+   * @return Rough estimate of the cost of a residual: sum of the absolute (signed) channel values
+   */
+  private static int cost(final int residual) {
+    int sum = 0;
+    for (int shift = 0; shift < 32; shift += 8) {
+      sum += WebpEncoder.RESIDUAL_COST[(residual >>> shift) & 0xff];
+    }
+    return sum;
+  }
+
+
+  /**
+   * Backward references and color cache lookups of an image.
+   */
+  private static final class Tokens {
+    final int[] type;
+    /** ARGB (literal), cache index or match length */
+    final int[] value;
+    /** Distance code of a match */
+    final int[] distance;
+    int count = 0;
+
+    Tokens(final int capacity) {
+      this.type = new int[capacity];
+      this.value = new int[capacity];
+      this.distance = new int[capacity];
+    }
+
+    void add(final int type, final int value, final int distance) {
+      this.type[this.count] = type;
+      this.value[this.count] = value;
+      this.distance[this.count] = distance;
+      this.count++;
+    }
+  }
+
+
+  /**
+   * Write an entropy coded image: color cache info, prefix codes and data.
+   *
+   * @param isMain  The main image has a flag for meta prefix codes, sub images (of transforms) don't.
+   */
+  private static void writeImage(final BitWriter bits, final int[] argb, final int width, final boolean isMain, final int cacheBits) {
+    final Tokens tokens = WebpEncoder.findReferences(argb, width, cacheBits);
+
+    final int cacheSize = cacheBits > 0 ? 1 << cacheBits : 0;
+    final int[] green = new int[WebpEncoder.NUM_LITERAL_CODES + WebpEncoder.NUM_LENGTH_CODES + cacheSize];
+    final int[] red = new int[WebpEncoder.NUM_LITERAL_CODES];
+    final int[] blue = new int[WebpEncoder.NUM_LITERAL_CODES];
+    final int[] alpha = new int[WebpEncoder.NUM_LITERAL_CODES];
+    final int[] distance = new int[WebpEncoder.NUM_DISTANCE_CODES];
+    for (int t = 0; t < tokens.count; t++) {
+      final int value = tokens.value[t];
+      switch (tokens.type[t]) {
+        case TOKEN_LITERAL:
+          green[(value >> 8) & 0xff]++;
+          red[(value >> 16) & 0xff]++;
+          blue[value & 0xff]++;
+          alpha[value >>> 24]++;
+          break;
+        case TOKEN_CACHE:
+          green[WebpEncoder.NUM_LITERAL_CODES + WebpEncoder.NUM_LENGTH_CODES + value]++;
+          break;
+        default:
+          green[WebpEncoder.NUM_LITERAL_CODES + WebpEncoder.prefixCode(value)]++;
+          distance[WebpEncoder.prefixCode(tokens.distance[t])]++;
+      }
+    }
+
+    if (cacheBits > 0) {
+      bits.writeBits(1, 1);
+      bits.writeBits(cacheBits, 4);
+    } else {
+      bits.writeBits(0, 1);
+    }
+    if (isMain) {
+      bits.writeBits(0, 1); // No meta prefix codes: one set of codes for the whole image
+    }
+
+    final PrefixCode greenCode = WebpEncoder.writePrefixCode(bits, green);
+    final PrefixCode redCode = WebpEncoder.writePrefixCode(bits, red);
+    final PrefixCode blueCode = WebpEncoder.writePrefixCode(bits, blue);
+    final PrefixCode alphaCode = WebpEncoder.writePrefixCode(bits, alpha);
+    final PrefixCode distanceCode = WebpEncoder.writePrefixCode(bits, distance);
+
+    for (int t = 0; t < tokens.count; t++) {
+      final int value = tokens.value[t];
+      switch (tokens.type[t]) {
+        case TOKEN_LITERAL:
+          greenCode.write(bits, (value >> 8) & 0xff);
+          redCode.write(bits, (value >> 16) & 0xff);
+          blueCode.write(bits, value & 0xff);
+          alphaCode.write(bits, value >>> 24);
+          break;
+        case TOKEN_CACHE:
+          greenCode.write(bits, WebpEncoder.NUM_LITERAL_CODES + WebpEncoder.NUM_LENGTH_CODES + value);
+          break;
+        default:
+          greenCode.write(bits, WebpEncoder.NUM_LITERAL_CODES + WebpEncoder.prefixCode(value));
+          WebpEncoder.writeExtraBits(bits, value);
+          distanceCode.write(bits, WebpEncoder.prefixCode(tokens.distance[t]));
+          WebpEncoder.writeExtraBits(bits, tokens.distance[t]);
+      }
+    }
+  }
+
+
+  /**
+   * Greedy LZ77 with a hash chain (over pairs of pixels), plus the color cache for literals.
+   */
+  private static Tokens findReferences(final int[] argb, final int width, final int cacheBits) {
+    final int n = argb.length;
+    final Tokens tokens = new Tokens(n);
+    final int[] cache = cacheBits > 0 ? new int[1 << cacheBits] : null;
+    final int[] head = new int[1 << WebpEncoder.HASH_BITS];
+    Arrays.fill(head, -1);
+    final int[] chain = new int[n];
+
+    int i = 0;
+    while (i < n) {
+      int bestLength = 0;
+      int bestDistance = 0;
+      final int maxLength = Math.min(WebpEncoder.MAX_MATCH, n - i);
+      if (maxLength >= WebpEncoder.MIN_MATCH) {
+        // Previous pixel and previous row first: They have the shortest distance codes
+        if (i >= 1) {
+          bestLength = WebpEncoder.matchLength(argb, i, 1, maxLength);
+          bestDistance = 1;
+        }
+        if (i >= width) {
+          final int length = WebpEncoder.matchLength(argb, i, width, maxLength);
+          if (length > bestLength) {
+            bestLength = length;
+            bestDistance = width;
+          }
+        }
+        int candidate = head[WebpEncoder.hash(argb, i)];
+        for (int depth = 0; candidate >= 0 && depth < WebpEncoder.MAX_CHAIN && bestLength < maxLength; depth++) {
+          final int dist = i - candidate;
+          if (dist > WebpEncoder.MAX_DISTANCE) {
+            break;
+          }
+          final int length = WebpEncoder.matchLength(argb, i, dist, maxLength);
+          if (length > bestLength) {
+            bestLength = length;
+            bestDistance = dist;
+          }
+          candidate = chain[candidate];
+        }
+      }
+
+      final int advance;
+      if (bestLength >= WebpEncoder.MIN_MATCH) {
+        tokens.add(WebpEncoder.TOKEN_COPY, bestLength, WebpEncoder.distanceCode(bestDistance, width));
+        advance = bestLength;
+      } else {
+        final int pixel = argb[i];
+        final int key = cache != null ? WebpEncoder.cacheKey(pixel, cacheBits) : 0;
+        if (cache != null && cache[key] == pixel) {
+          tokens.add(WebpEncoder.TOKEN_CACHE, key, 0);
+        } else {
+          tokens.add(WebpEncoder.TOKEN_LITERAL, pixel, 0);
+        }
+        advance = 1;
+      }
+
+      // The decoder adds every pixel to the cache, including copied ones
+      for (int end = i + advance; i < end; i++) {
+        if (cache != null) {
+          cache[WebpEncoder.cacheKey(argb[i], cacheBits)] = argb[i];
+        }
+        if (i + 1 < n) {
+          final int h = WebpEncoder.hash(argb, i);
+          chain[i] = head[h];
+          head[h] = i;
+        }
+      }
+    }
+    return tokens;
+  }
+
+
+  private static int matchLength(final int[] argb, final int i, final int dist, final int maxLength) {
+    int length = 0;
+    while (length < maxLength && argb[i + length] == argb[i + length - dist]) {
+      length++;
+    }
+    return length;
+  }
+
+
+  private static int hash(final int[] argb, final int i) {
+    final int next = i + 1 < argb.length ? argb[i + 1] : 0;
+    return (argb[i] * 0x1e35a7bd + next * 0x9E3779B9) >>> (32 - WebpEncoder.HASH_BITS);
+  }
+
+
+  private static int cacheKey(final int argb, final int cacheBits) {
+    return (0x1e35a7bd * argb) >>> (32 - cacheBits);
+  }
+
+
+  /**
+   * @return The distance code: one of the short 2D codes if possible, otherwise distance + 120
+   */
+  private static int distanceCode(final int distance, final int width) {
+    for (int code = 0; code < WebpEncoder.PLANE_CODES.length; code++) {
+      final int[] offset = WebpEncoder.PLANE_CODES[code];
+      if (offset[0] + offset[1] * width == distance) {
+        return code + 1;
+      }
+    }
+    return distance + 120;
+  }
+
+
+  /**
+   * @return Prefix symbol of a match length or distance code (>= 1)
+   */
+  private static int prefixCode(final int value) {
+    final int v = value - 1;
+    if (v < 4) {
+      return v;
+    }
+    final int highestBit = 31 - Integer.numberOfLeadingZeros(v);
+    return 2 * highestBit + ((v >> (highestBit - 1)) & 1);
+  }
+
+
+  private static void writeExtraBits(final BitWriter bits, final int value) {
+    final int v = value - 1;
+    if (v >= 4) {
+      final int extraBits = 31 - Integer.numberOfLeadingZeros(v) - 1;
+      bits.writeBits(v & ((1 << extraBits) - 1), extraBits);
+    }
+  }
+
+
+  /**
+   * Canonical prefix code as it is written into the stream.
+   */
+  private static final class PrefixCode {
+    final int[] lengths;
+    final int[] codes;
+    /** A code with only one symbol needs no bits at all */
+    final boolean single;
+
+    PrefixCode(final int[] lengths) {
+      this.lengths = lengths;
+      this.codes = new int[lengths.length];
+
+      int used = 0;
+      final int[] countPerLength = new int[WebpEncoder.MAX_CODE_LENGTH + 1];
+      for (final int length : lengths) {
+        if (length > 0) {
+          countPerLength[length]++;
+          used++;
+        }
+      }
+      this.single = used <= 1;
+
+      final int[] next = new int[WebpEncoder.MAX_CODE_LENGTH + 2];
+      int code = 0;
+      for (int length = 1; length <= WebpEncoder.MAX_CODE_LENGTH; length++) {
+        code = (code + countPerLength[length - 1]) << 1;
+        next[length] = code;
+      }
+      for (int symbol = 0; symbol < lengths.length; symbol++) {
+        final int length = lengths[symbol];
+        if (length > 0) {
+          // The stream is read LSB first, so the codes are written bit-reversed
+          this.codes[symbol] = Integer.reverse(next[length]++) >>> (32 - length);
+        }
+      }
+    }
+
+    void write(final BitWriter bits, final int symbol) {
+      if (!this.single) {
+        bits.writeBits(this.codes[symbol], this.lengths[symbol]);
+      }
+    }
+  }
+
+
+  /**
+   * Build a prefix code for the histogram and write it (as simple or normal code).
+   */
+  private static PrefixCode writePrefixCode(final BitWriter bits, final int[] histogram) {
+    int used = 0;
+    final int[] symbols = new int[2];
+    for (int symbol = 0; symbol < histogram.length; symbol++) {
+      if (histogram[symbol] > 0) {
+        if (used < 2) {
+          symbols[used] = symbol;
+        }
+        used++;
+      }
+    }
+
+    final int[] lengths = new int[histogram.length];
+    if (used <= 2 && (used == 0 || symbols[used - 1] < WebpEncoder.NUM_LITERAL_CODES)) {
+      // Simple code: one or two 8 bit symbols
+      bits.writeBits(1, 1);
+      bits.writeBits(Math.max(0, used - 1), 1);
+      if (symbols[0] < 2) {
+        bits.writeBits(0, 1);
+        bits.writeBits(symbols[0], 1);
+      } else {
+        bits.writeBits(1, 1);
+        bits.writeBits(symbols[0], 8);
+      }
+      if (used == 2) {
+        bits.writeBits(symbols[1], 8);
+      }
+      lengths[symbols[0]] = 1;
+      if (used == 2) {
+        lengths[symbols[1]] = 1;
+      }
+      return new PrefixCode(lengths);
+    }
+
+    WebpEncoder.buildLengths(histogram, WebpEncoder.MAX_CODE_LENGTH, lengths);
+    bits.writeBits(0, 1);
+    WebpEncoder.writeCodeLengths(bits, lengths);
+    return new PrefixCode(lengths);
+  }
+
+
+  /**
+   * Write the code lengths of a normal code, run-length encoded with the code length code.
+   */
+  private static void writeCodeLengths(final BitWriter bits, final int[] lengths) {
+    // Run-length encode into (symbol, extra) pairs
+    final int[] symbols = new int[lengths.length];
+    final int[] extras = new int[lengths.length];
+    int count = 0;
+    int previous = 8;
+    for (int i = 0; i < lengths.length;) {
+      final int value = lengths[i];
+      int run = 1;
+      while (i + run < lengths.length && lengths[i + run] == value) {
+        run++;
+      }
+      i += run;
+
+      if (value == 0) {
+        while (run >= 11) {
+          final int r = Math.min(run, 138);
+          symbols[count] = 18;
+          extras[count++] = r - 11;
+          run -= r;
+        }
+        if (run >= 3) {
+          symbols[count] = 17;
+          extras[count++] = run - 3;
+          run = 0;
+        }
+      } else {
+        if (value != previous) {
+          symbols[count++] = value;
+          previous = value;
+          run--;
+        }
+        while (run >= 3) {
+          final int r = Math.min(run, 6);
+          symbols[count] = 16;
+          extras[count++] = r - 3;
+          run -= r;
+        }
+      }
+      while (run > 0) {
+        symbols[count++] = value;
+        run--;
+      }
+    }
+
+    final int[] histogram = new int[WebpEncoder.CODE_LENGTH_ORDER.length];
+    for (int i = 0; i < count; i++) {
+      histogram[symbols[i]]++;
+    }
+    final int[] codeLengthLengths = new int[histogram.length];
+    WebpEncoder.buildLengths(histogram, WebpEncoder.MAX_CODE_LENGTH_CODE_LENGTH, codeLengthLengths);
+    final PrefixCode codeLengthCode = new PrefixCode(codeLengthLengths);
+
+    int written = WebpEncoder.CODE_LENGTH_ORDER.length;
+    while (written > 4 && codeLengthLengths[WebpEncoder.CODE_LENGTH_ORDER[written - 1]] == 0) {
+      written--;
+    }
+    bits.writeBits(written - 4, 4);
+    for (int i = 0; i < written; i++) {
+      bits.writeBits(codeLengthLengths[WebpEncoder.CODE_LENGTH_ORDER[i]], 3);
+    }
+    bits.writeBits(0, 1); // All symbols are coded (no max_symbol)
+
+    for (int i = 0; i < count; i++) {
+      codeLengthCode.write(bits, symbols[i]);
+      switch (symbols[i]) {
+        case 16:
+          bits.writeBits(extras[i], 2);
+          break;
+        case 17:
+          bits.writeBits(extras[i], 3);
+          break;
+        case 18:
+          bits.writeBits(extras[i], 7);
+          break;
+        default:
+      }
+    }
+  }
+
+
+  /**
+   * Huffman code lengths, limited to maxLength by flattening the histogram until the tree is shallow enough.
+   * A single used symbol gets length 1.
+   */
+  private static void buildLengths(final int[] histogram, final int maxLength, final int[] lengths) {
+    final int n = histogram.length;
+    Arrays.fill(lengths, 0);
+    int used = 0;
+    int last = 0;
+    for (int symbol = 0; symbol < n; symbol++) {
+      if (histogram[symbol] > 0) {
+        used++;
+        last = symbol;
+      }
+    }
+    if (used <= 1) {
+      lengths[last] = used;
+      return;
+    }
+
+    final int[] parent = new int[2 * n];
+    final int[] depth = new int[2 * n];
+    for (int minCount = 1;; minCount *= 2) {
+      // Nodes are ordered by (count, index), packed into a long
+      final PriorityQueue<Long> queue = new PriorityQueue<Long>();
+      for (int symbol = 0; symbol < n; symbol++) {
+        if (histogram[symbol] > 0) {
+          queue.add(Long.valueOf((long) Math.max(histogram[symbol], minCount) << 32 | symbol));
+        }
+      }
+      int next = n;
+      while (queue.size() > 1) {
+        final long a = queue.poll().longValue();
+        final long b = queue.poll().longValue();
+        parent[(int) a] = next;
+        parent[(int) b] = next;
+        queue.add(Long.valueOf(((a >>> 32) + (b >>> 32)) << 32 | next));
+        next++;
+      }
+
+      final int root = next - 1;
+      depth[root] = 0;
+      int deepest = 0;
+      for (int node = root - 1; node >= 0; node--) {
+        if (node >= n || histogram[node] > 0) {
+          depth[node] = depth[parent[node]] + 1;
+          if (node < n) {
+            deepest = Math.max(deepest, depth[node]);
+          }
+        }
+      }
+      if (deepest <= maxLength) {
+        for (int symbol = 0; symbol < n; symbol++) {
+          lengths[symbol] = histogram[symbol] > 0 ? depth[symbol] : 0;
+        }
+        return;
+      }
+    }
+  }
+
+
+  private static void putTag(final byte[] buffer, final int offset, final String tag) {
+    for (int i = 0; i < 4; i++) {
+      buffer[offset + i] = (byte) tag.charAt(i);
+    }
+  }
+
+
+  private static void putIntLE(final byte[] buffer, final int offset, final int value) {
+    buffer[offset] = (byte) value;
+    buffer[offset + 1] = (byte) (value >>> 8);
+    buffer[offset + 2] = (byte) (value >>> 16);
+    buffer[offset + 3] = (byte) (value >>> 24);
+  }
+
+
+  /**
+   * Collects bits LSB first, as the VP8L decoder reads them.
+   */
+  private static final class BitWriter {
+    byte[] buffer;
+    private int position = 0;
+    private long pending = 0;
+    private int pendingBits = 0;
+
+    BitWriter(final int capacity) {
+      this.buffer = new byte[Math.max(64, capacity)];
+    }
+
+    void writeBits(final int value, final int count) {
+      this.pending |= (value & ((1L << count) - 1)) << this.pendingBits;
+      this.pendingBits += count;
+      while (this.pendingBits >= 8) {
+        this.writeByte((int) this.pending);
+        this.pending >>>= 8;
+        this.pendingBits -= 8;
+      }
+    }
+
+    void flush() {
+      if (this.pendingBits > 0) {
+        this.writeByte((int) this.pending);
+        this.pending = 0;
+        this.pendingBits = 0;
+      }
+    }
+
+    int length() {
+      return this.position;
+    }
+
+    private void writeByte(final int b) {
+      if (this.position == this.buffer.length) {
+        this.buffer = Arrays.copyOf(this.buffer, this.buffer.length * 2);
+      }
+      this.buffer[this.position++] = (byte) b;
+    }
+  }
+}
@@ -0,0 +1,280 @@
+/*
+ * regain/Thumbnailer - A file search engine providing plenty of formats (Plugin)
+ * Copyright (C) 2011  Come_IN Computerclubs (University of Siegen)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * Contact: Come_IN-Team <come_in-team@listserv.uni-siegen.de>
+ */
+
+package de.uni_siegen.wineme.come_in.thumbnailer.util.pdf;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+/**
+ * Keeps parsed PDF documents open between requests, so that rendering more pages (or other sizes)
+ * of the same file does not parse it again.
+ *
+ * A document is only used by one thread at a time: acquire() takes it out of the cache, and release()
+ * puts it back afterwards. Only idle documents are ever evicted (and closed), least recently used first,
+ * as soon as their estimated memory or their number exceeds the limits.
+ * Documents are identified by path, modification time and size of their file, so a changed file is parsed again.
+ *
+ * The same cache should be shared by all requests (see ThumbnailOptions.setDocumentCache()).
+ * Call clear() to close all documents when the cache is no longer needed.
+ *
+ * @author Benjamin
+ */
+public class DocumentCache {
+
+  /** The logger for this class */
+  private static final Logger mLog = Logger.getLogger(DocumentCache.class);
+
+  /** Identity of a file version */
+  public static final class Key {
+    private final String path;
+    private final long lastModified;
+    private final long length;
+
+    private Key(final String path, final long lastModified, final long length) {
+      this.path = path;
+      this.lastModified = lastModified;
+      this.length = length;
+    }
+
+    /**
+     * Get the key of the current version of a file. This has to be done before the file is parsed.
+     */
+    public static Key of(final File file) throws IOException {
+      return new Key(file.getCanonicalPath(), file.lastModified(), file.length());
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      final Key other = (Key) o;
+      return this.path.equals(other.path) && this.lastModified == other.lastModified && this.length == other.length;
+    }
+
+    @Override
+    public int hashCode() {
+      return this.path.hashCode() * 31 + (int) (this.lastModified ^ (this.lastModified >>> 32)) * 17 + (int) this.length;
+    }
+
+    @Override
+    public String toString() {
+      return this.path + "@" + this.lastModified;
+    }
+  }
+
+  private static final class Entry {
+    final PDDocument document;
+    final long weight;
+
+    Entry(final PDDocument document, final long weight) {
+      this.document = document;
+      this.weight = weight;
+    }
+  }
+
+  private final long capacity;
+  private final int maxDocuments;
+
+  /** Idle documents, in access order */
+  private final LinkedHashMap<Key, Deque<Entry>> idle = new LinkedHashMap<Key, Deque<Entry>>(16, 0.75f, true);
+  private long used = 0;
+  private int count = 0;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+
+  /**
+   * @param capacity      Estimated memory that idle documents may use together (in Bytes)
+   * @param maxDocuments  Maximum number of idle documents
+   */
+  public DocumentCache(final long capacity, final int maxDocuments) {
+    if (capacity <= 0 || maxDocuments <= 0) {
+      throw new IllegalArgumentException("Capacity and maximum number of documents must be positive");
+    }
+    this.capacity = capacity;
+    this.maxDocuments = maxDocuments;
+  }
+
+
+  /**
+   * Take an idle document of this file version out of the cache.
+   * Idle documents of older versions of the file are closed.
+   *
+   * @param key Key of the file (see Key.of())
+   * @return The document, for exclusive use until release(), or null if there is none
+   */
+  public PDDocument acquire(final Key key) {
+    final List<PDDocument> evicted = new ArrayList<PDDocument>();
+    PDDocument document = null;
+    synchronized (this) {
+      final Iterator<Map.Entry<Key, Deque<Entry>>> it = this.idle.entrySet().iterator();
+      while (it.hasNext()) {
+        final Map.Entry<Key, Deque<Entry>> mapEntry = it.next();
+        if (mapEntry.getKey().path.equals(key.path) && !mapEntry.getKey().equals(key)) {
+          for (final Entry entry : mapEntry.getValue()) {
+            this.remove(entry, evicted);
+          }
+          it.remove();
+        }
+      }
+
+      final Deque<Entry> entries = this.idle.get(key);
+      if (entries != null) {
+        final Entry entry = entries.removeFirst();
+        if (entries.isEmpty()) {
+          this.idle.remove(key);
+        }
+        this.used -= entry.weight;
+        this.count--;
+        document = entry.document;
+      }
+    }
+    DocumentCache.close(evicted);
+
+    if (document == null) {
+      this.misses.incrementAndGet();
+    } else {
+      this.hits.incrementAndGet();
+    }
+    return document;
+  }
+
+
+  /**
+   * Put a document back into the cache (or add a newly parsed one). The caller must not use it afterwards.
+   * If it does not fit at all, it is closed right away.
+   *
+   * @param key       Key of the file, taken before the document was parsed
+   * @param document  Completely parsed document (in a consistent state)
+   * @param weight    Estimated memory of the document (in Bytes)
+   */
+  public void release(final Key key, final PDDocument document, final long weight) {
+    final List<PDDocument> evicted = new ArrayList<PDDocument>();
+    synchronized (this) {
+      if (weight > this.capacity) {
+        evicted.add(document);
+      } else {
+        Deque<Entry> entries = this.idle.get(key);
+        if (entries == null) {
+          entries = new ArrayDeque<Entry>();
+          this.idle.put(key, entries);
+        }
+        entries.addFirst(new Entry(document, weight));
+        this.used += weight;
+        this.count++;
+
+        // Evict the least recently used documents
+        final Iterator<Deque<Entry>> it = this.idle.values().iterator();
+        while ((this.used > this.capacity || this.count > this.maxDocuments) && it.hasNext()) {
+          final Deque<Entry> eldest = it.next();
+          while ((this.used > this.capacity || this.count > this.maxDocuments) && !eldest.isEmpty()) {
+            this.remove(eldest.removeLast(), evicted);
+          }
+          if (eldest.isEmpty()) {
+            it.remove();
+          }
+        }
+      }
+    }
+    DocumentCache.close(evicted);
+  }
+
+
+  /**
+   * Close all idle documents.
+   */
+  public void clear() {
+    final List<PDDocument> evicted = new ArrayList<PDDocument>();
+    synchronized (this) {
+      for (final Deque<Entry> entries : this.idle.values()) {
+        for (final Entry entry : entries) {
+          this.remove(entry, evicted);
+        }
+      }
+      this.idle.clear();
+    }
+    DocumentCache.close(evicted);
+  }
+
+
+  /**
+   * @return Number of idle documents
+   */
+  public synchronized int size() {
+    return this.count;
+  }
+
+
+  /**
+   * @return Estimated memory of all idle documents (in Bytes)
+   */
+  public synchronized long getUsed() {
+    return this.used;
+  }
+
+
+  /**
+   * @return Number of acquire() calls that found a document
+   */
+  public long getHits() {
+    return this.hits.get();
+  }
+
+
+  /**
+   * @return Number of acquire() calls that did not find a document
+   */
+  public long getMisses() {
+    return this.misses.get();
+  }
+
+
+  private void remove(final Entry entry, final List<PDDocument> evicted) {
+    this.used -= entry.weight;
+    this.count--;
+    evicted.add(entry.document);
+  }
+
+
+  private static void close(final List<PDDocument> documents) {
+    for (final PDDocument document : documents) {
+      try {
+        document.close();
+      } catch (final IOException e) {
+        DocumentCache.mLog.debug("Could not close cached document", e);
+      }
+    }
+  }
+}
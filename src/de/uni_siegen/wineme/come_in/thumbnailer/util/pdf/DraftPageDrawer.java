@@ -0,0 +1,252 @@
+/*
+ * regain/Thumbnailer - A file search engine providing plenty of formats (Plugin)
+ * Copyright (C) 2011  Come_IN Computerclubs (University of Siegen)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * Contact: Come_IN-Team <come_in-team@listserv.uni-siegen.de>
+ */
+
+package de.uni_siegen.wineme.come_in.thumbnailer.util.pdf;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.graphics.PDGraphicsState;
+import org.apache.pdfbox.pdmodel.graphics.xobject.PDXObjectImage;
+import org.apache.pdfbox.pdmodel.text.PDTextState;
+import org.apache.pdfbox.util.Matrix;
+import org.apache.pdfbox.util.PDFOperator;
+import org.apache.pdfbox.util.TextPosition;
+import org.apache.pdfbox.util.operator.pagedrawer.Invoke;
+
+import de.uni_siegen.wineme.come_in.thumbnailer.util.codec.JpegDecoder;
+
+/**
+ * PageDrawer for tiny thumbnails, which trades quality for speed:
+ * <li>Text that would be smaller than MIN_TEXT_SIZE pixels is drawn as translucent bars instead of glyphs.
+ * <li>JPEG images are decoded by JpegDecoder at the smallest DCT scale that still covers their size on the thumbnail.
+ *     (Other images are decoded as usual.)
+ * <li>Annotations are not drawn.
+ * <li>Antialiasing and image interpolation are off.
+ *
+ * @author Benjamin
+ */
+public class DraftPageDrawer extends SharedFontPageDrawer {
+
+  /** The logger for this class */
+  private static final Logger mLog = Logger.getLogger(DraftPageDrawer.class);
+
+  /** Font size (in Pixel) below which text is drawn as bars */
+  public static final double MIN_TEXT_SIZE = 4.0;
+
+  /** Height of a text bar, relative to the font size (about the height of lowercase letters) */
+  private static final double BAR_HEIGHT = 0.5;
+
+  /** Opacity of a text bar: roughly the share of a line that is covered by ink */
+  private static final int BAR_ALPHA = 77;
+
+  /** Pixels per unit of page space */
+  private double deviceScale = 1.0;
+
+  /** True while the page content is drawn (as opposed to annotations) */
+  private boolean inContent = false;
+
+
+  /**
+   * @param fontCache Cache to take the fonts from, or null to load them as usual
+   */
+  public DraftPageDrawer(final FontCache fontCache) throws IOException {
+    super(fontCache);
+    this.registerOperatorProcessor("Do", new DraftInvoke());
+  }
+
+
+  @Override
+  public void processStream(final PDPage page, final PDResources resources, final COSStream stream) throws IOException {
+    // drawPage() turns antialiasing on right before
+    final Graphics2D graphics = this.getGraphics();
+    graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
+    graphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_OFF);
+    graphics.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_OFF);
+    graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_SPEED);
+    graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+    this.deviceScale = Math.sqrt(Math.abs(graphics.getTransform().getDeterminant()));
+
+    this.inContent = true;
+    try {
+      super.processStream(page, resources, stream);
+    } finally {
+      this.inContent = false;
+    }
+  }
+
+
+  @Override
+  public void processSubStream(final PDPage page, final PDResources resources, final COSStream stream) throws IOException {
+    // Outside of the page content, drawPage() only draws the appearance streams of annotations
+    if (this.inContent) {
+      super.processSubStream(page, resources, stream);
+    }
+  }
+
+
+  @Override
+  protected void processTextPosition(final TextPosition text) {
+    final double size = text.getFontSizeInPt() * this.deviceScale;
+    if (size >= DraftPageDrawer.MIN_TEXT_SIZE) {
+      super.processTextPosition(text);
+      return;
+    }
+
+    final PDGraphicsState state = this.getGraphicsState();
+    final int mode = state.getTextState().getRenderingMode();
+    if (mode == PDTextState.RENDERING_MODE_NEITHER_FILL_NOR_STROKE_TEXT
+        || mode == PDTextState.RENDERING_MODE_ADD_TEXT_TO_PATH_FOR_CLIPPING) {
+      return; // Invisible, e.g. the OCR layer of a scanned page
+    }
+
+    try {
+      final boolean stroke = mode == PDTextState.RENDERING_MODE_STROKE_TEXT
+          || mode == PDTextState.RENDERING_MODE_STROKE_TEXT_AND_ADD_TO_PATH_FOR_CLIPPING;
+      final Color color = (stroke ? state.getStrokingColor() : state.getNonStrokingColor()).getJavaColor();
+      final double height = text.getFontSizeInPt() * DraftPageDrawer.BAR_HEIGHT;
+      final Matrix position = text.getTextPos();
+      final double x = position.getXPosition();
+      final double y = this.fixY(position.getYPosition());
+
+      final Graphics2D graphics = this.getGraphics();
+      graphics.setClip(state.getCurrentClippingPath());
+      graphics.setColor(new Color(color.getRed(), color.getGreen(), color.getBlue(), DraftPageDrawer.BAR_ALPHA));
+      graphics.fill(new Rectangle2D.Double(x, y - height, text.getWidthDirAdj(), height));
+    } catch (final IOException e) {
+      DraftPageDrawer.mLog.debug("Cannot get the color of text", e);
+    }
+  }
+
+
+  /**
+   * @return True if the stream is a JPEG file in DeviceRGB or DeviceGray, without masks or decode arrays,
+   *         which JpegDecoder can draw just like PDFBox would.
+   */
+  private static boolean isPlainJpeg(final COSStream stream) {
+    COSBase filter = stream.getFilters();
+    if (filter instanceof COSArray && ((COSArray) filter).size() == 1) {
+      filter = ((COSArray) filter).getObject(0);
+    }
+    if (!COSName.DCT_DECODE.equals(filter) && !COSName.DCT_DECODE_ABBREVIATION.equals(filter)) {
+      return false;
+    }
+    final COSBase colorSpace = stream.getDictionaryObject(COSName.COLORSPACE);
+    return (COSName.DEVICERGB.equals(colorSpace) || COSName.DEVICEGRAY.equals(colorSpace))
+        && stream.getDictionaryObject(COSName.DECODE) == null
+        && stream.getDictionaryObject(COSName.MASK) == null
+        && stream.getDictionaryObject(COSName.SMASK) == null
+        && !stream.getBoolean(COSName.IMAGE_MASK, false);
+  }
+
+
+  /**
+   * Draws JPEG images at reduced scale, everything else as usual.
+   */
+  private final class DraftInvoke extends Invoke {
+
+    @Override
+    public void process(final PDFOperator operator, final List<COSBase> arguments) throws IOException {
+      final Object xobject = arguments.isEmpty() || !(arguments.get(0) instanceof COSName) ? null
+          : DraftPageDrawer.this.getResources().getXObjects().get(((COSName) arguments.get(0)).getName());
+      if (xobject instanceof PDXObjectImage) {
+        final BufferedImage image = this.decodeScaled((PDXObjectImage) xobject);
+        if (image != null) {
+          this.drawImage(image);
+          return;
+        }
+      }
+      super.process(operator, arguments);
+    }
+
+
+    /**
+     * @return The image at reduced scale, or null if it has to be decoded as usual.
+     */
+    private BufferedImage decodeScaled(final PDXObjectImage xobject) throws IOException {
+      final COSStream stream = xobject.getCOSStream();
+      if (!DraftPageDrawer.isPlainJpeg(stream)) {
+        return null;
+      }
+
+      // Size of the image on the thumbnail
+      final Matrix ctm = DraftPageDrawer.this.getGraphicsState().getCurrentTransformationMatrix();
+      final double width = Math.hypot(ctm.getValue(0, 0), ctm.getValue(0, 1)) * DraftPageDrawer.this.deviceScale;
+      final double height = Math.hypot(ctm.getValue(1, 0), ctm.getValue(1, 1)) * DraftPageDrawer.this.deviceScale;
+      int scale = 1;
+      while (scale < 8 && xobject.getWidth() / (scale * 2.0) >= width && xobject.getHeight() / (scale * 2.0) >= height) {
+        scale *= 2;
+      }
+      if (scale == 1) {
+        return null;
+      }
+
+      final InputStream in = stream.getFilteredStream();
+      try {
+        return new JpegDecoder(IOUtils.toByteArray(in)).decode(scale);
+      } catch (final IOException | RuntimeException e) {
+        DraftPageDrawer.mLog.debug("JpegDecoder could not decode an image, decoding it as usual", e);
+        return null;
+      } finally {
+        in.close();
+      }
+    }
+
+
+    /**
+     * Place the image like Invoke does: the image space of 1x1 is mapped by the current transformation matrix
+     * (the rows and columns of the image are scaled to fit).
+     */
+    private void drawImage(final BufferedImage image) {
+      final Matrix ctm = DraftPageDrawer.this.getGraphicsState().getCurrentTransformationMatrix().copy();
+      final float yScaling = ctm.getYScale();
+      float angle = (float) Math.acos(ctm.getValue(0, 0) / ctm.getXScale());
+      if (ctm.getValue(0, 1) < 0 && ctm.getValue(1, 0) > 0) {
+        angle = -angle;
+      }
+      final double pageHeight = DraftPageDrawer.this.getPageSize().getHeight();
+      ctm.setValue(2, 1, (float) (pageHeight - ctm.getYPosition() - Math.cos(angle) * yScaling));
+      ctm.setValue(2, 0, (float) (ctm.getXPosition() - Math.sin(angle) * yScaling));
+      // The origin moved to the top, so the shear goes the other way
+      ctm.setValue(0, 1, -ctm.getValue(0, 1));
+      ctm.setValue(1, 0, -ctm.getValue(1, 0));
+
+      final AffineTransform transform = ctm.createAffineTransform();
+      transform.scale(1.0 / image.getWidth(), 1.0 / image.getHeight());
+      DraftPageDrawer.this.drawImage(image, transform);
+    }
+  }
+}
@@ -0,0 +1,358 @@
+/*
+ * regain/Thumbnailer - A file search engine providing plenty of formats (Plugin)
+ * Copyright (C) 2011  Come_IN Computerclubs (University of Siegen)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * Contact: Come_IN-Team <come_in-team@listserv.uni-siegen.de>
+ */
+
+package de.uni_siegen.wineme.come_in.thumbnailer.util.pdf;
+
+import java.awt.Font;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDSimpleFont;
+
+/**
+ * Shares parsed fonts between all documents that are rendered in this VM.
+ *
+ * PDFBox turns every font of every document into an AWT font when it is first drawn, and most documents
+ * embed the same few fonts (or use the same standard fonts). This cache keeps the AWT fonts, keyed by
+ * a digest of the embedded font program (or the font name, if it is not embedded), and hands them
+ * to the fonts of the next documents. As glyph outlines are cached by AWT per font, they are shared as well.
+ *
+ * Fonts are evicted least recently used first, as soon as the size of their font programs exceeds the capacity.
+ * Fonts that PDFBox had to substitute are never cached.
+ *
+ * @author Benjamin
+ */
+public class FontCache {
+
+  /** The logger for this class */
+  private static final Logger mLog = Logger.getLogger(FontCache.class);
+
+  /** Capacity of the shared cache (in Bytes) */
+  public static final long DEFAULT_CAPACITY = 32L * 1024 * 1024;
+
+  /** Memory accounted for a font that is not embedded (only the name is kept, the font itself belongs to the system) */
+  private static final long NAMED_FONT_WEIGHT = 1024;
+
+  private static final FontCache shared = new FontCache(FontCache.DEFAULT_CAPACITY);
+
+  /**
+   * Field "awtFont" of each font class, or null if it does not have one
+   * (e.g. Type 3 fonts, which are drawn from content streams)
+   */
+  private static final Map<Class<?>, Field> awtFontFields = new HashMap<Class<?>, Field>();
+
+  /** Loaded on first use, so that options can refer to the shared cache without loading PDFBox */
+  private static final class Flags {
+    /** Null if this version of PDFBox does not have it: then no font is cached, as substituted fonts cannot be told apart. */
+    static final Field substituted = FontCache.findField(PDSimpleFont.class, "isFontSubstituted", boolean.class);
+  }
+
+  private static final class Entry {
+    final Font font;
+    final long weight;
+
+    Entry(final Font font, final long weight) {
+      this.font = font;
+      this.weight = weight;
+    }
+  }
+
+  private final long capacity;
+
+  /** Cached fonts, in access order */
+  private final LinkedHashMap<String, Entry> fonts = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+  private long used = 0;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+
+  /**
+   * @param capacity  Size of the font programs that may be cached together (in Bytes)
+   */
+  public FontCache(final long capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Capacity must be positive");
+    }
+    this.capacity = capacity;
+  }
+
+
+  /**
+   * @return The cache that is used by default (see ThumbnailOptions.setFontCache()).
+   */
+  public static FontCache getShared() {
+    return FontCache.shared;
+  }
+
+
+  /**
+   * Set up a font before it is drawn: If the same font has been loaded before (in any document),
+   * it gets the cached AWT font. Otherwise its AWT font is loaded now and added to the cache.
+   *
+   * @param font  Font of a document that is being rendered
+   * @return True if the font came from the cache
+   */
+  public boolean share(final PDFont font) {
+    final Field field = FontCache.getAwtFontField(font.getClass());
+    if (field == null || !(font instanceof PDSimpleFont)) {
+      return false;
+    }
+
+    try {
+      if (field.get(font) != null) {
+        return false; // Already loaded
+      }
+      final String key = FontCache.getKey(font);
+      if (key == null) {
+        return false;
+      }
+
+      final Font cached = this.get(key);
+      if (cached != null) {
+        field.set(font, cached);
+        this.hits.incrementAndGet();
+        return true;
+      }
+
+      this.misses.incrementAndGet();
+      final Font awtFont = ((PDSimpleFont) font).getawtFont();
+      if (awtFont != null && !FontCache.isSubstituted(font)) {
+        this.put(key, awtFont, FontCache.getWeight(font));
+      }
+    } catch (final IllegalAccessException e) {
+      FontCache.mLog.debug("Cannot share font " + font.getBaseFont(), e);
+    } catch (final IOException e) {
+      // PDFBox will try (and fail) again when drawing
+      FontCache.mLog.debug("Could not load font " + font.getBaseFont(), e);
+    }
+    return false;
+  }
+
+
+  /**
+   * Remove all fonts.
+   */
+  public synchronized void clear() {
+    this.fonts.clear();
+    this.used = 0;
+  }
+
+
+  /**
+   * @return Number of cached fonts
+   */
+  public synchronized int size() {
+    return this.fonts.size();
+  }
+
+
+  /**
+   * @return Size of the font programs of all cached fonts (in Bytes)
+   */
+  public synchronized long getUsed() {
+    return this.used;
+  }
+
+
+  /**
+   * @return Number of fonts that were taken from the cache
+   */
+  public long getHits() {
+    return this.hits.get();
+  }
+
+
+  /**
+   * @return Number of fonts that had to be loaded
+   */
+  public long getMisses() {
+    return this.misses.get();
+  }
+
+
+  /**
+   * @return Number of fonts that were removed to make room for others
+   */
+  public long getEvictions() {
+    return this.evictions.get();
+  }
+
+
+  /**
+   * @return Fraction of fonts that were taken from the cache (0 if there were none yet).
+   */
+  public double getHitRate() {
+    final long h = this.hits.get();
+    final long total = h + this.misses.get();
+    return total == 0 ? 0.0 : (double) h / total;
+  }
+
+
+  private synchronized Font get(final String key) {
+    final Entry entry = this.fonts.get(key);
+    return entry == null ? null : entry.font;
+  }
+
+
+  private synchronized void put(final String key, final Font font, final long weight) {
+    if (weight > this.capacity) {
+      return;
+    }
+    final Entry previous = this.fonts.put(key, new Entry(font, weight));
+    if (previous != null) {
+      this.used -= previous.weight;
+    }
+    this.used += weight;
+
+    // Evict the least recently used fonts
+    final Iterator<Entry> it = this.fonts.values().iterator();
+    while (this.used > this.capacity && it.hasNext()) {
+      this.used -= it.next().weight;
+      it.remove();
+      this.evictions.incrementAndGet();
+    }
+  }
+
+
+  /**
+   * Get the key of a font: a digest of the embedded font program, or the name of the font if it is not embedded.
+   *
+   * @return The key, or null if the font cannot be cached
+   */
+  static String getKey(final PDFont font) throws IOException {
+    final COSStream program = FontCache.getFontProgram(font);
+    if (program == null) {
+      return font.getBaseFont() == null ? null : "name:" + font.getSubType() + "/" + font.getBaseFont();
+    }
+
+    final MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-1");
+    } catch (final NoSuchAlgorithmException e) {
+      return null;
+    }
+    final byte[] buffer = new byte[8192];
+    final InputStream in = program.getFilteredStream();
+    try {
+      int n;
+      while ((n = in.read(buffer)) > 0) {
+        digest.update(buffer, 0, n);
+      }
+    } finally {
+      in.close();
+    }
+
+    // The program is unique, but PDFBox also uses the descriptor when loading it (e.g. to repair TrueType fonts)
+    final StringBuilder key = new StringBuilder("embedded:").append(font.getSubType()).append('/').append(font.getBaseFont())
+        .append('/').append(program.getFilters()).append('/');
+    for (final byte b : digest.digest()) {
+      key.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+    }
+    return key.toString();
+  }
+
+
+  private static long getWeight(final PDFont font) throws IOException {
+    final COSStream program = FontCache.getFontProgram(font);
+    return program == null ? FontCache.NAMED_FONT_WEIGHT : program.getFilteredLength();
+  }
+
+
+  /**
+   * Get the embedded font program of a font (of its descendant font, for composite fonts).
+   *
+   * @return The stream, or null if the font is not embedded
+   */
+  private static COSStream getFontProgram(final PDFont font) {
+    final COSBase object = font.getCOSObject();
+    if (!(object instanceof COSDictionary)) {
+      return null;
+    }
+    COSDictionary dictionary = (COSDictionary) object;
+    final COSBase descendants = dictionary.getDictionaryObject(COSName.DESCENDANT_FONTS);
+    if (descendants instanceof COSArray && ((COSArray) descendants).size() > 0
+        && ((COSArray) descendants).getObject(0) instanceof COSDictionary) {
+      dictionary = (COSDictionary) ((COSArray) descendants).getObject(0);
+    }
+
+    final COSBase descriptor = dictionary.getDictionaryObject(COSName.FONT_DESC);
+    if (!(descriptor instanceof COSDictionary)) {
+      return null;
+    }
+    for (final COSName name : new COSName[] { COSName.FONT_FILE, COSName.FONT_FILE2, COSName.FONT_FILE3 }) {
+      final COSBase program = ((COSDictionary) descriptor).getDictionaryObject(name);
+      if (program instanceof COSStream) {
+        return (COSStream) program;
+      }
+    }
+    return null;
+  }
+
+
+  private static boolean isSubstituted(final PDFont font) throws IllegalAccessException {
+    return Flags.substituted == null || Flags.substituted.getBoolean(font);
+  }
+
+
+  private static Field getAwtFontField(final Class<?> fontClass) {
+    synchronized (FontCache.awtFontFields) {
+      if (!FontCache.awtFontFields.containsKey(fontClass)) {
+        Field field = null;
+        for (Class<?> c = fontClass; field == null && c != null && c != Object.class; c = c.getSuperclass()) {
+          field = FontCache.findField(c, "awtFont", Font.class);
+        }
+        FontCache.awtFontFields.put(fontClass, field);
+      }
+      return FontCache.awtFontFields.get(fontClass);
+    }
+  }
+
+
+  private static Field findField(final Class<?> c, final String name, final Class<?> type) {
+    try {
+      final Field field = c.getDeclaredField(name);
+      if (field.getType() != type) {
+        return null;
+      }
+      field.setAccessible(true);
+      return field;
+    } catch (final NoSuchFieldException | SecurityException e) {
+      return null;
+    }
+  }
+}
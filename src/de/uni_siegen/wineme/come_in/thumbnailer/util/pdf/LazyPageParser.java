@@ -0,0 +1,294 @@
+/*
+ * regain/Thumbnailer - A file search engine providing plenty of formats (Plugin)
+ * Copyright (C) 2011  Come_IN Computerclubs (University of Siegen)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * Contact: Come_IN-Team <come_in-team@listserv.uni-siegen.de>
+ */
+
+package de.uni_siegen.wineme.come_in.thumbnailer.util.pdf;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.io.RandomAccess;
+import org.apache.pdfbox.pdfparser.NonSequentialPDFParser;
+import org.apache.pdfbox.pdmodel.PDPage;
+
+/**
+ * Parses a single page of a PDF file, and nothing else.
+ *
+ * Starting from the cross-reference table, only the catalog, the page tree nodes on the way to the page,
+ * and the objects the page needs for rendering (contents, resources, annotations) are parsed.
+ * So the time to render the first page does not depend on the number of pages or the size of the file.
+ *
+ * Usage: Call parsePage() once, then render the page with the document of getPDDocument()
+ * (closing that document also closes the scratch file). The input file is closed by parsePage().
+ * Alternatively, call parsePageCount() once to get the number of pages.
+ *
+ * @author Benjamin
+ */
+public class LazyPageParser extends NonSequentialPDFParser {
+
+  /** The logger for this class */
+  private static final Logger mLog = Logger.getLogger(LazyPageParser.class);
+
+  /** Inheritable page attributes, which may be found in page tree nodes above the page */
+  private static final COSName[] INHERITED = { COSName.RESOURCES, COSName.MEDIA_BOX, COSName.CROP_BOX, COSName.ROTATE };
+
+  /**
+   * Entries that are never needed for rendering, but may lead to other pages (and from there to large parts of the document):
+   * the parent of a node, the page of an annotation, link targets and actions, article beads.
+   */
+  private static final Set<String> SKIPPED_KEYS = Collections.unmodifiableSet(new HashSet<String>(
+      Arrays.asList("Parent", "P", "Dest", "A", "PA", "B", "Next", "Prev")));
+
+  /**
+   * PDFBox only skips parsing the whole document if a system property is set (which would affect all other users of PDFBox
+   * in the same VM), so the flag is set on each instance instead. Null if this version of PDFBox does not have it.
+   */
+  private static final Field parseMinimalCatalog = LazyPageParser.findMinimalCatalogFlag();
+
+  /** Guards against cycles in broken page trees */
+  private static final int MAX_TREE_DEPTH = 64;
+
+  private boolean parsed = false;
+
+
+  /**
+   * @param input   PDF file
+   * @param scratch Where to keep the data of the parsed streams, or null to keep them on the heap
+   */
+  public LazyPageParser(final File input, final RandomAccess scratch) throws IOException {
+    super(input, scratch);
+    if (LazyPageParser.parseMinimalCatalog != null) {
+      try {
+        LazyPageParser.parseMinimalCatalog.setBoolean(this, true);
+      } catch (final IllegalAccessException e) {
+        LazyPageParser.mLog.debug("Cannot enable minimal parsing, the whole document will be parsed", e);
+      }
+    }
+  }
+
+
+  /**
+   * Parse the page and everything it needs, then close the input file.
+   * If this fails, the document is closed as well.
+   *
+   * @param index Page number, starting with 0
+   * @return The page
+   * @throws IOException If the file could not be parsed, or the page does not exist
+   */
+  public PDPage parsePage(final int index) throws IOException {
+    if (this.parsed) {
+      throw new IllegalStateException("The page has already been parsed");
+    }
+    this.parsed = true;
+
+    boolean success = false;
+    try {
+      this.parseCatalog();
+
+      final COSDictionary page = this.findPage(index);
+      this.resolveAll(page);
+      for (COSDictionary node = page; node != null; node = this.getParent(node)) {
+        for (final COSName key : LazyPageParser.INHERITED) {
+          this.resolveAll(node.getItem(key));
+        }
+      }
+      success = true;
+      return new PDPage(page);
+    } catch (final RuntimeException e) {
+      // PDFBox does not check much while parsing
+      throw new IOException("Could not parse page " + index, e);
+    } finally {
+      this.pdfSource.close();
+      if (!success) {
+        this.document.close();
+      }
+    }
+  }
+
+
+  /**
+   * Get the number of pages from the root of the page tree, without parsing any page.
+   * The input file and the document are closed afterwards, so getPDDocument() cannot be used.
+   *
+   * @return Number of pages
+   * @throws IOException If the file could not be parsed
+   */
+  public int parsePageCount() throws IOException {
+    if (this.parsed) {
+      throw new IllegalStateException("The document has already been parsed");
+    }
+    this.parsed = true;
+
+    try {
+      this.parseCatalog();
+      final COSBase pages = this.getPageTreeRoot();
+      if (!(pages instanceof COSDictionary)) {
+        throw new IOException("Missing page tree");
+      }
+      return ((COSDictionary) pages).getInt(COSName.COUNT, 0);
+    } catch (final RuntimeException e) {
+      throw new IOException("Could not parse the page count", e);
+    } finally {
+      try {
+        this.pdfSource.close();
+      } finally {
+        this.document.close();
+      }
+    }
+  }
+
+
+  /**
+   * Read the cross-reference table and the catalog (and, if minimal parsing could not be enabled, everything else).
+   */
+  private void parseCatalog() throws IOException {
+    this.parseHeader();
+    this.pdfSource.seek(0);
+    this.initialParse();
+  }
+
+
+  private COSBase getPageTreeRoot() throws IOException {
+    final COSBase catalog = this.resolve(this.document.getCatalog());
+    if (!(catalog instanceof COSDictionary)) {
+      throw new IOException("Missing catalog");
+    }
+    return this.resolve(((COSDictionary) catalog).getItem(COSName.PAGES));
+  }
+
+
+  /**
+   * Descend the page tree to the page, using the page counts of the nodes to skip whole subtrees.
+   */
+  private COSDictionary findPage(final int index) throws IOException {
+    COSBase node = this.getPageTreeRoot();
+    int remaining = index;
+    for (int depth = 0; depth < LazyPageParser.MAX_TREE_DEPTH; depth++) {
+      if (!(node instanceof COSDictionary)) {
+        break;
+      }
+      final COSBase kids = this.resolve(((COSDictionary) node).getItem(COSName.KIDS));
+      if (!(kids instanceof COSArray)) {
+        break;
+      }
+      node = null;
+      for (final COSBase kid : (COSArray) kids) {
+        final COSBase child = this.resolve(kid);
+        if (!(child instanceof COSDictionary)) {
+          continue;
+        }
+        final COSDictionary dictionary = (COSDictionary) child;
+        if (dictionary.containsKey(COSName.KIDS)) {
+          final int count = dictionary.getInt(COSName.COUNT, 0);
+          if (remaining < count) {
+            node = dictionary;
+            break;
+          }
+          remaining -= count;
+        } else if (remaining == 0) {
+          return dictionary;
+        } else {
+          remaining--;
+        }
+      }
+    }
+    throw new IOException("Page " + index + " not found");
+  }
+
+
+  private COSDictionary getParent(final COSDictionary node) throws IOException {
+    final COSBase parent = this.resolve(node.getItem(COSName.PARENT));
+    return parent instanceof COSDictionary ? (COSDictionary) parent : null;
+  }
+
+
+  /**
+   * Parse all objects that can be reached from base (except via SKIPPED_KEYS).
+   */
+  private void resolveAll(final COSBase base) throws IOException {
+    final Set<COSBase> seen = Collections.newSetFromMap(new IdentityHashMap<COSBase, Boolean>());
+    final Deque<COSBase> queue = new ArrayDeque<COSBase>();
+    if (base != null) {
+      queue.add(base);
+    }
+    while (!queue.isEmpty()) {
+      final COSBase object = this.resolve(queue.removeFirst());
+      if (object == null || !seen.add(object)) {
+        continue;
+      }
+      if (object instanceof COSDictionary) {
+        // also streams
+        for (final Map.Entry<COSName, COSBase> entry : ((COSDictionary) object).entrySet()) {
+          if (entry.getValue() != null && !LazyPageParser.SKIPPED_KEYS.contains(entry.getKey().getName())) {
+            queue.add(entry.getValue());
+          }
+        }
+      } else if (object instanceof COSArray) {
+        for (final COSBase element : (COSArray) object) {
+          if (element != null) {
+            queue.add(element);
+          }
+        }
+      }
+    }
+  }
+
+
+  /**
+   * @return The object an indirect reference points to (parsed now, if that has not happened yet), or base itself otherwise.
+   */
+  private COSBase resolve(final COSBase base) throws IOException {
+    if (!(base instanceof COSObject)) {
+      return base;
+    }
+    final COSObject reference = (COSObject) base;
+    if (reference.getObject() == null) {
+      reference.setObject(this.parseObjectDynamically(reference, false));
+    }
+    return reference.getObject();
+  }
+
+
+  private static Field findMinimalCatalogFlag() {
+    try {
+      final Field field = NonSequentialPDFParser.class.getDeclaredField("parseMinimalCatalog");
+      field.setAccessible(true);
+      return field;
+    } catch (final NoSuchFieldException | SecurityException e) {
+      LazyPageParser.mLog.info("This version of PDFBox cannot parse pages lazily, the whole document will be parsed", e);
+      return null;
+    }
+  }
+}
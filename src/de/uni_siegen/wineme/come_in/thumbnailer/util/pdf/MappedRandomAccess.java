@@ -0,0 +1,235 @@
+/*
+ * regain/Thumbnailer - A file search engine providing plenty of formats (Plugin)
+ * Copyright (C) 2011  Come_IN Computerclubs (University of Siegen)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * Contact: Come_IN-Team <come_in-team@listserv.uni-siegen.de>
+ */
+
+package de.uni_siegen.wineme.come_in.thumbnailer.util.pdf;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.pdfbox.io.RandomAccessFile;
+
+import de.uni_siegen.wineme.come_in.thumbnailer.util.DirectDataBuffer;
+
+/**
+ * Scratch file for PDFBox, memory-mapped in segments.
+ *
+ * PDFBox keeps the (decoded) data of all streams of a document in its scratch file instead of on the heap.
+ * Mapping the file means reads and writes go through the OS page cache: pages that are not touched
+ * any more are written back and dropped by the OS, so neither the heap nor the process needs memory
+ * in proportion to the document size.
+ *
+ * The temporary file is deleted by close() (which PDDocument.close() calls).
+ *
+ * This extends PDFBox' own RandomAccessFile only because COSStream accepts no other scratch
+ * implementations apart from RandomAccessBuffer; none of its methods are used.
+ *
+ * @author Benjamin
+ */
+public class MappedRandomAccess extends RandomAccessFile {
+
+  /** Default size of the mapped segments (in Bytes) */
+  public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+  private final File file;
+  private final java.io.RandomAccessFile randomAccessFile;
+  private final FileChannel channel;
+  private final int segmentSize;
+  private final List<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+
+  private long position = 0;
+  private long length = 0;
+  private boolean closed = false;
+
+
+  /**
+   * Create a scratch file in the default temporary directory.
+   */
+  public MappedRandomAccess() throws IOException {
+    this(null, MappedRandomAccess.DEFAULT_SEGMENT_SIZE);
+  }
+
+
+  /**
+   * @param directory   Directory of the scratch file, or null for the default temporary directory
+   * @param segmentSize Size of the mapped segments (in Bytes)
+   */
+  public MappedRandomAccess(final File directory, final int segmentSize) throws IOException {
+    this(segmentSize, MappedRandomAccess.createFile(directory, segmentSize));
+  }
+
+
+  private MappedRandomAccess(final int segmentSize, final File file) throws IOException {
+    super(file, "rw");
+    this.segmentSize = segmentSize;
+    this.file = file;
+    this.randomAccessFile = new java.io.RandomAccessFile(this.file, "rw");
+    this.channel = this.randomAccessFile.getChannel();
+  }
+
+
+  private static File createFile(final File directory, final int segmentSize) throws IOException {
+    if (segmentSize <= 0) {
+      throw new IllegalArgumentException("Segment size must be positive");
+    }
+    final File file = File.createTempFile("pdf-scratch", ".tmp", directory);
+    file.deleteOnExit();
+    return file;
+  }
+
+
+  @Override
+  public long getPosition() throws IOException {
+    this.checkOpen();
+    return this.position;
+  }
+
+
+  @Override
+  public void seek(final long position) throws IOException {
+    this.checkOpen();
+    if (position < 0) {
+      throw new IOException("Invalid position " + position);
+    }
+    this.position = position;
+  }
+
+
+  @Override
+  public long length() throws IOException {
+    this.checkOpen();
+    return this.length;
+  }
+
+
+  @Override
+  public int read() throws IOException {
+    this.checkOpen();
+    if (this.position >= this.length) {
+      return -1;
+    }
+    final MappedByteBuffer segment = this.getSegment(this.position);
+    final int value = segment.get((int) (this.position % this.segmentSize)) & 0xff;
+    this.position++;
+    return value;
+  }
+
+
+  @Override
+  public int read(final byte[] b, int offset, int length) throws IOException {
+    this.checkOpen();
+    if (this.position >= this.length) {
+      return length == 0 ? 0 : -1;
+    }
+    length = (int) Math.min(length, this.length - this.position);
+    final int total = length;
+    while (length > 0) {
+      final MappedByteBuffer segment = this.getSegment(this.position);
+      final int inSegment = (int) (this.position % this.segmentSize);
+      final int n = Math.min(length, this.segmentSize - inSegment);
+      segment.position(inSegment);
+      segment.get(b, offset, n);
+      this.position += n;
+      offset += n;
+      length -= n;
+    }
+    return total;
+  }
+
+
+  @Override
+  public void write(final int b) throws IOException {
+    this.checkOpen();
+    this.getSegment(this.position).put((int) (this.position % this.segmentSize), (byte) b);
+    this.position++;
+    this.length = Math.max(this.length, this.position);
+  }
+
+
+  @Override
+  public void write(final byte[] b, int offset, int length) throws IOException {
+    this.checkOpen();
+    while (length > 0) {
+      final MappedByteBuffer segment = this.getSegment(this.position);
+      final int inSegment = (int) (this.position % this.segmentSize);
+      final int n = Math.min(length, this.segmentSize - inSegment);
+      segment.position(inSegment);
+      segment.put(b, offset, n);
+      this.position += n;
+      offset += n;
+      length -= n;
+    }
+    this.length = Math.max(this.length, this.position);
+  }
+
+
+  /**
+   * Unmap the file and delete it. Calling this more than once has no effect.
+   */
+  @Override
+  public void close() throws IOException {
+    if (this.closed) {
+      return;
+    }
+    this.closed = true;
+    for (final MappedByteBuffer segment : this.segments) {
+      DirectDataBuffer.freeBuffer(segment);
+    }
+    this.segments.clear();
+    try {
+      this.channel.close();
+      this.randomAccessFile.close();
+      super.close();
+    } finally {
+      this.file.delete();
+    }
+  }
+
+
+  /**
+   * @return The segment that contains this position, mapped on first use (which also grows the file).
+   */
+  private MappedByteBuffer getSegment(final long position) throws IOException {
+    final long index = position / this.segmentSize;
+    if (index >= Integer.MAX_VALUE) {
+      throw new IOException("Scratch file too large");
+    }
+    while (this.segments.size() <= index) {
+      this.segments.add(null);
+    }
+    MappedByteBuffer segment = this.segments.get((int) index);
+    if (segment == null) {
+      segment = this.channel.map(FileChannel.MapMode.READ_WRITE, index * this.segmentSize, this.segmentSize);
+      this.segments.set((int) index, segment);
+    }
+    return segment;
+  }
+
+
+  private void checkOpen() throws IOException {
+    if (this.closed) {
+      throw new IOException("Scratch file has been closed");
+    }
+  }
+}
@@ -0,0 +1,62 @@
+/*
+ * regain/Thumbnailer - A file search engine providing plenty of formats (Plugin)
+ * Copyright (C) 2011  Come_IN Computerclubs (University of Siegen)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * Contact: Come_IN-Team <come_in-team@listserv.uni-siegen.de>
+ */
+
+package de.uni_siegen.wineme.come_in.thumbnailer.util.pdf;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import org.apache.pdfbox.pdfviewer.PageDrawer;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.util.TextPosition;
+
+/**
+ * PageDrawer that takes the fonts of the page from a FontCache, right before they are first drawn.
+ *
+ * @author Benjamin
+ */
+public class SharedFontPageDrawer extends PageDrawer {
+
+  private final FontCache fontCache;
+
+  /** Fonts that have already been looked up */
+  private final Set<PDFont> seen = Collections.newSetFromMap(new IdentityHashMap<PDFont, Boolean>());
+
+
+  /**
+   * @param fontCache Cache to take the fonts from, or null to load them as usual
+   */
+  public SharedFontPageDrawer(final FontCache fontCache) throws IOException {
+    this.fontCache = fontCache;
+  }
+
+
+  @Override
+  protected void processTextPosition(final TextPosition text) {
+    final PDFont font = text.getFont();
+    if (this.fontCache != null && font != null && this.seen.add(font)) {
+      this.fontCache.share(font);
+    }
+    super.processTextPosition(text);
+  }
+}
@@ -0,0 +1,201 @@
+package de.uni_siegen.wineme.come_in.thumbnailer.test;
+
+import static org.junit.Assert.*;
+
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.junit.Test;
+
+import de.uni_siegen.wineme.come_in.thumbnailer.util.ColorNormalizer;
+import de.uni_siegen.wineme.come_in.thumbnailer.util.ResizeImage;
+
+public class ColorNormalizerTest extends MyTestCase {
+
+	@Test
+	public void testStandardImagesAreKept() {
+		BufferedImage image = new BufferedImage(10, 10, BufferedImage.TYPE_3BYTE_BGR);
+		assertFalse(ColorNormalizer.needsNormalization(image));
+		assertSame(image, ColorNormalizer.normalize(image, false));
+	}
+
+	@Test
+	public void testSixteenBitRGB() {
+		BufferedImage image = createCustom(ColorSpace.CS_sRGB, false, DataBuffer.TYPE_USHORT);
+		assertTrue(ColorNormalizer.needsNormalization(image));
+		BufferedImage normalized = ColorNormalizer.normalize(image, false);
+		assertEquals(BufferedImage.TYPE_INT_RGB, normalized.getType());
+		assertSameRGB(image, normalized, 1);
+	}
+
+	@Test
+	public void testRGBAlpha() {
+		BufferedImage image = createCustom(ColorSpace.CS_sRGB, true, DataBuffer.TYPE_BYTE);
+		BufferedImage normalized = ColorNormalizer.normalize(image, false);
+		assertEquals(BufferedImage.TYPE_INT_ARGB, normalized.getType());
+		assertSameRGB(image, normalized, 0);
+	}
+
+	@Test
+	public void testGrayAlphaKeepsSamples() {
+		BufferedImage image = createCustom(ColorSpace.CS_GRAY, true, DataBuffer.TYPE_BYTE);
+		BufferedImage normalized = ColorNormalizer.normalize(image, false);
+		Raster raster = image.getRaster();
+		for (int y = 0; y < image.getHeight(); y++) {
+			for (int x = 0; x < image.getWidth(); x++) {
+				int gray = raster.getSample(x, y, 0);
+				int expected = raster.getSample(x, y, 1) << 24 | gray << 16 | gray << 8 | gray;
+				assertEquals(Integer.toHexString(expected), Integer.toHexString(normalized.getRGB(x, y)));
+			}
+		}
+	}
+
+	@Test
+	public void testOtherColorSpaceIsConverted() {
+		BufferedImage image = createCustom(ColorSpace.CS_LINEAR_RGB, false, DataBuffer.TYPE_BYTE);
+		assertSameRGB(image, ColorNormalizer.normalize(image, false), 2);
+
+		// Ignoring the profile takes the samples as they are
+		BufferedImage ignored = ColorNormalizer.normalize(image, true);
+		Raster raster = image.getRaster();
+		assertEquals(raster.getSample(3, 5, 0), (ignored.getRGB(3, 5) >> 16) & 0xff);
+	}
+
+	@Test
+	public void testAdobeCmyk() throws Exception {
+		WritableRaster raster = Raster.createInterleavedRaster(DataBuffer.TYPE_BYTE, 64, 32, 4, null);
+		for (int y = 0; y < 32; y++) {
+			for (int x = 0; x < 64; x++) {
+				raster.setPixel(x, y, new int[] { x * 4, y * 8, 128, 200 });
+			}
+		}
+		// Inverted: 255 = no ink
+		BufferedImage converted = ColorNormalizer.convertAdobeCmyk(raster, false);
+		assertEquals(0xff000000 | (160 * 200 + 127) / 255 << 16 | (80 * 200 + 127) / 255 << 8 | (128 * 200 + 127) / 255,
+				converted.getRGB(40, 10));
+		assertEquals(0xffffffff, ColorNormalizer.convertAdobeCmyk(fill(255, 255, 255, 255), false).getRGB(0, 0));
+		assertEquals(0xff000000, ColorNormalizer.convertAdobeCmyk(fill(255, 255, 255, 0), false).getRGB(0, 0));
+
+		// YCCK encodes the uninverted inks: neutral chroma and no luma = no colored ink
+		assertEquals(0xffffffff, ColorNormalizer.convertAdobeCmyk(fill(0, 128, 128, 255), true).getRGB(0, 0));
+		assertEquals(0xffcccccc, ColorNormalizer.convertAdobeCmyk(fill(0, 128, 128, 204), true).getRGB(0, 0));
+		assertEquals(0xff000000, ColorNormalizer.convertAdobeCmyk(fill(255, 128, 128, 255), true).getRGB(0, 0));
+	}
+
+	@Test
+	public void testCmykJpegThumbnail() throws Exception {
+		byte[] jpeg = encodeCmyk();
+		ImageReader reader = ImageIO.getImageReadersByFormatName("jpeg").next();
+		BufferedImage decoded;
+		try {
+			reader.setInput(ImageIO.createImageInputStream(new ByteArrayInputStream(jpeg)));
+			decoded = reader.read(0);
+		} catch (IOException e) {
+			return; // This JRE cannot decode CMYK JPEG files with color management, nothing to compare with
+		} finally {
+			reader.dispose();
+		}
+
+		File input = File.createTempFile("cmyk", ".jpg");
+		File output = File.createTempFile("cmyk", ".png");
+		try {
+			org.apache.commons.io.FileUtils.writeByteArrayToFile(input, jpeg);
+			ResizeImage resizer = new ResizeImage(32, 16);
+			resizer.ignoreColorProfile = true;
+			resizer.setInputImage(input);
+			resizer.writeOutput(output);
+
+			BufferedImage expected = ColorNormalizer.normalize(decoded, true);
+			BufferedImage thumbnail = ImageIO.read(output);
+			assertPictureFormat(thumbnail, 32, 16);
+			int a = expected.getRGB(40, 10);
+			int b = thumbnail.getRGB(20, 5);
+			for (int shift = 0; shift < 24; shift += 8) {
+				assertEquals(((a >> shift) & 0xff), ((b >> shift) & 0xff), 12);
+			}
+		} finally {
+			input.delete();
+			output.delete();
+		}
+	}
+
+	private static BufferedImage createCustom(int colorSpace, boolean hasAlpha, int transferType) {
+		ComponentColorModel colorModel = new ComponentColorModel(ColorSpace.getInstance(colorSpace), hasAlpha, false,
+				hasAlpha ? Transparency.TRANSLUCENT : Transparency.OPAQUE, transferType);
+		WritableRaster raster = colorModel.createCompatibleWritableRaster(37, 23);
+		int max = transferType == DataBuffer.TYPE_USHORT ? 65535 : 255;
+		for (int y = 0; y < raster.getHeight(); y++) {
+			for (int x = 0; x < raster.getWidth(); x++) {
+				for (int b = 0; b < raster.getNumBands(); b++) {
+					raster.setSample(x, y, b, (x * 7919 + y * 104729 + b * 31337) % (max + 1));
+				}
+			}
+		}
+		BufferedImage image = new BufferedImage(colorModel, raster, false, null);
+		assertEquals(BufferedImage.TYPE_CUSTOM, image.getType());
+		return image;
+	}
+
+	private static Raster fill(int c, int m, int y, int k) {
+		WritableRaster raster = Raster.createInterleavedRaster(DataBuffer.TYPE_BYTE, 1, 1, 4, null);
+		raster.setPixel(0, 0, new int[] { c, m, y, k });
+		return raster;
+	}
+
+	/**
+	 * A CMYK JPEG with an Adobe marker (transform 0), as written by Photoshop.
+	 */
+	private static byte[] encodeCmyk() throws IOException {
+		WritableRaster raster = Raster.createInterleavedRaster(DataBuffer.TYPE_BYTE, 64, 32, 4, null);
+		for (int y = 0; y < 32; y++) {
+			for (int x = 0; x < 64; x++) {
+				raster.setPixel(x, y, new int[] { x * 4, y * 8, 128, 200 });
+			}
+		}
+		ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ImageOutputStream out = ImageIO.createImageOutputStream(bytes);
+		try {
+			writer.setOutput(out);
+			writer.write(null, new IIOImage(raster, null, null), writer.getDefaultWriteParam());
+		} finally {
+			out.close();
+			writer.dispose();
+		}
+
+		byte[] plain = bytes.toByteArray();
+		byte[] adobe = { (byte) 0xff, (byte) 0xee, 0, 14, 'A', 'd', 'o', 'b', 'e', 0, 100, 0, 0, 0, 0, 0 };
+		byte[] jpeg = new byte[plain.length + adobe.length];
+		System.arraycopy(plain, 0, jpeg, 0, 2);
+		System.arraycopy(adobe, 0, jpeg, 2, adobe.length);
+		System.arraycopy(plain, 2, jpeg, 2 + adobe.length, plain.length - 2);
+		return jpeg;
+	}
+
+	private static void assertSameRGB(BufferedImage expected, BufferedImage actual, int tolerance) {
+		for (int y = 0; y < expected.getHeight(); y++) {
+			for (int x = 0; x < expected.getWidth(); x++) {
+				int a = expected.getRGB(x, y);
+				int b = actual.getRGB(x, y);
+				for (int shift = 0; shift < 32; shift += 8) {
+					assertEquals("Pixel " + x + "," + y, (a >> shift) & 0xff, (b >> shift) & 0xff, tolerance);
+				}
+			}
+		}
+	}
+}
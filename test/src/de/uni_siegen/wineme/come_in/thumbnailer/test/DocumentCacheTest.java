@@ -0,0 +1,115 @@
+package de.uni_siegen.wineme.come_in.thumbnailer.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.uni_siegen.wineme.come_in.thumbnailer.util.pdf.DocumentCache;
+
+public class DocumentCacheTest {
+
+	private static final long MB = 1024 * 1024;
+
+	private File a;
+	private File b;
+
+	@Before
+	public void setUp() throws IOException {
+		a = File.createTempFile("cache-a", ".pdf");
+		b = File.createTempFile("cache-b", ".pdf");
+	}
+
+	@After
+	public void tearDown() {
+		a.delete();
+		b.delete();
+	}
+
+	@Test
+	public void testReuse() throws Exception {
+		DocumentCache cache = new DocumentCache(10 * MB, 10);
+		DocumentCache.Key key = DocumentCache.Key.of(a);
+		assertNull(cache.acquire(key));
+
+		TrackedDocument document = new TrackedDocument();
+		cache.release(key, document, MB);
+		assertEquals(1, cache.size());
+		assertSame(document, cache.acquire(DocumentCache.Key.of(a)));
+		assertEquals(0, cache.size());
+		assertNull("A document is only handed out once", cache.acquire(key));
+		assertFalse(document.closed);
+
+		assertEquals(1, cache.getHits());
+		assertEquals(2, cache.getMisses());
+	}
+
+	@Test
+	public void testEvictLeastRecentlyUsed() throws Exception {
+		DocumentCache cache = new DocumentCache(3 * MB, 10);
+		TrackedDocument first = new TrackedDocument();
+		TrackedDocument second = new TrackedDocument();
+		TrackedDocument third = new TrackedDocument();
+		cache.release(DocumentCache.Key.of(a), first, 2 * MB);
+		cache.release(DocumentCache.Key.of(b), second, MB);
+		assertEquals(3 * MB, cache.getUsed());
+
+		cache.release(DocumentCache.Key.of(b), third, MB);
+		assertTrue(first.closed);
+		assertFalse(second.closed);
+		assertFalse(third.closed);
+		assertEquals(2, cache.size());
+
+		TrackedDocument huge = new TrackedDocument();
+		cache.release(DocumentCache.Key.of(a), huge, 4 * MB);
+		assertTrue("Too big to be cached", huge.closed);
+
+		cache.clear();
+		assertTrue(second.closed);
+		assertTrue(third.closed);
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.getUsed());
+	}
+
+	@Test
+	public void testMaxDocuments() throws Exception {
+		DocumentCache cache = new DocumentCache(100 * MB, 1);
+		TrackedDocument first = new TrackedDocument();
+		TrackedDocument second = new TrackedDocument();
+		cache.release(DocumentCache.Key.of(a), first, MB);
+		cache.release(DocumentCache.Key.of(b), second, MB);
+		assertTrue(first.closed);
+		assertFalse(second.closed);
+	}
+
+	@Test
+	public void testChangedFile() throws Exception {
+		DocumentCache cache = new DocumentCache(10 * MB, 10);
+		TrackedDocument old = new TrackedDocument();
+		cache.release(DocumentCache.Key.of(a), old, MB);
+
+		assertTrue(a.setLastModified(a.lastModified() - 60000));
+		assertNull(cache.acquire(DocumentCache.Key.of(a)));
+		assertTrue("Documents of older versions are closed", old.closed);
+		assertEquals(0, cache.size());
+	}
+
+	private static class TrackedDocument extends PDDocument {
+		volatile boolean closed = false;
+
+		TrackedDocument() throws IOException {
+			super();
+		}
+
+		@Override
+		public void close() throws IOException {
+			closed = true;
+			super.close();
+		}
+	}
+}
@@ -0,0 +1,159 @@
+package de.uni_siegen.wineme.come_in.thumbnailer.test;
+
+import static org.junit.Assert.*;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import javax.imageio.ImageIO;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import com.drew.imaging.ImageMetadataReader;
+import com.drew.metadata.exif.ExifIFD0Directory;
+
+import de.uni_siegen.wineme.come_in.thumbnailer.util.ExifOrientation;
+import de.uni_siegen.wineme.come_in.thumbnailer.util.ResizeImage;
+
+public class ExifOrientationTest extends MyTestCase {
+
+	private static final File TEST_JPG = new File(TESTFILES_DIR + "test.jpg");
+
+	@Test
+	public void testBothByteOrders() throws Exception {
+		for (ByteOrder order : new ByteOrder[] { ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN }) {
+			for (int orientation = 1; orientation <= 8; orientation++) {
+				byte[] jpeg = createJpeg(orientation, order, 0);
+				assertEquals(order + " / " + orientation, orientation, ExifOrientation.read(new ByteArrayInputStream(jpeg)));
+				assertEquals(orientation, readWithMetadataExtractor(jpeg));
+			}
+		}
+	}
+
+	@Test
+	public void testSegmentsBeforeExif() throws Exception {
+		byte[] jpeg = createJpeg(6, ByteOrder.BIG_ENDIAN, 60000);
+		assertEquals(6, ExifOrientation.read(new ByteArrayInputStream(jpeg)));
+	}
+
+	@Test
+	public void testNoExif() throws Exception {
+		ByteArrayOutputStream plain = new ByteArrayOutputStream();
+		ImageIO.write(new BufferedImage(16, 16, BufferedImage.TYPE_INT_RGB), "jpeg", plain);
+		assertEquals(ExifOrientation.NORMAL, ExifOrientation.read(new ByteArrayInputStream(plain.toByteArray())));
+
+		ByteArrayOutputStream png = new ByteArrayOutputStream();
+		ImageIO.write(new BufferedImage(16, 16, BufferedImage.TYPE_INT_RGB), "png", png);
+		assertEquals(ExifOrientation.NORMAL, ExifOrientation.read(new ByteArrayInputStream(png.toByteArray())));
+		assertEquals(ExifOrientation.NORMAL, ExifOrientation.read(new ByteArrayInputStream(new byte[0])));
+	}
+
+	@Test
+	public void testReadsOnlyTheHeader() throws Exception {
+		CountingInputStream input = new CountingInputStream(new FileInputStream(TEST_JPG));
+		try {
+			assertEquals(readWithMetadataExtractor(FileUtils.readFileToByteArray(TEST_JPG)), ExifOrientation.read(input));
+			assertTrue("Read " + input.count + " Bytes", input.count <= 4096);
+		} finally {
+			input.close();
+		}
+	}
+
+	@Test
+	public void testThumbnailIsRotated() throws Exception {
+		File input = File.createTempFile("exif", ".jpg");
+		File output = File.createTempFile("exif", ".png");
+		try {
+			FileUtils.writeByteArrayToFile(input, createJpeg(6, ByteOrder.LITTLE_ENDIAN, 0));
+			ResizeImage resizer = new ResizeImage(40, 20);
+			resizer.setInputImage(input);
+			resizer.writeOutput(output);
+			assertPictureFormat(output, 20, 40);
+			assertNotNull(resizer.getMetadata().getFirstDirectoryOfType(ExifIFD0Directory.class));
+
+			resizer = new ResizeImage(40, 20);
+			InputStream stream = new FileInputStream(input);
+			try {
+				resizer.setInputImage(stream);
+			} finally {
+				stream.close();
+			}
+			resizer.writeOutput(output);
+			assertPictureFormat(output, 20, 40);
+			assertNull(resizer.getMetadata());
+		} finally {
+			input.delete();
+			output.delete();
+		}
+	}
+
+	/**
+	 * A small JPEG with an Exif segment (IFD0: Make, Orientation, XResolution) and optionally a big APP2 segment before it.
+	 */
+	private static byte[] createJpeg(int orientation, ByteOrder order, int paddingSegment) throws IOException {
+		ByteArrayOutputStream plain = new ByteArrayOutputStream();
+		ImageIO.write(new BufferedImage(64, 32, BufferedImage.TYPE_INT_RGB), "jpeg", plain);
+		byte[] image = plain.toByteArray();
+
+		ByteBuffer tiff = ByteBuffer.allocate(8 + 2 + 3 * 12 + 4 + 16).order(order);
+		tiff.put(order == ByteOrder.BIG_ENDIAN ? new byte[] { 'M', 'M' } : new byte[] { 'I', 'I' });
+		tiff.putShort((short) 42).putInt(8);
+		tiff.putShort((short) 3);
+		tiff.putShort((short) 0x010f).putShort((short) 2).putInt(4).put(new byte[] { 'A', 'B', 'C', 0 });
+		tiff.putShort((short) 0x0112).putShort((short) 3).putInt(1).putShort((short) orientation).putShort((short) 0);
+		tiff.putShort((short) 0x011a).putShort((short) 5).putInt(1).putInt(8 + 2 + 3 * 12 + 4);
+		tiff.putInt(0);
+		tiff.putInt(72).putInt(1).putInt(0).putInt(0);
+
+		ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+		jpeg.write(image, 0, 2);
+		if (paddingSegment > 0) {
+			jpeg.write(new byte[] { (byte) 0xff, (byte) 0xe2, (byte) ((paddingSegment + 2) >> 8), (byte) (paddingSegment + 2) });
+			jpeg.write(new byte[paddingSegment]);
+		}
+		int length = 2 + 6 + tiff.capacity();
+		jpeg.write(new byte[] { (byte) 0xff, (byte) 0xe1, (byte) (length >> 8), (byte) length, 'E', 'x', 'i', 'f', 0, 0 });
+		jpeg.write(tiff.array());
+		jpeg.write(image, 2, image.length - 2);
+		return jpeg.toByteArray();
+	}
+
+	private static int readWithMetadataExtractor(byte[] jpeg) throws Exception {
+		ExifIFD0Directory directory = ImageMetadataReader.readMetadata(new ByteArrayInputStream(jpeg))
+				.getFirstDirectoryOfType(ExifIFD0Directory.class);
+		return directory == null ? 1 : directory.getInt(ExifIFD0Directory.TAG_ORIENTATION);
+	}
+
+	private static class CountingInputStream extends FilterInputStream {
+		long count = 0;
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0)
+				count++;
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0)
+				count += n;
+			return n;
+		}
+	}
+}
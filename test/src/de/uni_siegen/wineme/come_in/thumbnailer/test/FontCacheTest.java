@@ -0,0 +1,103 @@
+package de.uni_siegen.wineme.come_in.thumbnailer.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.junit.Test;
+
+import de.uni_siegen.wineme.come_in.thumbnailer.util.pdf.FontCache;
+
+public class FontCacheTest {
+
+	private static final File TEST_PDF = new File("test/testfiles/test.pdf");
+
+	@Test
+	public void testStandardFontIsShared() throws Exception {
+		FontCache cache = new FontCache(1024 * 1024);
+		PDType1Font a = createStandardFont("Helvetica");
+		PDType1Font b = createStandardFont("Helvetica");
+
+		assertFalse(cache.share(a));
+		assertEquals(1, cache.size());
+		assertTrue(cache.share(b));
+		assertSame(a.getawtFont(), b.getawtFont());
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		assertEquals(0.5, cache.getHitRate(), 0.0);
+	}
+
+	@Test
+	public void testLoadedFontIsKept() throws Exception {
+		FontCache cache = new FontCache(1024 * 1024);
+		PDType1Font a = createStandardFont("Courier");
+		a.getawtFont();
+
+		assertFalse(cache.share(a));
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.getMisses());
+	}
+
+	@Test
+	public void testEvictLeastRecentlyUsed() throws Exception {
+		FontCache cache = new FontCache(1500);
+		cache.share(createStandardFont("Helvetica"));
+		cache.share(createStandardFont("Courier"));
+
+		assertEquals(1, cache.size());
+		assertEquals(1, cache.getEvictions());
+		assertTrue(cache.getUsed() <= 1500);
+		assertTrue(cache.share(createStandardFont("Courier")));
+		assertFalse(cache.share(createStandardFont("Helvetica")));
+	}
+
+	@Test
+	public void testEmbeddedFontsAreSharedBetweenDocuments() throws Exception {
+		FontCache cache = new FontCache(FontCache.DEFAULT_CAPACITY);
+		PDDocument first = PDDocument.load(TEST_PDF);
+		PDDocument second = PDDocument.load(TEST_PDF);
+		try {
+			List<PDFont> firstFonts = getFonts(first);
+			List<PDFont> secondFonts = getFonts(second);
+			assertFalse(firstFonts.isEmpty());
+
+			for (PDFont font : firstFonts) {
+				cache.share(font);
+			}
+			assertTrue(cache.size() > 0);
+			long misses = cache.getMisses();
+
+			for (PDFont font : secondFonts) {
+				assertTrue(font.getBaseFont(), cache.share(font));
+			}
+			assertEquals(misses, cache.getMisses());
+		} finally {
+			first.close();
+			second.close();
+		}
+	}
+
+	private static PDType1Font createStandardFont(String name) {
+		COSDictionary dictionary = new COSDictionary();
+		dictionary.setItem(COSName.TYPE, COSName.FONT);
+		dictionary.setItem(COSName.SUBTYPE, COSName.TYPE1);
+		dictionary.setName(COSName.BASE_FONT, name);
+		return new PDType1Font(dictionary);
+	}
+
+	private static List<PDFont> getFonts(PDDocument document) throws Exception {
+		List<PDFont> fonts = new ArrayList<PDFont>();
+		for (Object page : document.getDocumentCatalog().getAllPages()) {
+			fonts.addAll(((PDPage) page).findResources().getFonts().values());
+		}
+		return fonts;
+	}
+}
@@ -0,0 +1,83 @@
+package de.uni_siegen.wineme.come_in.thumbnailer.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+
+import org.junit.Test;
+
+import de.uni_siegen.wineme.come_in.thumbnailer.util.ImageReaderPool;
+import de.uni_siegen.wineme.come_in.thumbnailer.util.ResizeImage;
+
+public class ImageReaderPoolTest extends MyTestCase {
+
+	private static final File TEST_JPG = new File(TESTFILES_DIR + "test.jpg");
+	private static final File TEST_PNG = new File(TESTFILES_DIR + "format" + File.separator + "orig.png");
+
+	@Test
+	public void testReadersAreReusedPerThread() throws Exception {
+		ImageReaderPool.clear();
+		final ImageReader reader = ImageReaderPool.acquire("image/png");
+		assertNotNull(reader);
+		reader.setInput(ImageIO.createImageInputStream(TEST_PNG));
+		ImageReaderPool.release(reader);
+		assertNull("Released readers are reset", reader.getInput());
+
+		assertSame(reader, ImageReaderPool.acquire("image/png"));
+		assertNotSame(reader, ImageReaderPool.acquire("image/png"));
+		ImageReaderPool.release(reader);
+
+		final AtomicReference<ImageReader> other = new AtomicReference<ImageReader>();
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				try {
+					other.set(ImageReaderPool.acquire("image/png"));
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			}
+		};
+		thread.start();
+		thread.join();
+		assertNotNull(other.get());
+		assertNotSame(reader, other.get());
+	}
+
+	@Test
+	public void testUnknownMimeType() throws Exception {
+		assertNull(ImageReaderPool.acquire("application/x-no-such-type"));
+		assertNull(ImageReaderPool.getProvider("application/x-no-such-type"));
+	}
+
+	@Test
+	public void testResizeWithMimeType() throws Exception {
+		File output = File.createTempFile("pool", ".png");
+		try {
+			for (int i = 0; i < 2; i++) {
+				long hits = ImageReaderPool.getHits();
+				ResizeImage resizer = new ResizeImage(80, 60);
+				resizer.mimeType = "image/png";
+				resizer.setInputImage(TEST_PNG);
+				resizer.writeOutput(output);
+				assertPictureFormat(output, 80, 60);
+				if (i > 0) {
+					assertTrue("Reader was not reused", ImageReaderPool.getHits() > hits);
+				}
+			}
+
+			// Wrong MIME type: falls back to asking all readers
+			ResizeImage resizer = new ResizeImage(80, 60);
+			resizer.mimeType = "image/png";
+			resizer.setInputImage(TEST_JPG);
+			resizer.writeOutput(output);
+			assertPictureFormat(output, 80, 60);
+		} finally {
+			output.delete();
+		}
+	}
+}
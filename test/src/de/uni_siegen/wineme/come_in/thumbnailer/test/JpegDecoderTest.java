@@ -0,0 +1,229 @@
+package de.uni_siegen.wineme.come_in.thumbnailer.test;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import de.uni_siegen.wineme.come_in.thumbnailer.UnsupportedInputFileFormatException;
+import de.uni_siegen.wineme.come_in.thumbnailer.util.codec.JpegDecoder;
+
+public class JpegDecoderTest extends MyTestCase {
+
+	private static final File TEST_JPG = new File(TESTFILES_DIR + "test.jpg");
+
+	@Test
+	public void testBaselineFullScale() throws Exception {
+		BufferedImage image = createPhoto(203, 117, BufferedImage.TYPE_INT_RGB);
+		assertDecodesLikeImageIO(encode(image, false, 0), 2.0);
+	}
+
+	@Test
+	public void testProgressiveFullScale() throws Exception {
+		BufferedImage image = createPhoto(203, 117, BufferedImage.TYPE_INT_RGB);
+		assertDecodesLikeImageIO(encode(image, true, 0), 2.0);
+	}
+
+	@Test
+	public void testGrayscale() throws Exception {
+		BufferedImage image = createPhoto(100, 61, BufferedImage.TYPE_BYTE_GRAY);
+		assertDecodesLikeImageIO(encode(image, false, 0), 2.0);
+		assertDecodesLikeImageIO(encode(image, true, 0), 2.0);
+	}
+
+	@Test
+	public void testRestartIntervals() throws Exception {
+		BufferedImage image = createPhoto(203, 117, BufferedImage.TYPE_INT_RGB);
+		byte[] jpeg = encode(image, false, 3);
+		JpegDecoder decoder = new JpegDecoder(jpeg);
+		assertDecodesLikeImageIO(jpeg, 2.0);
+		decoder.readHeader();
+		assertEquals(203, decoder.getWidth());
+	}
+
+	@Test
+	public void testCameraFile() throws Exception {
+		assertDecodesLikeImageIO(FileUtils.readFileToByteArray(TEST_JPG), 2.0);
+	}
+
+	@Test
+	public void testScaledDecodingAveragesBlocks() throws Exception {
+		BufferedImage image = createPhoto(611, 357, BufferedImage.TYPE_INT_RGB);
+		for (boolean progressive : new boolean[] { false, true }) {
+			byte[] jpeg = encode(image, progressive, 0);
+			BufferedImage reference = toRGB(ImageIO.read(new ByteArrayInputStream(jpeg)));
+			for (int scale : new int[] { 2, 4, 8 }) {
+				BufferedImage decoded = new JpegDecoder(jpeg).decode(scale);
+				assertEquals(JpegDecoder.scaledSize(611, scale), decoded.getWidth());
+				assertEquals(JpegDecoder.scaledSize(357, scale), decoded.getHeight());
+				double difference = averageDifference(average(reference, scale), decoded);
+				assertTrue("1/" + scale + (progressive ? " progressive" : "") + ": average difference " + difference, difference < 3.0);
+			}
+		}
+	}
+
+	@Test
+	public void testHeader() throws Exception {
+		JpegDecoder decoder = new JpegDecoder(encode(createPhoto(64, 48, BufferedImage.TYPE_INT_RGB), true, 0));
+		decoder.readHeader();
+		assertEquals(64, decoder.getWidth());
+		assertEquals(48, decoder.getHeight());
+		assertTrue(decoder.isProgressive());
+	}
+
+	@Test
+	public void testColorProfile() throws Exception {
+		byte[] jpeg = encode(createPhoto(64, 48, BufferedImage.TYPE_INT_RGB), false, 0);
+		JpegDecoder decoder = new JpegDecoder(jpeg);
+		decoder.readHeader();
+		assertFalse(decoder.hasColorProfile());
+
+		// APP2 segment with the first (and only) chunk of a dummy profile, right after SOI
+		byte[] app2 = { (byte) 0xff, (byte) 0xe2, 0, 20, 'I', 'C', 'C', '_', 'P', 'R', 'O', 'F', 'I', 'L', 'E', 0, 1, 1, 0, 0, 0, 0 };
+		byte[] withProfile = new byte[jpeg.length + app2.length];
+		System.arraycopy(jpeg, 0, withProfile, 0, 2);
+		System.arraycopy(app2, 0, withProfile, 2, app2.length);
+		System.arraycopy(jpeg, 2, withProfile, 2 + app2.length, jpeg.length - 2);
+		decoder = new JpegDecoder(withProfile);
+		decoder.readHeader();
+		assertTrue(decoder.hasColorProfile());
+		assertEquals(64, decoder.getWidth());
+	}
+
+	@Test(expected = UnsupportedInputFileFormatException.class)
+	public void testNoJpeg() throws Exception {
+		ByteArrayOutputStream png = new ByteArrayOutputStream();
+		ImageIO.write(new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB), "png", png);
+		new JpegDecoder(png.toByteArray()).readHeader();
+	}
+
+	private static void assertDecodesLikeImageIO(byte[] jpeg, double tolerance) throws IOException {
+		BufferedImage expected = toRGB(ImageIO.read(new ByteArrayInputStream(jpeg)));
+		BufferedImage actual = new JpegDecoder(jpeg).decode(1);
+		double difference = averageDifference(expected, actual);
+		assertTrue("Average difference " + difference, difference < tolerance);
+	}
+
+	/**
+	 * Smooth content: sharp chroma edges would mostly measure the difference between
+	 * ImageIO's interpolated chroma upsampling and the decoder's replicated one.
+	 */
+	static BufferedImage createPhoto(int width, int height, int type) {
+		BufferedImage image = new BufferedImage(width, height, type);
+		Graphics2D g = image.createGraphics();
+		try {
+			g.setPaint(new GradientPaint(0, 0, Color.WHITE, width, height, Color.BLUE));
+			g.fillRect(0, 0, width, height);
+			g.setPaint(new GradientPaint(0, 0, Color.ORANGE, width, 0, Color.DARK_GRAY));
+			g.fillOval(width / 5, height / 5, width / 2, height / 2);
+			g.setColor(Color.BLACK);
+			g.drawString("Thumbnail", 10, height - 10);
+		} finally {
+			g.dispose();
+		}
+		return image;
+	}
+
+	static byte[] encode(BufferedImage image, boolean progressive, int restartInterval) throws IOException {
+		ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageOutputStream stream = ImageIO.createImageOutputStream(out);
+		try {
+			writer.setOutput(stream);
+			ImageWriteParam param = writer.getDefaultWriteParam();
+			param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+			param.setCompressionQuality(0.9f);
+			if (progressive)
+				param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+			IIOMetadata metadata = writer.getDefaultImageMetadata(new ImageTypeSpecifier(image), param);
+			if (restartInterval > 0) {
+				String format = "javax_imageio_jpeg_image_1.0";
+				IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(format);
+				IIOMetadataNode markers = (IIOMetadataNode) root.getElementsByTagName("markerSequence").item(0);
+				IIOMetadataNode dri = new IIOMetadataNode("dri");
+				dri.setAttribute("interval", Integer.toString(restartInterval));
+				markers.insertBefore(dri, markers.getFirstChild());
+				metadata.setFromTree(format, root);
+			}
+			writer.write(null, new IIOImage(image, null, metadata), param);
+		} finally {
+			writer.dispose();
+			stream.close();
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Gray values as RGB. (getRGB() of TYPE_BYTE_GRAY treats the samples as linear and brightens them.)
+	 */
+	static BufferedImage toRGB(BufferedImage image) {
+		if (image.getType() != BufferedImage.TYPE_BYTE_GRAY)
+			return image;
+		BufferedImage rgb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < image.getHeight(); y++) {
+			for (int x = 0; x < image.getWidth(); x++) {
+				int value = image.getRaster().getSample(x, y, 0);
+				rgb.setRGB(x, y, value << 16 | value << 8 | value);
+			}
+		}
+		return rgb;
+	}
+
+	/**
+	 * Box-filter the image by the given factor (the last row and column may be averaged from fewer pixels).
+	 */
+	static BufferedImage average(BufferedImage image, int factor) {
+		int width = JpegDecoder.scaledSize(image.getWidth(), factor);
+		int height = JpegDecoder.scaledSize(image.getHeight(), factor);
+		BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int r = 0, g = 0, b = 0, n = 0;
+				for (int sy = y * factor; sy < Math.min(image.getHeight(), (y + 1) * factor); sy++) {
+					for (int sx = x * factor; sx < Math.min(image.getWidth(), (x + 1) * factor); sx++) {
+						int rgb = image.getRGB(sx, sy);
+						r += (rgb >> 16) & 0xff;
+						g += (rgb >> 8) & 0xff;
+						b += rgb & 0xff;
+						n++;
+					}
+				}
+				result.setRGB(x, y, (r / n) << 16 | (g / n) << 8 | (b / n));
+			}
+		}
+		return result;
+	}
+
+	static double averageDifference(BufferedImage expected, BufferedImage actual) {
+		assertEquals(expected.getWidth(), actual.getWidth());
+		assertEquals(expected.getHeight(), actual.getHeight());
+		long diff = 0;
+		for (int y = 0; y < expected.getHeight(); y++) {
+			for (int x = 0; x < expected.getWidth(); x++) {
+				int a = expected.getRGB(x, y);
+				int b = actual.getRGB(x, y);
+				for (int shift = 0; shift < 24; shift += 8)
+					diff += Math.abs(((a >> shift) & 0xff) - ((b >> shift) & 0xff));
+			}
+		}
+		return (double) diff / (expected.getWidth() * expected.getHeight() * 3);
+	}
+}
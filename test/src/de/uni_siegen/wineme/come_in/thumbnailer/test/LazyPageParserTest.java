@@ -0,0 +1,99 @@
+package de.uni_siegen.wineme.come_in.thumbnailer.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.edit.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import de.uni_siegen.wineme.come_in.thumbnailer.util.pdf.LazyPageParser;
+
+public class LazyPageParserTest extends MyTestCase {
+
+	private static final int PAGES = 40;
+
+	private static File pdf;
+
+	@BeforeClass
+	public static void createDocument() throws Exception {
+		pdf = File.createTempFile("lazy", ".pdf");
+		PDDocument document = new PDDocument();
+		try {
+			for (int i = 0; i < PAGES; i++) {
+				PDPage page = new PDPage(new PDRectangle(300 + i, 400));
+				document.addPage(page);
+				PDPageContentStream content = new PDPageContentStream(document, page);
+				content.beginText();
+				content.setFont(PDType1Font.HELVETICA, 20);
+				content.moveTextPositionByAmount(50, 50);
+				content.drawString("Page " + i);
+				content.endText();
+				content.close();
+			}
+			// The first page inherits its size from the root of the page tree
+			document.getDocumentCatalog().getPages().getDictionary().setItem(COSName.MEDIA_BOX, new PDRectangle(500, 700).getCOSArray());
+			((PDPage) document.getDocumentCatalog().getAllPages().get(0)).getCOSDictionary().removeItem(COSName.MEDIA_BOX);
+			document.save(pdf.getAbsolutePath());
+		} finally {
+			document.close();
+		}
+	}
+
+	@AfterClass
+	public static void deleteDocument() {
+		pdf.delete();
+	}
+
+	@Test
+	public void testFirstPageOnly() throws Exception {
+		LazyPageParser parser = new LazyPageParser(pdf, null);
+		PDPage page = parser.parsePage(0);
+		PDDocument document = parser.getPDDocument();
+		try {
+			assertEquals(500, page.findMediaBox().getWidth(), 0.01);
+			assertNotNull(page.getContents());
+			assertTrue(page.getContents().getByteArray().length > 0);
+			assertFalse(page.findResources().getFonts().isEmpty());
+
+			int parsed = 0;
+			int total = 0;
+			for (COSObject object : document.getDocument().getObjects()) {
+				total++;
+				if (object.getObject() != null) {
+					parsed++;
+				}
+			}
+			assertTrue("Parsed " + parsed + " of " + total + " objects", parsed < 15);
+		} finally {
+			document.close();
+		}
+	}
+
+	@Test
+	public void testOtherPage() throws Exception {
+		LazyPageParser parser = new LazyPageParser(pdf, null);
+		PDPage page = parser.parsePage(17);
+		PDDocument document = parser.getPDDocument();
+		try {
+			assertEquals(317, page.findMediaBox().getWidth(), 0.01);
+			assertTrue(new String(page.getContents().getByteArray(), "ISO-8859-1").contains("Page 17"));
+		} finally {
+			document.close();
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testMissingPage() throws Exception {
+		new LazyPageParser(pdf, null).parsePage(PAGES);
+	}
+}
@@ -0,0 +1,76 @@
+package de.uni_siegen.wineme.come_in.thumbnailer.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import de.uni_siegen.wineme.come_in.thumbnailer.util.pdf.MappedRandomAccess;
+
+public class MappedRandomAccessTest extends MyTestCase {
+
+	@Test
+	public void testReadWriteAcrossSegments() throws Exception {
+		File directory = createDirectory();
+		MappedRandomAccess scratch = new MappedRandomAccess(directory, 1000);
+		try {
+			Random random = new Random(7);
+			byte[] expected = new byte[5500];
+			random.nextBytes(expected);
+
+			scratch.write(expected, 0, 2500);
+			for (int i = 2500; i < 3000; i++) {
+				scratch.write(expected[i]);
+			}
+			scratch.write(expected, 3000, expected.length - 3000);
+			assertEquals(expected.length, scratch.length());
+			assertEquals(expected.length, scratch.getPosition());
+			assertEquals(-1, scratch.read());
+
+			scratch.seek(0);
+			byte[] actual = new byte[expected.length + 100];
+			int read = 0;
+			while (read < expected.length) {
+				int n = scratch.read(actual, read, Math.min(777, actual.length - read));
+				assertTrue(n > 0);
+				read += n;
+			}
+			assertEquals(expected.length, read);
+			assertArrayEquals(expected, Arrays.copyOf(actual, read));
+
+			// Overwrite in the middle, the length stays the same
+			scratch.seek(1990);
+			scratch.write(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20 }, 0, 20);
+			assertEquals(expected.length, scratch.length());
+			scratch.seek(1999);
+			assertEquals(10, scratch.read());
+			assertEquals(11, scratch.read());
+			scratch.seek(expected.length - 1);
+			assertEquals(expected[expected.length - 1] & 0xff, scratch.read());
+		} finally {
+			scratch.close();
+		}
+		assertEquals("Scratch file was not deleted", 0, directory.list().length);
+		FileUtils.deleteQuietly(directory);
+	}
+
+	@Test(expected = IOException.class)
+	public void testClosed() throws Exception {
+		MappedRandomAccess scratch = new MappedRandomAccess();
+		scratch.close();
+		scratch.close();
+		scratch.read();
+	}
+
+	private static File createDirectory() throws IOException {
+		File directory = File.createTempFile("scratch", "");
+		directory.delete();
+		assertTrue(directory.mkdir());
+		return directory;
+	}
+}
@@ -0,0 +1,129 @@
+package de.uni_siegen.wineme.come_in.thumbnailer.test;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+import de.uni_siegen.wineme.come_in.thumbnailer.MemoryBudgetExceededException;
+import de.uni_siegen.wineme.come_in.thumbnailer.util.MemoryBudget;
+import de.uni_siegen.wineme.come_in.thumbnailer.util.ResizeImage;
+
+public class MemoryBudgetTest {
+
+	@Test
+	public void testRejectWhenFull() throws Exception {
+		MemoryBudget budget = new MemoryBudget(1000, MemoryBudget.Policy.REJECT);
+		MemoryBudget.Grant first = budget.acquire(800, true);
+		assertEquals(1, first.getSubsampling());
+		try {
+			budget.acquire(300, true);
+			fail("Job should have been rejected");
+		} catch (MemoryBudgetExceededException e) {
+			// expected
+		}
+		first.release();
+		first.release(); // no effect
+		assertEquals(0, budget.getUsed());
+		budget.acquire(300, true).release();
+	}
+
+	@Test
+	public void testQueueWaitsForRelease() throws Exception {
+		final MemoryBudget budget = new MemoryBudget(1000, MemoryBudget.Policy.QUEUE);
+		final MemoryBudget.Grant first = budget.acquire(5000, false);
+		assertEquals("Oversized job runs alone", 1000, budget.getUsed());
+
+		final CountDownLatch admitted = new CountDownLatch(1);
+		Thread waiting = new Thread() {
+			@Override
+			public void run() {
+				try {
+					budget.acquire(100, false).release();
+					admitted.countDown();
+				} catch (Exception e) {
+					// admitted stays closed
+				}
+			}
+		};
+		waiting.start();
+		assertFalse(admitted.await(200, TimeUnit.MILLISECONDS));
+		first.release();
+		assertTrue(admitted.await(5, TimeUnit.SECONDS));
+		waiting.join();
+		assertEquals(0, budget.getUsed());
+	}
+
+	@Test
+	public void testQueueTimeout() throws Exception {
+		MemoryBudget budget = new MemoryBudget(1000, MemoryBudget.Policy.QUEUE);
+		budget.setQueueTimeout(50);
+		budget.acquire(1000, false);
+		try {
+			budget.acquire(1, false);
+			fail("Waiting should have timed out");
+		} catch (MemoryBudgetExceededException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testTryAcquireDoesNotWait() throws Exception {
+		MemoryBudget budget = new MemoryBudget(1000, MemoryBudget.Policy.QUEUE);
+		MemoryBudget.Grant first = budget.tryAcquire(600);
+		assertNotNull(first);
+		assertNull(budget.tryAcquire(600));
+		assertEquals(600, budget.getUsed());
+		first.release();
+		assertNotNull(budget.tryAcquire(600));
+	}
+
+	@Test
+	public void testSubsampleGrantsWhatIsLeft() throws Exception {
+		MemoryBudget budget = new MemoryBudget(1000, MemoryBudget.Policy.SUBSAMPLE);
+		budget.acquire(750, true);
+		MemoryBudget.Grant grant = budget.acquire(1000, true);
+		assertEquals(250, grant.getBytes());
+		assertEquals(2, grant.getSubsampling());
+		assertEquals(1000, budget.getUsed());
+	}
+
+	@Test
+	public void testSubsampledDecodeKeepsThumbnailSize() throws Exception {
+		BufferedImage image = new BufferedImage(800, 600, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+		g.setColor(Color.RED);
+		g.fillRect(0, 0, 800, 600);
+		g.dispose();
+		File input = File.createTempFile("budget", ".png");
+		File output = File.createTempFile("budget-thumb", ".png");
+		try {
+			ImageIO.write(image, "png", input);
+
+			// Enough for a quarter of the pixels only
+			MemoryBudget budget = new MemoryBudget(MemoryBudget.estimateRaster(400, 300), MemoryBudget.Policy.SUBSAMPLE);
+			ResizeImage resizer = new ResizeImage(160, 120);
+			resizer.memoryBudget = budget;
+			resizer.setInputImage(input);
+			assertTrue(budget.getUsed() > 0);
+			resizer.writeOutput(output);
+			resizer.dispose();
+			assertEquals(0, budget.getUsed());
+
+			BufferedImage thumbnail = ImageIO.read(output);
+			MyTestCase.assertPictureFormat(thumbnail, 160, 120);
+			assertEquals(0xffff0000, thumbnail.getRGB(80, 60));
+		} finally {
+			input.delete();
+			output.delete();
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package de.uni_siegen.wineme.come_in.thumbnailer.test;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+import de.uni_siegen.wineme.come_in.thumbnailer.util.OffHeapImage;
+import de.uni_siegen.wineme.come_in.thumbnailer.util.ResizeImage;
+
+public class OffHeapImageTest {
+
+	@Test
+	public void testDrawAndRead() {
+		BufferedImage image = OffHeapImage.create(50, 40, true);
+		assertTrue(OffHeapImage.isOffHeap(image));
+		Graphics2D g = image.createGraphics();
+		g.setColor(Color.GREEN);
+		g.fillRect(10, 10, 20, 20);
+		g.dispose();
+
+		assertEquals(0, image.getRGB(0, 0));
+		assertEquals(0xff00ff00, image.getRGB(15, 15));
+		int[] row = new int[50];
+		OffHeapImage.getRow(image, 15, row, 0);
+		assertEquals(0xff00ff00, row[15]);
+		assertEquals(0, row[35]);
+
+		OffHeapImage.release(image);
+		OffHeapImage.release(image); // no effect
+		try {
+			image.getRGB(15, 15);
+			fail("Released image must not be readable");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testHeapImagesAreNotAffected() {
+		BufferedImage image = new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB);
+		assertFalse(OffHeapImage.isOffHeap(image));
+		OffHeapImage.release(image);
+		image.getRGB(0, 0);
+	}
+
+	@Test
+	public void testOffHeapDecodeGivesSameThumbnail() throws Exception {
+		BufferedImage image = PngEncoderTest.createTestImage(300, 200, BufferedImage.TYPE_INT_ARGB);
+		for (String format : new String[] { "png", "jpg" }) {
+			BufferedImage source = image;
+			if ("jpg".equals(format)) {
+				source = new BufferedImage(300, 200, BufferedImage.TYPE_INT_RGB);
+				Graphics2D g = source.createGraphics();
+				g.drawImage(image, 0, 0, null);
+				g.dispose();
+			}
+			File input = File.createTempFile("offheap", "." + format);
+			File heapOutput = File.createTempFile("offheap-heap", ".png");
+			File offHeapOutput = File.createTempFile("offheap-direct", ".png");
+			try {
+				assertTrue(ImageIO.write(source, format, input));
+
+				ResizeImage resizer = new ResizeImage(90, 60);
+				resizer.setInputImage(input);
+				resizer.writeOutput(heapOutput);
+				resizer.dispose();
+
+				resizer = new ResizeImage(90, 60);
+				resizer.offHeapPixelThreshold = 0;
+				resizer.setInputImage(input);
+				resizer.writeOutput(offHeapOutput);
+				resizer.dispose();
+
+				PngEncoderTest.assertSamePixels(ImageIO.read(heapOutput), ImageIO.read(offHeapOutput));
+			} finally {
+				input.delete();
+				heapOutput.delete();
+				offHeapOutput.delete();
+			}
+		}
+	}
+}
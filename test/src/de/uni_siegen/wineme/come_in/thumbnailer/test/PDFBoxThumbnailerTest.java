@@ -0,0 +1,348 @@
+package de.uni_siegen.wineme.come_in.thumbnailer.test;
+
+import static org.junit.Assert.*;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.edit.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.junit.Test;
+
+import de.uni_siegen.wineme.come_in.thumbnailer.PageSelection;
+import de.uni_siegen.wineme.come_in.thumbnailer.ThumbnailListener;
+import de.uni_siegen.wineme.come_in.thumbnailer.ThumbnailNamer;
+import de.uni_siegen.wineme.come_in.thumbnailer.thumbnailers.PDFBoxThumbnailer;
+import de.uni_siegen.wineme.come_in.thumbnailer.util.MemoryBudget;
+import de.uni_siegen.wineme.come_in.thumbnailer.util.codec.ContentAwareEncoder;
+import de.uni_siegen.wineme.come_in.thumbnailer.util.codec.JpegEncoder;
+import de.uni_siegen.wineme.come_in.thumbnailer.util.pdf.DocumentCache;
+
+public class PDFBoxThumbnailerTest extends MyTestCase {
+
+	private static final int PAGES = 9;
+
+	@Test
+	public void testParallelPagesMatchSequential() throws Exception {
+		File pdf = File.createTempFile("pages", ".pdf");
+		File sequential = createFolder("sequential");
+		File parallel = createFolder("parallel");
+		try {
+			createDocument(pdf, PAGES);
+
+			PDFBoxThumbnailer thumbnailer = new PDFBoxThumbnailer();
+			thumbnailer.setImageSize(120, 160, 0);
+			thumbnailer.getOptions().setPageRenderThreads(1);
+			thumbnailer.generateThumbnails(pdf, sequential);
+
+			thumbnailer.getOptions().setPageRenderThreads(4);
+			thumbnailer.generateThumbnails(pdf, parallel);
+
+			assertEquals(PAGES, parallel.list().length);
+			BufferedImage previous = null;
+			for (int page = 0; page < PAGES; page++) {
+				BufferedImage expected = ImageIO.read(ThumbnailNamer.getFile(sequential, page, "png"));
+				BufferedImage actual = ImageIO.read(ThumbnailNamer.getFile(parallel, page, "png"));
+				assertPictureFormat(actual, 120, 160);
+				assertTrue("Page " + page + " differs", sameRGB(expected, actual));
+				if (previous != null) {
+					assertFalse("Pages " + (page - 1) + " and " + page + " look the same", sameRGB(previous, actual));
+				}
+				previous = actual;
+			}
+		} finally {
+			pdf.delete();
+			FileUtils.deleteQuietly(sequential);
+			FileUtils.deleteQuietly(parallel);
+		}
+	}
+
+	@Test
+	public void testHelpersDoNotWaitForBudget() throws Exception {
+		File pdf = File.createTempFile("pages", ".pdf");
+		File folder = createFolder("budget");
+		try {
+			createDocument(pdf, PAGES);
+
+			// Room for exactly one copy of the document: the helpers must not queue behind it
+			MemoryBudget budget = new MemoryBudget(pdf.length() * 3 + MemoryBudget.estimateRaster(120, 160), MemoryBudget.Policy.QUEUE);
+			PDFBoxThumbnailer thumbnailer = new PDFBoxThumbnailer();
+			thumbnailer.setImageSize(120, 160, 0);
+			thumbnailer.getOptions().setMemoryBudget(budget);
+			thumbnailer.getOptions().setPageRenderThreads(4);
+
+			long start = System.currentTimeMillis();
+			thumbnailer.generateThumbnails(pdf, folder);
+			long duration = System.currentTimeMillis() - start;
+
+			assertEquals(PAGES, folder.list().length);
+			assertEquals(0, budget.getUsed());
+			assertTrue("Took " + duration + " ms", duration < MemoryBudget.DEFAULT_QUEUE_TIMEOUT / 2);
+		} finally {
+			pdf.delete();
+			FileUtils.deleteQuietly(folder);
+		}
+	}
+
+	@Test
+	public void testPageSelection() throws Exception {
+		File pdf = File.createTempFile("pages", ".pdf");
+		File folder = createFolder("selection");
+		try {
+			createDocument(pdf, PAGES);
+
+			PDFBoxThumbnailer thumbnailer = new PDFBoxThumbnailer();
+			assertEquals(PAGES, thumbnailer.getPageCount(pdf, "application/pdf"));
+
+			thumbnailer.setImageSize(120, 160, 0);
+			thumbnailer.getOptions().setPageSelection(PageSelection.every(3));
+			thumbnailer.generateThumbnails(pdf, folder);
+
+			assertEquals(3, folder.list().length);
+			for (int page = 0; page < PAGES; page++) {
+				assertEquals("Page " + page, page % 3 == 0, ThumbnailNamer.getFile(folder, page, "png").exists());
+			}
+		} finally {
+			pdf.delete();
+			FileUtils.deleteQuietly(folder);
+		}
+	}
+
+	@Test
+	public void testListenerGetsFirstPageFirst() throws Exception {
+		File pdf = File.createTempFile("pages", ".pdf");
+		File folder = createFolder("listener");
+		try {
+			createDocument(pdf, PAGES);
+
+			final List<Integer> reported = Collections.synchronizedList(new ArrayList<Integer>());
+			PDFBoxThumbnailer thumbnailer = new PDFBoxThumbnailer();
+			thumbnailer.setImageSize(120, 160, 0);
+			thumbnailer.getOptions().setPageRenderThreads(4);
+			thumbnailer.getOptions().setThumbnailListener(new ThumbnailListener() {
+				public void thumbnailWritten(File input, int pageNumber, File thumbnail) {
+					assertTrue(thumbnail.length() > 0);
+					reported.add(pageNumber);
+				}
+			});
+			thumbnailer.generateThumbnails(pdf, folder);
+
+			assertEquals(PAGES, reported.size());
+			assertEquals(Integer.valueOf(0), reported.get(0));
+			assertEquals(PAGES, new HashSet<Integer>(reported).size());
+		} finally {
+			pdf.delete();
+			FileUtils.deleteQuietly(folder);
+		}
+	}
+
+	@Test
+	public void testContentAwareNames() throws Exception {
+		File pdf = File.createTempFile("pages", ".pdf");
+		File folder = createFolder("content");
+		try {
+			createDocument(pdf, PAGES);
+
+			final List<File> reported = Collections.synchronizedList(new ArrayList<File>());
+			PDFBoxThumbnailer thumbnailer = new PDFBoxThumbnailer();
+			thumbnailer.setImageSize(120, 160, 0);
+			thumbnailer.getOptions().setEncoder(new JpegEncoder());
+			thumbnailer.getOptions().setContentAwareEncoder(new ContentAwareEncoder());
+			thumbnailer.getOptions().setThumbnailListener(new ThumbnailListener() {
+				public void thumbnailWritten(File input, int pageNumber, File thumbnail) {
+					reported.add(thumbnail);
+				}
+			});
+			thumbnailer.generateThumbnails(pdf, folder);
+
+			// Text pages are line art
+			assertEquals(PAGES, reported.size());
+			for (File thumbnail : reported) {
+				assertTrue(thumbnail.getName(), thumbnail.getName().endsWith(".png"));
+				assertTrue(thumbnail.getName(), thumbnail.isFile());
+			}
+		} finally {
+			pdf.delete();
+			FileUtils.deleteQuietly(folder);
+		}
+	}
+
+	@Test
+	public void testDocumentCache() throws Exception {
+		File pdf = File.createTempFile("pages", ".pdf");
+		File uncached = createFolder("uncached");
+		File cached = createFolder("cached");
+		DocumentCache cache = new DocumentCache(64 * 1024 * 1024, 4);
+		try {
+			createDocument(pdf, PAGES);
+
+			PDFBoxThumbnailer thumbnailer = new PDFBoxThumbnailer();
+			thumbnailer.setImageSize(120, 160, 0);
+			thumbnailer.getOptions().setPageRenderThreads(1);
+			thumbnailer.generateThumbnails(pdf, uncached);
+
+			thumbnailer.getOptions().setDocumentCache(cache);
+			thumbnailer.getOptions().setPageSelection(PageSelection.first(2));
+			thumbnailer.generateThumbnails(pdf, cached);
+			assertEquals(0, cache.getHits());
+			assertEquals(1, cache.size());
+
+			thumbnailer.getOptions().setPageSelection(PageSelection.range(2, PAGES - 1));
+			thumbnailer.generateThumbnails(pdf, cached);
+			assertEquals(1, cache.getHits());
+			assertEquals(1, cache.size());
+
+			for (int page = 0; page < PAGES; page++) {
+				BufferedImage expected = ImageIO.read(ThumbnailNamer.getFile(uncached, page, "png"));
+				BufferedImage actual = ImageIO.read(ThumbnailNamer.getFile(cached, page, "png"));
+				assertTrue("Page " + page + " differs", sameRGB(expected, actual));
+			}
+		} finally {
+			cache.clear();
+			pdf.delete();
+			FileUtils.deleteQuietly(uncached);
+			FileUtils.deleteQuietly(cached);
+		}
+	}
+
+	@Test
+	public void testScratchFileMatchesHeap() throws Exception {
+		File pdf = File.createTempFile("pages", ".pdf");
+		File heap = File.createTempFile("heap", ".png");
+		File scratch = File.createTempFile("scratch", ".png");
+		try {
+			createDocument(pdf, 2);
+
+			PDFBoxThumbnailer thumbnailer = new PDFBoxThumbnailer();
+			thumbnailer.setImageSize(120, 160, 0);
+			thumbnailer.generateThumbnail(pdf, heap);
+
+			thumbnailer.getOptions().setScratchFileThreshold(0);
+			thumbnailer.generateThumbnail(pdf, scratch);
+
+			assertTrue(sameRGB(ImageIO.read(heap), ImageIO.read(scratch)));
+		} finally {
+			pdf.delete();
+			heap.delete();
+			scratch.delete();
+		}
+	}
+
+	@Test
+	public void testDraftRendering() throws Exception {
+		File pdf = File.createTempFile("pages", ".pdf");
+		File normal = File.createTempFile("normal", ".png");
+		File draft = File.createTempFile("draft", ".png");
+		try {
+			createDocument(pdf, 1);
+
+			PDFBoxThumbnailer thumbnailer = new PDFBoxThumbnailer();
+			thumbnailer.setImageSize(120, 160, 0);
+			thumbnailer.generateThumbnail(pdf, normal);
+
+			thumbnailer.getOptions().setDraftRendering(true);
+			thumbnailer.generateThumbnail(pdf, draft);
+
+			// Large text is still drawn as text, only without antialiasing
+			BufferedImage actual = ImageIO.read(draft);
+			assertPictureFormat(actual, 120, 160);
+			assertTrue(countInk(ImageIO.read(normal)) > 0);
+			assertEquals(countInk(ImageIO.read(normal)), countInk(actual), countInk(actual) / 5);
+
+			// Small text becomes bars
+			createSmallTextDocument(pdf);
+			thumbnailer.generateThumbnail(pdf, draft);
+			assertTrue(countInk(ImageIO.read(draft)) > 0);
+		} finally {
+			pdf.delete();
+			normal.delete();
+			draft.delete();
+		}
+	}
+
+	private static File createFolder(String name) throws Exception {
+		File folder = File.createTempFile(name, "");
+		folder.delete();
+		assertTrue(folder.mkdir());
+		return folder;
+	}
+
+	/**
+	 * Every page shows its page number, at a different position.
+	 */
+	private static void createDocument(File file, int pages) throws Exception {
+		PDDocument document = new PDDocument();
+		try {
+			for (int i = 0; i < pages; i++) {
+				PDPage page = new PDPage();
+				document.addPage(page);
+				PDPageContentStream content = new PDPageContentStream(document, page);
+				content.beginText();
+				content.setFont(PDType1Font.HELVETICA_BOLD, 200);
+				content.moveTextPositionByAmount(50 + 40 * i, 300 + 30 * i);
+				content.drawString(String.valueOf(i));
+				content.endText();
+				content.fillRect(0, 0, 60 * (i + 1), 40);
+				content.close();
+			}
+			document.save(file.getAbsolutePath());
+		} finally {
+			document.close();
+		}
+	}
+
+	private static void createSmallTextDocument(File file) throws Exception {
+		PDDocument document = new PDDocument();
+		try {
+			PDPage page = new PDPage();
+			document.addPage(page);
+			PDPageContentStream content = new PDPageContentStream(document, page);
+			content.setFont(PDType1Font.TIMES_ROMAN, 8);
+			for (int line = 0; line < 20; line++) {
+				content.beginText();
+				content.moveTextPositionByAmount(50, 700 - line * 10);
+				content.drawString("Small text that is drawn as a bar in draft quality.");
+				content.endText();
+			}
+			content.close();
+			document.save(file.getAbsolutePath());
+		} finally {
+			document.close();
+		}
+	}
+
+	/**
+	 * @return Number of pixels that are clearly darker than the white background
+	 */
+	private static int countInk(BufferedImage image) {
+		int count = 0;
+		for (int y = 0; y < image.getHeight(); y++) {
+			for (int x = 0; x < image.getWidth(); x++) {
+				if ((image.getRGB(x, y) & 0xff) < 224) {
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	private static boolean sameRGB(BufferedImage a, BufferedImage b) {
+		for (int y = 0; y < a.getHeight(); y++) {
+			for (int x = 0; x < a.getWidth(); x++) {
+				if (a.getRGB(x, y) != b.getRGB(x, y)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,50 @@
+package de.uni_siegen.wineme.come_in.thumbnailer.test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import de.uni_siegen.wineme.come_in.thumbnailer.PageSelection;
+
+public class PageSelectionTest {
+
+	@Test
+	public void testAll() {
+		assertArrayEquals(new int[] { 0, 1, 2 }, PageSelection.ALL.getPages(3));
+		assertArrayEquals(new int[0], PageSelection.ALL.getPages(0));
+	}
+
+	@Test
+	public void testFirst() {
+		assertArrayEquals(new int[] { 0, 1, 2, 3, 4, 5 }, PageSelection.first(6).getPages(100));
+		assertArrayEquals(new int[] { 0, 1 }, PageSelection.first(6).getPages(2));
+		assertTrue(PageSelection.first(6).contains(5));
+		assertFalse(PageSelection.first(6).contains(6));
+	}
+
+	@Test
+	public void testRange() {
+		assertArrayEquals(new int[] { 3, 4, 5 }, PageSelection.range(3, 5).getPages(100));
+		assertArrayEquals(new int[] { 3 }, PageSelection.range(3, 5).getPages(4));
+		assertArrayEquals(new int[0], PageSelection.range(3, 5).getPages(3));
+	}
+
+	@Test
+	public void testEvery() {
+		assertArrayEquals(new int[] { 0, 4, 8 }, PageSelection.every(4).getPages(10));
+		assertArrayEquals(new int[] { 2, 5 }, new PageSelection(2, 100, 3, 2).getPages(100));
+		assertTrue(PageSelection.every(4).contains(8));
+		assertFalse(PageSelection.every(4).contains(9));
+		assertFalse(new PageSelection(2, 100, 3, 2).contains(8));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidStep() {
+		PageSelection.every(0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidRange() {
+		PageSelection.range(5, 3);
+	}
+}
@@ -0,0 +1,153 @@
+package de.uni_siegen.wineme.come_in.thumbnailer.test;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+import de.uni_siegen.wineme.come_in.thumbnailer.util.codec.ColorQuantizer;
+import de.uni_siegen.wineme.come_in.thumbnailer.util.codec.IndexedPixels;
+import de.uni_siegen.wineme.come_in.thumbnailer.util.codec.PngEncoder;
+
+public class PngEncoderTest extends MyTestCase {
+
+	@Test
+	public void testOpaqueRoundTrip() throws IOException {
+		BufferedImage image = createTestImage(161, 119, BufferedImage.TYPE_INT_RGB);
+		BufferedImage decoded = roundTrip(new PngEncoder(), image);
+
+		assertFalse("Opaque images should be written without alpha", decoded.getColorModel().hasAlpha());
+		assertSamePixels(image, decoded);
+	}
+
+	@Test
+	public void testTranslucentRoundTrip() throws IOException {
+		BufferedImage image = createTestImage(160, 120, BufferedImage.TYPE_INT_ARGB);
+		image.setRGB(3, 4, 0x00000000);
+		image.setRGB(5, 6, 0x80ff0000);
+		BufferedImage decoded = roundTrip(new PngEncoder(), image);
+
+		assertTrue(decoded.getColorModel().hasAlpha());
+		assertSamePixels(image, decoded);
+	}
+
+	@Test
+	public void testAllCompressionLevels() throws IOException {
+		BufferedImage image = createTestImage(64, 48, BufferedImage.TYPE_3BYTE_BGR);
+		for (int level = PngEncoder.DEFAULT_COMPRESSION; level <= 9; level++) {
+			assertSamePixels(image, roundTrip(new PngEncoder(level), image));
+		}
+	}
+
+	@Test
+	public void testParallelRoundTrip() throws IOException {
+		// Big enough to be split into several blocks
+		BufferedImage image = createTestImage(1200, 900, BufferedImage.TYPE_INT_ARGB);
+		image.setRGB(0, 0, 0x40123456);
+		PngEncoder encoder = new PngEncoder();
+		encoder.setParallel(true);
+
+		assertSamePixels(image, roundTrip(encoder, image));
+	}
+
+	@Test
+	public void testIndexedIsExactForFewColors() throws IOException {
+		BufferedImage image = new BufferedImage(100, 80, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = image.createGraphics();
+		g.setColor(Color.WHITE);
+		g.fillRect(0, 0, 100, 40);
+		g.setColor(new Color(255, 0, 0, 128));
+		g.fillRect(20, 20, 30, 30);
+		g.setColor(Color.BLACK);
+		g.drawLine(0, 79, 99, 0);
+		g.dispose();
+
+		IndexedPixels indexed = ColorQuantizer.quantize(image, ColorQuantizer.MAX_COLORS);
+		assertTrue(indexed.isExact());
+		assertEquals(5, indexed.getPalette().length);
+		assertEquals(2, indexed.getTranslucentCount());
+
+		PngEncoder encoder = new PngEncoder();
+		encoder.setIndexed(true);
+		BufferedImage decoded = roundTrip(encoder, image);
+		assertTrue(decoded.getColorModel() instanceof IndexColorModel);
+		assertEquals(4, decoded.getColorModel().getPixelSize());
+		for (int y = 0; y < image.getHeight(); y++)
+			for (int x = 0; x < image.getWidth(); x++)
+				if (image.getRGB(x, y) >>> 24 == 0)
+					assertEquals(0, decoded.getRGB(x, y) >>> 24);
+				else
+					assertEquals(Integer.toHexString(image.getRGB(x, y)), Integer.toHexString(decoded.getRGB(x, y)));
+	}
+
+	@Test
+	public void testIndexedQuantizesManyColors() throws IOException {
+		BufferedImage image = createTestImage(160, 120, BufferedImage.TYPE_INT_RGB);
+		PngEncoder encoder = new PngEncoder();
+		encoder.setIndexed(true);
+		ByteArrayOutputStream indexedOut = new ByteArrayOutputStream();
+		encoder.write(image, indexedOut);
+		ByteArrayOutputStream rgbOut = new ByteArrayOutputStream();
+		new PngEncoder().write(image, rgbOut);
+
+		BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(indexedOut.toByteArray()));
+		assertEquals(8, decoded.getColorModel().getPixelSize());
+		assertTrue("Indexed PNG should be smaller", indexedOut.size() < rgbOut.size());
+		ResizeImageTest.assertSimilar("quantized", image, decoded);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidCompressionLevel() {
+		new PngEncoder(10);
+	}
+
+	static BufferedImage createTestImage(int width, int height, int type) {
+		BufferedImage image = new BufferedImage(width, height, type);
+		Graphics2D g = image.createGraphics();
+		try {
+			g.setPaint(new GradientPaint(0, 0, Color.WHITE, width, height, Color.BLUE));
+			g.fillRect(0, 0, width, height);
+			g.setColor(Color.BLACK);
+			g.drawString("Thumbnail", 10, height / 2);
+		} finally {
+			g.dispose();
+		}
+		// Some noise, so that all filter types are used
+		Random random = new Random(42);
+		for (int i = 0; i < width * height / 20; i++) {
+			int x = random.nextInt(width);
+			int y = random.nextInt(height);
+			image.setRGB(x, y, image.getRGB(x, y) ^ random.nextInt(0x1000000));
+		}
+		return image;
+	}
+
+	static BufferedImage roundTrip(PngEncoder encoder, BufferedImage image) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		encoder.write(image, out);
+		BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+		assertNotNull("ImageIO could not read the PNG", decoded);
+		return decoded;
+	}
+
+	static void assertSamePixels(BufferedImage expected, BufferedImage actual) {
+		assertEquals(expected.getWidth(), actual.getWidth());
+		assertEquals(expected.getHeight(), actual.getHeight());
+		for (int y = 0; y < expected.getHeight(); y++) {
+			for (int x = 0; x < expected.getWidth(); x++) {
+				assertEquals("Pixel " + x + "," + y, Integer.toHexString(expected.getRGB(x, y)), Integer.toHexString(actual.getRGB(x, y)));
+			}
+		}
+	}
+}
@@ -0,0 +1,156 @@
+package de.uni_siegen.wineme.come_in.thumbnailer.test;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.junit.Test;
+
+import de.uni_siegen.wineme.come_in.thumbnailer.UnsupportedInputFileFormatException;
+import de.uni_siegen.wineme.come_in.thumbnailer.util.codec.PngRowReader;
+
+public class PngRowReaderTest extends MyTestCase {
+
+	@Test
+	public void testRGB() throws Exception {
+		assertReadsLikeImageIO(createImage(97, 61, BufferedImage.TYPE_INT_RGB));
+	}
+
+	@Test
+	public void testRGBA() throws Exception {
+		assertReadsLikeImageIO(createImage(97, 61, BufferedImage.TYPE_INT_ARGB));
+	}
+
+	@Test
+	public void testIndexed() throws Exception {
+		assertReadsLikeImageIO(createImage(97, 61, BufferedImage.TYPE_BYTE_INDEXED));
+
+		// 1 bit per pixel, with a transparent palette entry
+		IndexColorModel palette = new IndexColorModel(1, 2, new byte[] { 0, (byte) 255 }, new byte[] { 0, 0 },
+				new byte[] { 0, (byte) 128 }, 0);
+		BufferedImage binary = new BufferedImage(37, 11, BufferedImage.TYPE_BYTE_BINARY, palette);
+		Graphics2D graphics = binary.createGraphics();
+		graphics.setColor(new Color(255, 0, 128));
+		graphics.fillOval(3, 2, 20, 8);
+		graphics.dispose();
+		assertReadsLikeImageIO(binary);
+	}
+
+	@Test
+	public void testGray() throws Exception {
+		assertGraySamples(createImage(97, 61, BufferedImage.TYPE_BYTE_GRAY), 0);
+		assertGraySamples(createImage(97, 61, BufferedImage.TYPE_USHORT_GRAY), 8);
+	}
+
+	@Test
+	public void testInterlacedIsUnsupported() throws Exception {
+		byte[] png = encode(createImage(20, 20, BufferedImage.TYPE_INT_RGB), true);
+		try {
+			new PngRowReader(new ByteArrayInputStream(png));
+			fail("Interlaced PNG accepted");
+		} catch (UnsupportedInputFileFormatException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testNoPng() throws Exception {
+		try {
+			new PngRowReader(new ByteArrayInputStream(new byte[] { (byte) 0xff, (byte) 0xd8, 0, 0, 0, 0, 0, 0 }));
+			fail("JPEG header accepted");
+		} catch (UnsupportedInputFileFormatException e) {
+			// expected
+		}
+	}
+
+	private static BufferedImage createImage(int width, int height, int type) {
+		BufferedImage image = new BufferedImage(width, height, type);
+		Graphics2D graphics = image.createGraphics();
+		graphics.setPaint(new GradientPaint(0, 0, new Color(255, 40, 0, 255), width, height, new Color(0, 90, 255, 60)));
+		graphics.fillRect(0, 0, width, height);
+		graphics.dispose();
+		// Noise, so that the encoder uses all kinds of filters
+		Random random = new Random(42);
+		for (int i = 0; i < width * height / 4; i++) {
+			image.setRGB(random.nextInt(width), random.nextInt(height), random.nextInt());
+		}
+		return image;
+	}
+
+	private static byte[] encode(BufferedImage image, boolean interlaced) throws IOException {
+		ImageWriter writer = ImageIO.getImageWritersByFormatName("png").next();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ImageOutputStream out = ImageIO.createImageOutputStream(bytes);
+		try {
+			writer.setOutput(out);
+			ImageWriteParam param = writer.getDefaultWriteParam();
+			param.setProgressiveMode(interlaced ? ImageWriteParam.MODE_DEFAULT : ImageWriteParam.MODE_DISABLED);
+			writer.write(null, new IIOImage(image, null, null), param);
+		} finally {
+			out.close();
+			writer.dispose();
+		}
+		return bytes.toByteArray();
+	}
+
+	private static void assertReadsLikeImageIO(BufferedImage image) throws IOException {
+		byte[] png = encode(image, false);
+		BufferedImage reference = ImageIO.read(new ByteArrayInputStream(png));
+		PngRowReader reader = new PngRowReader(new ByteArrayInputStream(png));
+		try {
+			assertEquals(reference.getWidth(), reader.getWidth());
+			assertEquals(reference.getHeight(), reader.getHeight());
+			assertEquals(reference.getColorModel().hasAlpha(), reader.hasAlpha());
+			int[] row = new int[reader.getWidth()];
+			int[] expected = new int[reader.getWidth()];
+			for (int y = 0; y < reader.getHeight(); y++) {
+				assertTrue(reader.readRow(row, 0));
+				reference.getRGB(0, y, expected.length, 1, expected, 0, expected.length);
+				for (int x = 0; x < row.length; x++) {
+					// Fully transparent pixels may differ in color
+					if ((expected[x] >>> 24) != 0 || (row[x] >>> 24) != 0) {
+						assertEquals("Pixel " + x + "," + y, Integer.toHexString(expected[x]), Integer.toHexString(row[x]));
+					}
+				}
+			}
+			assertFalse(reader.readRow(row, 0));
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * getRGB() converts gray to sRGB, so compare the raw samples instead.
+	 */
+	private static void assertGraySamples(BufferedImage image, int shift) throws IOException {
+		byte[] png = encode(image, false);
+		Raster reference = ImageIO.read(new ByteArrayInputStream(png)).getRaster();
+		PngRowReader reader = new PngRowReader(new ByteArrayInputStream(png));
+		try {
+			int[] row = new int[reader.getWidth()];
+			for (int y = 0; y < reader.getHeight(); y++) {
+				assertTrue(reader.readRow(row, 0));
+				for (int x = 0; x < row.length; x++) {
+					assertEquals("Pixel " + x + "," + y, reference.getSample(x, y, 0) >> shift, row[x] & 0xff);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package de.uni_siegen.wineme.come_in.thumbnailer.test;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import org.junit.Test;
+
+import de.uni_siegen.wineme.come_in.thumbnailer.util.Resampler;
+
+public class ResamplerTest {
+
+	@Test
+	public void testUniformColorIsPreserved() {
+		for (Resampler.Filter filter : Resampler.Filter.values()) {
+			Resampler resampler = new Resampler(filter);
+			int[] src = new int[97 * 61];
+			java.util.Arrays.fill(src, 0xff336699);
+
+			int[] dst = resampler.resample(src, 97, 61, 13, 7, null);
+			for (int pixel : dst)
+				assertEquals(filter + ": color changed", 0xff336699, pixel);
+		}
+	}
+
+	@Test
+	public void testBoxFilterAveragesBlocks() {
+		int[] src = new int[] {
+				0xff000000, 0xffffffff, 0xff000000, 0xff000000,
+				0xffffffff, 0xff000000, 0xff000000, 0xff000000 };
+
+		int[] dst = new Resampler(Resampler.Filter.BOX).resample(src, 4, 2, 2, 1, null);
+		assertEquals(0xff808080, dst[0]);
+		assertEquals(0xff000000, dst[1]);
+	}
+
+	@Test
+	public void testTransparentPixelsDoNotBleed() {
+		// Half transparent black, half opaque red: the result must stay pure red.
+		int[] src = new int[] { 0x00000000, 0xffff0000, 0x00000000, 0xffff0000 };
+
+		int[] dst = new Resampler(Resampler.Filter.TRIANGLE).resample(src, 4, 1, 1, 1, null);
+		assertEquals(0xff0000, dst[0] & 0xffffff);
+		assertEquals(0x80, dst[0] >>> 24);
+	}
+
+	@Test
+	public void testBufferedImageOfAnyType() {
+		BufferedImage image = new BufferedImage(400, 300, BufferedImage.TYPE_3BYTE_BGR);
+		Graphics2D g = image.createGraphics();
+		g.setColor(Color.BLUE);
+		g.fillRect(0, 0, 400, 300);
+		g.dispose();
+
+		BufferedImage result = new Resampler(Resampler.Filter.LANCZOS3).resample(image, 160, 120);
+		MyTestCase.assertPictureFormat(result, 160, 120);
+		assertEquals(0xff0000ff, result.getRGB(80, 60));
+	}
+
+	@Test
+	public void testScratchBuffersAreReused() {
+		Resampler resampler = new Resampler(Resampler.Filter.TRIANGLE);
+		int[] big = new int[200 * 200];
+		int[] small = new int[20 * 20];
+		java.util.Arrays.fill(big, 0xffffffff);
+		java.util.Arrays.fill(small, 0xff000000);
+
+		resampler.resample(big, 200, 200, 50, 50, null);
+		int[] dst = resampler.resample(small, 20, 20, 5, 5, null);
+		for (int pixel : dst)
+			assertEquals(0xff000000, pixel);
+	}
+
+	@Test
+	public void testParallelStripesMatchSingleThread() {
+		BufferedImage image = new BufferedImage(640, 480, BufferedImage.TYPE_3BYTE_BGR);
+		Graphics2D g = image.createGraphics();
+		g.setColor(Color.WHITE);
+		g.fillRect(0, 0, 640, 480);
+		g.setColor(Color.RED);
+		for (int x = 0; x < 640; x += 7)
+			g.drawLine(x, 0, 640 - x, 480);
+		g.dispose();
+
+		for (Resampler.Filter filter : Resampler.Filter.values()) {
+			Resampler serial = new Resampler(filter);
+			serial.setParallelThreshold(Long.MAX_VALUE);
+			Resampler parallel = new Resampler(filter);
+			parallel.setParallelThreshold(0);
+
+			int[] expected = new int[100 * 75];
+			int[] actual = new int[100 * 75];
+			serial.resample(image, 100, 75, expected);
+			parallel.resample(image, 100, 75, actual);
+			assertArrayEquals(filter.toString(), expected, actual);
+
+			// The workers keep their buffers: results must not depend on earlier images
+			parallel.resample(image, 37, 20, new int[37 * 20]);
+			int[] again = new int[100 * 75];
+			parallel.resample(image, 100, 75, again);
+			assertArrayEquals(filter + " again", expected, again);
+		}
+	}
+}
@@ -0,0 +1,200 @@
+package de.uni_siegen.wineme.come_in.thumbnailer.test;
+
+import static org.junit.Assert.*;
+
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.Toolkit;
+import java.awt.image.BufferedImage;
+import java.awt.image.ImageObserver;
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+import de.uni_siegen.wineme.come_in.thumbnailer.util.AreaAccumulator;
+import de.uni_siegen.wineme.come_in.thumbnailer.util.RasterPool;
+import de.uni_siegen.wineme.come_in.thumbnailer.util.Resampler;
+import de.uni_siegen.wineme.come_in.thumbnailer.util.ResizeImage;
+import de.uni_siegen.wineme.come_in.thumbnailer.util.ThumbnailReadyObserver;
+
+public class ResizeImageTest extends MyTestCase {
+
+	private static final File TEST_JPG = new File(TESTFILES_DIR + "test.jpg");
+	private static final File TEST_PNG = new File(TESTFILES_DIR + "format" + File.separator + "orig.png");
+
+	@Test
+	public void testStreamingMatchesFullDecode() throws Exception {
+		for (File input : new File[] { TEST_JPG, TEST_PNG }) {
+			File full = File.createTempFile("resize-full", ".png");
+			File streamed = File.createTempFile("resize-streamed", ".png");
+			try {
+				ResizeImage resizer = new ResizeImage(160, 120);
+				resizer.setInputImage(input);
+				resizer.writeOutput(full);
+
+				resizer = new ResizeImage(160, 120);
+				resizer.streamingPixelThreshold = 0;
+				resizer.setInputImage(input);
+				resizer.writeOutput(streamed);
+
+				assertPictureFormat(streamed, 160, 120);
+				assertSimilar(input.getName(), ImageIO.read(full), ImageIO.read(streamed));
+			} finally {
+				full.delete();
+				streamed.delete();
+			}
+		}
+	}
+
+	@Test
+	public void testResampleFilterIsOptIn() throws Exception {
+		ResizeImage resizer = new ResizeImage(160, 120);
+		assertNull("Java2D is the default", resizer.resampleFilter);
+
+		resizer.resampleFilter = Resampler.Filter.BOX;
+		for (File input : new File[] { TEST_JPG, TEST_PNG }) {
+			File plain = File.createTempFile("resize-java2d", ".png");
+			File filtered = File.createTempFile("resize-filtered", ".png");
+			try {
+				ResizeImage java2d = new ResizeImage(160, 120);
+				java2d.setInputImage(input);
+				java2d.writeOutput(plain);
+
+				// The same resizer (and resampler) for both files
+				resizer.setInputImage(input);
+				resizer.writeOutput(filtered);
+
+				assertSimilar(input.getName(), ImageIO.read(plain), ImageIO.read(filtered));
+			} finally {
+				plain.delete();
+				filtered.delete();
+			}
+		}
+		resizer.dispose();
+	}
+
+	@Test
+	public void testJpegDecoderFileSizeLimit() throws Exception {
+		File decoded = File.createTempFile("resize-decoder", ".png");
+		File imageIO = File.createTempFile("resize-imageio", ".png");
+		try {
+			ResizeImage resizer = new ResizeImage(160, 120);
+			resizer.preferJpegDecoder = true;
+			resizer.setInputImage(TEST_JPG);
+			resizer.writeOutput(decoded);
+
+			resizer = new ResizeImage(160, 120);
+			resizer.preferJpegDecoder = true;
+			resizer.jpegDecoderMaxFileSize = TEST_JPG.length() - 1;
+			resizer.setInputImage(TEST_JPG);
+			resizer.writeOutput(imageIO);
+
+			assertSimilar(TEST_JPG.getName(), ImageIO.read(decoded), ImageIO.read(imageIO));
+		} finally {
+			decoded.delete();
+			imageIO.delete();
+		}
+	}
+
+	@Test
+	public void testRegionDecodeMatchesFullDecode() throws Exception {
+		for (File input : new File[] { TEST_JPG, TEST_PNG }) {
+			for (int method : new int[] { ResizeImage.RESIZE_FIT_ONE_DIMENSION, ResizeImage.NO_RESIZE_ONLY_CROP }) {
+				File full = File.createTempFile("resize-full", ".png");
+				File region = File.createTempFile("resize-region", ".png");
+				try {
+					ResizeImage resizer = new ResizeImage(120, 40);
+					resizer.resizeMethod = method;
+					resizer.setInputImage(ImageIO.read(input));
+					resizer.writeOutput(full);
+
+					resizer = new ResizeImage(120, 40);
+					resizer.resizeMethod = method;
+					resizer.setInputImage(input);
+					resizer.writeOutput(region);
+
+					assertSimilar(input.getName() + " / " + method, ImageIO.read(full), ImageIO.read(region));
+				} finally {
+					full.delete();
+					region.delete();
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testAreaAccumulatorRowsInAnyOrder() {
+		AreaAccumulator accumulator = new AreaAccumulator(4, 4, 2, 2);
+		int[] white = new int[] { 0xffffffff, 0xffffffff, 0xffffffff, 0xffffffff };
+		int[] black = new int[] { 0xff000000, 0xff000000, 0xff000000, 0xff000000 };
+		accumulator.addRow(black, 0, true, 3);
+		accumulator.addRow(white, 0, true, 0);
+		accumulator.addRow(white, 0, false, 2);
+		accumulator.addRow(black, 0, true, 1);
+
+		BufferedImage image = accumulator.getImage();
+		assertEquals(0xff808080, image.getRGB(0, 0));
+		assertEquals(0xff808080, image.getRGB(1, 1));
+	}
+
+	@Test
+	public void testRasterPoolReusesImages() {
+		RasterPool.clear();
+		BufferedImage first = RasterPool.acquire(160, 120, BufferedImage.TYPE_INT_ARGB);
+		RasterPool.release(first);
+
+		long hits = RasterPool.getHits();
+		assertSame(first, RasterPool.acquire(160, 120, BufferedImage.TYPE_INT_ARGB));
+		assertEquals(hits + 1, RasterPool.getHits());
+
+		// Different type: must not be served from the pool
+		RasterPool.release(first);
+		assertNotSame(first, RasterPool.acquire(160, 120, BufferedImage.TYPE_INT_RGB));
+	}
+
+	@Test
+	public void testObserverWaitsForAsynchronousImage() throws Exception {
+		Image image = Toolkit.getDefaultToolkit().createImage(TEST_JPG.getAbsolutePath());
+		BufferedImage canvas = new BufferedImage(160, 120, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = canvas.createGraphics();
+
+		ThumbnailReadyObserver observer = new ThumbnailReadyObserver();
+		if (!g.drawImage(image, 0, 0, 160, 120, observer))
+			assertTrue("Image did not complete", observer.await(10, TimeUnit.SECONDS));
+		assertTrue(g.drawImage(image, 0, 0, 160, 120, null));
+		g.dispose();
+	}
+
+	@Test
+	public void testObserverReportsFailure() throws Exception {
+		ThumbnailReadyObserver observer = new ThumbnailReadyObserver();
+		assertNull(observer.getFailure());
+		assertFalse(observer.imageUpdate(null, ImageObserver.ERROR | ImageObserver.ABORT, 0, 0, 0, 0));
+
+		long start = System.nanoTime();
+		assertFalse(observer.await(10, TimeUnit.SECONDS));
+		assertTrue("Failure must not wait for the timeout", System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+		assertEquals("error", observer.getFailure());
+	}
+
+	/**
+	 * Both images must have the same size, and their average difference per channel must be small.
+	 */
+	static void assertSimilar(String msg, BufferedImage expected, BufferedImage actual) {
+		assertPictureFormat(actual, expected.getWidth(), expected.getHeight());
+		long diff = 0;
+		for (int y = 0; y < expected.getHeight(); y++) {
+			for (int x = 0; x < expected.getWidth(); x++) {
+				int a = expected.getRGB(x, y);
+				int b = actual.getRGB(x, y);
+				for (int shift = 0; shift < 32; shift += 8)
+					diff += Math.abs(((a >> shift) & 0xff) - ((b >> shift) & 0xff));
+			}
+		}
+		double average = (double) diff / (expected.getWidth() * expected.getHeight() * 4);
+		assertTrue(msg + ": images differ too much (average difference " + average + ")", average < 8.0);
+	}
+}
@@ -1,11 +1,29 @@
 package de.uni_siegen.wineme.come_in.thumbnailer.test;
 
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import de.uni_siegen.wineme.come_in.thumbnailer.ThumbnailListener;
+import de.uni_siegen.wineme.come_in.thumbnailer.ThumbnailOptions;
+import de.uni_siegen.wineme.come_in.thumbnailer.ThumbnailerException;
 import de.uni_siegen.wineme.come_in.thumbnailer.ThumbnailerManager;
+import de.uni_siegen.wineme.come_in.thumbnailer.thumbnailers.AbstractThumbnailer;
+import de.uni_siegen.wineme.come_in.thumbnailer.thumbnailers.NativeImageThumbnailer;
 import de.uni_siegen.wineme.come_in.thumbnailer.thumbnailers.OpenOfficeThumbnailer;
 import de.uni_siegen.wineme.come_in.thumbnailer.thumbnailers.Thumbnailer;
+import de.uni_siegen.wineme.come_in.thumbnailer.util.Resampler;
+import de.uni_siegen.wineme.come_in.thumbnailer.util.ResizeImage;
+import de.uni_siegen.wineme.come_in.thumbnailer.util.codec.ContentAwareEncoder;
+import de.uni_siegen.wineme.come_in.thumbnailer.util.codec.JpegEncoder;
+import de.uni_siegen.wineme.come_in.thumbnailer.util.codec.ThumbnailEncoder;
+import org.apache.commons.io.FileUtils;
 import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.*;
@@ -37,6 +55,279 @@ public class ThumbnailerManagerTest extends MyTestCase {
 		assertEquals("Width is not correct!", 140, newThumbnailer.getCurrentImageWidth());
 	}
 
+    @Test
+    public void testEncoderPerManagerAndPerRequest() throws Exception
+	{
+		Thumbnailer newThumbnailer = new NativeImageThumbnailer();
+		thumbnailer.registerThumbnailer(newThumbnailer);
+		File input = new File(TESTFILES_DIR + "test.jpg");
+
+		thumbnailer.setEncoder(new JpegEncoder(0.5f));
+		assertSame(thumbnailer.getOptions(), newThumbnailer.getOptions());
+		File jpeg = thumbnailer.chooseThumbnailFilename(input, true);
+		assertTrue(jpeg.getName().endsWith(".jpg"));
+		thumbnailer.generateThumbnail(input, jpeg);
+		assertEquals("jpeg", getFormatName(jpeg));
+
+		ThumbnailOptions pngOnce = new ThumbnailOptions();
+		File png = File.createTempFile("thumbnail", ".png");
+		thumbnailer.generateThumbnail(input, png, null, pngOnce);
+		assertEquals("png", getFormatName(png));
+		assertSame("Per-request options must not stick", thumbnailer.getOptions(), newThumbnailer.getOptions());
+
+		jpeg.delete();
+		png.delete();
+	}
+
+    @Test
+    public void testPerRequestOptionsDoNotLeakIntoOtherRequests() throws Exception
+	{
+		final ThumbnailOptions outer = new ThumbnailOptions();
+		final ThumbnailOptions inner = new ThumbnailOptions();
+		final List<ThumbnailOptions> seen = new ArrayList<ThumbnailOptions>();
+		Thumbnailer recording = new AbstractThumbnailer() {
+			@Override
+			public void generateThumbnail(File input, File output) throws IOException, ThumbnailerException {
+				if (this.options == outer) {
+					// Another request runs while this one is still in progress
+					thumbnailer.generateThumbnail(input, output, "image/jpeg", inner);
+				}
+				seen.add(this.options);
+			}
+
+			@Override
+			public void generateThumbnails(File input, File outputFolder) throws IOException, ThumbnailerException {
+				throw new ThumbnailerException("Only single thumbnails are recorded");
+			}
+		};
+		thumbnailer.registerThumbnailer(recording);
+		File input = new File(TESTFILES_DIR + "test.jpg");
+		File output = File.createTempFile("thumbnail", ".png");
+
+		thumbnailer.generateThumbnail(input, output, "image/jpeg", outer);
+
+		assertEquals(2, seen.size());
+		assertSame(inner, seen.get(0));
+		assertSame("The inner request must not change the options of the outer one", outer, seen.get(1));
+		assertSame(thumbnailer.getOptions(), recording.getOptions());
+		output.delete();
+	}
+
+    @Test
+    public void testContentAwareExtensionPerImage() throws Exception
+	{
+		ContentAwareEncoder encoder = new ContentAwareEncoder();
+		BufferedImage flat = new BufferedImage(64, 48, BufferedImage.TYPE_INT_RGB);
+		BufferedImage photo = ImageIO.read(new File(TESTFILES_DIR + "test.jpg"));
+		assertEquals("png", encoder.getFileExtension(flat));
+		assertEquals("jpg", encoder.getFileExtension(photo));
+
+		File output = File.createTempFile("thumbnail", "." + encoder.getFileExtension(photo));
+		encoder.write(photo, output);
+		assertEquals("jpeg", getFormatName(output));
+		output.delete();
+	}
+
+    @Test
+    public void testContentAwareFolderThumbnails() throws Exception
+	{
+		thumbnailer.registerThumbnailer(new NativeImageThumbnailer());
+		thumbnailer.setEncoder(new JpegEncoder());
+		thumbnailer.setContentAwareEncoder(new ContentAwareEncoder());
+		File flat = File.createTempFile("flat", ".png");
+		ImageIO.write(new BufferedImage(320, 240, BufferedImage.TYPE_INT_RGB), "png", flat);
+		File folder = new File(System.getProperty("java.io.tmpdir"), "content-aware-" + System.nanoTime());
+		try {
+			thumbnailer.generateThumbnails(flat, folder, "image/png", false, thumbnailer.getOptions());
+			File lineArt = new File(folder, folder.getName() + ".png");
+			assertEquals("png", getFormatName(lineArt));
+
+			thumbnailer.generateThumbnails(new File(TESTFILES_DIR + "test.jpg"), folder, "image/jpeg", false, thumbnailer.getOptions());
+			File photo = new File(folder, folder.getName() + ".jpg");
+			assertEquals("jpeg", getFormatName(photo));
+
+			// Given output files keep the format of their name
+			File jpeg = File.createTempFile("thumbnail", ".jpg");
+			thumbnailer.generateThumbnail(flat, jpeg, "image/png");
+			assertEquals("jpeg", getFormatName(jpeg));
+			jpeg.delete();
+		} finally {
+			flat.delete();
+			FileUtils.deleteQuietly(folder);
+		}
+	}
+
+    @Test
+    public void testDelegateReportsOriginalInput() throws Exception
+	{
+		// Converts the input into an intermediate file, like the office thumbnailers do
+		Thumbnailer converting = new AbstractThumbnailer() {
+			@Override
+			public void generateThumbnail(File input, File output) throws IOException, ThumbnailerException {
+				throw new ThumbnailerException("Only folders are supported");
+			}
+
+			@Override
+			public void generateThumbnails(File input, File outputFolder) throws IOException, ThumbnailerException {
+				File intermediate = File.createTempFile("converted", ".jpg");
+				try {
+					FileUtils.copyFile(input, intermediate);
+					NativeImageThumbnailer delegate = new NativeImageThumbnailer();
+					delegate.setOptions(this.getDelegateOptions(input));
+					delegate.generateThumbnails(intermediate, outputFolder);
+				} finally {
+					intermediate.delete();
+				}
+			}
+		};
+		final List<File> reported = new ArrayList<File>();
+		converting.getOptions().setThumbnailListener(new ThumbnailListener() {
+			public void thumbnailWritten(File input, int pageNumber, File thumbnail) {
+				reported.add(input);
+			}
+		});
+		File input = new File(TESTFILES_DIR + "test.jpg");
+		File folder = new File(System.getProperty("java.io.tmpdir"), "delegate-" + System.nanoTime());
+		folder.mkdirs();
+		try {
+			converting.generateThumbnails(input, folder);
+			assertEquals(1, reported.size());
+			assertEquals(input, reported.get(0));
+		} finally {
+			FileUtils.deleteQuietly(folder);
+		}
+	}
+
+    @Test
+    public void testFailureAfterReportingIsNotRetried() throws Exception
+	{
+		thumbnailer.registerThumbnailer(new PartialThumbnailer(true));
+		thumbnailer.registerThumbnailer(new NativeImageThumbnailer());
+		final List<Integer> pages = new ArrayList<Integer>();
+		File input = new File(TESTFILES_DIR + "test.jpg");
+		File folder = new File(System.getProperty("java.io.tmpdir"), "partial-" + System.nanoTime());
+		try {
+			thumbnailer.generateThumbnails(input, folder, new ThumbnailListener() {
+				public void thumbnailWritten(File input, int pageNumber, File thumbnail) {
+					pages.add(pageNumber);
+				}
+			});
+			fail("A failure after reporting pages must not be hidden by the next thumbnailer");
+		} catch (IOException e) {
+			assertTrue(e.getCause() instanceof ThumbnailerException);
+		} finally {
+			FileUtils.deleteQuietly(folder);
+		}
+		assertEquals("Page 0 must be reported once", 1, pages.size());
+	}
+
+    @Test
+    public void testFailureBeforeReportingTriesNext() throws Exception
+	{
+		thumbnailer.registerThumbnailer(new PartialThumbnailer(false));
+		thumbnailer.registerThumbnailer(new NativeImageThumbnailer());
+		final List<Integer> pages = new ArrayList<Integer>();
+		File input = new File(TESTFILES_DIR + "test.jpg");
+		File folder = new File(System.getProperty("java.io.tmpdir"), "partial-" + System.nanoTime());
+		try {
+			assertTrue(thumbnailer.generateThumbnails(input, folder, new ThumbnailListener() {
+				public void thumbnailWritten(File input, int pageNumber, File thumbnail) {
+					pages.add(pageNumber);
+				}
+			}).isSuccessful());
+			assertEquals(1, pages.size());
+		} finally {
+			FileUtils.deleteQuietly(folder);
+		}
+	}
+
+	/** Accepts JPEGs, but fails on the way - optionally after reporting page 0. */
+	private static class PartialThumbnailer extends AbstractThumbnailer {
+		private final boolean reportFirst;
+
+		PartialThumbnailer(boolean reportFirst) {
+			this.reportFirst = reportFirst;
+		}
+
+		@Override
+		public void generateThumbnail(File input, File output) throws IOException, ThumbnailerException {
+			throw new ThumbnailerException("Only folders are supported");
+		}
+
+		@Override
+		public void generateThumbnails(File input, File outputFolder) throws IOException, ThumbnailerException {
+			if (reportFirst) {
+				File page = new File(outputFolder, "0.jpg");
+				FileUtils.copyFile(input, page);
+				getOptions().getThumbnailListener().thumbnailWritten(input, 0, page);
+			}
+			throw new ThumbnailerException("Failed after the first page");
+		}
+
+		@Override
+		public String[] getAcceptedMIMETypes() {
+			return new String[] { "image/jpeg" };
+		}
+	}
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEncoderWithoutExtension()
+	{
+		thumbnailer.setEncoder(new ThumbnailEncoder() {
+			@Override
+			public void write(BufferedImage image, File output) throws IOException {
+			}
+
+			@Override
+			public String getFileExtension() {
+				return null;
+			}
+		});
+	}
+
+    @Test
+    public void testResampleFilterReachesResizer() throws Exception
+	{
+		final List<ResizeImage> resizers = new ArrayList<ResizeImage>();
+		thumbnailer.registerThumbnailer(new NativeImageThumbnailer() {
+			@Override
+			protected ResizeImage createResizer() {
+				ResizeImage resizer = super.createResizer();
+				resizers.add(resizer);
+				return resizer;
+			}
+		});
+		File input = new File(TESTFILES_DIR + "test.jpg");
+		File output = File.createTempFile("thumbnail", ".png");
+
+		thumbnailer.setResampleFilter(Resampler.Filter.LANCZOS3);
+		ThumbnailOptions box = new ThumbnailOptions(thumbnailer.getOptions());
+		assertSame(Resampler.Filter.LANCZOS3, box.getResampleFilter());
+		box.setResampleFilter(Resampler.Filter.BOX);
+		box.setParallelPixelThreshold(0);
+		thumbnailer.generateThumbnail(input, output, "image/jpeg");
+		thumbnailer.generateThumbnail(input, output, "image/jpeg", box);
+
+		assertEquals(2, resizers.size());
+		assertSame(Resampler.Filter.LANCZOS3, resizers.get(0).resampleFilter);
+		assertSame(Resampler.Filter.BOX, resizers.get(1).resampleFilter);
+		assertEquals(Resampler.DEFAULT_PARALLEL_THRESHOLD, resizers.get(0).parallelPixelThreshold);
+		assertEquals(0, resizers.get(1).parallelPixelThreshold);
+		assertPictureFormat(output, 160, 120);
+		output.delete();
+	}
+
+	private static String getFormatName(File file) throws IOException
+	{
+		ImageInputStream stream = ImageIO.createImageInputStream(file);
+		try {
+			ImageReader reader = ImageIO.getImageReaders(stream).next();
+			return reader.getFormatName().toLowerCase();
+		} finally {
+			stream.close();
+		}
+	}
+
     @Test
     public void testThumbnailerChooseThumbnailNameExists()
 	{
@@ -0,0 +1,121 @@
+package de.uni_siegen.wineme.come_in.thumbnailer.test;
+
+import static org.junit.Assert.*;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import de.uni_siegen.wineme.come_in.thumbnailer.util.ResizeImage;
+import de.uni_siegen.wineme.come_in.thumbnailer.util.codec.WebpEncoder;
+
+/**
+ * There is no WebP decoder in the JRE, so the pixels are checked with WebpLosslessDecoder,
+ * which follows the bitstream specification independently of the encoder.
+ * (The bitstream was also checked against libwebp's decoder when the encoder was written.)
+ */
+public class WebpEncoderTest extends MyTestCase {
+
+	@Test
+	public void testHeader() throws IOException {
+		BufferedImage image = PngEncoderTest.createTestImage(161, 119, BufferedImage.TYPE_INT_RGB);
+		byte[] webp = encode(image);
+
+		assertEquals("RIFF", new String(webp, 0, 4, "US-ASCII"));
+		assertEquals(webp.length - 8, readIntLE(webp, 4));
+		assertEquals("WEBPVP8L", new String(webp, 8, 8, "US-ASCII"));
+		int size = readIntLE(webp, 16);
+		assertEquals(webp.length - 20, size + (size & 1));
+		assertEquals(0x2f, webp[20] & 0xff);
+
+		int bits = readIntLE(webp, 21);
+		assertEquals(161, (bits & 0x3fff) + 1);
+		assertEquals(119, ((bits >>> 14) & 0x3fff) + 1);
+		assertEquals("No alpha in opaque image", 0, (bits >>> 28) & 1);
+		assertEquals("Version", 0, bits >>> 29);
+	}
+
+	@Test
+	public void testAlphaFlag() throws IOException {
+		BufferedImage image = PngEncoderTest.createTestImage(16, 16, BufferedImage.TYPE_INT_ARGB);
+		image.setRGB(3, 3, 0x20ff0000);
+		byte[] webp = encode(image);
+		assertEquals(1, (readIntLE(webp, 21) >>> 28) & 1);
+	}
+
+	@Test
+	public void testDeterministicAndSmallerThanRaw() throws IOException {
+		BufferedImage image = PngEncoderTest.createTestImage(200, 150, BufferedImage.TYPE_INT_ARGB);
+		byte[] first = encode(image);
+		assertTrue(Arrays.equals(first, encode(image)));
+		assertTrue(first.length < 200 * 150 * 4);
+	}
+
+	@Test
+	public void testOpaqueRoundTrip() throws IOException {
+		// Small images are written without color cache, bigger ones with
+		for (int[] size : new int[][] { { 1, 1 }, { 17, 5 }, { 161, 119 } }) {
+			BufferedImage image = PngEncoderTest.createTestImage(size[0], size[1], BufferedImage.TYPE_INT_RGB);
+			PngEncoderTest.assertSamePixels(image, WebpLosslessDecoder.decode(encode(image)));
+		}
+	}
+
+	@Test
+	public void testTranslucentRoundTrip() throws IOException {
+		BufferedImage image = PngEncoderTest.createTestImage(160, 120, BufferedImage.TYPE_INT_ARGB);
+		image.setRGB(3, 4, 0x00000000);
+		image.setRGB(5, 6, 0x80ff0000);
+		PngEncoderTest.assertSamePixels(image, WebpLosslessDecoder.decode(encode(image)));
+	}
+
+	@Test
+	public void testRepetitiveRoundTrip() throws IOException {
+		// Long runs and repeated rows exercise the backward references
+		BufferedImage image = new BufferedImage(300, 200, BufferedImage.TYPE_INT_ARGB);
+		for (int y = 0; y < 200; y++) {
+			for (int x = 0; x < 300; x++) {
+				image.setRGB(x, y, (y / 10) % 2 == 0 ? 0xffffffff : 0xff000000 | (x / 7 * 0x010203));
+			}
+		}
+		PngEncoderTest.assertSamePixels(image, WebpLosslessDecoder.decode(encode(image)));
+	}
+
+	@Test
+	public void testPhotoRoundTrip() throws IOException {
+		BufferedImage image = ImageIO.read(new File(TESTFILES_DIR + "test.jpg"));
+		PngEncoderTest.assertSamePixels(image, WebpLosslessDecoder.decode(encode(image)));
+	}
+
+	@Test
+	public void testResizeImageWritesWebp() throws IOException {
+		File output = File.createTempFile("thumbnail", ".webp");
+		try {
+			ResizeImage resizer = new ResizeImage(160, 120);
+			resizer.setInputImage(new File(TESTFILES_DIR + "test.jpg"));
+			resizer.writeOutput(output, "webp");
+			BufferedImage thumbnail = WebpLosslessDecoder.decode(FileUtils.readFileToByteArray(output));
+			assertEquals(160, thumbnail.getWidth());
+			assertEquals(120, thumbnail.getHeight());
+		} finally {
+			output.delete();
+		}
+	}
+
+	private static byte[] encode(BufferedImage image) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new WebpEncoder().write(image, out);
+		return out.toByteArray();
+	}
+
+	private static int readIntLE(byte[] buffer, int offset) {
+		return (buffer[offset] & 0xff) | (buffer[offset + 1] & 0xff) << 8
+				| (buffer[offset + 2] & 0xff) << 16 | (buffer[offset + 3] & 0xff) << 24;
+	}
+}
@@ -0,0 +1,499 @@
+package de.uni_siegen.wineme.come_in.thumbnailer.test;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+/**
+ * Reference decoder for lossless WebP (VP8L) files, written from the bitstream specification
+ * independently of WebpEncoder, so that the encoder's output can be checked pixel by pixel.
+ * It implements the whole format (all four transforms, meta prefix codes and all 120 distance codes),
+ * not only what WebpEncoder produces. Speed does not matter here.
+ *
+ * @see <a href="https://developers.google.com/speed/webp/docs/webp_lossless_bitstream_specification">WebP Lossless Bitstream Specification</a>
+ */
+class WebpLosslessDecoder {
+
+	private static final int PREDICTOR_TRANSFORM = 0;
+	private static final int COLOR_TRANSFORM = 1;
+	private static final int SUBTRACT_GREEN_TRANSFORM = 2;
+	private static final int COLOR_INDEXING_TRANSFORM = 3;
+
+	private static final int NUM_LENGTH_CODES = 24;
+	private static final int NUM_DISTANCE_CODES = 40;
+	private static final int[] CODE_LENGTH_ORDER = { 17, 18, 0, 1, 2, 3, 4, 5, 16, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15 };
+
+	/** (xi, yi) pairs of the distance codes 1 to 120 */
+	private static final int[] DISTANCE_MAP = {
+		0, 1,  1, 0,  1, 1,  -1, 1,  0, 2,  2, 0,  1, 2,
+		-1, 2,  2, 1,  -2, 1,  2, 2,  -2, 2,  0, 3,  3, 0,
+		1, 3,  -1, 3,  3, 1,  -3, 1,  2, 3,  -2, 3,  3, 2,
+		-3, 2,  0, 4,  4, 0,  1, 4,  -1, 4,  4, 1,  -4, 1,
+		3, 3,  -3, 3,  2, 4,  -2, 4,  4, 2,  -4, 2,  0, 5,
+		3, 4,  -3, 4,  4, 3,  -4, 3,  5, 0,  1, 5,  -1, 5,
+		5, 1,  -5, 1,  2, 5,  -2, 5,  5, 2,  -5, 2,  4, 4,
+		-4, 4,  3, 5,  -3, 5,  5, 3,  -5, 3,  0, 6,  6, 0,
+		1, 6,  -1, 6,  6, 1,  -6, 1,  2, 6,  -2, 6,  6, 2,
+		-6, 2,  4, 5,  -4, 5,  5, 4,  -5, 4,  3, 6,  -3, 6,
+		6, 3,  -6, 3,  0, 7,  7, 0,  1, 7,  -1, 7,  5, 5,
+		-5, 5,  7, 1,  -7, 1,  4, 6,  -4, 6,  6, 4,  -6, 4,
+		2, 7,  -2, 7,  7, 2,  -7, 2,  3, 7,  -3, 7,  7, 3,
+		-7, 3,  5, 6,  -5, 6,  6, 5,  -6, 5,  8, 0,  4, 7,
+		-4, 7,  7, 4,  -7, 4,  8, 1,  8, 2,  6, 6,  -6, 6,
+		8, 3,  5, 7,  -5, 7,  7, 5,  -7, 5,  8, 4,  6, 7,
+		-6, 7,  7, 6,  -7, 6,  8, 5,  7, 7,  -7, 7,  8, 6,
+		8, 7
+	};
+
+	private final byte[] data;
+	private int pos;
+	private long bitBuffer;
+	private int bitCount;
+
+	private WebpLosslessDecoder(byte[] data, int offset) {
+		this.data = data;
+		this.pos = offset;
+	}
+
+	/**
+	 * Decode a complete WebP file (RIFF container with a single VP8L chunk).
+	 */
+	static BufferedImage decode(byte[] webp) throws IOException {
+		if (webp.length < 21 || !"RIFF".equals(new String(webp, 0, 4, "US-ASCII"))
+				|| !"WEBPVP8L".equals(new String(webp, 8, 8, "US-ASCII")))
+			throw new IOException("Not a lossless WebP file");
+		WebpLosslessDecoder decoder = new WebpLosslessDecoder(webp, 20);
+		if (decoder.readBits(8) != 0x2f)
+			throw new IOException("Wrong VP8L signature");
+		int width = decoder.readBits(14) + 1;
+		int height = decoder.readBits(14) + 1;
+		decoder.readBits(1); // alpha hint
+		if (decoder.readBits(3) != 0)
+			throw new IOException("Unknown VP8L version");
+
+		int[] argb = decoder.decodeImageStream(width, height);
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		image.setRGB(0, 0, width, height, argb, 0, width);
+		return image;
+	}
+
+	/**
+	 * Read the transforms and the main image, and apply the inverse transforms.
+	 */
+	private int[] decodeImageStream(int width, int height) throws IOException {
+		int[] types = new int[4];
+		int[] bits = new int[4];
+		int[][] transformData = new int[4][];
+		int[] transformWidths = new int[4];
+		int count = 0;
+		boolean[] seen = new boolean[4];
+		int xsize = width;
+
+		while (readBits(1) == 1) {
+			int type = readBits(2);
+			if (seen[type])
+				throw new IOException("Transform " + type + " used twice");
+			seen[type] = true;
+			types[count] = type;
+			transformWidths[count] = xsize;
+			switch (type) {
+				case PREDICTOR_TRANSFORM:
+				case COLOR_TRANSFORM:
+					bits[count] = readBits(3) + 2;
+					transformData[count] = decodeEntropyImage(subSampleSize(xsize, bits[count]), subSampleSize(height, bits[count]), false);
+					break;
+				case COLOR_INDEXING_TRANSFORM: {
+					int size = readBits(8) + 1;
+					int[] palette = decodeEntropyImage(size, 1, false);
+					for (int i = 1; i < size; i++)
+						palette[i] = addPixels(palette[i], palette[i - 1]);
+					transformData[count] = palette;
+					bits[count] = size > 16 ? 0 : size > 4 ? 1 : size > 2 ? 2 : 3;
+					xsize = subSampleSize(xsize, bits[count]);
+					break;
+				}
+				default:
+					break;
+			}
+			count++;
+		}
+
+		int[] pixels = decodeEntropyImage(xsize, height, true);
+		for (int t = count - 1; t >= 0; t--) {
+			int w = transformWidths[t];
+			switch (types[t]) {
+				case PREDICTOR_TRANSFORM:
+					inversePredictor(pixels, w, height, bits[t], transformData[t]);
+					break;
+				case COLOR_TRANSFORM:
+					inverseColorTransform(pixels, w, height, bits[t], transformData[t]);
+					break;
+				case SUBTRACT_GREEN_TRANSFORM:
+					for (int i = 0; i < pixels.length; i++) {
+						int green = (pixels[i] >> 8) & 0xff;
+						pixels[i] = addPixels(pixels[i], green << 16 | green);
+					}
+					break;
+				default:
+					pixels = inverseColorIndexing(pixels, w, height, bits[t], transformData[t]);
+					break;
+			}
+		}
+		return pixels;
+	}
+
+	/**
+	 * Read an entropy-coded image: color cache info, meta prefix codes (main image only), prefix codes and data.
+	 */
+	private int[] decodeEntropyImage(int xsize, int ysize, boolean isMainImage) throws IOException {
+		int cacheBits = 0;
+		if (readBits(1) == 1) {
+			cacheBits = readBits(4);
+			if (cacheBits < 1 || cacheBits > 11)
+				throw new IOException("Invalid color cache size");
+		}
+		int cacheSize = cacheBits == 0 ? 0 : 1 << cacheBits;
+
+		int prefixBits = 0;
+		int[] entropyImage = null;
+		int groups = 1;
+		if (isMainImage && readBits(1) == 1) {
+			prefixBits = readBits(3) + 2;
+			entropyImage = decodeEntropyImage(subSampleSize(xsize, prefixBits), subSampleSize(ysize, prefixBits), false);
+			for (int i = 0; i < entropyImage.length; i++) {
+				entropyImage[i] = (entropyImage[i] >> 8) & 0xffff;
+				groups = Math.max(groups, entropyImage[i] + 1);
+			}
+		}
+
+		int[] alphabetSizes = { 256 + NUM_LENGTH_CODES + cacheSize, 256, 256, 256, NUM_DISTANCE_CODES };
+		PrefixCode[][] codes = new PrefixCode[groups][5];
+		for (int g = 0; g < groups; g++)
+			for (int c = 0; c < 5; c++)
+				codes[g][c] = readPrefixCode(alphabetSizes[c]);
+
+		int[] cache = cacheSize == 0 ? null : new int[cacheSize];
+		int[] pixels = new int[xsize * ysize];
+		int subWidth = entropyImage == null ? 0 : subSampleSize(xsize, prefixBits);
+		int i = 0;
+		while (i < pixels.length) {
+			int x = i % xsize;
+			int y = i / xsize;
+			PrefixCode[] group = codes[entropyImage == null ? 0 : entropyImage[(y >> prefixBits) * subWidth + (x >> prefixBits)]];
+			int symbol = group[0].read(this);
+			if (symbol < 256) {
+				int red = group[1].read(this);
+				int blue = group[2].read(this);
+				int alpha = group[3].read(this);
+				pixels[i] = alpha << 24 | red << 16 | symbol << 8 | blue;
+				i = insert(cache, cacheBits, pixels, i, 1);
+			} else if (symbol < 256 + NUM_LENGTH_CODES) {
+				int length = readPrefixValue(symbol - 256);
+				int distanceCode = readPrefixValue(group[4].read(this));
+				int distance = planeCodeToDistance(xsize, distanceCode);
+				if (distance > i || i + length > pixels.length)
+					throw new IOException("Backward reference out of bounds at pixel " + i);
+				for (int k = 0; k < length; k++)
+					pixels[i + k] = pixels[i + k - distance];
+				i = insert(cache, cacheBits, pixels, i, length);
+			} else {
+				if (cache == null)
+					throw new IOException("Color cache symbol without color cache");
+				pixels[i] = cache[symbol - 256 - NUM_LENGTH_CODES];
+				i = insert(cache, cacheBits, pixels, i, 1);
+			}
+		}
+		return pixels;
+	}
+
+	/**
+	 * Add count pixels starting at i to the color cache (if any).
+	 *
+	 * @return Index of the next pixel
+	 */
+	private static int insert(int[] cache, int cacheBits, int[] pixels, int i, int count) {
+		for (int k = i; k < i + count && cache != null; k++)
+			cache[(0x1e35a7bd * pixels[k]) >>> (32 - cacheBits)] = pixels[k];
+		return i + count;
+	}
+
+	private int readPrefixValue(int prefixCode) throws IOException {
+		if (prefixCode < 4)
+			return prefixCode + 1;
+		int extraBits = (prefixCode - 2) >> 1;
+		int offset = (2 + (prefixCode & 1)) << extraBits;
+		return offset + readBits(extraBits) + 1;
+	}
+
+	private static int planeCodeToDistance(int xsize, int planeCode) {
+		if (planeCode > 120)
+			return planeCode - 120;
+		int dx = DISTANCE_MAP[2 * (planeCode - 1)];
+		int dy = DISTANCE_MAP[2 * (planeCode - 1) + 1];
+		return Math.max(1, dx + dy * xsize);
+	}
+
+	private PrefixCode readPrefixCode(int alphabetSize) throws IOException {
+		int[] lengths = new int[alphabetSize];
+		if (readBits(1) == 1) {
+			// Simple code: one or two symbols
+			int numSymbols = readBits(1) + 1;
+			int first = readBits(readBits(1) == 1 ? 8 : 1);
+			if (first >= alphabetSize)
+				throw new IOException("Symbol out of range");
+			lengths[first] = 1;
+			if (numSymbols == 2) {
+				int second = readBits(8);
+				if (second >= alphabetSize)
+					throw new IOException("Symbol out of range");
+				lengths[second] = 1;
+			}
+			return new PrefixCode(lengths);
+		}
+
+		int[] codeLengthLengths = new int[CODE_LENGTH_ORDER.length];
+		int numCodeLengths = readBits(4) + 4;
+		for (int i = 0; i < numCodeLengths; i++)
+			codeLengthLengths[CODE_LENGTH_ORDER[i]] = readBits(3);
+		PrefixCode codeLengthCode = new PrefixCode(codeLengthLengths);
+
+		int maxSymbol = alphabetSize;
+		if (readBits(1) == 1) {
+			int lengthBits = 2 + 2 * readBits(3);
+			maxSymbol = 2 + readBits(lengthBits);
+			if (maxSymbol > alphabetSize)
+				throw new IOException("Too many code lengths");
+		}
+		int previous = 8;
+		int symbol = 0;
+		while (symbol < alphabetSize) {
+			if (maxSymbol-- == 0)
+				break;
+			int length = codeLengthCode.read(this);
+			if (length < 16) {
+				lengths[symbol++] = length;
+				if (length != 0)
+					previous = length;
+				continue;
+			}
+			int repeat;
+			int value = 0;
+			if (length == 16) {
+				repeat = 3 + readBits(2);
+				value = previous;
+			} else if (length == 17) {
+				repeat = 3 + readBits(3);
+			} else {
+				repeat = 11 + readBits(7);
+			}
+			if (symbol + repeat > alphabetSize)
+				throw new IOException("Code lengths out of range");
+			for (int k = 0; k < repeat; k++)
+				lengths[symbol++] = value;
+		}
+		return new PrefixCode(lengths);
+	}
+
+	private void inversePredictor(int[] pixels, int width, int height, int sizeBits, int[] modes) {
+		int tilesPerRow = subSampleSize(width, sizeBits);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int i = y * width + x;
+				int predicted;
+				if (x == 0 && y == 0)
+					predicted = 0xff000000;
+				else if (y == 0)
+					predicted = pixels[i - 1];
+				else if (x == 0)
+					predicted = pixels[i - width];
+				else {
+					int mode = (modes[(y >> sizeBits) * tilesPerRow + (x >> sizeBits)] >> 8) & 0xf;
+					predicted = predict(mode, pixels[i - 1], pixels[i - width], pixels[i - width - 1], pixels[i - width + 1]);
+				}
+				pixels[i] = addPixels(pixels[i], predicted);
+			}
+		}
+	}
+
+	private static int predict(int mode, int l, int t, int tl, int tr) {
+		switch (mode) {
+			case 0: return 0xff000000;
+			case 1: return l;
+			case 2: return t;
+			case 3: return tr;
+			case 4: return tl;
+			case 5: return average2(average2(l, tr), t);
+			case 6: return average2(l, tl);
+			case 7: return average2(l, t);
+			case 8: return average2(tl, t);
+			case 9: return average2(t, tr);
+			case 10: return average2(average2(l, tl), average2(t, tr));
+			case 11: {
+				int pl = 0;
+				int pt = 0;
+				for (int shift = 0; shift < 32; shift += 8) {
+					int p = channel(l, shift) + channel(t, shift) - channel(tl, shift);
+					pl += Math.abs(p - channel(l, shift));
+					pt += Math.abs(p - channel(t, shift));
+				}
+				return pl < pt ? l : t;
+			}
+			case 12: {
+				int result = 0;
+				for (int shift = 0; shift < 32; shift += 8)
+					result |= clamp(channel(l, shift) + channel(t, shift) - channel(tl, shift)) << shift;
+				return result;
+			}
+			default: {
+				int a = average2(l, t);
+				int result = 0;
+				for (int shift = 0; shift < 32; shift += 8)
+					result |= clamp(channel(a, shift) + (channel(a, shift) - channel(tl, shift)) / 2) << shift;
+				return result;
+			}
+		}
+	}
+
+	private void inverseColorTransform(int[] pixels, int width, int height, int sizeBits, int[] elements) {
+		int tilesPerRow = subSampleSize(width, sizeBits);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int i = y * width + x;
+				int element = elements[(y >> sizeBits) * tilesPerRow + (x >> sizeBits)];
+				int greenToRed = element & 0xff;
+				int greenToBlue = (element >> 8) & 0xff;
+				int redToBlue = (element >> 16) & 0xff;
+				int argb = pixels[i];
+				int green = channel(argb, 8);
+				int red = (channel(argb, 16) + colorTransformDelta(greenToRed, green)) & 0xff;
+				int blue = (channel(argb, 0) + colorTransformDelta(greenToBlue, green) + colorTransformDelta(redToBlue, red)) & 0xff;
+				pixels[i] = (argb & 0xff00ff00) | red << 16 | blue;
+			}
+		}
+	}
+
+	private static int colorTransformDelta(int transform, int color) {
+		return ((byte) transform * (byte) color) >> 5;
+	}
+
+	private static int[] inverseColorIndexing(int[] packed, int width, int height, int widthBits, int[] palette) {
+		int packedWidth = subSampleSize(width, widthBits);
+		int bitsPerPixel = 8 >> widthBits;
+		int mask = (1 << bitsPerPixel) - 1;
+		int[] pixels = new int[width * height];
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int green = channel(packed[y * packedWidth + (x >> widthBits)], 8);
+				int index = (green >> ((x & ((1 << widthBits) - 1)) * bitsPerPixel)) & mask;
+				pixels[y * width + x] = index < palette.length ? palette[index] : 0;
+			}
+		}
+		return pixels;
+	}
+
+	private static int subSampleSize(int size, int bits) {
+		return (size + (1 << bits) - 1) >> bits;
+	}
+
+	private static int channel(int argb, int shift) {
+		return (argb >>> shift) & 0xff;
+	}
+
+	private static int average2(int a, int b) {
+		int result = 0;
+		for (int shift = 0; shift < 32; shift += 8)
+			result |= ((channel(a, shift) + channel(b, shift)) / 2) << shift;
+		return result;
+	}
+
+	private static int clamp(int value) {
+		return value < 0 ? 0 : value > 255 ? 255 : value;
+	}
+
+	/**
+	 * Per-channel a + b (modulo 256).
+	 */
+	private static int addPixels(int a, int b) {
+		int result = 0;
+		for (int shift = 0; shift < 32; shift += 8)
+			result |= ((channel(a, shift) + channel(b, shift)) & 0xff) << shift;
+		return result;
+	}
+
+	/**
+	 * Read n bits, least significant first.
+	 */
+	int readBits(int n) throws IOException {
+		while (bitCount < n) {
+			if (pos >= data.length)
+				throw new IOException("Unexpected end of VP8L data");
+			bitBuffer |= (long) (data[pos++] & 0xff) << bitCount;
+			bitCount += 8;
+		}
+		int value = (int) (bitBuffer & ((1L << n) - 1));
+		bitBuffer >>>= n;
+		bitCount -= n;
+		return value;
+	}
+
+	/**
+	 * Canonical prefix code, decoded bit by bit.
+	 * A code with a single used symbol takes no bits at all.
+	 */
+	private static final class PrefixCode {
+		/** Symbols sorted by code length and value */
+		private final int[] symbols;
+		/** Number of codes of each length */
+		private final int[] counts = new int[16];
+		private final int singleSymbol;
+
+		PrefixCode(int[] lengths) throws IOException {
+			int used = 0;
+			int last = 0;
+			for (int symbol = 0; symbol < lengths.length; symbol++) {
+				if (lengths[symbol] != 0) {
+					counts[lengths[symbol]]++;
+					used++;
+					last = symbol;
+				}
+			}
+			if (used == 0)
+				throw new IOException("Empty prefix code");
+			singleSymbol = used == 1 ? last : -1;
+
+			symbols = new int[used];
+			int[] offsets = new int[16];
+			for (int length = 1; length < 15; length++)
+				offsets[length + 1] = offsets[length] + counts[length];
+			for (int symbol = 0; symbol < lengths.length; symbol++)
+				if (lengths[symbol] != 0)
+					symbols[offsets[lengths[symbol]]++] = symbol;
+
+			if (used > 1) {
+				// The code must be complete
+				long space = 0;
+				for (int length = 1; length < 16; length++)
+					space += (long) counts[length] << (15 - length);
+				if (space != 1 << 15)
+					throw new IOException("Incomplete or over-subscribed prefix code");
+			}
+		}
+
+		int read(WebpLosslessDecoder decoder) throws IOException {
+			if (singleSymbol >= 0)
+				return singleSymbol;
+			int code = 0;
+			int first = 0;
+			int index = 0;
+			for (int length = 1; length < 16; length++) {
+				code |= decoder.readBits(1);
+				int count = counts[length];
+				if (code - first < count)
+					return symbols[index + code - first];
+				index += count;
+				first = (first + count) << 1;
+				code <<= 1;
+			}
+			throw new IOException("Invalid prefix code");
+		}
+	}
+}
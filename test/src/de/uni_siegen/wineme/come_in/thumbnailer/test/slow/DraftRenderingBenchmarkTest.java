@@ -0,0 +1,112 @@
+package de.uni_siegen.wineme.come_in.thumbnailer.test.slow;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.edit.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.graphics.xobject.PDJpeg;
+import org.junit.Test;
+
+import de.uni_siegen.wineme.come_in.thumbnailer.ThumbnailerException;
+import de.uni_siegen.wineme.come_in.thumbnailer.thumbnailers.PDFBoxThumbnailer;
+
+/**
+ * Compares draft rendering of PDF files with normal rendering, for a page with a photo and lots of small text.
+ * Not a real test: prints the average time per thumbnail, and how much the draft thumbnails differ
+ * from the normal ones (mean absolute difference per channel, 0-255).
+ */
+public class DraftRenderingBenchmarkTest {
+
+	private static final int WARMUP = 5;
+	private static final int RUNS = 10;
+
+	@Test
+	public void benchmark() throws Exception {
+		File pdf = File.createTempFile("benchmark", ".pdf");
+		File normal = File.createTempFile("benchmark-normal", ".png");
+		File draft = File.createTempFile("benchmark-draft", ".png");
+		try {
+			createDocument(pdf);
+			for (int[] size : new int[][] { { 160, 120 }, { 320, 240 }, { 800, 600 } }) {
+				System.out.println("Thumbnail " + size[0] + "x" + size[1] + ":");
+				System.out.println("  Normal: " + time(pdf, normal, size, false));
+				System.out.println("  Draft:  " + time(pdf, draft, size, true));
+				System.out.println("  Difference: " + String.format("%.2f", difference(ImageIO.read(normal), ImageIO.read(draft))));
+			}
+		} finally {
+			pdf.delete();
+			normal.delete();
+			draft.delete();
+		}
+	}
+
+	private static String time(File pdf, File output, int[] size, boolean draft) throws IOException, ThumbnailerException {
+		PDFBoxThumbnailer thumbnailer = new PDFBoxThumbnailer();
+		thumbnailer.setImageSize(size[0], size[1], 0);
+		thumbnailer.getOptions().setDraftRendering(draft);
+		long total = 0;
+		for (int i = 0; i < WARMUP + RUNS; i++) {
+			long start = System.nanoTime();
+			thumbnailer.generateThumbnail(pdf, output);
+			if (i >= WARMUP)
+				total += System.nanoTime() - start;
+		}
+		return String.format("%8.2f ms", total / RUNS / 1e6);
+	}
+
+	private static double difference(BufferedImage a, BufferedImage b) {
+		long sum = 0;
+		for (int y = 0; y < a.getHeight(); y++) {
+			for (int x = 0; x < a.getWidth(); x++) {
+				int p = a.getRGB(x, y);
+				int q = b.getRGB(x, y);
+				for (int shift = 0; shift < 24; shift += 8) {
+					sum += Math.abs(((p >> shift) & 0xff) - ((q >> shift) & 0xff));
+				}
+			}
+		}
+		return (double) sum / (3L * a.getWidth() * a.getHeight());
+	}
+
+	/**
+	 * A page like a magazine: a headline, a 3000x2000 photo, and two columns of 9pt text.
+	 */
+	private static void createDocument(File file) throws Exception {
+		BufferedImage photo = PngEncoderBenchmarkTest.createPage(3000, 2000);
+		BufferedImage rgb = new BufferedImage(photo.getWidth(), photo.getHeight(), BufferedImage.TYPE_INT_RGB);
+		rgb.getGraphics().drawImage(photo, 0, 0, null);
+
+		PDDocument document = new PDDocument();
+		try {
+			PDPage page = new PDPage();
+			document.addPage(page);
+			PDJpeg image = new PDJpeg(document, rgb);
+			PDPageContentStream content = new PDPageContentStream(document, page);
+			content.beginText();
+			content.setFont(PDType1Font.HELVETICA_BOLD, 36);
+			content.moveTextPositionByAmount(40, 730);
+			content.drawString("Draft rendering");
+			content.endText();
+			content.drawXObject(image, 40, 420, 532, 290);
+			content.setFont(PDType1Font.TIMES_ROMAN, 9);
+			for (int column = 0; column < 2; column++) {
+				for (int line = 0; line < 36; line++) {
+					content.beginText();
+					content.moveTextPositionByAmount(40 + column * 276, 400 - line * 10);
+					content.drawString("The quick brown fox jumps over the lazy dog, again and again.");
+					content.endText();
+				}
+			}
+			content.close();
+			document.save(file.getAbsolutePath());
+		} finally {
+			document.close();
+		}
+	}
+}
@@ -0,0 +1,129 @@
+package de.uni_siegen.wineme.come_in.thumbnailer.test.slow;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import de.uni_siegen.wineme.come_in.thumbnailer.util.ResizeImage;
+import de.uni_siegen.wineme.come_in.thumbnailer.util.codec.JpegDecoder;
+
+/**
+ * Compares JpegDecoder's scaled decoding with ImageIO.
+ * Not a real test: prints the average time per image.
+ */
+public class JpegDecoderBenchmarkTest {
+
+	private static final int WARMUP = 5;
+	private static final int RUNS = 10;
+
+	@Test
+	public void benchmark() throws IOException {
+		BufferedImage page = PngEncoderBenchmarkTest.createPage(3000, 4000);
+		BufferedImage rgb = new BufferedImage(page.getWidth(), page.getHeight(), BufferedImage.TYPE_INT_RGB);
+		rgb.getGraphics().drawImage(page, 0, 0, null);
+
+		for (boolean progressive : new boolean[] { false, true }) {
+			final byte[] jpeg = encode(rgb, progressive);
+			System.out.println((progressive ? "Progressive" : "Baseline") + " 3000x4000, " + jpeg.length + " Bytes:");
+			System.out.println("  ImageIO:                  " + time(new Decode() {
+				public void run() throws IOException {
+					ImageIO.read(new ByteArrayInputStream(jpeg));
+				}
+			}));
+			System.out.println("  ImageIO, subsampling 8:   " + time(new Decode() {
+				public void run() throws IOException {
+					readSubsampled(jpeg, 8);
+				}
+			}));
+			for (final int scale : new int[] { 1, 2, 4, 8 }) {
+				System.out.println("  JpegDecoder 1/" + scale + ":         " + time(new Decode() {
+					public void run() throws IOException {
+						new JpegDecoder(jpeg).decode(scale);
+					}
+				}));
+			}
+
+			final File file = File.createTempFile("benchmark", ".jpg");
+			final File thumbnail = File.createTempFile("benchmark", ".png");
+			try {
+				FileUtils.writeByteArrayToFile(file, jpeg);
+				for (final boolean prefer : new boolean[] { false, true }) {
+					System.out.println("  Thumbnail 160x120" + (prefer ? ", JpegDecoder: " : ", ImageIO:     ") + time(new Decode() {
+						public void run() throws IOException {
+							ResizeImage resizer = new ResizeImage(160, 120);
+							resizer.preferJpegDecoder = prefer;
+							resizer.setInputImage(file);
+							resizer.writeOutput(thumbnail);
+							resizer.dispose();
+						}
+					}));
+				}
+			} finally {
+				file.delete();
+				thumbnail.delete();
+			}
+		}
+	}
+
+	private interface Decode {
+		void run() throws IOException;
+	}
+
+	private static String time(Decode decode) throws IOException {
+		long total = 0;
+		for (int i = 0; i < WARMUP + RUNS; i++) {
+			long start = System.nanoTime();
+			decode.run();
+			if (i >= WARMUP)
+				total += System.nanoTime() - start;
+		}
+		return String.format("%8.2f ms", total / RUNS / 1e6);
+	}
+
+	private static BufferedImage readSubsampled(byte[] jpeg, int subsampling) throws IOException {
+		ImageInputStream stream = ImageIO.createImageInputStream(new ByteArrayInputStream(jpeg));
+		Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+		ImageReader reader = readers.next();
+		try {
+			reader.setInput(stream);
+			ImageReadParam param = reader.getDefaultReadParam();
+			param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+			return reader.read(0, param);
+		} finally {
+			reader.dispose();
+			stream.close();
+		}
+	}
+
+	private static byte[] encode(BufferedImage image, boolean progressive) throws IOException {
+		ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageOutputStream stream = ImageIO.createImageOutputStream(out);
+		try {
+			writer.setOutput(stream);
+			ImageWriteParam param = writer.getDefaultWriteParam();
+			if (progressive)
+				param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+			writer.write(null, new IIOImage(image, null, null), param);
+		} finally {
+			writer.dispose();
+			stream.close();
+		}
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,96 @@
+package de.uni_siegen.wineme.come_in.thumbnailer.test.slow;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+import de.uni_siegen.wineme.come_in.thumbnailer.util.codec.PngEncoder;
+
+/**
+ * Compares PngEncoder with ImageIO.write().
+ * Not a real test: prints the average time and size per image.
+ */
+public class PngEncoderBenchmarkTest {
+
+	private static final int WARMUP = 100;
+	private static final int RUNS = 20;
+
+	@Test
+	public void benchmark() throws IOException {
+		BufferedImage thumbnail = createPage(160, 226);
+		BufferedImage page = createPage(1240, 1754);
+
+		for (BufferedImage image : new BufferedImage[] { thumbnail, page }) {
+			System.out.println("Encoding " + image.getWidth() + "x" + image.getHeight() + ":");
+			System.out.println("  ImageIO:             " + timeImageIO(image));
+			System.out.println("  PngEncoder:          " + time(new PngEncoder(), image));
+			PngEncoder parallel = new PngEncoder();
+			parallel.setParallel(true);
+			System.out.println("  PngEncoder parallel: " + time(parallel, image));
+			PngEncoder indexed = new PngEncoder();
+			indexed.setIndexed(true);
+			System.out.println("  PngEncoder indexed:  " + time(indexed, image));
+		}
+	}
+
+	/**
+	 * Something that looks like a rendered document page: text on white, and a photo.
+	 */
+	static BufferedImage createPage(int width, int height) {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = image.createGraphics();
+		g.setColor(Color.WHITE);
+		g.fillRect(0, 0, width, height);
+		g.setColor(Color.BLACK);
+		g.setFont(new Font("SansSerif", Font.PLAIN, Math.max(4, width / 60)));
+		int lineHeight = Math.max(5, width / 45);
+		for (int y = lineHeight * 2; y < height / 2; y += lineHeight)
+			g.drawString("Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod tempor", width / 12, y);
+		Random random = new Random(42);
+		for (int y = height / 2; y < height * 9 / 10; y++)
+			for (int x = width / 12; x < width * 11 / 12; x++)
+				image.setRGB(x, y, 0xff000000 | (x * 200 / width + random.nextInt(32)) << 16 | (y * 200 / height + random.nextInt(32)) << 8 | random.nextInt(32));
+		g.dispose();
+		return image;
+	}
+
+	private static String timeImageIO(BufferedImage image) throws IOException {
+		long total = 0;
+		int size = 0;
+		for (int i = 0; i < WARMUP + RUNS; i++) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			long start = System.nanoTime();
+			ImageIO.write(image, "png", out);
+			if (i >= WARMUP)
+				total += System.nanoTime() - start;
+			size = out.size();
+		}
+		return format(total, size);
+	}
+
+	private static String time(PngEncoder encoder, BufferedImage image) throws IOException {
+		long total = 0;
+		int size = 0;
+		for (int i = 0; i < WARMUP + RUNS; i++) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			long start = System.nanoTime();
+			encoder.write(image, out);
+			if (i >= WARMUP)
+				total += System.nanoTime() - start;
+			size = out.size();
+		}
+		return format(total, size);
+	}
+
+	static String format(long totalNanos, int size) {
+		return String.format("%8.2f ms, %7d Bytes", totalNanos / RUNS / 1e6, size);
+	}
+}
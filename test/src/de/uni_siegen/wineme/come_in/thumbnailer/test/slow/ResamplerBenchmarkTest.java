@@ -0,0 +1,68 @@
+package de.uni_siegen.wineme.come_in.thumbnailer.test.slow;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.uni_siegen.wineme.come_in.thumbnailer.util.Resampler;
+
+/**
+ * Compares the pure-Java Resampler with Java2D's drawImage().
+ * Not a real test: prints the average time per thumbnail.
+ */
+public class ResamplerBenchmarkTest {
+
+	private static final int WARMUP = 10;
+	private static final int RUNS = 20;
+
+	@Test
+	public void benchmark() {
+		BufferedImage source = createNoise(3000, 2000);
+
+		System.out.println("Downscaling " + source.getWidth() + "x" + source.getHeight() + " to 160x107:");
+		System.out.println("  Java2D bilinear:   " + timeJava2D(source, 160, 107) + " ms");
+		for (Resampler.Filter filter : Resampler.Filter.values())
+			System.out.println("  Resampler " + filter + ": " + timeResampler(source, filter, 160, 107, Long.MAX_VALUE) + " ms, "
+					+ timeResampler(source, filter, 160, 107, 0) + " ms in parallel");
+	}
+
+	private static BufferedImage createNoise(int width, int height) {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Random random = new Random(42);
+		for (int y = 0; y < height; y++)
+			for (int x = 0; x < width; x++)
+				image.setRGB(x, y, random.nextInt());
+		return image;
+	}
+
+	private static double timeJava2D(BufferedImage source, int width, int height) {
+		long total = 0;
+		for (int i = 0; i < WARMUP + RUNS; i++) {
+			long start = System.nanoTime();
+			BufferedImage out = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+			Graphics2D g = out.createGraphics();
+			g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			g.drawImage(source, 0, 0, width, height, null);
+			g.dispose();
+			if (i >= WARMUP)
+				total += System.nanoTime() - start;
+		}
+		return total / RUNS / 1e6;
+	}
+
+	private static double timeResampler(BufferedImage source, Resampler.Filter filter, int width, int height, long parallelThreshold) {
+		Resampler resampler = new Resampler(filter);
+		resampler.setParallelThreshold(parallelThreshold);
+		long total = 0;
+		for (int i = 0; i < WARMUP + RUNS; i++) {
+			long start = System.nanoTime();
+			resampler.resample(source, width, height);
+			if (i >= WARMUP)
+				total += System.nanoTime() - start;
+		}
+		return total / RUNS / 1e6;
+	}
+}
@@ -0,0 +1,57 @@
+package de.uni_siegen.wineme.come_in.thumbnailer.test.slow;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+import de.uni_siegen.wineme.come_in.thumbnailer.test.TestConfiguration;
+import de.uni_siegen.wineme.come_in.thumbnailer.util.codec.PngEncoder;
+import de.uni_siegen.wineme.come_in.thumbnailer.util.codec.ThumbnailEncoder;
+import de.uni_siegen.wineme.come_in.thumbnailer.util.codec.WebpEncoder;
+
+/**
+ * Compares lossless WebP with PNG.
+ * Not a real test: prints the average time and size per image.
+ */
+public class WebpEncoderBenchmarkTest implements TestConfiguration {
+
+	private static final int WARMUP = 20;
+	private static final int RUNS = 20;
+
+	@Test
+	public void benchmark() throws IOException {
+		benchmark("Photo", ImageIO.read(new File(TESTFILES_DIR + "test.jpg")));
+		benchmark("Drawing", ImageIO.read(new File(TESTFILES_DIR + "format" + File.separator + "orig.png")));
+		benchmark("Page", PngEncoderBenchmarkTest.createPage(160, 226));
+	}
+
+	private static void benchmark(String name, BufferedImage image) throws IOException {
+		System.out.println(name + " " + image.getWidth() + "x" + image.getHeight() + ":");
+		System.out.println("  PngEncoder:      " + time(new PngEncoder(), image));
+		System.out.println("  PngEncoder(9):   " + time(new PngEncoder(9), image));
+		System.out.println("  WebpEncoder:     " + time(new WebpEncoder(), image));
+	}
+
+	private static String time(ThumbnailEncoder encoder, BufferedImage image) throws IOException {
+		long total = 0;
+		int size = 0;
+		File file = File.createTempFile("benchmark", "." + encoder.getFileExtension());
+		try {
+			for (int i = 0; i < WARMUP + RUNS; i++) {
+				long start = System.nanoTime();
+				encoder.write(image, file);
+				if (i >= WARMUP)
+					total += System.nanoTime() - start;
+				size = (int) file.length();
+			}
+		} finally {
+			file.delete();
+		}
+		return String.format("%8.2f ms, %7d Bytes", total / RUNS / 1e6, size);
+	}
+}